@@ -0,0 +1,478 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Table-driven percent-encoder for OAuth as per RFC 3986 (and section 3.6 of
+ * RFC 5849). All characters other than the unreserved set
+ * <code>ALPHA / DIGIT / "-" / "." / "_" / "~"</code> are encoded as the
+ * upper-case hexadecimal escapes of their UTF-8 bytes.
+ * 
+ * Most values in an OAuth request - nonces, timestamps, keys and tokens - do
+ * not contain a single character that needs encoding. {@link #encode(String)}
+ * scans the value four characters at a time and returns the very same
+ * {@link String} instance for such values, without allocating anything.
+ * Values can also be appended straight into a caller's {@link StringBuilder}
+ * or byte array.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class OAuthEncoder {
+	
+	/**
+	 * Lookup table for the first 256 characters: <code>0</code> if the
+	 * character is unreserved and is written as-is, <code>1</code> if it needs
+	 * to be percent-encoded
+	 */
+	private static final byte[] NEEDS_ENCODING = new byte[256];
+	
+	/**
+	 * Pre-computed <code>%XX</code> escapes for every byte value, three
+	 * characters per byte
+	 */
+	private static final char[] ESCAPES = new char[256 * 3];
+	
+	/**
+	 * Pre-computed <code>%XX</code> escapes for every byte value, three bytes
+	 * per byte
+	 */
+	private static final byte[] ESCAPE_BYTES = new byte[256 * 3];
+	
+	static {
+		final char[] hex = "0123456789ABCDEF".toCharArray();
+		
+		for(int index = 0; index < 256; index++) {
+			boolean unreserved = (index >= 'a' && index <= 'z') || (index >= 'A' && index <= 'Z') || (index >= '0' && index <= '9')
+					|| index == '-' || index == '.' || index == '_' || index == '~';
+			
+			NEEDS_ENCODING[index] = unreserved ? (byte) 0 : (byte) 1;
+			
+			ESCAPES[index * 3] = '%';
+			ESCAPES[index * 3 + 1] = hex[index >> 4];
+			ESCAPES[index * 3 + 2] = hex[index & 0x0F];
+			
+			ESCAPE_BYTES[index * 3] = '%';
+			ESCAPE_BYTES[index * 3 + 1] = (byte) hex[index >> 4];
+			ESCAPE_BYTES[index * 3 + 2] = (byte) hex[index & 0x0F];
+		}
+	}
+	
+	/**
+	 * Utility class - no instances.
+	 */
+	private OAuthEncoder() {
+		
+	}
+	
+	/**
+	 * Percent-encode the given value.
+	 * 
+	 * @param value
+	 *            the value to encode
+	 * 
+	 * @return the encoded value; the same instance if the value contains no
+	 *         character that needs encoding; <code>null</code> if the value is
+	 *         <code>null</code>
+	 */
+	public static String encode(String value) {
+		if(value == null) {
+			return null;
+		}
+		
+		final int first = firstToEncode(value, 0, value.length());
+		if(first < 0) {
+			return value;
+		}
+		
+		StringBuilder builder = new StringBuilder(value.length() + 16);
+		builder.append(value, 0, first);
+		appendFrom(value, first, value.length(), builder);
+		return builder.toString();
+	}
+	
+	/**
+	 * Percent-encode the given value and append it to the given
+	 * {@link StringBuilder}. A <code>null</code> value appends nothing.
+	 * 
+	 * @param value
+	 *            the value to encode
+	 * 
+	 * @param builder
+	 *            the {@link StringBuilder} to append to
+	 * 
+	 * @return the {@link StringBuilder} passed in
+	 */
+	public static StringBuilder encode(String value, StringBuilder builder) {
+		if(value == null) {
+			return builder;
+		}
+		
+		final int length = value.length();
+		final int first = firstToEncode(value, 0, length);
+		if(first < 0) {
+			return builder.append(value);
+		}
+		
+		builder.append(value, 0, first);
+		appendFrom(value, first, length, builder);
+		return builder;
+	}
+	
+	/**
+	 * Percent-encode the given region of the value into the given byte array.
+	 * The caller must make sure that the array has room for at least
+	 * {@link #maxEncodedLength(int)} bytes after the position.
+	 * 
+	 * @param value
+	 *            the value to encode
+	 * 
+	 * @param start
+	 *            the index to start encoding at
+	 * 
+	 * @param end
+	 *            the index to stop encoding at, exclusive
+	 * 
+	 * @param out
+	 *            the byte array to write to
+	 * 
+	 * @param position
+	 *            the position in the array to start writing at
+	 * 
+	 * @return the position after the last byte written
+	 */
+	public static int encode(String value, int start, int end, byte[] out, int position) {
+		int index = start;
+		while(index < end) {
+			// copy the run of characters that need no encoding
+			int next = firstToEncode(value, index, end);
+			if(next < 0) {
+				next = end;
+			}
+			
+			for(; index < next; index++) {
+				out[position++] = (byte) value.charAt(index);
+			}
+			
+			if(index == end) {
+				break;
+			}
+			
+			// encode the character that needs it
+			int c = value.charAt(index++);
+			if(c < 0x80) {
+				position = escape(c, out, position);
+				continue;
+			}
+			
+			if(c < 0x800) {
+				position = escape(0xC0 | (c >> 6), out, position);
+				position = escape(0x80 | (c & 0x3F), out, position);
+				continue;
+			}
+			
+			if(Character.isHighSurrogate((char) c) && index < end && Character.isLowSurrogate(value.charAt(index))) {
+				int codePoint = Character.toCodePoint((char) c, value.charAt(index++));
+				position = escape(0xF0 | (codePoint >> 18), out, position);
+				position = escape(0x80 | ((codePoint >> 12) & 0x3F), out, position);
+				position = escape(0x80 | ((codePoint >> 6) & 0x3F), out, position);
+				position = escape(0x80 | (codePoint & 0x3F), out, position);
+				continue;
+			}
+			
+			if(Character.isHighSurrogate((char) c) || Character.isLowSurrogate((char) c)) {
+				// unpaired surrogate, encoded as '?' just like String.getBytes()
+				position = escape('?', out, position);
+				continue;
+			}
+			
+			position = escape(0xE0 | (c >> 12), out, position);
+			position = escape(0x80 | ((c >> 6) & 0x3F), out, position);
+			position = escape(0x80 | (c & 0x3F), out, position);
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Normalize the given region of an already form-encoded string into the
+	 * given byte array, as if it were decoded and then percent-encoded again:
+	 * <code>+</code> becomes <code>%20</code>, escapes of unreserved
+	 * characters are decoded, other escapes are upper-cased, and any character
+	 * that should have been escaped is encoded. A <code>%</code> that does not
+	 * start a valid escape is encoded as <code>%25</code>. The caller must
+	 * make sure that the array has room for at least
+	 * {@link #maxEncodedLength(int)} bytes after the position.
+	 * 
+	 * @param raw
+	 *            the form-encoded string
+	 * 
+	 * @param start
+	 *            the index to start normalizing at
+	 * 
+	 * @param end
+	 *            the index to stop normalizing at, exclusive
+	 * 
+	 * @param out
+	 *            the byte array to write to
+	 * 
+	 * @param position
+	 *            the position in the array to start writing at
+	 * 
+	 * @return the position after the last byte written
+	 */
+	public static int normalize(String raw, int start, int end, byte[] out, int position) {
+		int index = start;
+		while(index < end) {
+			int next = index;
+			for(; next < end; next++) {
+				char c = raw.charAt(next);
+				if(c == '%' || c == '+') {
+					break;
+				}
+			}
+			
+			if(next > index) {
+				position = encode(raw, index, next, out, position);
+				index = next;
+				continue;
+			}
+			
+			if(raw.charAt(index) == '+') {
+				position = escape(' ', out, position);
+				index++;
+				continue;
+			}
+			
+			int b = escapedByte(raw, index, end);
+			if(b < 0) {
+				position = escape('%', out, position);
+				index++;
+				continue;
+			}
+			
+			if(NEEDS_ENCODING[b] == 0) {
+				out[position++] = (byte) b;
+			} else {
+				position = escape(b, out, position);
+			}
+			
+			index += 3;
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Return the byte value of the <code>%XX</code> escape at the given index.
+	 * 
+	 * @param raw
+	 *            the encoded string
+	 * 
+	 * @param index
+	 *            the index of the <code>%</code> character
+	 * 
+	 * @param end
+	 *            the index the escape must end before
+	 * 
+	 * @return the byte value between <code>0</code> and <code>255</code>, or
+	 *         <code>-1</code> if there is no valid escape at the index
+	 */
+	public static int escapedByte(String raw, int index, int end) {
+		if(index + 2 >= end || raw.charAt(index) != '%') {
+			return -1;
+		}
+		
+		int high = Character.digit(raw.charAt(index + 1), 16);
+		int low = Character.digit(raw.charAt(index + 2), 16);
+		if(high < 0 || low < 0) {
+			return -1;
+		}
+		
+		return (high << 4) | low;
+	}
+	
+	/**
+	 * Return the maximum number of bytes a value of the given length may need
+	 * once percent-encoded: three UTF-8 bytes per character, each expanding
+	 * to a three character escape.
+	 * 
+	 * @param length
+	 *            the number of characters in the value
+	 * 
+	 * @return the maximum encoded length in bytes
+	 */
+	public static int maxEncodedLength(int length) {
+		return length * 9;
+	}
+	
+	/**
+	 * Check if the given value contains any character that needs to be
+	 * percent-encoded.
+	 * 
+	 * @param value
+	 *            the value to check
+	 * 
+	 * @return <code>true</code> if the value needs encoding,
+	 *         <code>false</code> otherwise
+	 */
+	public static boolean needsEncoding(String value) {
+		if(value == null) {
+			return false;
+		}
+		
+		return firstToEncode(value, 0, value.length()) >= 0;
+	}
+	
+	/**
+	 * Check if the given byte, as an unsigned value, is an unreserved
+	 * character.
+	 * 
+	 * @param b
+	 *            the byte to check
+	 * 
+	 * @return <code>true</code> if the byte needs no encoding
+	 */
+	public static boolean isUnreserved(int b) {
+		return NEEDS_ENCODING[b & 0xFF] == 0;
+	}
+	
+	/**
+	 * Write the percent-escape for the given byte value into the array.
+	 * 
+	 * @param b
+	 *            the byte value to escape
+	 * 
+	 * @param out
+	 *            the array to write to
+	 * 
+	 * @param position
+	 *            the position to write at
+	 * 
+	 * @return the position after the escape
+	 */
+	public static int escape(int b, byte[] out, int position) {
+		final int offset = (b & 0xFF) * 3;
+		out[position++] = ESCAPE_BYTES[offset];
+		out[position++] = ESCAPE_BYTES[offset + 1];
+		out[position++] = ESCAPE_BYTES[offset + 2];
+		return position;
+	}
+	
+	/**
+	 * Find the index of the first character in the region that needs to be
+	 * encoded. The region is scanned in chunks of four characters: the chunk
+	 * is OR-ed together to detect non-ASCII characters with a single
+	 * comparison, and the table flags are OR-ed to detect reserved ones, so the
+	 * common all-unreserved value is checked with one branch per chunk.
+	 * 
+	 * @return the index of the first character needing encoding, or
+	 *         <code>-1</code> if there is none
+	 */
+	private static int firstToEncode(String value, int start, int end) {
+		final byte[] table = NEEDS_ENCODING;
+		
+		int index = start;
+		for(; index + 4 <= end; index += 4) {
+			final char c0 = value.charAt(index);
+			final char c1 = value.charAt(index + 1);
+			final char c2 = value.charAt(index + 2);
+			final char c3 = value.charAt(index + 3);
+			
+			if(((c0 | c1 | c2 | c3) & 0xFF80) != 0 || (table[c0] | table[c1] | table[c2] | table[c3]) != 0) {
+				break;
+			}
+		}
+		
+		for(; index < end; index++) {
+			final char c = value.charAt(index);
+			if(c > 0xFF || table[c] != 0) {
+				return index;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Append the region of the value starting at a character that needs
+	 * encoding.
+	 * 
+	 */
+	private static void appendFrom(String value, int start, int end, StringBuilder builder) {
+		int index = start;
+		while(index < end) {
+			int next = firstToEncode(value, index, end);
+			if(next < 0) {
+				builder.append(value, index, end);
+				return;
+			}
+			
+			if(next > index) {
+				builder.append(value, index, next);
+			}
+			
+			index = next;
+			int c = value.charAt(index++);
+			if(c < 0x80) {
+				escape(c, builder);
+				continue;
+			}
+			
+			if(c < 0x800) {
+				escape(0xC0 | (c >> 6), builder);
+				escape(0x80 | (c & 0x3F), builder);
+				continue;
+			}
+			
+			if(Character.isHighSurrogate((char) c) && index < end && Character.isLowSurrogate(value.charAt(index))) {
+				int codePoint = Character.toCodePoint((char) c, value.charAt(index++));
+				escape(0xF0 | (codePoint >> 18), builder);
+				escape(0x80 | ((codePoint >> 12) & 0x3F), builder);
+				escape(0x80 | ((codePoint >> 6) & 0x3F), builder);
+				escape(0x80 | (codePoint & 0x3F), builder);
+				continue;
+			}
+			
+			if(Character.isHighSurrogate((char) c) || Character.isLowSurrogate((char) c)) {
+				escape('?', builder);
+				continue;
+			}
+			
+			escape(0xE0 | (c >> 12), builder);
+			escape(0x80 | ((c >> 6) & 0x3F), builder);
+			escape(0x80 | (c & 0x3F), builder);
+		}
+	}
+	
+	/**
+	 * Append the percent-escape for the given byte value.
+	 * 
+	 */
+	private static void escape(int b, StringBuilder builder) {
+		builder.append(ESCAPES, (b & 0xFF) * 3, 3);
+	}
+	
+}
@@ -23,36 +23,34 @@ package com.sangupta.jerry.oauth;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sangupta.jerry.encoder.Base64Encoder;
 import com.sangupta.jerry.exceptions.NotImplementedException;
 import com.sangupta.jerry.http.HttpHeaderName;
 import com.sangupta.jerry.http.WebForm;
-import com.sangupta.jerry.http.WebInvoker;
 import com.sangupta.jerry.http.WebRequest;
 import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.oauth.clock.CoarseClock;
 import com.sangupta.jerry.oauth.domain.KeySecretPair;
 import com.sangupta.jerry.oauth.domain.OAuthConstants;
 import com.sangupta.jerry.oauth.domain.OAuthSignatureMethod;
 import com.sangupta.jerry.oauth.nonce.NonceUtils;
+import com.sangupta.jerry.oauth.signature.OAuthSignatureException;
+import com.sangupta.jerry.oauth.signature.SignatureEngine;
+import com.sangupta.jerry.oauth.signature.SigningBuffer;
+import com.sangupta.jerry.oauth.transport.JerryHttpTransport;
+import com.sangupta.jerry.oauth.transport.OAuthTransport;
 import com.sangupta.jerry.util.AssertUtils;
 import com.sangupta.jerry.util.StringUtils;
-import com.sangupta.jerry.util.UriUtils;
 
 /**
  * Utility methods to work with OAuth based requests.
@@ -95,28 +93,33 @@ public class OAuthUtils {
 	 * 
 	 */
 	public static void signRequest(WebRequest request, KeySecretPair keySecretPair, KeySecretPair userSecretPair, OAuthSignatureMethod oAuthSignatureMethod, WebForm authorizationParameters) {
-		StringBuilder builder = new StringBuilder();
+		final SigningBuffer buffer = SigningBuffer.get();
 		
 		// first the HTTP VERB
-		builder.append(request.getVerb().toString().toUpperCase());
-		builder.append("&");
+		buffer.appendAscii(request.getVerb().name());
+		buffer.appendSeparator();
 		
 		// then the end point without any query parameters or fragment
 		URI uri = request.getURI();
-		builder.append(getSignableBase(uri));
-		builder.append("&");
+		buffer.appendSigningBase(uri);
+		buffer.appendSeparator();
 		
 		// collect all parameters
-		TreeMap<String, String> requestParams = extractURIParameters(uri);
-		String paramString = buildParamString(requestParams, authorizationParameters);
-		builder.append(UriUtils.encodeURIComponent(paramString));
+		buffer.addRawParameters(uri.getRawQuery());
+		for(NameValuePair pair : authorizationParameters.build()) {
+			if(pair.getName().startsWith("oauth_")) {
+				buffer.addParameter(pair.getName(), pair.getValue());
+			}
+		}
+		buffer.appendParameters();
 		
-		// now build up the signing string
-		final String signable = builder.toString();
-		LOGGER.debug("Signable string generated as: {}", signable);
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Signable string generated as: {}", buffer.toString());
+		}
 		
 		// compute the signature
-		String signature = generateSignature(keySecretPair, userSecretPair, signable, oAuthSignatureMethod);
+		final String tokenSecret = userSecretPair != null ? userSecretPair.getSecret() : null;
+		String signature = buffer.sign(SignatureEngine.DEFAULT, oAuthSignatureMethod, keySecretPair.getSecret(), tokenSecret);
 		LOGGER.debug("Signature generated as: {}", signature);
 		
 		authorizationParameters.addParam(OAuthConstants.SIGNATURE, signature);
@@ -220,7 +223,7 @@ public class OAuthUtils {
 			
 			builder.append(pair.getName());
 			builder.append("=\"");
-			builder.append(UriUtils.encodeURIComponent(pair.getValue()));
+			OAuthEncoder.encode(pair.getValue(), builder);
 			builder.append("\"");
 		}
 		
@@ -262,20 +265,24 @@ public class OAuthUtils {
 			
 			builder.append(key);
 			builder.append('=');
-			builder.append(UriUtils.encodeURIComponent(params.get(key)));
+			OAuthEncoder.encode(params.get(key), builder);
 		}
 		
 		return builder.toString();
 	}
 	
 	/**
-	 * Extract all the query parameters from the URI.
+	 * Extract all the query parameters from the URI. Parameters without a value
+	 * are returned with an empty value. As a {@link TreeMap} cannot hold
+	 * repeated names, only the last value of a repeated parameter is returned;
+	 * use {@link ParameterList#parse(String)} on {@link URI#getRawQuery()} to
+	 * obtain all of them.
 	 * 
 	 * @param uri
 	 *            the {@link URI} from which the params need to be extracted
 	 * 
-	 * @return a {@link TreeMap} containing all query parameters. Never returns
-	 *         a <code>null</code>
+	 * @return a {@link TreeMap} containing all decoded query parameters. Never
+	 *         returns a <code>null</code>
 	 * 
 	 * @throws NullPointerException
 	 *             if {@link URI} presented is <code>null</code>
@@ -283,15 +290,9 @@ public class OAuthUtils {
 	public static TreeMap<String, String> extractURIParameters(URI uri) {
 		final TreeMap<String, String> params = new TreeMap<String, String>();
 		
-		String query = uri.getQuery();
-		if(AssertUtils.isEmpty(query)) {
-			return params;
-		}
-		
-		String[] pairs = query.split("&");
-		for(String pair : pairs) {
-			String[] tokens = pair.split("=");
-			params.put(tokens[0], tokens[1]);
+		ParameterList list = ParameterList.parse(uri.getRawQuery());
+		for(int index = 0; index < list.size(); index++) {
+			params.put(list.getName(index), list.getValue(index));
 		}
 		
 		return params;
@@ -312,7 +313,7 @@ public class OAuthUtils {
 	 *             if the url is not in proper format
 	 */
 	public static String getSignableBase(String url) throws URISyntaxException {
-		return UriUtils.encodeURIComponent(getSigningBaseURL(url), true);
+		return OAuthEncoder.encode(getSigningBaseURL(url));
 	}
 	
 	/**
@@ -330,7 +331,7 @@ public class OAuthUtils {
 	 *             is {@link URI} presented is <code>null</code>
 	 */
 	public static String getSignableBase(URI uri) {
-		return UriUtils.encodeURIComponent(getSigningBaseURL(uri), true);
+		return OAuthEncoder.encode(getSigningBaseURL(uri));
 	}
 	
 	/**
@@ -394,6 +395,11 @@ public class OAuthUtils {
 	 * @param consumerSecret
 	 * @param signatureMethod
 	 * @param oAuthVersion
+	 * @param timestamp
+	 *            the timestamp in seconds, or <code>null</code> to use the
+	 *            current time
+	 * @param nonce
+	 *            the nonce, or <code>null</code> to generate a new one
 	 * @param requestParams
 	 * @param includeOAuthParamsInBody
 	 * @return
@@ -401,17 +407,38 @@ public class OAuthUtils {
 	public static WebRequest createOAuthRequest(String endPoint, WebRequestMethod method, OAuthSignatureMethod signatureMethod, String oAuthVersion, String oAuthHeaderName, String consumerKey, 
 			String consumerSecret, String timestamp, String nonce, Map<String, String> requestParams, boolean includeOAuthParamsInBody) {
 		
+		return createOAuthRequest(JerryHttpTransport.DEFAULT, endPoint, method, signatureMethod, oAuthVersion, oAuthHeaderName, consumerKey, consumerSecret, timestamp, nonce, requestParams, includeOAuthParamsInBody);
+	}
+	
+	/**
+	 * Same as
+	 * {@link #createOAuthRequest(String, WebRequestMethod, OAuthSignatureMethod, String, String, String, String, String, String, Map, boolean)}
+	 * but creates the request using the given {@link OAuthTransport}.
+	 * 
+	 * @param transport
+	 *            the {@link OAuthTransport} to create the request with
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the transport is <code>null</code>
+	 */
+	public static WebRequest createOAuthRequest(OAuthTransport transport, String endPoint, WebRequestMethod method, OAuthSignatureMethod signatureMethod, String oAuthVersion, String oAuthHeaderName, String consumerKey, 
+			String consumerSecret, String timestamp, String nonce, Map<String, String> requestParams, boolean includeOAuthParamsInBody) {
+		
+		if(transport == null) {
+			throw new IllegalArgumentException("Transport cannot be null");
+		}
+		
 		StringBuilder builder = new StringBuilder();
 		builder.append(method.toString().toUpperCase());
 		builder.append("&");
 		
-		builder.append(UriUtils.encodeURIComponent(endPoint, true));
+		OAuthEncoder.encode(endPoint, builder);
 		
 		TreeMap<String, String> params = new TreeMap<String, String>();
 		params.put(OAuthConstants.CONSUMER_KEY, consumerKey);
-		params.put(OAuthConstants.NONCE, NonceUtils.getNonce());
+		params.put(OAuthConstants.NONCE, AssertUtils.isNotEmpty(nonce) ? nonce : NonceUtils.getNonce());
 		params.put(OAuthConstants.SIGNATURE_METHOD, signatureMethod.getOAuthName());
-		params.put(OAuthConstants.TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+		params.put(OAuthConstants.TIMESTAMP, AssertUtils.isNotEmpty(timestamp) ? timestamp : CoarseClock.DEFAULT.currentTimeSecondsString());
 		params.put(OAuthConstants.VERSION, oAuthVersion);
 
 		if(AssertUtils.isNotEmpty(requestParams)) {
@@ -423,7 +450,7 @@ public class OAuthUtils {
 		String paramString = generateParamString(params, true);
 		
 		builder.append("&");
-		builder.append(UriUtils.encodeURIComponent(paramString, true));
+		OAuthEncoder.encode(paramString, builder);
 		
 		LOGGER.debug("Signable: {}", builder.toString());
 		
@@ -431,7 +458,7 @@ public class OAuthUtils {
 		params.put(OAuthConstants.SIGNATURE, signature);
 		
 		// build oauth header
-		WebRequest request = WebInvoker.getWebRequest(endPoint, method);
+		WebRequest request = transport.newRequest(endPoint, method);
 		if(oAuthHeaderName != null) {
 			request.addHeader(oAuthHeaderName, "OAuth " + getAllOAuthParams(params));
 		}
@@ -451,6 +478,11 @@ public class OAuthUtils {
 	 * @param consumerSecret
 	 * @param tokenKey
 	 * @param tokenSecret
+	 * @param timestamp
+	 *            the timestamp in seconds, or <code>null</code> to use the
+	 *            current time
+	 * @param nonce
+	 *            the nonce, or <code>null</code> to generate a new one
 	 * @param params
 	 * @param includeOAuthParamsInBody
 	 * @return
@@ -458,17 +490,38 @@ public class OAuthUtils {
 	public static WebRequest createUserSignedOAuthRequest(String endPoint, WebRequestMethod method, OAuthSignatureMethod signatureMethod, String oAuthVersion, String oAuthHeaderName, String consumerKey, 
 			String consumerSecret, String tokenKey, String tokenSecret, String timestamp, String nonce, Map<String, String> requestParams, boolean includeOAuthParamsInBody) {
 		
+		return createUserSignedOAuthRequest(JerryHttpTransport.DEFAULT, endPoint, method, signatureMethod, oAuthVersion, oAuthHeaderName, consumerKey, consumerSecret, tokenKey, tokenSecret, timestamp, nonce, requestParams, includeOAuthParamsInBody);
+	}
+	
+	/**
+	 * Same as
+	 * {@link #createUserSignedOAuthRequest(String, WebRequestMethod, OAuthSignatureMethod, String, String, String, String, String, String, String, String, Map, boolean)}
+	 * but creates the request using the given {@link OAuthTransport}.
+	 * 
+	 * @param transport
+	 *            the {@link OAuthTransport} to create the request with
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the transport is <code>null</code>
+	 */
+	public static WebRequest createUserSignedOAuthRequest(OAuthTransport transport, String endPoint, WebRequestMethod method, OAuthSignatureMethod signatureMethod, String oAuthVersion, String oAuthHeaderName, String consumerKey, 
+			String consumerSecret, String tokenKey, String tokenSecret, String timestamp, String nonce, Map<String, String> requestParams, boolean includeOAuthParamsInBody) {
+		
+		if(transport == null) {
+			throw new IllegalArgumentException("Transport cannot be null");
+		}
+		
 		StringBuilder builder = new StringBuilder();
 		builder.append(method.toString().toUpperCase());
 		builder.append("&");
 		
-		builder.append(UriUtils.encodeURIComponent(endPoint, true));
+		OAuthEncoder.encode(endPoint, builder);
 		
 		TreeMap<String, String> params = new TreeMap<String, String>();
 		params.put(OAuthConstants.CONSUMER_KEY, consumerKey);
-		params.put(OAuthConstants.NONCE, NonceUtils.getNonce());
+		params.put(OAuthConstants.NONCE, AssertUtils.isNotEmpty(nonce) ? nonce : NonceUtils.getNonce());
 		params.put(OAuthConstants.SIGNATURE_METHOD, signatureMethod.getOAuthName());
-		params.put(OAuthConstants.TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+		params.put(OAuthConstants.TIMESTAMP, AssertUtils.isNotEmpty(timestamp) ? timestamp : CoarseClock.DEFAULT.currentTimeSecondsString());
 		params.put(OAuthConstants.VERSION, oAuthVersion);
 		params.put(OAuthConstants.TOKEN, tokenKey);
 
@@ -481,7 +534,7 @@ public class OAuthUtils {
 		String paramString = generateParamString(params, true);
 		
 		builder.append("&");
-		builder.append(UriUtils.encodeURIComponent(paramString, true));
+		OAuthEncoder.encode(paramString, builder);
 		
 		LOGGER.debug("Signable: {}", builder.toString());
 		
@@ -489,7 +542,7 @@ public class OAuthUtils {
 		params.put(OAuthConstants.SIGNATURE, signature);
 		
 		// build oauth header
-		WebRequest request = WebInvoker.getWebRequest(endPoint, method);
+		WebRequest request = transport.newRequest(endPoint, method);
 		if(oAuthHeaderName != null) {
 			request.addHeader(oAuthHeaderName, "OAuth " + getAllOAuthParams(params));
 		}
@@ -547,7 +600,7 @@ public class OAuthUtils {
 			
 			builder.append(key);
 			builder.append("=\"");
-			builder.append(UriUtils.encodeURIComponent(params.get(key), true));
+			OAuthEncoder.encode(params.get(key), builder);
 			builder.append('"');
 		}
 		
@@ -585,26 +638,25 @@ public class OAuthUtils {
 	 * @param signingMethod
 	 *            the signing method to use
 	 * 
-	 * @return the signature generated, or <code>null</code> if some exception
-	 *         occurs
+	 * @return the signature generated
 	 * 
-	 * @throws NullPointerException
+	 * @throws IllegalArgumentException
 	 *             if the signable string is <code>null</code>/empty; or, if the
 	 *             consumer secret is <code>null</code>/empty.
+	 * 
+	 * @throws OAuthSignatureException
+	 *             if the signature cannot be computed
 	 */
 	public static String generateSignature(String consumerSecret, String tokenSecret, String signable, OAuthSignatureMethod signingMethod) {
 		if(AssertUtils.isEmpty(consumerSecret)) {
 			throw new IllegalArgumentException("Consumer secret cannot be null/empty");
 		}
 		
-		final String signingKey;
-		if(AssertUtils.isNotEmpty(tokenSecret)) {
-			signingKey = UriUtils.encodeURIComponent(consumerSecret, false) + "&" + UriUtils.encodeURIComponent(tokenSecret, false);
-		} else {
-			signingKey = UriUtils.encodeURIComponent(consumerSecret, false) + "&";
+		if(AssertUtils.isEmpty(signable)) {
+			throw new IllegalArgumentException("Signable string cannot be null/empty");
 		}
 		
-		return createSignature(signable, signingKey, signingMethod);
+		return SignatureEngine.DEFAULT.sign(signingMethod, consumerSecret, tokenSecret, signable);
 	}
 	
 	/**
@@ -621,11 +673,13 @@ public class OAuthUtils {
 	 * @param signingMethod
 	 *            the signing method to be used
 	 * 
-	 * @return the signature generated, or <code>null</code> if some exception
-	 *         occurs
+	 * @return the signature generated
 	 * 
-	 * @throws NullPointerException
+	 * @throws IllegalArgumentException
 	 *             if the signable string is <code>null</code>/empty.
+	 * 
+	 * @throws OAuthSignatureException
+	 *             if the signature cannot be computed
 	 */
 	public static String createSignature(String signable, String keyString, OAuthSignatureMethod signingMethod) {
 		if(AssertUtils.isEmpty(signable)) {
@@ -636,20 +690,7 @@ public class OAuthUtils {
 			return keyString;
 		}
 		
-		SecretKeySpec key = new SecretKeySpec((keyString).getBytes(StringUtils.CHARSET_UTF8), signingMethod.getAlgorithmName());
-		Mac mac;
-		try {
-			mac = Mac.getInstance(signingMethod.getAlgorithmName());
-			mac.init(key);
-			byte[] bytes = mac.doFinal(signable.getBytes(StringUtils.CHARSET_UTF8));
-			return Base64Encoder.encodeToString(bytes, false);
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-		} catch (InvalidKeyException e) {
-			e.printStackTrace();
-		}
-		
-		return null;
+		return SignatureEngine.DEFAULT.sign(signingMethod, keyString, signable);
 	}
 
 	/**
@@ -682,7 +723,7 @@ public class OAuthUtils {
 			builder.append(key);
 			builder.append("=");
 			if(encodeParamValues) {
-				builder.append(UriUtils.encodeURIComponent(params.get(key), true));
+				OAuthEncoder.encode(params.get(key), builder);
 			} else {
 				builder.append(params.get(key));
 			}
@@ -0,0 +1,454 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sangupta.jerry.oauth.signature.SigningBuffer;
+import com.sangupta.jerry.util.StringUtils;
+
+/**
+ * A compact, sorted multi-map of name/value pairs parsed from a raw URL query
+ * string or an <code>application/x-www-form-urlencoded</code> body.
+ * 
+ * Parsing is a single hand-written pass that only records offsets into the
+ * raw string - no regular expressions, no split arrays and no per-pair
+ * objects. Pairs without a value (like <code>?flag</code>) are kept with an
+ * empty value, and repeated names are all kept, as RFC 5849 requires them to
+ * be sorted by value. Names and values are decoded lazily, the first time
+ * they are asked for, and only allocate when they actually contain an escape.
+ * 
+ * Accessors by index return the pairs sorted by name and then by value. The
+ * OAuth signing path does not need decoded strings at all and reads the raw
+ * pairs directly via {@link #addTo(SigningBuffer)}.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@NotThreadSafe
+public class ParameterList {
+	
+	/**
+	 * An empty list
+	 */
+	private static final int[] NO_OFFSETS = new int[0];
+	
+	/**
+	 * The raw string the offsets point into
+	 */
+	private final String source;
+	
+	/**
+	 * For every pair, the start and end of the name, and the start and end of
+	 * the value. The value start is <code>-1</code> for pairs without a value.
+	 */
+	private final int[] offsets;
+	
+	/**
+	 * Number of pairs
+	 */
+	private final int size;
+	
+	/**
+	 * The sorted order of pairs, computed lazily
+	 */
+	private int[] order;
+	
+	/**
+	 * Decoded names, filled in lazily
+	 */
+	private String[] names;
+	
+	/**
+	 * Decoded values, filled in lazily
+	 */
+	private String[] values;
+	
+	/**
+	 * Construct a new list over the given offsets.
+	 * 
+	 */
+	private ParameterList(String source, int[] offsets, int size) {
+		this.source = source;
+		this.offsets = offsets;
+		this.size = size;
+	}
+	
+	/**
+	 * Parse the given raw query string or form encoded body. A leading
+	 * <code>?</code> is ignored.
+	 * 
+	 * @param raw
+	 *            the raw, still encoded, string to parse; may be
+	 *            <code>null</code>
+	 * 
+	 * @return the {@link ParameterList} with all pairs, never
+	 *         <code>null</code>
+	 */
+	public static ParameterList parse(String raw) {
+		if(raw == null || raw.length() == 0) {
+			return new ParameterList(StringUtils.EMPTY_STRING, NO_OFFSETS, 0);
+		}
+		
+		int[] offsets = new int[16];
+		int size = 0;
+		
+		final int length = raw.length();
+		int start = raw.charAt(0) == '?' ? 1 : 0;
+		while(start < length) {
+			final int end = pairEnd(raw, start);
+			if(end > start) {
+				if(size * 4 == offsets.length) {
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				}
+				
+				final int separator = valueSeparator(raw, start, end);
+				final int entry = size * 4;
+				offsets[entry] = start;
+				if(separator < 0) {
+					offsets[entry + 1] = end;
+					offsets[entry + 2] = -1;
+					offsets[entry + 3] = end;
+				} else {
+					offsets[entry + 1] = separator;
+					offsets[entry + 2] = separator + 1;
+					offsets[entry + 3] = end;
+				}
+				
+				size++;
+			}
+			
+			start = end + 1;
+		}
+		
+		return new ParameterList(raw, offsets, size);
+	}
+	
+	/**
+	 * Return the index at which the pair starting at the given index ends,
+	 * that is the index of the next <code>&amp;</code> or the length of the
+	 * string.
+	 * 
+	 * @param raw
+	 *            the raw string being parsed
+	 * 
+	 * @param start
+	 *            the index at which the pair starts
+	 * 
+	 * @return the exclusive end index of the pair
+	 */
+	public static int pairEnd(String raw, int start) {
+		int end = raw.indexOf('&', start);
+		if(end < 0) {
+			return raw.length();
+		}
+		
+		return end;
+	}
+	
+	/**
+	 * Return the index of the <code>=</code> that separates the name from the
+	 * value in the given pair.
+	 * 
+	 * @param raw
+	 *            the raw string being parsed
+	 * 
+	 * @param start
+	 *            the index at which the pair starts
+	 * 
+	 * @param end
+	 *            the exclusive end index of the pair
+	 * 
+	 * @return the index of the separator, or <code>-1</code> if the pair has
+	 *         no value
+	 */
+	public static int valueSeparator(String raw, int start, int end) {
+		for(int index = start; index < end; index++) {
+			if(raw.charAt(index) == '=') {
+				return index;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Return the number of pairs.
+	 * 
+	 * @return the number of pairs
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * Check if there are no pairs.
+	 * 
+	 * @return <code>true</code> if the list is empty
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	
+	/**
+	 * Return the decoded name of the pair at the given sorted position.
+	 * 
+	 * @param index
+	 *            the sorted position
+	 * 
+	 * @return the decoded name
+	 */
+	public String getName(int index) {
+		checkIndex(index);
+		return name(sortedOrder()[index]);
+	}
+	
+	/**
+	 * Return the decoded value of the pair at the given sorted position.
+	 * 
+	 * @param index
+	 *            the sorted position
+	 * 
+	 * @return the decoded value, empty if the pair had no value
+	 */
+	public String getValue(int index) {
+		checkIndex(index);
+		return value(sortedOrder()[index]);
+	}
+	
+	/**
+	 * Return the first value, in sorted order, for the given name.
+	 * 
+	 * @param name
+	 *            the decoded name to look for
+	 * 
+	 * @return the decoded value, or <code>null</code> if there is no pair with
+	 *         the name
+	 */
+	public String get(String name) {
+		final int[] order = sortedOrder();
+		for(int index = 0; index < this.size; index++) {
+			if(name(order[index]).equals(name)) {
+				return value(order[index]);
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Return all values, sorted, for the given name.
+	 * 
+	 * @param name
+	 *            the decoded name to look for
+	 * 
+	 * @return the list of decoded values, empty if there is no pair with the
+	 *         name
+	 */
+	public List<String> getAll(String name) {
+		List<String> list = null;
+		
+		final int[] order = sortedOrder();
+		for(int index = 0; index < this.size; index++) {
+			if(name(order[index]).equals(name)) {
+				if(list == null) {
+					list = new ArrayList<String>();
+				}
+				
+				list.add(value(order[index]));
+			}
+		}
+		
+		if(list == null) {
+			return Collections.emptyList();
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * Add all pairs to the given {@link SigningBuffer}. The pairs are
+	 * normalized straight from the raw string, without decoding them into
+	 * strings first.
+	 * 
+	 * @param buffer
+	 *            the {@link SigningBuffer} to add the pairs to
+	 */
+	public void addTo(SigningBuffer buffer) {
+		final int[] offsets = this.offsets;
+		for(int index = 0; index < this.size; index++) {
+			final int entry = index * 4;
+			buffer.addRawParameter(this.source, offsets[entry], offsets[entry + 1], offsets[entry + 2], offsets[entry + 3]);
+		}
+	}
+	
+	// Internal methods follow
+	
+	private void checkIndex(int index) {
+		if(index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size);
+		}
+	}
+	
+	/**
+	 * Return the decoded name for the pair in parse order.
+	 * 
+	 */
+	private String name(int pair) {
+		if(this.names == null) {
+			this.names = new String[this.size];
+		}
+		
+		String name = this.names[pair];
+		if(name == null) {
+			name = decode(this.source, this.offsets[pair * 4], this.offsets[pair * 4 + 1]);
+			this.names[pair] = name;
+		}
+		
+		return name;
+	}
+	
+	/**
+	 * Return the decoded value for the pair in parse order.
+	 * 
+	 */
+	private String value(int pair) {
+		if(this.values == null) {
+			this.values = new String[this.size];
+		}
+		
+		String value = this.values[pair];
+		if(value == null) {
+			final int start = this.offsets[pair * 4 + 2];
+			if(start < 0) {
+				value = StringUtils.EMPTY_STRING;
+			} else {
+				value = decode(this.source, start, this.offsets[pair * 4 + 3]);
+			}
+			
+			this.values[pair] = value;
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Return the order of pairs sorted by name and value, sorting on first
+	 * use.
+	 * 
+	 */
+	private int[] sortedOrder() {
+		if(this.order != null) {
+			return this.order;
+		}
+		
+		final int[] order = new int[this.size];
+		for(int index = 0; index < this.size; index++) {
+			order[index] = index;
+		}
+		
+		// insertion sort - stable, and parameter lists are small
+		for(int index = 1; index < this.size; index++) {
+			final int current = order[index];
+			int position = index - 1;
+			while(position >= 0 && compare(order[position], current) > 0) {
+				order[position + 1] = order[position];
+				position--;
+			}
+			
+			order[position + 1] = current;
+		}
+		
+		this.order = order;
+		return order;
+	}
+	
+	private int compare(int first, int second) {
+		int result = name(first).compareTo(name(second));
+		if(result != 0) {
+			return result;
+		}
+		
+		return value(first).compareTo(value(second));
+	}
+	
+	/**
+	 * Decode the given region of a form-encoded string: <code>+</code> is a
+	 * space, and <code>%XX</code> escapes are UTF-8 bytes. Malformed escapes
+	 * are kept as-is.
+	 * 
+	 */
+	static String decode(String raw, int start, int end) {
+		int index = start;
+		for(; index < end; index++) {
+			char c = raw.charAt(index);
+			if(c == '%' || c == '+') {
+				break;
+			}
+		}
+		
+		if(index == end) {
+			return raw.substring(start, end);
+		}
+		
+		StringBuilder builder = new StringBuilder(end - start);
+		builder.append(raw, start, index);
+		
+		byte[] bytes = null;
+		while(index < end) {
+			char c = raw.charAt(index);
+			if(c == '+') {
+				builder.append(' ');
+				index++;
+				continue;
+			}
+			
+			if(c != '%' || OAuthEncoder.escapedByte(raw, index, end) < 0) {
+				builder.append(c);
+				index++;
+				continue;
+			}
+			
+			// collect the run of escaped bytes and decode them as UTF-8
+			if(bytes == null) {
+				bytes = new byte[(end - index) / 3];
+			}
+			
+			int count = 0;
+			int b;
+			while(index < end && (b = OAuthEncoder.escapedByte(raw, index, end)) >= 0) {
+				bytes[count++] = (byte) b;
+				index += 3;
+			}
+			
+			builder.append(new String(bytes, 0, count, StringUtils.CHARSET_UTF8));
+		}
+		
+		return builder.toString();
+	}
+	
+}
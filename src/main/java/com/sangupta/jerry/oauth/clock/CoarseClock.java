@@ -0,0 +1,196 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.clock;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * An {@link OAuthClock} that reads the system time once per tick on a
+ * background daemon thread, so that readers only read a volatile field. The
+ * formatted seconds string is created once per second, instead of once per
+ * signed request.
+ * 
+ * The time returned lags the system time by at most the resolution of the
+ * clock, which is far below the tolerance of any OAuth timestamp or expiry
+ * check.
+ * 
+ * Callee's should usually NOT create a new instance of this class, and should
+ * use the global static instance {@link #DEFAULT}. The background thread of an
+ * instance may be stopped using {@link #shutdown()}, after which the instance
+ * reads the system time directly.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class CoarseClock implements OAuthClock {
+	
+	/**
+	 * The default resolution of the clock, in milliseconds
+	 */
+	public static final long DEFAULT_RESOLUTION = 10;
+	
+	/**
+	 * The global instance with the default resolution
+	 */
+	public static final CoarseClock DEFAULT = new CoarseClock(DEFAULT_RESOLUTION);
+	
+	/**
+	 * The time read at the last tick
+	 */
+	private volatile Tick tick;
+	
+	/**
+	 * The background thread updating the time, <code>null</code> once shut
+	 * down
+	 */
+	private volatile Thread ticker;
+	
+	/**
+	 * Create a new clock that updates the time at the given resolution.
+	 * 
+	 * @param resolution
+	 *            the interval between two updates, in milliseconds
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the resolution is not positive
+	 */
+	public CoarseClock(final long resolution) {
+		if(resolution <= 0) {
+			throw new IllegalArgumentException("Clock resolution must be positive");
+		}
+		
+		this.tick = new Tick(System.currentTimeMillis(), null);
+		
+		Thread thread = new Thread("oauth-coarse-clock") {
+			
+			@Override
+			public void run() {
+				while(ticker == this) {
+					try {
+						Thread.sleep(resolution);
+					} catch(InterruptedException e) {
+						// shutdown requested
+						break;
+					}
+					
+					update();
+				}
+			}
+			
+		};
+		
+		thread.setDaemon(true);
+		this.ticker = thread;
+		thread.start();
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.clock.OAuthClock#currentTimeMillis()
+	 */
+	@Override
+	public long currentTimeMillis() {
+		if(this.ticker == null) {
+			return update().millis;
+		}
+		
+		return this.tick.millis;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.clock.OAuthClock#currentTimeSeconds()
+	 */
+	@Override
+	public long currentTimeSeconds() {
+		return currentTimeMillis() / 1000l;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.clock.OAuthClock#currentTimeSecondsString()
+	 */
+	@Override
+	public String currentTimeSecondsString() {
+		if(this.ticker == null) {
+			return update().seconds;
+		}
+		
+		return this.tick.seconds;
+	}
+	
+	/**
+	 * Stop the background thread. The clock keeps working, but reads the
+	 * system time on every call.
+	 * 
+	 */
+	public void shutdown() {
+		Thread thread = this.ticker;
+		this.ticker = null;
+		if(thread != null) {
+			thread.interrupt();
+		}
+	}
+	
+	/**
+	 * Read the system time and publish a new tick, reusing the seconds string
+	 * of the previous tick if the second has not changed.
+	 * 
+	 * @return the new tick
+	 */
+	private Tick update() {
+		Tick tick = new Tick(System.currentTimeMillis(), this.tick);
+		this.tick = tick;
+		return tick;
+	}
+	
+	/**
+	 * An immutable snapshot of the time, so that the milliseconds and the
+	 * seconds string are always read consistently.
+	 * 
+	 */
+	@Immutable
+	private static final class Tick {
+		
+		/**
+		 * The time in milliseconds
+		 */
+		final long millis;
+		
+		/**
+		 * The time in seconds, formatted
+		 */
+		final String seconds;
+		
+		Tick(long millis, Tick previous) {
+			this.millis = millis;
+			
+			final long seconds = millis / 1000l;
+			if(previous != null && previous.millis / 1000l == seconds) {
+				this.seconds = previous.seconds;
+			} else {
+				this.seconds = String.valueOf(seconds);
+			}
+		}
+		
+	}
+
+}
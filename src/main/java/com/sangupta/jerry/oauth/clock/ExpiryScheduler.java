@@ -0,0 +1,224 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.clock;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the periodic clean up of nonce and token stores on a shared
+ * {@link ScheduledExecutorService}, instead of one timer thread per store.
+ * 
+ * Each pass over a store is split into steps of at most
+ * {@link #SWEEP_BUDGET} milliseconds, and the next step is queued behind any
+ * other task that is due, so that one large store never holds a scheduler
+ * thread for long. A pass does not start while the previous one is still in
+ * progress.
+ * 
+ * The scheduled task only holds a weak reference to the store, so a store
+ * that is dropped without being closed can still be garbage collected, and
+ * its task cancels itself.
+ * 
+ * Callee's should usually NOT create a new scheduler for each store, and
+ * should use the global static instance {@link #DEFAULT}, which runs on a
+ * single daemon thread.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public final class ExpiryScheduler {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExpiryScheduler.class);
+	
+	/**
+	 * The time each step of a pass may take, in milliseconds
+	 */
+	public static final long SWEEP_BUDGET = 5;
+	
+	/**
+	 * The global scheduler, with one daemon thread
+	 */
+	public static final ScheduledExecutorService DEFAULT = newScheduler("oauth-cleaning-task", 1);
+	
+	/**
+	 * Utility class - no instances
+	 */
+	private ExpiryScheduler() {
+		
+	}
+	
+	/**
+	 * Create a scheduler with the given number of daemon threads.
+	 * 
+	 * @param name
+	 *            the prefix of the thread names
+	 * 
+	 * @param threads
+	 *            the number of threads
+	 * 
+	 * @return the scheduler
+	 */
+	public static ScheduledExecutorService newScheduler(final String name, int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+			
+		});
+	}
+	
+	/**
+	 * Sweep the given store at the given period on the given scheduler.
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run on
+	 * 
+	 * @param store
+	 *            the store to sweep
+	 * 
+	 * @param period
+	 *            the interval between the start of two passes, in
+	 *            milliseconds
+	 * 
+	 * @return the future of the periodic task, to be cancelled when the store
+	 *         is closed
+	 */
+	public static ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, ExpirySweep store, long period) {
+		if(scheduler == null) {
+			throw new IllegalArgumentException("Scheduler cannot be null");
+		}
+		
+		if(store == null) {
+			throw new IllegalArgumentException("Store cannot be null");
+		}
+		
+		if(period <= 0) {
+			throw new IllegalArgumentException("Period must be positive");
+		}
+		
+		SweepTask task = new SweepTask(scheduler, store);
+		task.future = scheduler.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+		return task.future;
+	}
+	
+	/**
+	 * The periodic task that starts a pass, and the steps that continue it.
+	 * 
+	 */
+	private static final class SweepTask implements Runnable {
+		
+		/**
+		 * The scheduler to queue steps on
+		 */
+		final ScheduledExecutorService scheduler;
+		
+		/**
+		 * The store, weakly held
+		 */
+		final WeakReference<ExpirySweep> store;
+		
+		/**
+		 * Whether a pass is in progress
+		 */
+		final AtomicBoolean running = new AtomicBoolean();
+		
+		/**
+		 * The future of the periodic task
+		 */
+		volatile ScheduledFuture<?> future;
+		
+		/**
+		 * The step that continues a pass
+		 */
+		final Runnable step = new Runnable() {
+			
+			@Override
+			public void run() {
+				step();
+			}
+			
+		};
+		
+		SweepTask(ScheduledExecutorService scheduler, ExpirySweep store) {
+			this.scheduler = scheduler;
+			this.store = new WeakReference<ExpirySweep>(store);
+		}
+		
+		@Override
+		public void run() {
+			if(this.running.compareAndSet(false, true)) {
+				step();
+			}
+		}
+		
+		void step() {
+			final ScheduledFuture<?> future = this.future;
+			final ExpirySweep store = this.store.get();
+			if(store == null || (future != null && future.isCancelled())) {
+				if(future != null) {
+					future.cancel(false);
+				}
+				
+				this.running.set(false);
+				return;
+			}
+			
+			boolean complete = true;
+			try {
+				complete = store.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SWEEP_BUDGET));
+			} catch(RuntimeException e) {
+				LOGGER.error("Unable to clean up expired entries", e);
+			}
+			
+			if(complete) {
+				this.running.set(false);
+				return;
+			}
+			
+			try {
+				this.scheduler.execute(this.step);
+			} catch(RuntimeException e) {
+				// scheduler shut down
+				this.running.set(false);
+			}
+		}
+		
+	}
+
+}
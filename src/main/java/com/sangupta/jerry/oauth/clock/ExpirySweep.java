@@ -0,0 +1,47 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.clock;
+
+/**
+ * A store whose expired entries are removed in small steps by an
+ * {@link ExpiryScheduler}, so that a large clean up never holds a scheduler
+ * thread for long.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface ExpirySweep {
+	
+	/**
+	 * Remove expired entries till the pass over the store is complete, or the
+	 * given deadline has passed. The next call continues where this one
+	 * stopped.
+	 * 
+	 * @param deadline
+	 *            the time to stop at, as per {@link System#nanoTime()}
+	 * 
+	 * @return <code>true</code> if the pass is complete, <code>false</code>
+	 *         if more work remains
+	 */
+	public boolean sweep(long deadline);
+
+}
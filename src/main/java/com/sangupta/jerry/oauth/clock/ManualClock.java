@@ -0,0 +1,109 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * An {@link OAuthClock} whose time only changes when told to, so that
+ * timestamps and the expiry of nonces and tokens can be tested without
+ * sleeping.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class ManualClock implements OAuthClock {
+	
+	/**
+	 * The current time in milliseconds
+	 */
+	private final AtomicLong millis;
+	
+	/**
+	 * Create a new clock set to the current system time.
+	 * 
+	 */
+	public ManualClock() {
+		this(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Create a new clock set to the given time.
+	 * 
+	 * @param millis
+	 *            the time in milliseconds since the epoch
+	 */
+	public ManualClock(long millis) {
+		this.millis = new AtomicLong(millis);
+	}
+	
+	/**
+	 * Set the clock to the given time.
+	 * 
+	 * @param millis
+	 *            the time in milliseconds since the epoch
+	 */
+	public void setTime(long millis) {
+		this.millis.set(millis);
+	}
+	
+	/**
+	 * Move the clock forward by the given duration.
+	 * 
+	 * @param duration
+	 *            the duration in milliseconds, may be negative to move the
+	 *            clock backwards
+	 * 
+	 * @return the new time in milliseconds
+	 */
+	public long advance(long duration) {
+		return this.millis.addAndGet(duration);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.clock.OAuthClock#currentTimeMillis()
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return this.millis.get();
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.clock.OAuthClock#currentTimeSeconds()
+	 */
+	@Override
+	public long currentTimeSeconds() {
+		return this.millis.get() / 1000l;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.clock.OAuthClock#currentTimeSecondsString()
+	 */
+	@Override
+	public String currentTimeSecondsString() {
+		return String.valueOf(currentTimeSeconds());
+	}
+
+}
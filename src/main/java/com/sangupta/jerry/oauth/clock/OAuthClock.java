@@ -0,0 +1,59 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.clock;
+
+/**
+ * A source of the current time for signing requests and expiring nonces and
+ * tokens. Allows the time to be read from a cheaper, coarse-grained source,
+ * and to be controlled in tests.
+ * 
+ * Implementations must be safe to use from any number of threads.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface OAuthClock {
+	
+	/**
+	 * Return the current time in milliseconds since the epoch.
+	 * 
+	 * @return the current time in milliseconds
+	 */
+	public long currentTimeMillis();
+	
+	/**
+	 * Return the current time in seconds since the epoch, as used in the
+	 * <code>oauth_timestamp</code> parameter.
+	 * 
+	 * @return the current time in seconds
+	 */
+	public long currentTimeSeconds();
+	
+	/**
+	 * Return the current time in seconds since the epoch, formatted as a
+	 * decimal string for the <code>oauth_timestamp</code> parameter.
+	 * 
+	 * @return the current time in seconds as a string
+	 */
+	public String currentTimeSecondsString();
+
+}
@@ -25,6 +25,10 @@ import java.util.UUID;
 
 import net.jcip.annotations.Immutable;
 
+import com.sangupta.jerry.oauth.nonce.NonceUtils;
+import com.sangupta.jerry.oauth.nonce.RandomSource;
+import com.sangupta.jerry.oauth.nonce.TokenEncoder;
+
 /**
  * Value object to store a key-value pair that together make up an
  * {@link KeySecretPair}. The object is immutable.
@@ -93,12 +97,26 @@ public class KeySecretPair {
 	
 	/**
 	 * Utility method to generate a new {@link KeySecretPair} using {@link UUID}
-	 * values as both key and secret.
+	 * formatted random values as both key and secret. The random bits are read
+	 * from {@link NonceUtils#getRandomSource()}.
 	 * 
 	 * @return the {@link KeySecretPair} thus generated
 	 */
 	public static KeySecretPair uuidRandomToken() {
-		return new KeySecretPair(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+		final RandomSource random = NonceUtils.getRandomSource();
+		return new KeySecretPair(TokenEncoder.uuid(random.nextLong(), random.nextLong()), TokenEncoder.uuid(random.nextLong(), random.nextLong()));
+	}
+	
+	/**
+	 * Utility method to generate a new {@link KeySecretPair} with a base62
+	 * encoded 128-bit random key, and a URL safe Base64 encoded 256-bit random
+	 * secret. Cheaper to generate and parse than {@link #uuidRandomToken()}.
+	 * 
+	 * @return the {@link KeySecretPair} thus generated
+	 */
+	public static KeySecretPair randomToken() {
+		final RandomSource random = NonceUtils.getRandomSource();
+		return new KeySecretPair(TokenEncoder.base62(random.nextLong(), random.nextLong()), NonceUtils.getRandomToken(32));
 	}
 	
 	// Usual accessors follow
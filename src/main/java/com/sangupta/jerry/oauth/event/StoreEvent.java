@@ -0,0 +1,81 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.event;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Value object describing one change in a token or nonce store.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@Immutable
+public class StoreEvent {
+	
+	/**
+	 * The type of the event
+	 */
+	public final StoreEventType type;
+	
+	/**
+	 * The store that published the event
+	 */
+	public final Object source;
+	
+	/**
+	 * The consumer key of the token or nonce, may be <code>null</code> for
+	 * nonces
+	 */
+	public final String consumerKey;
+	
+	/**
+	 * The token or nonce
+	 */
+	public final String key;
+	
+	/**
+	 * The time of the event, in milliseconds, as per the clock of the store
+	 */
+	public final long time;
+	
+	/**
+	 * Create an event with the given values.
+	 * 
+	 */
+	public StoreEvent(StoreEventType type, Object source, String consumerKey, String key, long time) {
+		this.type = type;
+		this.source = source;
+		this.consumerKey = consumerKey;
+		this.key = key;
+		this.time = time;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[" + this.type + ": consumerKey=" + this.consumerKey + ", key=" + this.key + ", time=" + this.time + "]";
+	}
+
+}
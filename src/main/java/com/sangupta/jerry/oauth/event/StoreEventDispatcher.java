@@ -0,0 +1,290 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.event;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events of token and nonce stores to the registered
+ * {@link StoreEventListener}s, asynchronously, so that listeners never slow
+ * down the stores.
+ * 
+ * Stores publish events into a bounded queue without blocking. A single
+ * daemon thread drains the queue in batches of up to the configured size and
+ * hands each batch to every listener. When the queue is full, new events are
+ * dropped and counted in {@link #getDroppedCount()}. When there are no
+ * listeners, publishing does not even create the event.
+ * 
+ * One dispatcher may be shared by many stores; each event carries the store
+ * that published it.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class StoreEventDispatcher implements Closeable {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(StoreEventDispatcher.class);
+	
+	/**
+	 * The default number of events that may be queued
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+	
+	/**
+	 * The default maximum number of events delivered at a time
+	 */
+	public static final int DEFAULT_BATCH = 256;
+	
+	/**
+	 * The queued events
+	 */
+	private final BlockingQueue<StoreEvent> queue;
+	
+	/**
+	 * The maximum number of events delivered at a time
+	 */
+	private final int maxBatch;
+	
+	/**
+	 * The registered listeners
+	 */
+	private final List<StoreEventListener> listeners = new CopyOnWriteArrayList<StoreEventListener>();
+	
+	/**
+	 * The number of events dropped as the queue was full
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * The number of events delivered
+	 */
+	private final AtomicLong delivered = new AtomicLong();
+	
+	/**
+	 * The delivery thread
+	 */
+	private final Thread thread;
+	
+	/**
+	 * Whether this dispatcher has been closed
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * Create a dispatcher with the default capacity and batch size.
+	 * 
+	 */
+	public StoreEventDispatcher() {
+		this(DEFAULT_CAPACITY, DEFAULT_BATCH);
+	}
+	
+	/**
+	 * Create a dispatcher with the given capacity and batch size.
+	 * 
+	 * @param capacity
+	 *            the number of events that may be queued
+	 * 
+	 * @param maxBatch
+	 *            the maximum number of events delivered at a time
+	 */
+	public StoreEventDispatcher(int capacity, int maxBatch) {
+		if(capacity < 1 || maxBatch < 1) {
+			throw new IllegalArgumentException("Capacity and batch size must be positive");
+		}
+		
+		this.queue = new ArrayBlockingQueue<StoreEvent>(capacity);
+		this.maxBatch = maxBatch;
+		
+		this.thread = new Thread("oauth-store-events") {
+			
+			@Override
+			public void run() {
+				dispatch();
+			}
+			
+		};
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Register the given listener.
+	 * 
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(StoreEventListener listener) {
+		if(listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null");
+		}
+		
+		this.listeners.add(listener);
+	}
+	
+	/**
+	 * Remove the given listener.
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(StoreEventListener listener) {
+		this.listeners.remove(listener);
+	}
+	
+	/**
+	 * Queue an event with the given values, if there is any listener. Never
+	 * blocks.
+	 * 
+	 * @param type
+	 *            the type of the event
+	 * 
+	 * @param source
+	 *            the store publishing the event
+	 * 
+	 * @param consumerKey
+	 *            the consumer key of the token or nonce
+	 * 
+	 * @param key
+	 *            the token or nonce
+	 * 
+	 * @param time
+	 *            the time of the event, in milliseconds
+	 * 
+	 * @return <code>true</code> if queued, <code>false</code> if there are no
+	 *         listeners, the queue is full, or the dispatcher is closed
+	 */
+	public boolean publish(StoreEventType type, Object source, String consumerKey, String key, long time) {
+		if(this.closed || this.listeners.isEmpty()) {
+			return false;
+		}
+		
+		if(!this.queue.offer(new StoreEvent(type, source, consumerKey, key, time))) {
+			this.dropped.incrementAndGet();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Return whether there are listeners to publish to. Stores may use this to
+	 * skip collecting the events of bulk operations.
+	 * 
+	 * @return <code>true</code> if there are listeners
+	 */
+	public boolean hasListeners() {
+		return !this.closed && !this.listeners.isEmpty();
+	}
+	
+	/**
+	 * Return the number of events dropped as the queue was full.
+	 * 
+	 * @return the number of events dropped
+	 */
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+	
+	/**
+	 * Return the number of events delivered to the listeners.
+	 * 
+	 * @return the number of events delivered
+	 */
+	public long getDeliveredCount() {
+		return this.delivered.get();
+	}
+	
+	/**
+	 * Deliver the events already queued and stop the delivery thread. When
+	 * called from a listener, this returns at once, and the delivery thread
+	 * stops once the listener returns and the queue is drained.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		
+		// the delivery thread cannot wait for itself
+		if(Thread.currentThread() == this.thread) {
+			return;
+		}
+		
+		try {
+			this.thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * The loop of the delivery thread.
+	 * 
+	 */
+	private void dispatch() {
+		final List<StoreEvent> batch = new ArrayList<StoreEvent>(this.maxBatch);
+		final List<StoreEvent> view = Collections.unmodifiableList(batch);
+		
+		while(!this.closed || !this.queue.isEmpty()) {
+			try {
+				StoreEvent first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				
+				batch.add(first);
+			} catch(InterruptedException e) {
+				// check if closed
+				continue;
+			}
+			
+			this.queue.drainTo(batch, this.maxBatch - 1);
+			for(StoreEventListener listener : this.listeners) {
+				try {
+					listener.onEvents(view);
+				} catch(RuntimeException e) {
+					LOGGER.error("Store event listener failed", e);
+				}
+			}
+			
+			this.delivered.addAndGet(batch.size());
+			batch.clear();
+		}
+	}
+
+}
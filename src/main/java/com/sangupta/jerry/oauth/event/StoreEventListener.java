@@ -0,0 +1,46 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.event;
+
+import java.util.List;
+
+/**
+ * Receives the events of the stores attached to a
+ * {@link StoreEventDispatcher}. Events arrive in batches, on the thread of
+ * the dispatcher, in the order they were published.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface StoreEventListener {
+	
+	/**
+	 * Handle the given events. The list must not be modified or kept after
+	 * the method returns. A slow listener delays all listeners of the
+	 * dispatcher, and makes it drop events once its queue is full.
+	 * 
+	 * @param events
+	 *            the events, oldest first
+	 */
+	public void onEvents(List<StoreEvent> events);
+
+}
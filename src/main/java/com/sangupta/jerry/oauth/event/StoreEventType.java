@@ -0,0 +1,57 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.event;
+
+/**
+ * Enumeration of the events published by token and nonce stores.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public enum StoreEventType {
+	
+	/**
+	 * A token was issued, or a nonce was accepted and recorded
+	 */
+	ISSUED,
+	
+	/**
+	 * A token was looked up but no live token matched
+	 */
+	LOOKUP_MISS,
+	
+	/**
+	 * A token or nonce was removed as it expired
+	 */
+	EXPIRED,
+	
+	/**
+	 * A token was revoked
+	 */
+	REVOKED,
+	
+	/**
+	 * A nonce was rejected as it had been used before
+	 */
+	REPLAYED;
+
+}
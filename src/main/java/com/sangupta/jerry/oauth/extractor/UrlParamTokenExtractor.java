@@ -26,8 +26,8 @@ import java.util.Map;
 
 import net.jcip.annotations.ThreadSafe;
 
+import com.sangupta.jerry.oauth.ParameterList;
 import com.sangupta.jerry.util.AssertUtils;
-import com.sangupta.jerry.util.UriUtils;
 
 /**
  * A {@link TokenExtractor} implementation that takes in URL-encoded parameter
@@ -54,12 +54,9 @@ public class UrlParamTokenExtractor implements TokenExtractor {
 		}
 		
 		Map<String, String> map = new HashMap<String, String>();
-		String[] tokens = webResponse.split("&");
-		for(String token : tokens) {
-			String[] pair = token.split("=");
-			if(pair.length == 2) {
-				map.put(pair[0], UriUtils.decodeURIComponent(pair[1]));
-			}
+		ParameterList params = ParameterList.parse(webResponse);
+		for(int index = 0; index < params.size(); index++) {
+			map.put(params.getName(index), params.getValue(index));
 		}
 		
 		return map;
@@ -0,0 +1,361 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * A probabilistic {@link NonceVerifier} for gateways that only need to reject
+ * replays, and can tolerate rejecting a small fraction of fresh nonces. The
+ * nonces are recorded in a ring of Bloom filters of a fixed size, each
+ * covering one slice of the expiration time. When a new slice starts, the
+ * oldest filter is cleared and reused as a whole, so the memory used never
+ * exceeds the configured budget, no matter how many nonces arrive.
+ * 
+ * The filters are blocked at the level of a single 64-bit word: all bits of a
+ * nonce are set in the same word. This keeps a lookup to one cache line per
+ * filter, and makes the check and insert of a nonce a single atomic
+ * compare-and-set, so two threads presenting the same nonce at once can never
+ * both succeed, except in the instant when a new slice starts.
+ * 
+ * A replayed nonce is always rejected while it is within the expiration time.
+ * A fresh nonce is wrongly rejected with the probability returned by
+ * {@link #getEstimatedFalsePositiveRate()}, which grows with the number of
+ * nonces seen per slice. Size the memory budget so that this stays within
+ * the tolerance of the application.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class BloomFilterNonceVerifier implements NonceVerifier {
+	
+	/**
+	 * The default memory budget, in bytes
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 16l * 1024 * 1024;
+	
+	/**
+	 * The default number of filters in the ring
+	 */
+	public static final int DEFAULT_SLICES = 4;
+	
+	/**
+	 * The default number of bits set for each nonce
+	 */
+	public static final int DEFAULT_HASHES = 6;
+	
+	/**
+	 * The multiplier used to derive the bit positions of a nonce
+	 */
+	private static final long GOLDEN = 0x9e3779b97f4a7c15l;
+	
+	/**
+	 * The ring of filters
+	 */
+	private final AtomicReferenceArray<FilterSlice> ring;
+	
+	/**
+	 * The number of words in each filter, less one
+	 */
+	private final int wordMask;
+	
+	/**
+	 * The number of bits set for each nonce
+	 */
+	private final int hashes;
+	
+	/**
+	 * The duration covered by each filter
+	 */
+	private final long sliceDuration;
+	
+	/**
+	 * The seed for the hash of the nonces
+	 */
+	private final long seed;
+	
+	/**
+	 * The clock used to rotate the filters
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * Create a verifier that remembers nonces for one day within the default
+	 * memory budget.
+	 * 
+	 */
+	public BloomFilterNonceVerifier() {
+		this(DateUtils.ONE_DAY, DEFAULT_MEMORY_BUDGET);
+	}
+	
+	/**
+	 * Create a verifier that remembers nonces for the given time within the
+	 * given memory budget.
+	 * 
+	 * @param expirationTime
+	 *            the time for which a nonce is remembered, in milliseconds
+	 * 
+	 * @param memoryBudget
+	 *            the memory to use for all filters, in bytes
+	 */
+	public BloomFilterNonceVerifier(long expirationTime, long memoryBudget) {
+		this(expirationTime, memoryBudget, DEFAULT_SLICES, DEFAULT_HASHES, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Create a verifier with the given settings.
+	 * 
+	 * @param expirationTime
+	 *            the time for which a nonce is remembered, in milliseconds
+	 * 
+	 * @param memoryBudget
+	 *            the memory to use for all filters, in bytes. Each filter gets
+	 *            an equal share, rounded down to a power of two
+	 * 
+	 * @param slices
+	 *            the number of filters in the ring, at least 2. More slices
+	 *            expire nonces closer to the expiration time, but split the
+	 *            budget into smaller filters
+	 * 
+	 * @param hashes
+	 *            the number of bits set for each nonce, between 1 and 16
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to rotate the filters
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any of the values is out of range
+	 */
+	public BloomFilterNonceVerifier(long expirationTime, long memoryBudget, int slices, int hashes, OAuthClock clock) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0) {
+			throw new IllegalArgumentException("Expiration time must be positive");
+		}
+		
+		if(slices < 2) {
+			throw new IllegalArgumentException("At least two slices are needed");
+		}
+		
+		if(hashes < 1 || hashes > 16) {
+			throw new IllegalArgumentException("Number of hashes must be between 1 and 16");
+		}
+		
+		long words = memoryBudget / 8 / slices;
+		if(words < 1) {
+			throw new IllegalArgumentException("Memory budget too small for " + slices + " slices");
+		}
+		
+		words = Long.highestOneBit(Math.min(words, 1l << 30));
+		
+		this.wordMask = (int) words - 1;
+		this.hashes = hashes;
+		this.sliceDuration = (expirationTime + slices - 2) / (slices - 1);
+		this.seed = NonceHash.newSeed();
+		this.clock = clock;
+		this.ring = new AtomicReferenceArray<FilterSlice>(slices);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.NonceVerifier#verifyNonce(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean verifyNonce(String consumerKey, String nonce) {
+		if(nonce == null) {
+			return false;
+		}
+		
+		final long hash = NonceHash.hash(consumerKey, nonce, this.seed);
+		final int word = (int) (hash >>> 32) & this.wordMask;
+		final long mask = bitMask(hash);
+		
+		final long epoch = currentEpoch();
+		final FilterSlice current = currentSlice(epoch);
+		final long oldest = epoch - this.ring.length() + 1;
+		
+		// the older filters are only read
+		for(int index = 0; index < this.ring.length(); index++) {
+			FilterSlice slice = this.ring.get(index);
+			if(slice == null || slice == current || slice.epoch < oldest) {
+				continue;
+			}
+			
+			if((slice.words.get(word) & mask) == mask) {
+				return false;
+			}
+		}
+		
+		// atomic check and set in the current filter
+		final AtomicLongArray words = current.words;
+		while(true) {
+			final long value = words.get(word);
+			if((value & mask) == mask) {
+				return false;
+			}
+			
+			if(words.compareAndSet(word, value, value | mask)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Estimate the probability that a fresh nonce is wrongly rejected, from
+	 * the bits set in all live filters. This reads every word of every
+	 * filter, and is meant for monitoring rather than for every request.
+	 * 
+	 * @return the estimated false positive rate, between 0 and 1
+	 */
+	public double getEstimatedFalsePositiveRate() {
+		final long oldest = currentEpoch() - this.ring.length() + 1;
+		
+		double miss = 1;
+		for(int index = 0; index < this.ring.length(); index++) {
+			FilterSlice slice = this.ring.get(index);
+			if(slice == null || slice.epoch < oldest) {
+				continue;
+			}
+			
+			// the chance that all bits chosen in a word are set, averaged over words
+			final AtomicLongArray words = slice.words;
+			double sum = 0;
+			for(int word = 0; word < words.length(); word++) {
+				final long value = words.get(word);
+				if(value != 0) {
+					sum += Math.pow(Long.bitCount(value) / 64d, this.hashes);
+				}
+			}
+			
+			miss *= 1 - sum / words.length();
+		}
+		
+		return 1 - miss;
+	}
+	
+	/**
+	 * Return the memory used by the filters when all slices are in use.
+	 * 
+	 * @return the memory used, in bytes
+	 */
+	public long getMemoryUsage() {
+		return (this.wordMask + 1l) * 8 * this.ring.length();
+	}
+	
+	/**
+	 * Return the filter for the given epoch, clearing and reusing the expired
+	 * filter in its slot when a new slice starts.
+	 * 
+	 */
+	private FilterSlice currentSlice(long epoch) {
+		final int slot = (int) (epoch % this.ring.length());
+		
+		FilterSlice slice = this.ring.get(slot);
+		if(slice != null && slice.epoch >= epoch) {
+			return slice;
+		}
+		
+		synchronized(this.ring) {
+			slice = this.ring.get(slot);
+			if(slice != null && slice.epoch >= epoch) {
+				return slice;
+			}
+			
+			AtomicLongArray words;
+			if(slice == null) {
+				words = new AtomicLongArray(this.wordMask + 1);
+			} else {
+				// expired as a whole, readers of the old slice ignore it by now
+				words = slice.words;
+				for(int index = 0; index < words.length(); index++) {
+					words.lazySet(index, 0);
+				}
+			}
+			
+			FilterSlice fresh = new FilterSlice(epoch, words);
+			this.ring.set(slot, fresh);
+			return fresh;
+		}
+	}
+	
+	/**
+	 * Return the index of the slice for the current time.
+	 * 
+	 */
+	private long currentEpoch() {
+		long millis = this.clock.currentTimeMillis();
+		if(millis < 0) {
+			millis = 0;
+		}
+		
+		return millis / this.sliceDuration;
+	}
+	
+	/**
+	 * Derive the bits of a nonce within its word from the hash.
+	 * 
+	 */
+	private long bitMask(long hash) {
+		long mask = 0;
+		long bits = hash;
+		for(int index = 0; index < this.hashes; index++) {
+			bits *= GOLDEN;
+			mask |= 1l << (bits >>> 58);
+			bits = Long.rotateLeft(bits, 17) + index;
+		}
+		
+		return mask;
+	}
+	
+	/**
+	 * One filter of the ring, covering one slice of time.
+	 * 
+	 */
+	private static final class FilterSlice {
+		
+		/**
+		 * The index of the slice of time covered
+		 */
+		final long epoch;
+		
+		/**
+		 * The bits of the filter
+		 */
+		final AtomicLongArray words;
+		
+		FilterSlice(long epoch, AtomicLongArray words) {
+			this.epoch = epoch;
+			this.words = words;
+		}
+		
+	}
+
+}
@@ -0,0 +1,461 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * A low-memory {@link NonceVerifier} that remembers a 64-bit fingerprint of
+ * each (consumer key, nonce) pair along with the second it was first seen,
+ * instead of the nonce strings. Fingerprints and timestamps are stored in
+ * primitive <code>long</code> and <code>int</code> arrays using open
+ * addressing, so there are no per-nonce objects for the garbage collector to
+ * trace: each nonce takes 12 bytes, or about 16 to 24 bytes with the free
+ * slots of the table.
+ * 
+ * The table is split into segments, each guarded by its own lock, so that
+ * verifications of different nonces mostly proceed in parallel while the
+ * check and insert of a nonce is atomic.
+ * 
+ * As only fingerprints are kept, two different nonces of the same consumer
+ * may collide, in which case the second one is rejected as a replay. With a
+ * 64-bit fingerprint and a random seed per verifier, the chance of this is
+ * less than one in 10<sup>12</sup> per nonce even with ten million nonces
+ * remembered, and a client can simply retry with a new nonce. A replayed nonce
+ * is never accepted.
+ * 
+ * Expired entries are reused as new nonces are inserted, and the segments are
+ * compacted by a background task that runs at the clean up frequency.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class FingerprintNonceVerifier implements NonceVerifier, ExpirySweep, Closeable {
+	
+	/**
+	 * The number of segments, must be a power of two
+	 */
+	private static final int SEGMENTS = 64;
+	
+	/**
+	 * The number of bits used to select the segment
+	 */
+	private static final int SEGMENT_SHIFT = 64 - 6;
+	
+	/**
+	 * The initial and minimum number of slots in each segment
+	 */
+	private static final int MIN_CAPACITY = 256;
+	
+	/**
+	 * The fingerprint that marks an empty slot
+	 */
+	private static final long EMPTY = 0;
+	
+	/**
+	 * The segments
+	 */
+	private final Segment[] segments;
+	
+	/**
+	 * The seed for the fingerprints
+	 */
+	private final long seed;
+	
+	/**
+	 * The time from which timestamps are counted, in milliseconds
+	 */
+	private final long baseMillis;
+	
+	/**
+	 * Time duration after which the token is considered expired, in seconds
+	 */
+	private final int expirationSeconds;
+	
+	/**
+	 * The clock used to time-stamp and expire tokens
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The periodic compaction task
+	 */
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * The next segment to compact in the current pass
+	 */
+	private volatile int sweepCursor;
+	
+	/**
+	 * Default Constructor - will remember nonces for one day, and compact the
+	 * tables every hour.
+	 * 
+	 */
+	public FingerprintNonceVerifier() {
+		this(DateUtils.ONE_DAY, DateUtils.ONE_HOUR);
+	}
+	
+	/**
+	 * Construct a verifier with the given expiration time of tokens, and the
+	 * given clean up frequency.
+	 * 
+	 * @param expirationTime
+	 * @param cleanUpFrequency
+	 */
+	public FingerprintNonceVerifier(long expirationTime, long cleanUpFrequency) {
+		this(expirationTime, cleanUpFrequency, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Construct a verifier with the given expiration time of tokens, the given
+	 * clean up frequency, and the given clock.
+	 * 
+	 * @param expirationTime
+	 *            the time after which a nonce may be reused, in milliseconds,
+	 *            rounded up to whole seconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two compactions, in milliseconds
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 */
+	public FingerprintNonceVerifier(long expirationTime, long cleanUpFrequency, OAuthClock clock) {
+		this(expirationTime, cleanUpFrequency, clock, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Construct a verifier with the given expiration time of tokens, the given
+	 * clean up frequency, the given clock, and the given scheduler.
+	 * 
+	 * @param expirationTime
+	 *            the time after which a nonce may be reused, in milliseconds,
+	 *            rounded up to whole seconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two compactions, in milliseconds
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the compaction on, usually shared by
+	 *            many stores
+	 */
+	public FingerprintNonceVerifier(long expirationTime, long cleanUpFrequency, OAuthClock clock, ScheduledExecutorService scheduler) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0 || cleanUpFrequency <= 0) {
+			throw new IllegalArgumentException("Expiration time and clean up frequency must be positive");
+		}
+		
+		final long seconds = (expirationTime + 999) / 1000;
+		if(seconds > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Expiration time too large");
+		}
+		
+		this.expirationSeconds = (int) seconds;
+		this.clock = clock;
+		this.baseMillis = clock.currentTimeMillis();
+		this.seed = NonceHash.newSeed();
+		
+		this.segments = new Segment[SEGMENTS];
+		for(int index = 0; index < SEGMENTS; index++) {
+			this.segments[index] = new Segment(MIN_CAPACITY);
+		}
+		
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, cleanUpFrequency);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.NonceVerifier#verifyNonce(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean verifyNonce(String consumerKey, String nonce) {
+		if(nonce == null) {
+			return false;
+		}
+		
+		long fingerprint = NonceHash.hash(consumerKey, nonce, this.seed);
+		if(fingerprint == EMPTY) {
+			fingerprint = 1;
+		}
+		
+		final Segment segment = this.segments[(int) (fingerprint >>> SEGMENT_SHIFT)];
+		final int now = now();
+		synchronized(segment) {
+			return segment.insert(fingerprint, now, this.expirationSeconds);
+		}
+	}
+	
+	/**
+	 * Drop all expired entries and shrink the segments that have become
+	 * sparse, in one go. May be called by applications after a burst of
+	 * traffic; the periodic compaction runs in steps through
+	 * {@link #sweep(long)}.
+	 * 
+	 */
+	public void cleanUp() {
+		for(Segment segment : this.segments) {
+			final int now = now();
+			synchronized(segment) {
+				segment.rehash(now, this.expirationSeconds);
+			}
+		}
+	}
+	
+	/**
+	 * Return the number of slots in use, including expired entries that have
+	 * not yet been dropped.
+	 * 
+	 * @return the number of slots in use
+	 */
+	public long size() {
+		long size = 0;
+		for(Segment segment : this.segments) {
+			synchronized(segment) {
+				size += segment.used;
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Return the number of bytes taken by the tables.
+	 * 
+	 * @return the memory used, in bytes
+	 */
+	public long getMemoryUsage() {
+		long slots = 0;
+		for(Segment segment : this.segments) {
+			synchronized(segment) {
+				slots += segment.fingerprints.length;
+			}
+		}
+		
+		return slots * 12;
+	}
+	
+	/**
+	 * Compact the segments, in order, till all have been compacted or the
+	 * deadline has passed. The next pass continues with the next segment.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		int cursor = this.sweepCursor;
+		while(cursor < SEGMENTS) {
+			final Segment segment = this.segments[cursor++];
+			final int now = now();
+			synchronized(segment) {
+				segment.rehash(now, this.expirationSeconds);
+			}
+			
+			if(cursor < SEGMENTS && System.nanoTime() - deadline > 0) {
+				this.sweepCursor = cursor;
+				return false;
+			}
+		}
+		
+		this.sweepCursor = 0;
+		return true;
+	}
+	
+	/**
+	 * Stop the periodic compaction. The verifier keeps working, and expired
+	 * entries are still reused as new ones are inserted.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.sweepTask.cancel(false);
+	}
+	
+	/**
+	 * Stop the periodic compaction.
+	 * 
+	 * @deprecated use {@link #close()}
+	 */
+	@Deprecated
+	public void shutdown() {
+		close();
+	}
+	
+	/**
+	 * Return the current time in seconds since {@link #baseMillis}.
+	 * 
+	 */
+	private int now() {
+		return (int) ((this.clock.currentTimeMillis() - this.baseMillis) / 1000);
+	}
+	
+	/**
+	 * One open-addressing table with linear probing. All access must hold
+	 * the lock of the segment.
+	 * 
+	 */
+	private static final class Segment {
+		
+		/**
+		 * The fingerprints, {@link FingerprintNonceVerifier#EMPTY} for a free
+		 * slot
+		 */
+		@GuardedBy("this")
+		long[] fingerprints;
+		
+		/**
+		 * The second each fingerprint was first seen
+		 */
+		@GuardedBy("this")
+		int[] stamps;
+		
+		/**
+		 * The number of slots that are not free
+		 */
+		@GuardedBy("this")
+		int used;
+		
+		Segment(int capacity) {
+			this.fingerprints = new long[capacity];
+			this.stamps = new int[capacity];
+		}
+		
+		/**
+		 * Insert the fingerprint unless a live entry for it exists.
+		 * 
+		 * @return <code>true</code> if inserted, <code>false</code> if a live
+		 *         entry exists
+		 */
+		boolean insert(long fingerprint, int now, int expiration) {
+			final long[] fingerprints = this.fingerprints;
+			final int mask = fingerprints.length - 1;
+			
+			int index = (int) fingerprint & mask;
+			int reusable = -1;
+			
+			// probe till a free slot, as the fingerprint may sit past an expired slot
+			while(fingerprints[index] != EMPTY) {
+				final boolean expired = now - this.stamps[index] > expiration;
+				if(fingerprints[index] == fingerprint) {
+					if(!expired) {
+						return false;
+					}
+					
+					this.stamps[index] = now;
+					return true;
+				}
+				
+				if(expired && reusable < 0) {
+					reusable = index;
+				}
+				
+				index = (index + 1) & mask;
+			}
+			
+			if(reusable >= 0) {
+				fingerprints[reusable] = fingerprint;
+				this.stamps[reusable] = now;
+				return true;
+			}
+			
+			fingerprints[index] = fingerprint;
+			this.stamps[index] = now;
+			this.used++;
+			
+			// keep the load under three quarters
+			if(this.used > (fingerprints.length >> 2) * 3) {
+				rehash(now, expiration);
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Rebuild the table with only the live entries, sized so that it is
+		 * at most half full.
+		 * 
+		 */
+		void rehash(int now, int expiration) {
+			final long[] oldFingerprints = this.fingerprints;
+			final int[] oldStamps = this.stamps;
+			
+			int live = 0;
+			for(int index = 0; index < oldFingerprints.length; index++) {
+				if(oldFingerprints[index] != EMPTY && now - oldStamps[index] <= expiration) {
+					live++;
+				}
+			}
+			
+			int capacity = MIN_CAPACITY;
+			while(capacity < live * 2) {
+				capacity <<= 1;
+			}
+			
+			if(capacity == oldFingerprints.length && live == this.used) {
+				// nothing to drop, and already the right size
+				return;
+			}
+			
+			final long[] fingerprints = new long[capacity];
+			final int[] stamps = new int[capacity];
+			final int mask = capacity - 1;
+			
+			for(int index = 0; index < oldFingerprints.length; index++) {
+				final long fingerprint = oldFingerprints[index];
+				if(fingerprint == EMPTY || now - oldStamps[index] > expiration) {
+					continue;
+				}
+				
+				int slot = (int) fingerprint & mask;
+				while(fingerprints[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				
+				fingerprints[slot] = fingerprint;
+				stamps[slot] = oldStamps[index];
+			}
+			
+			this.fingerprints = fingerprints;
+			this.stamps = stamps;
+			this.used = live;
+		}
+		
+	}
+
+}
@@ -21,43 +21,112 @@
 
 package com.sangupta.jerry.oauth.nonce;
 
+import java.io.Closeable;
 import java.util.Iterator;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventType;
 import com.sangupta.jerry.util.DateUtils;
 
 /**
- * A simple in-memory implementation of {@link NonceVerifier} that compares all token
- * globally and NOT per consumer key.
+ * A simple in-memory implementation of {@link NonceVerifier} that remembers
+ * each nonce per consumer key. A <code>null</code> consumer key is treated as
+ * a global scope of its own.
+ * 
+ * Nonces are kept in a ring of time buckets, each bucket holding the nonces
+ * that were first seen within one clean up interval. A nonce is remembered for
+ * at least the expiration time, and is forgotten when the whole bucket holding
+ * it is dropped, which takes constant time irrespective of the number of
+ * nonces in it.
+ * 
+ * The check and insert of a nonce is atomic: verifications of the same nonce
+ * are serialized on one of a fixed set of striped locks, while verifications
+ * of different nonces mostly proceed in parallel.
+ * 
+ * Expired buckets are dropped on a shared scheduler, by default
+ * {@link ExpiryScheduler#DEFAULT}. Call {@link #close()} when the verifier is
+ * no longer needed.
+ * 
+ * Accepted, replayed and expired nonces are published to the
+ * {@link StoreEventDispatcher} set using
+ * {@link #setEventDispatcher(StoreEventDispatcher)}, if any. Dropped buckets
+ * are queued, and the expiry of their nonces is published by the clean up in
+ * bounded steps, never while verifying a nonce.
  * 
  * @author sangupta
  * @since 1.0
  */
-public class InMemoryNonceVerifier implements NonceVerifier {
+@ThreadSafe
+public class InMemoryNonceVerifier implements NonceVerifier, ExpirySweep, Closeable {
+	
+	/**
+	 * The number of striped locks, must be a power of two
+	 */
+	private static final int LOCK_STRIPES = 64;
+	
+	/**
+	 * The number of expired nonces published between two deadline checks
+	 */
+	private static final int PUBLISH_BATCH = 256;
 	
 	/**
-	 * Holds list of all current tokens
+	 * The ring of time buckets
 	 */
-	private final Set<NonceToken> tokens = new TreeSet<NonceToken>();
+	private final AtomicReferenceArray<NonceBucket> buckets;
 	
 	/**
-	 * The background cleaning task
+	 * The striped locks guarding the check and insert of a nonce
 	 */
-	private final TimerTask timerTask;
+	private final Object[] locks;
 	
 	/**
-	 * The background cleaning time
+	 * The duration covered by each bucket
 	 */
-	private final Timer timer;
+	private final long bucketDuration;
+	
+	/**
+	 * The periodic clean up task
+	 */
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * The dispatcher to publish events to, <code>null</code> if none
+	 */
+	private volatile StoreEventDispatcher eventDispatcher;
+	
+	/**
+	 * The dropped buckets whose expiry is yet to be published
+	 */
+	private final ConcurrentLinkedQueue<NonceBucket> droppedBuckets = new ConcurrentLinkedQueue<NonceBucket>();
+	
+	/**
+	 * The remaining nonces of the dropped bucket being published, only used
+	 * by the clean up, of which one pass runs at a time
+	 */
+	private Iterator<NonceKey> expiring;
 	
 	/**
 	 * Time duration after which the token is considered expired
 	 */
 	private final long EXPIRATION_TIME;
 	
+	/**
+	 * The clock used to time-stamp and expire tokens
+	 */
+	private final OAuthClock clock;
+	
 	/**
 	 * Default Constructor - will clean up all old tokens that are more than 
 	 * one day old, and the cleaning up frequency is one hour.
@@ -75,90 +144,312 @@ public class InMemoryNonceVerifier implements NonceVerifier {
 	 * @param cleanUpFrequency
 	 */
 	public InMemoryNonceVerifier(long expirationTime, long cleanUpFrequency) {
+		this(expirationTime, cleanUpFrequency, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Construct an verifier with the given expiration time of tokens, the given
+	 * clean up frequency, and the given clock. The clean up frequency is also
+	 * the duration covered by each time bucket, and thus the granularity with
+	 * which nonces expire.
+	 * 
+	 * @param expirationTime
+	 * @param cleanUpFrequency
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 */
+	public InMemoryNonceVerifier(long expirationTime, long cleanUpFrequency, OAuthClock clock) {
+		this(expirationTime, cleanUpFrequency, clock, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Construct an verifier with the given expiration time of tokens, the given
+	 * clean up frequency, the given clock, and the given scheduler to run the
+	 * clean up on.
+	 * 
+	 * @param expirationTime
+	 * @param cleanUpFrequency
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the clean up on, usually shared by many
+	 *            stores
+	 */
+	public InMemoryNonceVerifier(long expirationTime, long cleanUpFrequency, OAuthClock clock, ScheduledExecutorService scheduler) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0 || cleanUpFrequency <= 0) {
+			throw new IllegalArgumentException("Expiration time and clean up frequency must be positive");
+		}
+		
 		this.EXPIRATION_TIME = expirationTime;
+		this.clock = clock;
+		this.bucketDuration = cleanUpFrequency;
 		
-		this.timerTask = new TimerTask() {
-
-            @Override
-            public void run() {
-                cleanUpOldTokens();
-            }
-
-        };
-        
-        // start timer
-        this.timer = new Timer("nonce-cleaning-task");
-        this.timer.scheduleAtFixedRate(timerTask, DateUtils.FIVE_MINUTES, cleanUpFrequency);
+		// enough buckets to cover the expiration time, plus the one being filled
+		long count = (expirationTime + cleanUpFrequency - 1) / cleanUpFrequency + 1;
+		if(count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Clean up frequency too small for the expiration time");
+		}
+		this.buckets = new AtomicReferenceArray<NonceBucket>((int) count);
+		
+		this.locks = new Object[LOCK_STRIPES];
+		for(int index = 0; index < LOCK_STRIPES; index++) {
+			this.locks[index] = new Object();
+		}
+		
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, cleanUpFrequency);
 	}
 
 	/**
-	 * Verify if the nonce has previously been used or not.
+	 * Verify if the nonce has previously been used or not for the given
+	 * consumer key.
 	 * 
 	 * @see com.sangupta.jerry.oauth.nonce.NonceVerifier#verifyNonce(java.lang.String, java.lang.String)
 	 */
 	@Override
 	public boolean verifyNonce(String consumerKey, String nonce) {
-		NonceToken token = new NonceToken(nonce);
-        if(tokens.contains(token)) {
-            return false;
-        }
-        
-        return tokens.add(token);
+		if(nonce == null) {
+			return false;
+		}
+		
+		final NonceKey key = new NonceKey(consumerKey, nonce);
+		final long epoch = currentEpoch();
+		final long oldest = epoch - this.buckets.length() + 1;
+		
+		synchronized(this.locks[key.hash & (LOCK_STRIPES - 1)]) {
+			for(int index = 0; index < this.buckets.length(); index++) {
+				NonceBucket bucket = this.buckets.get(index);
+				if(bucket != null && bucket.epoch >= oldest && bucket.nonces.containsKey(key)) {
+					publish(StoreEventType.REPLAYED, key);
+					return false;
+				}
+			}
+			
+			currentBucket(epoch).nonces.put(key, Boolean.TRUE);
+		}
+		
+		publish(StoreEventType.ISSUED, key);
+		return true;
+	}
+	
+	/**
+	 * Return the time after which a nonce is considered expired.
+	 * 
+	 * @return the expiration time in milliseconds
+	 */
+	public long getExpirationTime() {
+		return this.EXPIRATION_TIME;
+	}
+	
+	/**
+	 * Stop the periodic clean up. The verifier keeps working, but expired
+	 * buckets are only replaced as the ring wraps around.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.sweepTask.cancel(false);
+		this.droppedBuckets.clear();
+	}
+	
+	/**
+	 * Stop the periodic clean up.
+	 * 
+	 * @deprecated use {@link #close()}
+	 */
+	@Deprecated
+	public void shutdown() {
+		close();
 	}
 	
 	/**
-     * Clean up tokens older than the expiration time.
+	 * Drop the buckets that have expired, which takes constant time per
+	 * bucket, and then publish the expiry of the nonces of dropped buckets
+	 * till the deadline.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		cleanUpOldTokens();
+		return publishExpired(deadline);
+	}
+	
+	/**
+	 * Set the dispatcher to publish events to.
+	 * 
+	 * @param eventDispatcher
+	 *            the dispatcher, or <code>null</code> to stop publishing
+	 */
+	public void setEventDispatcher(StoreEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+	
+	/**
+	 * Publish an event for the given nonce, if a dispatcher is set.
+	 * 
+	 */
+	private void publish(StoreEventType type, NonceKey key) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher != null) {
+			dispatcher.publish(type, this, key.consumerKey, key.nonce, this.clock.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Queue the given dropped bucket for its expiry to be published by the
+	 * clean up, if a dispatcher with listeners is set and the clean up still
+	 * runs.
+	 * 
+	 */
+	private void dropped(NonceBucket bucket) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(bucket == null || dispatcher == null || !dispatcher.hasListeners() || this.sweepTask.isCancelled()) {
+			return;
+		}
+		
+		this.droppedBuckets.offer(bucket);
+	}
+	
+	/**
+	 * Publish the expiry of the nonces of the dropped buckets, checking the
+	 * deadline after each batch.
+	 * 
+	 * @return <code>true</code> if all were published, <code>false</code> if
+	 *         the deadline passed first
+	 */
+	private boolean publishExpired(long deadline) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher == null) {
+			this.droppedBuckets.clear();
+			this.expiring = null;
+			return true;
+		}
+		
+		final long now = this.clock.currentTimeMillis();
+		while(true) {
+			if(this.expiring == null || !this.expiring.hasNext()) {
+				NonceBucket bucket = this.droppedBuckets.poll();
+				if(bucket == null) {
+					this.expiring = null;
+					return true;
+				}
+				
+				this.expiring = bucket.nonces.keySet().iterator();
+			}
+			
+			for(int count = 0; count < PUBLISH_BATCH && this.expiring.hasNext(); count++) {
+				NonceKey key = this.expiring.next();
+				dispatcher.publish(StoreEventType.EXPIRED, this, key.consumerKey, key.nonce, now);
+			}
+			
+			if(System.nanoTime() - deadline > 0) {
+				return !this.expiring.hasNext() && this.droppedBuckets.isEmpty();
+			}
+		}
+	}
+	
+	/**
+	 * Return the bucket for the given epoch, replacing the expired bucket in
+	 * its slot if needed.
+	 * 
+	 */
+	private NonceBucket currentBucket(long epoch) {
+		final int slot = (int) (epoch % this.buckets.length());
+		
+		NonceBucket bucket = this.buckets.get(slot);
+		while(bucket == null || bucket.epoch < epoch) {
+			NonceBucket fresh = new NonceBucket(epoch);
+			if(this.buckets.compareAndSet(slot, bucket, fresh)) {
+				dropped(bucket);
+				return fresh;
+			}
+			
+			bucket = this.buckets.get(slot);
+		}
+		
+		return bucket;
+	}
+	
+	/**
+	 * Return the index of the bucket for the current time.
+	 * 
+	 */
+	private long currentEpoch() {
+		long millis = this.clock.currentTimeMillis();
+		if(millis < 0) {
+			millis = 0;
+		}
+		
+		return millis / this.bucketDuration;
+	}
+	
+	/**
+     * Clean up tokens older than the expiration time, by dropping the buckets
+     * that have expired as a whole.
      */
     private void cleanUpOldTokens() {
-        if(this.tokens.isEmpty()) {
-            // nothing to do - return
-        }
-        
-        final long currentRunningTime = System.currentTimeMillis();
+        final long oldest = currentEpoch() - this.buckets.length() + 1;
         
-        Iterator<NonceToken> iterator = tokens.iterator();
-        while(iterator.hasNext()) {
-            NonceToken token = iterator.next();
-            
-            long delta = currentRunningTime - token.millis;
-            if(this.EXPIRATION_TIME < delta) {
-                iterator.remove();
-            }
+        for(int index = 0; index < this.buckets.length(); index++) {
+        	NonceBucket bucket = this.buckets.get(index);
+        	if(bucket != null && bucket.epoch < oldest && this.buckets.compareAndSet(index, bucket, null)) {
+        		dropped(bucket);
+        	}
         }
     }
 
 	/**
-	 * Class that holds a single Nonce value and a timestamp as to when was it
-	 * submitted. The values are removed after a certain timeperiod.
+	 * All nonces first seen within the duration of one bucket.
 	 * 
 	 * @author sangupta
 	 *
 	 */
-	private static class NonceToken implements Comparable<NonceToken> {
+	private static class NonceBucket {
 		
-		String nonce;
+		/**
+		 * The index of the time interval covered by this bucket
+		 */
+		final long epoch;
 		
-		long millis;
+		/**
+		 * The nonces seen
+		 */
+		final ConcurrentMap<NonceKey, Boolean> nonces = new ConcurrentHashMap<NonceKey, Boolean>();
 		
-		public NonceToken(String nonce) {
-			this.nonce = nonce;
-			this.millis = System.currentTimeMillis();
+		NonceBucket(long epoch) {
+			this.epoch = epoch;
 		}
 		
-		public int compareTo(NonceToken other) {
-			if(other == null) {
-				return -1;
-			}
-			
-			if(millis < other.millis) {
-				return -1;
-			}
+	}
+	
+	/**
+	 * The key of a nonce, scoped to its consumer key.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private static class NonceKey {
+		
+		final String consumerKey;
+		
+		final String nonce;
+		
+		final int hash;
+		
+		NonceKey(String consumerKey, String nonce) {
+			this.consumerKey = consumerKey;
+			this.nonce = nonce;
 			
-			if(millis == other.millis) {
-				return 0;
-			}
+			int hash = nonce.hashCode() * 31 + (consumerKey == null ? 0 : consumerKey.hashCode());
 			
-			return 1;
+			// spread the bits so that the lock stripe depends on all of them
+			hash ^= (hash >>> 16);
+			this.hash = hash;
 		}
 		
 		/**
@@ -174,17 +465,25 @@ public class InMemoryNonceVerifier implements NonceVerifier {
                 return true;
             }
             
-            if(!(obj instanceof NonceToken)) {
+            if(!(obj instanceof NonceKey)) {
                 return false;
             }
             
-            NonceToken other = (NonceToken) obj;
-            return this.nonce.equals(other.nonce);
+            NonceKey other = (NonceKey) obj;
+            if(this.hash != other.hash || !this.nonce.equals(other.nonce)) {
+            	return false;
+            }
+            
+            if(this.consumerKey == null) {
+            	return other.consumerKey == null;
+            }
+            
+            return this.consumerKey.equals(other.consumerKey);
         }
 
         @Override
         public int hashCode() {
-            return this.nonce.hashCode();
+            return this.hash;
         }
 	}
 }
@@ -0,0 +1,179 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+
+/**
+ * A reference {@link NonceBackend} that keeps the keys in memory, for tests
+ * and for running several {@link SharedNonceVerifier}s, each standing in for
+ * one node of a cluster, within a single process. An optional delay per call
+ * simulates the round-trip to a remote store, so that the effect of batching
+ * can be measured on one machine.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class InProcessNonceBackend implements NonceBackend {
+	
+	/**
+	 * The number of calls between two sweeps of expired keys
+	 */
+	private static final int SWEEP_INTERVAL = 1024;
+	
+	/**
+	 * The keys, mapped to the time at which they expire
+	 */
+	private final ConcurrentMap<String, Long> keys = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * The number of calls made
+	 */
+	private final AtomicLong calls = new AtomicLong();
+	
+	/**
+	 * The clock used to expire keys
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The simulated round-trip time, in milliseconds
+	 */
+	private final long roundTripMillis;
+	
+	/**
+	 * Create a backend without any simulated delay.
+	 * 
+	 */
+	public InProcessNonceBackend() {
+		this(CoarseClock.DEFAULT, 0);
+	}
+	
+	/**
+	 * Create a backend using the given clock and simulated round-trip time.
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to expire keys
+	 * 
+	 * @param roundTripMillis
+	 *            the time each call sleeps, in milliseconds
+	 */
+	public InProcessNonceBackend(OAuthClock clock, long roundTripMillis) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		this.clock = clock;
+		this.roundTripMillis = roundTripMillis;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.NonceBackend#setIfAbsent(java.lang.String[], int, long, boolean[])
+	 */
+	@Override
+	public void setIfAbsent(String[] keys, int count, long ttlMillis, boolean[] results) {
+		if(this.roundTripMillis > 0) {
+			try {
+				Thread.sleep(this.roundTripMillis);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		final long now = this.clock.currentTimeMillis();
+		final Long expiry = Long.valueOf(now + ttlMillis);
+		
+		for(int index = 0; index < count; index++) {
+			results[index] = setIfAbsent(keys[index], expiry, now);
+		}
+		
+		if(this.calls.incrementAndGet() % SWEEP_INTERVAL == 0) {
+			purgeExpired();
+		}
+	}
+	
+	/**
+	 * Return the number of calls made to this backend.
+	 * 
+	 * @return the number of calls
+	 */
+	public long getCalls() {
+		return this.calls.get();
+	}
+	
+	/**
+	 * Return the number of keys stored, including expired keys not yet
+	 * purged.
+	 * 
+	 * @return the number of keys
+	 */
+	public int size() {
+		return this.keys.size();
+	}
+	
+	/**
+	 * Remove all expired keys. A key is only removed if it still holds the
+	 * expired value, so that a key stored again meanwhile is kept.
+	 * 
+	 */
+	public void purgeExpired() {
+		final long now = this.clock.currentTimeMillis();
+		
+		for(Entry<String, Long> entry : this.keys.entrySet()) {
+			if(entry.getValue().longValue() <= now) {
+				this.keys.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Atomically store a single key if absent or expired.
+	 * 
+	 */
+	private boolean setIfAbsent(String key, Long expiry, long now) {
+		while(true) {
+			Long existing = this.keys.putIfAbsent(key, expiry);
+			if(existing == null) {
+				return true;
+			}
+			
+			if(existing.longValue() > now) {
+				return false;
+			}
+			
+			// expired, replace unless someone else did
+			if(this.keys.replace(key, existing, expiry)) {
+				return true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,498 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * A {@link NonceVerifier} that keeps its state in a memory-mapped file, so
+ * that replay protection survives a restart of the process. The file is
+ * mapped using {@link FileChannel#map(FileChannel.MapMode, long, long)} and
+ * all lookups and inserts read and write the mapped pages directly, without
+ * copying anything onto the heap. A restarted process maps the same file and
+ * continues verifying immediately, as there is nothing to load.
+ * 
+ * <h3>File layout</h3>
+ * 
+ * The file starts with a header of one page holding a magic number, the
+ * layout version, the layout parameters and the seed used to fingerprint
+ * nonces. It is followed by one fixed-size region per time bucket. Each
+ * region starts with the index of the time interval it holds and the number
+ * of entries in each of its stripes, followed by the stripes themselves.
+ * Each stripe is an open-addressing table of 64-bit fingerprints of (consumer
+ * key, nonce) pairs, a zero marking a free slot. A nonce always lands in the
+ * same stripe in every bucket, and each stripe is guarded by its own lock, so
+ * the check and insert of a nonce is atomic while unrelated nonces proceed in
+ * parallel. The buckets form a ring, and a bucket that has expired as a whole
+ * is cleared and reused.
+ * 
+ * <h3>Crash consistency</h3>
+ * 
+ * <ul>
+ * <li>If the process crashes, every insert that returned is preserved, as
+ * the dirty pages belong to the operating system and are written back by
+ * it.</li>
+ * <li>If the machine crashes, inserts since the last {@link #sync()} may be
+ * lost, as may inserts that the operating system had not yet written back. A
+ * nonce accepted in that window could then be accepted once more. Call
+ * {@link #sync()} periodically to bound the window.</li>
+ * <li>Fingerprints and counters are aligned, and each one is written with a
+ * single store, so neither can be torn.</li>
+ * <li>A bucket is cleared before its new time interval is written. If the
+ * machine crashes while a bucket is reused, the disk may hold the new
+ * interval with some old fingerprints, or the old interval with some
+ * fingerprints cleared. The first case can only reject fresh nonces. The
+ * second only touches fingerprints that had already expired.</li>
+ * <li>An entry counter that is behind its stripe only delays the detection
+ * of a full stripe, as free slots are found by probing.</li>
+ * </ul>
+ * 
+ * When a stripe of the current bucket is full, new nonces falling in it are
+ * rejected rather than accepted without being remembered. Size the file for
+ * the peak number of nonces per bucket.
+ * 
+ * The file is locked while open, as two processes mapping it at once, for
+ * example during a rolling deploy, would overwrite each other's entries. A
+ * second verifier on the same file fails to open till the first is closed.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class MappedNonceVerifier implements NonceVerifier, Closeable {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedNonceVerifier.class);
+	
+	/**
+	 * The magic number at the start of the file
+	 */
+	private static final long MAGIC = 0x4a4f4e4f4e434531l;
+	
+	/**
+	 * The version of the file layout
+	 */
+	private static final int VERSION = 1;
+	
+	/**
+	 * The size of the file header
+	 */
+	private static final int FILE_HEADER_SIZE = 4096;
+	
+	/**
+	 * The number of stripes in each bucket
+	 */
+	private static final int STRIPES = 64;
+	
+	/**
+	 * The number of bits used to select the stripe
+	 */
+	private static final int STRIPE_SHIFT = 64 - 6;
+	
+	/**
+	 * The size of each bucket header, the interval and the stripe counters
+	 */
+	private static final int BUCKET_HEADER_SIZE = 8 + STRIPES * 4;
+	
+	/**
+	 * The default number of slots in each stripe
+	 */
+	public static final int DEFAULT_SLOTS_PER_STRIPE = 4096;
+	
+	/**
+	 * The open file
+	 */
+	private final RandomAccessFile file;
+	
+	/**
+	 * The mapped bucket regions
+	 */
+	private final MappedByteBuffer[] buckets;
+	
+	/**
+	 * The locks for each stripe
+	 */
+	private final ReentrantLock[] locks;
+	
+	/**
+	 * The number of slots in each stripe
+	 */
+	private final int slotsPerStripe;
+	
+	/**
+	 * The number of entries after which a stripe is considered full
+	 */
+	private final int maxEntries;
+	
+	/**
+	 * The duration covered by each bucket
+	 */
+	private final long bucketDuration;
+	
+	/**
+	 * The seed for the fingerprints, stored in the file
+	 */
+	private final long seed;
+	
+	/**
+	 * The clock used to select the bucket
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * Open or create the given file, remembering nonces for one day in hourly
+	 * buckets.
+	 * 
+	 * @param file
+	 *            the file to use
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be created or mapped, or is in use by
+	 *             another verifier
+	 */
+	public MappedNonceVerifier(File file) throws IOException {
+		this(file, DateUtils.ONE_DAY, DateUtils.ONE_HOUR, DEFAULT_SLOTS_PER_STRIPE, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Open or create the given file. When the file exists, its layout must
+	 * match the given values.
+	 * 
+	 * @param file
+	 *            the file to use
+	 * 
+	 * @param expirationTime
+	 *            the time for which a nonce is remembered, in milliseconds
+	 * 
+	 * @param bucketDuration
+	 *            the duration covered by each bucket, in milliseconds
+	 * 
+	 * @param slotsPerStripe
+	 *            the number of slots in each of the 64 stripes of a bucket, a
+	 *            power of two. A bucket holds up to three quarters of
+	 *            <code>64 * slotsPerStripe</code> nonces
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to select the bucket
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be created or mapped, or is in use by
+	 *             another verifier
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any value is out of range, or the existing file has a
+	 *             different layout
+	 */
+	public MappedNonceVerifier(File file, long expirationTime, long bucketDuration, int slotsPerStripe, OAuthClock clock) throws IOException {
+		if(file == null) {
+			throw new IllegalArgumentException("File cannot be null");
+		}
+		
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0 || bucketDuration <= 0) {
+			throw new IllegalArgumentException("Expiration time and bucket duration must be positive");
+		}
+		
+		if(slotsPerStripe < 16 || Integer.bitCount(slotsPerStripe) != 1) {
+			throw new IllegalArgumentException("Slots per stripe must be a power of two, and at least 16");
+		}
+		
+		final long bucketSize = BUCKET_HEADER_SIZE + (long) STRIPES * slotsPerStripe * 8;
+		if(bucketSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Slots per stripe too large");
+		}
+		
+		final long count = (expirationTime + bucketDuration - 1) / bucketDuration + 1;
+		if(count > 65536) {
+			throw new IllegalArgumentException("Bucket duration too small for the expiration time");
+		}
+		
+		this.clock = clock;
+		this.bucketDuration = bucketDuration;
+		this.slotsPerStripe = slotsPerStripe;
+		this.maxEntries = (slotsPerStripe >> 2) * 3;
+		
+		this.locks = new ReentrantLock[STRIPES];
+		for(int index = 0; index < STRIPES; index++) {
+			this.locks[index] = new ReentrantLock();
+		}
+		
+		this.file = new RandomAccessFile(file, "rw");
+		boolean success = false;
+		try {
+			final FileChannel channel = this.file.getChannel();
+			lock(channel, file);
+			
+			this.seed = openHeader(channel, (int) count, bucketDuration, slotsPerStripe, FILE_HEADER_SIZE + count * bucketSize);
+			
+			this.buckets = new MappedByteBuffer[(int) count];
+			for(int index = 0; index < count; index++) {
+				this.buckets[index] = channel.map(FileChannel.MapMode.READ_WRITE, FILE_HEADER_SIZE + index * bucketSize, bucketSize);
+			}
+			
+			success = true;
+		} finally {
+			if(!success) {
+				this.file.close();
+			}
+		}
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.NonceVerifier#verifyNonce(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean verifyNonce(String consumerKey, String nonce) {
+		if(nonce == null) {
+			return false;
+		}
+		
+		long fingerprint = NonceHash.hash(consumerKey, nonce, this.seed);
+		if(fingerprint == 0) {
+			fingerprint = 1;
+		}
+		
+		final long epoch = currentEpoch();
+		final MappedByteBuffer current = currentBucket(epoch);
+		final long oldest = epoch - this.buckets.length + 1;
+		final int stripe = (int) (fingerprint >>> STRIPE_SHIFT);
+		final int stripeStart = BUCKET_HEADER_SIZE + stripe * this.slotsPerStripe * 8;
+		
+		final ReentrantLock lock = this.locks[stripe];
+		lock.lock();
+		try {
+			for(MappedByteBuffer bucket : this.buckets) {
+				if(bucket.getLong(0) >= oldest && find(bucket, stripeStart, fingerprint) < 0) {
+					return false;
+				}
+			}
+			
+			final int counter = 8 + stripe * 4;
+			final int entries = current.getInt(counter);
+			if(entries >= this.maxEntries) {
+				LOGGER.warn("Nonce store stripe full, rejecting nonce - increase the slots per stripe");
+				return false;
+			}
+			
+			final int slot = find(current, stripeStart, fingerprint);
+			if(slot < 0) {
+				// cannot happen as the stripe was searched above
+				return false;
+			}
+			
+			current.putLong(slot, fingerprint);
+			current.putInt(counter, entries + 1);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Flush all changes to the storage device.
+	 * 
+	 */
+	public void sync() {
+		for(MappedByteBuffer bucket : this.buckets) {
+			bucket.force();
+		}
+	}
+	
+	/**
+	 * Flush all changes and close the file, releasing its lock. The mapped
+	 * regions are released when they are garbage collected.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		sync();
+		this.file.close();
+	}
+	
+	/**
+	 * Search the stripe starting at the given offset for the fingerprint.
+	 * 
+	 * @return the offset of the free slot where the fingerprint belongs, or
+	 *         <code>-1</code> if the fingerprint is present, or if there is
+	 *         no free slot
+	 */
+	private int find(MappedByteBuffer bucket, int stripeStart, long fingerprint) {
+		final int mask = this.slotsPerStripe - 1;
+		int index = (int) fingerprint & mask;
+		
+		for(int probe = 0; probe < this.slotsPerStripe; probe++) {
+			final int offset = stripeStart + index * 8;
+			final long value = bucket.getLong(offset);
+			if(value == 0) {
+				return offset;
+			}
+			
+			if(value == fingerprint) {
+				return -1;
+			}
+			
+			index = (index + 1) & mask;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Return the bucket for the given epoch, clearing and reusing the expired
+	 * bucket in its slot when a new interval starts. Clearing holds all stripe
+	 * locks, taken in order.
+	 * 
+	 */
+	private MappedByteBuffer currentBucket(long epoch) {
+		final MappedByteBuffer bucket = this.buckets[(int) (epoch % this.buckets.length)];
+		if(bucket.getLong(0) >= epoch) {
+			return bucket;
+		}
+		
+		for(ReentrantLock lock : this.locks) {
+			lock.lock();
+		}
+		
+		try {
+			if(bucket.getLong(0) < epoch) {
+				// clear the stripes first, then claim the bucket
+				final ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+				final ByteBuffer target = bucket.duplicate();
+				target.position(8);
+				while(target.hasRemaining()) {
+					zeros.clear();
+					zeros.limit(Math.min(zeros.capacity(), target.remaining()));
+					target.put(zeros);
+				}
+				
+				bucket.putLong(0, epoch);
+			}
+		} finally {
+			for(int index = this.locks.length - 1; index >= 0; index--) {
+				this.locks[index].unlock();
+			}
+		}
+		
+		return bucket;
+	}
+	
+	/**
+	 * Return the index of the bucket for the current time.
+	 * 
+	 */
+	private long currentEpoch() {
+		long millis = this.clock.currentTimeMillis();
+		if(millis < 0) {
+			millis = 0;
+		}
+		
+		return millis / this.bucketDuration;
+	}
+	
+	/**
+	 * Lock the whole file for this process, the lock being released when the
+	 * file is closed.
+	 * 
+	 * @throws IOException
+	 *             if another process, or another verifier in this one, holds
+	 *             the lock
+	 */
+	private static void lock(FileChannel channel, File file) throws IOException {
+		final FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch(OverlappingFileLockException e) {
+			throw new IOException("Nonce store is already open in this process: " + file.getAbsolutePath());
+		}
+		
+		if(lock == null) {
+			throw new IOException("Nonce store is in use by another process: " + file.getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Write the header of a new file, or validate the header of an existing
+	 * one, and return the seed.
+	 * 
+	 */
+	private static long openHeader(FileChannel channel, int buckets, long bucketDuration, int slotsPerStripe, long fileSize) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(40);
+		
+		if(channel.size() == 0) {
+			final long seed = NonceHash.newSeed();
+			header.putLong(MAGIC).putInt(VERSION).putInt(buckets).putInt(STRIPES).putInt(slotsPerStripe).putLong(bucketDuration).putLong(seed);
+			header.flip();
+			
+			// the regions are zero, which marks them all as expired and empty
+			channel.write(header, 0);
+			channel.write(ByteBuffer.allocate(1), fileSize - 1);
+			channel.force(true);
+			return seed;
+		}
+		
+		channel.read(header, 0);
+		header.flip();
+		if(header.remaining() < 40 || header.getLong() != MAGIC) {
+			throw new IllegalArgumentException("File is not a nonce store");
+		}
+		
+		if(header.getInt() != VERSION) {
+			throw new IllegalArgumentException("Nonce store has an unsupported version");
+		}
+		
+		if(header.getInt() != buckets || header.getInt() != STRIPES || header.getInt() != slotsPerStripe || header.getLong() != bucketDuration) {
+			throw new IllegalArgumentException("Nonce store was created with a different layout");
+		}
+		
+		if(channel.size() < fileSize) {
+			throw new IllegalArgumentException("Nonce store file is truncated");
+		}
+		
+		return header.getLong();
+	}
+
+}
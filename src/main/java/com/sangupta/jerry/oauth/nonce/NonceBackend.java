@@ -0,0 +1,63 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.io.IOException;
+
+/**
+ * A contract for a shared key-value store, like Redis or Memcached, that is
+ * used by a {@link SharedNonceVerifier} to remember nonces across all nodes
+ * of a cluster. The store only needs to support an atomic set-if-absent with
+ * an expiry, applied to a batch of keys in one round-trip.
+ * 
+ * Implementations must be safe to use from multiple threads.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface NonceBackend {
+	
+	/**
+	 * For each of the given keys, atomically store the key with the given
+	 * time to live if it is not present in the store.
+	 * 
+	 * @param keys
+	 *            the keys to store
+	 * 
+	 * @param count
+	 *            the number of keys to use from the start of the array
+	 * 
+	 * @param ttlMillis
+	 *            the time after which the stored keys expire, in milliseconds
+	 * 
+	 * @param results
+	 *            receives, for each key, <code>true</code> if the key was
+	 *            absent and has been stored, <code>false</code> if it was
+	 *            already present
+	 * 
+	 * @throws IOException
+	 *             if the store cannot be reached, in which case the results
+	 *             are not valid
+	 */
+	public void setIfAbsent(String[] keys, int count, long ttlMillis, boolean[] results) throws IOException;
+
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.security.SecureRandom;
+
+/**
+ * Computes seeded 64-bit hashes of a (consumer key, nonce) pair, for the
+ * verifiers that store hashes instead of the nonce strings. The hash follows
+ * the structure of MurmurHash3: characters are mixed in blocks of four, and
+ * the result is passed through a finalizer so that every bit of the output
+ * depends on every bit of the input.
+ * 
+ * Each verifier uses its own random seed, so that accidental collisions do
+ * not repeat across verifiers. The seed is no protection against crafted
+ * collisions: mixing of this kind has multicollisions that do not depend on
+ * the seed. A collision only ever makes a verifier reject a fresh nonce, or
+ * lose a cached entry early, and never accept a replayed one.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+final class NonceHash {
+	
+	private static final long C1 = 0x87c37b91114253d5l;
+	
+	private static final long C2 = 0x4cf5ad432745937fl;
+	
+	/**
+	 * Source of seeds
+	 */
+	private static final SecureRandom SEEDS = new SecureRandom();
+	
+	/**
+	 * Utility class - no instances
+	 */
+	private NonceHash() {
+		
+	}
+	
+	/**
+	 * Return a new random seed.
+	 * 
+	 * @return the seed
+	 */
+	static long newSeed() {
+		return SEEDS.nextLong();
+	}
+	
+	/**
+	 * Hash the given consumer key and nonce together.
+	 * 
+	 * @param consumerKey
+	 *            the consumer key, may be <code>null</code>
+	 * 
+	 * @param nonce
+	 *            the nonce
+	 * 
+	 * @param seed
+	 *            the seed of the verifier
+	 * 
+	 * @return the 64-bit hash
+	 */
+	static long hash(String consumerKey, String nonce, long seed) {
+		long hash = seed;
+		int length = 0;
+		if(consumerKey != null) {
+			hash = mix(hash, consumerKey);
+			length = consumerKey.length();
+		}
+		
+		// separate the two strings so that ("ab", "c") and ("a", "bc") differ
+		hash = mixBlock(hash, 0xFFFFl + length);
+		hash = mix(hash, nonce);
+		
+		return fmix(hash ^ (length + nonce.length()));
+	}
+	
+	/**
+	 * Mix all characters of the given string into the hash.
+	 * 
+	 */
+	private static long mix(long hash, String value) {
+		final int length = value.length();
+		int index = 0;
+		for(; index + 3 < length; index += 4) {
+			long block = value.charAt(index) | ((long) value.charAt(index + 1) << 16) | ((long) value.charAt(index + 2) << 32) | ((long) value.charAt(index + 3) << 48);
+			hash = mixBlock(hash, block);
+		}
+		
+		if(index < length) {
+			long block = 0;
+			for(int shift = 0; index < length; index++, shift += 16) {
+				block |= (long) value.charAt(index) << shift;
+			}
+			
+			hash = mixBlock(hash, block);
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Mix one 64-bit block into the hash.
+	 * 
+	 */
+	private static long mixBlock(long hash, long block) {
+		block *= C1;
+		block = Long.rotateLeft(block, 31);
+		block *= C2;
+		
+		hash ^= block;
+		hash = Long.rotateLeft(hash, 27);
+		return hash * 5 + 0x52dce729;
+	}
+	
+	/**
+	 * The MurmurHash3 64-bit finalizer.
+	 * 
+	 */
+	private static long fmix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdl;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53l;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
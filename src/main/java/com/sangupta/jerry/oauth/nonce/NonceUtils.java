@@ -2,7 +2,7 @@ package com.sangupta.jerry.oauth.nonce;
 
 import java.util.UUID;
 
-import com.sangupta.jerry.encoder.Base62Encoder;
+import com.sangupta.jerry.oauth.clock.CoarseClock;
 
 /**
  * Some utility functions around NONCE strings
@@ -13,6 +13,11 @@ import com.sangupta.jerry.encoder.Base62Encoder;
  */
 public class NonceUtils {
 	
+	/**
+	 * The source of randomness for all nonces and tokens
+	 */
+	private static volatile RandomSource randomSource = new StripedRandomSource();
+	
 	/**
 	 * Return a UUID based nonce token that can be used when sending to OAuth
 	 * servers.
@@ -20,18 +25,65 @@ public class NonceUtils {
 	 * @return a {@link UUID} based nonce
 	 */
 	public static String getUUIDNonce() {
-		return UUID.randomUUID().toString();
+		final RandomSource random = randomSource;
+		return TokenEncoder.uuid(random.nextLong(), random.nextLong());
 	}
 
 	/**
-	 * Generates an encoded nonce that comprises of a UUID, the current system
-	 * time, and the time in nanoseconds.
+	 * Generates an encoded nonce that comprises of 128 random bits and the
+	 * current system time.
 	 * 
-	 * @return a {@link UUID}, timestamp and nanotime based nonce that is base62
-	 *         encoded
+	 * @return a random and timestamp based nonce that is base62 encoded
 	 */
 	public static String getNonce() {
-		UUID uuid = UUID.randomUUID();
-		return Base62Encoder.encode(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), System.currentTimeMillis(), System.nanoTime());
+		final RandomSource random = randomSource;
+		
+		final char[] chars = new char[3 * TokenEncoder.BASE62_LONG_LENGTH];
+		TokenEncoder.base62(random.nextLong(), chars, 0);
+		TokenEncoder.base62(random.nextLong(), chars, TokenEncoder.BASE62_LONG_LENGTH);
+		TokenEncoder.base62(CoarseClock.DEFAULT.currentTimeMillis(), chars, 2 * TokenEncoder.BASE62_LONG_LENGTH);
+		return new String(chars);
+	}
+	
+	/**
+	 * Generates a random token of the given number of random bytes, encoded
+	 * using the URL safe Base64 alphabet without padding.
+	 * 
+	 * @param numBytes
+	 *            the number of random bytes in the token
+	 * 
+	 * @return the encoded token
+	 */
+	public static String getRandomToken(int numBytes) {
+		byte[] bytes = new byte[numBytes];
+		randomSource.nextBytes(bytes, 0, numBytes);
+		return TokenEncoder.base64Url(bytes, 0, numBytes);
+	}
+	
+	/**
+	 * Return the {@link RandomSource} used for all nonces and tokens.
+	 * 
+	 * @return the current {@link RandomSource}
+	 */
+	public static RandomSource getRandomSource() {
+		return randomSource;
+	}
+	
+	/**
+	 * Set the {@link RandomSource} to use for all nonces and tokens. The
+	 * default is a {@link StripedRandomSource}.
+	 * 
+	 * @param source
+	 *            the {@link RandomSource} to use
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the source is <code>null</code>
+	 */
+	public static void setRandomSource(RandomSource source) {
+		if(source == null) {
+			throw new IllegalArgumentException("Random source cannot be null");
+		}
+		
+		randomSource = source;
 	}
 }
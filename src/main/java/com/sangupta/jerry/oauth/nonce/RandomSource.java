@@ -0,0 +1,55 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+/**
+ * A contract for a source of cryptographically strong random bytes used to
+ * mint nonces and tokens. Implementations must be safe to use from any number
+ * of threads.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface RandomSource {
+	
+	/**
+	 * Fill the given region of the array with random bytes.
+	 * 
+	 * @param bytes
+	 *            the array to fill
+	 * 
+	 * @param offset
+	 *            the index to start at
+	 * 
+	 * @param length
+	 *            the number of bytes to fill
+	 */
+	public void nextBytes(byte[] bytes, int offset, int length);
+	
+	/**
+	 * Return a random <code>long</code> value.
+	 * 
+	 * @return a random value
+	 */
+	public long nextLong();
+
+}
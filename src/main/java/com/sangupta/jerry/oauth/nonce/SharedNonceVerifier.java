@@ -0,0 +1,458 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * A {@link NonceVerifier} for a cluster of provider nodes, that remembers
+ * nonces in a shared store reached through the {@link NonceBackend} SPI, so
+ * that a nonce replayed to any node is rejected.
+ * 
+ * Verifications from all threads are queued, and a small number of
+ * dispatcher threads send them to the backend in batches, so that many
+ * verifications share one round-trip, and several round-trips are in flight
+ * at once. In front of the backend sits a small local cache of nonces known
+ * to be used, so that a replay hitting the same node is rejected without a
+ * round-trip.
+ * 
+ * If the backend fails, does not answer within the timeout, or the queue is
+ * full, the nonce is rejected: replay protection fails closed.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class SharedNonceVerifier implements NonceVerifier, Closeable {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedNonceVerifier.class);
+	
+	/**
+	 * The default maximum number of nonces sent in one round-trip
+	 */
+	public static final int DEFAULT_MAX_BATCH = 256;
+	
+	/**
+	 * The default number of dispatcher threads
+	 */
+	public static final int DEFAULT_DISPATCHERS = 2;
+	
+	/**
+	 * The default time to wait for the backend, in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT = 1000;
+	
+	/**
+	 * The default number of entries in the local cache
+	 */
+	public static final int DEFAULT_LOCAL_CACHE_SIZE = 64 * 1024;
+	
+	/**
+	 * The number of pending verifications allowed per dispatcher and batch
+	 */
+	private static final int QUEUE_BATCHES = 16;
+	
+	/**
+	 * The backend used
+	 */
+	private final NonceBackend backend;
+	
+	/**
+	 * The time for which nonces are remembered
+	 */
+	private final long expirationTime;
+	
+	/**
+	 * The maximum number of nonces sent in one round-trip
+	 */
+	private final int maxBatch;
+	
+	/**
+	 * The time to wait for the backend
+	 */
+	private final long timeout;
+	
+	/**
+	 * The pending verifications
+	 */
+	private final BlockingQueue<PendingNonce> queue;
+	
+	/**
+	 * The dispatcher threads
+	 */
+	private final Thread[] dispatchers;
+	
+	/**
+	 * The cache of nonces known to be used
+	 */
+	private final SeenCache seen;
+	
+	/**
+	 * The seed for the local cache fingerprints
+	 */
+	private final long seed;
+	
+	/**
+	 * The clock used to expire the local cache
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The number of verifications answered from the local cache
+	 */
+	private final AtomicLong localHits = new AtomicLong();
+	
+	/**
+	 * The number of round-trips made to the backend
+	 */
+	private final AtomicLong roundTrips = new AtomicLong();
+	
+	/**
+	 * Whether this verifier has been closed
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * Create a verifier that remembers nonces for one day in the given
+	 * backend, with default settings.
+	 * 
+	 * @param backend
+	 *            the {@link NonceBackend} to use
+	 */
+	public SharedNonceVerifier(NonceBackend backend) {
+		this(backend, DateUtils.ONE_DAY, DEFAULT_MAX_BATCH, DEFAULT_DISPATCHERS, DEFAULT_TIMEOUT, DEFAULT_LOCAL_CACHE_SIZE, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Create a verifier with the given settings.
+	 * 
+	 * @param backend
+	 *            the {@link NonceBackend} to use
+	 * 
+	 * @param expirationTime
+	 *            the time for which nonces are remembered, in milliseconds
+	 * 
+	 * @param maxBatch
+	 *            the maximum number of nonces sent in one round-trip
+	 * 
+	 * @param dispatchers
+	 *            the number of dispatcher threads, and thus of round-trips
+	 *            in flight at once
+	 * 
+	 * @param timeout
+	 *            the time to wait for the backend, in milliseconds
+	 * 
+	 * @param localCacheSize
+	 *            the number of entries in the local cache, rounded up to a
+	 *            power of two, or zero to disable it
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to expire the local cache
+	 */
+	public SharedNonceVerifier(NonceBackend backend, long expirationTime, int maxBatch, int dispatchers, long timeout, int localCacheSize, OAuthClock clock) {
+		if(backend == null) {
+			throw new IllegalArgumentException("Nonce backend cannot be null");
+		}
+		
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0 || timeout <= 0) {
+			throw new IllegalArgumentException("Expiration time and timeout must be positive");
+		}
+		
+		if(maxBatch < 1 || dispatchers < 1 || localCacheSize < 0) {
+			throw new IllegalArgumentException("Batch size and dispatchers must be positive, local cache size cannot be negative");
+		}
+		
+		this.backend = backend;
+		this.expirationTime = expirationTime;
+		this.maxBatch = maxBatch;
+		this.timeout = timeout;
+		this.clock = clock;
+		this.seed = NonceHash.newSeed();
+		this.seen = localCacheSize == 0 ? null : new SeenCache(localCacheSize);
+		this.queue = new ArrayBlockingQueue<PendingNonce>(maxBatch * dispatchers * QUEUE_BATCHES);
+		
+		this.dispatchers = new Thread[dispatchers];
+		for(int index = 0; index < dispatchers; index++) {
+			Thread thread = new Thread("nonce-backend-dispatcher-" + index) {
+				
+				@Override
+				public void run() {
+					dispatch();
+				}
+				
+			};
+			
+			thread.setDaemon(true);
+			this.dispatchers[index] = thread;
+			thread.start();
+		}
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.NonceVerifier#verifyNonce(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean verifyNonce(String consumerKey, String nonce) {
+		if(nonce == null || this.closed) {
+			return false;
+		}
+		
+		final long fingerprint = NonceHash.hash(consumerKey, nonce, this.seed);
+		if(this.seen != null && this.seen.contains(fingerprint, this.clock.currentTimeMillis())) {
+			this.localHits.incrementAndGet();
+			return false;
+		}
+		
+		final PendingNonce pending = new PendingNonce(key(consumerKey, nonce));
+		if(!this.queue.offer(pending)) {
+			LOGGER.warn("Nonce backend queue full, rejecting nonce");
+			return false;
+		}
+		
+		try {
+			if(!pending.done.await(this.timeout, TimeUnit.MILLISECONDS)) {
+				LOGGER.warn("Nonce backend did not answer within {} millis, rejecting nonce", this.timeout);
+				return false;
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		
+		if(!pending.answered) {
+			return false;
+		}
+		
+		// used now, whether by this request or an earlier one
+		if(this.seen != null) {
+			this.seen.add(fingerprint, this.clock.currentTimeMillis() + this.expirationTime);
+		}
+		
+		return pending.accepted;
+	}
+	
+	/**
+	 * Return the number of verifications answered from the local cache.
+	 * 
+	 * @return the number of local hits
+	 */
+	public long getLocalHits() {
+		return this.localHits.get();
+	}
+	
+	/**
+	 * Return the number of round-trips made to the backend.
+	 * 
+	 * @return the number of round-trips
+	 */
+	public long getRoundTrips() {
+		return this.roundTrips.get();
+	}
+	
+	/**
+	 * Stop the dispatcher threads. Pending and further verifications are
+	 * rejected.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		for(Thread thread : this.dispatchers) {
+			thread.interrupt();
+		}
+		
+		PendingNonce pending;
+		while((pending = this.queue.poll()) != null) {
+			pending.done.countDown();
+		}
+	}
+	
+	/**
+	 * The loop of each dispatcher thread: wait for a verification, and send
+	 * it to the backend with all others queued behind it, up to the batch
+	 * size.
+	 * 
+	 */
+	private void dispatch() {
+		final List<PendingNonce> batch = new ArrayList<PendingNonce>(this.maxBatch);
+		final String[] keys = new String[this.maxBatch];
+		final boolean[] results = new boolean[this.maxBatch];
+		
+		while(!this.closed) {
+			try {
+				PendingNonce first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				
+				batch.add(first);
+			} catch(InterruptedException e) {
+				break;
+			}
+			
+			this.queue.drainTo(batch, this.maxBatch - 1);
+			
+			final int count = batch.size();
+			for(int index = 0; index < count; index++) {
+				keys[index] = batch.get(index).key;
+			}
+			
+			boolean answered = false;
+			try {
+				this.roundTrips.incrementAndGet();
+				this.backend.setIfAbsent(keys, count, this.expirationTime, results);
+				answered = true;
+			} catch(Exception e) {
+				LOGGER.error("Unable to verify nonces with the backend", e);
+			}
+			
+			for(int index = 0; index < count; index++) {
+				PendingNonce pending = batch.get(index);
+				pending.accepted = answered && results[index];
+				pending.answered = answered;
+				pending.done.countDown();
+			}
+			
+			batch.clear();
+			Arrays.fill(keys, 0, count, null);
+		}
+	}
+	
+	/**
+	 * Build the backend key for the given consumer key and nonce. The length
+	 * prefix keeps keys of different pairs distinct.
+	 * 
+	 */
+	private static String key(String consumerKey, String nonce) {
+		if(consumerKey == null) {
+			consumerKey = "";
+		}
+		
+		StringBuilder builder = new StringBuilder(consumerKey.length() + nonce.length() + 16);
+		builder.append("nonce:");
+		builder.append(consumerKey.length());
+		builder.append(':');
+		builder.append(consumerKey);
+		builder.append(':');
+		builder.append(nonce);
+		return builder.toString();
+	}
+	
+	/**
+	 * A verification waiting for the backend. The fields are published to
+	 * the waiting thread by the count down of the latch.
+	 * 
+	 */
+	private static final class PendingNonce {
+		
+		final String key;
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		boolean answered;
+		
+		boolean accepted;
+		
+		PendingNonce(String key) {
+			this.key = key;
+		}
+		
+	}
+	
+	/**
+	 * A direct-mapped, lossy cache of fingerprints of used nonces along with
+	 * the time they expire. A newer entry simply replaces an older one in the
+	 * same slot.
+	 * 
+	 */
+	private static final class SeenCache {
+		
+		/**
+		 * The number of locks
+		 */
+		private static final int STRIPES = 16;
+		
+		final long[] fingerprints;
+		
+		final long[] expiries;
+		
+		final Object[] locks;
+		
+		final int mask;
+		
+		SeenCache(int size) {
+			int capacity = STRIPES;
+			while(capacity < size) {
+				capacity <<= 1;
+			}
+			
+			this.fingerprints = new long[capacity];
+			this.expiries = new long[capacity];
+			this.mask = capacity - 1;
+			this.locks = new Object[STRIPES];
+			for(int index = 0; index < STRIPES; index++) {
+				this.locks[index] = new Object();
+			}
+		}
+		
+		boolean contains(long fingerprint, long now) {
+			final int slot = (int) fingerprint & this.mask;
+			synchronized(this.locks[slot & (STRIPES - 1)]) {
+				return this.fingerprints[slot] == fingerprint && this.expiries[slot] > now;
+			}
+		}
+		
+		void add(long fingerprint, long expiry) {
+			final int slot = (int) fingerprint & this.mask;
+			synchronized(this.locks[slot & (STRIPES - 1)]) {
+				this.fingerprints[slot] = fingerprint;
+				this.expiries[slot] = expiry;
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,261 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link RandomSource} that gives every thread its own deterministic random
+ * bit generator, so that threads never contend on a shared
+ * {@link SecureRandom} as they do when using {@link java.util.UUID#randomUUID()}.
+ * 
+ * Each per-thread generator is seeded, and periodically re-seeded, with bytes
+ * read from a single shared {@link SecureRandom} using
+ * {@link SecureRandom#nextBytes(byte[])}, which never blocks waiting for
+ * entropy, unlike {@link SecureRandom#generateSeed(int)}. The generator is
+ * seeded explicitly before first use, so it never seeds itself from the
+ * system entropy source.
+ * 
+ * Random bytes are generated in bulk into a per-thread buffer and handed out
+ * from there, so most calls only copy bytes out of an array.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class StripedRandomSource implements RandomSource {
+	
+	/**
+	 * The default generator algorithm, available in every JVM
+	 */
+	public static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+	
+	/**
+	 * The default size of the per-thread buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+	
+	/**
+	 * The number of bytes used to seed a generator
+	 */
+	private static final int SEED_SIZE = 32;
+	
+	/**
+	 * The number of bytes a generator produces before it is re-seeded
+	 */
+	private static final long RESEED_INTERVAL = 1l << 20;
+	
+	/**
+	 * The shared source of seeds, only used when a generator is created or
+	 * re-seeded
+	 */
+	private final SecureRandom seeder;
+	
+	/**
+	 * The generator algorithm to use
+	 */
+	private final String algorithm;
+	
+	/**
+	 * The size of the per-thread buffer
+	 */
+	private final int bufferSize;
+	
+	/**
+	 * The per-thread stripes
+	 */
+	private final ThreadLocal<Stripe> stripes = new ThreadLocal<Stripe>() {
+		
+		@Override
+		protected Stripe initialValue() {
+			return newStripe();
+		}
+		
+	};
+	
+	/**
+	 * Create a new source using {@link #DEFAULT_ALGORITHM} and
+	 * {@link #DEFAULT_BUFFER_SIZE}.
+	 * 
+	 */
+	public StripedRandomSource() {
+		this(DEFAULT_ALGORITHM, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Create a new source using the given generator algorithm and per-thread
+	 * buffer size.
+	 * 
+	 * @param algorithm
+	 *            the {@link SecureRandom} algorithm to use for the per-thread
+	 *            generators
+	 * 
+	 * @param bufferSize
+	 *            the number of bytes generated in one go by each thread
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the algorithm is not available, or the buffer size is
+	 *             less than 8 bytes
+	 */
+	public StripedRandomSource(String algorithm, int bufferSize) {
+		if(bufferSize < 8) {
+			throw new IllegalArgumentException("Buffer size must be at least 8 bytes");
+		}
+		
+		this.algorithm = algorithm;
+		this.bufferSize = bufferSize;
+		this.seeder = new SecureRandom();
+		
+		// fail fast if the algorithm is not available
+		createGenerator();
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.RandomSource#nextBytes(byte[], int, int)
+	 */
+	@Override
+	public void nextBytes(byte[] bytes, int offset, int length) {
+		final Stripe stripe = this.stripes.get();
+		while(length > 0) {
+			int available = stripe.buffer.length - stripe.position;
+			if(available == 0) {
+				refill(stripe);
+				available = stripe.buffer.length;
+			}
+			
+			final int count = Math.min(available, length);
+			System.arraycopy(stripe.buffer, stripe.position, bytes, offset, count);
+			stripe.position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.nonce.RandomSource#nextLong()
+	 */
+	@Override
+	public long nextLong() {
+		final Stripe stripe = this.stripes.get();
+		if(stripe.buffer.length - stripe.position < 8) {
+			refill(stripe);
+		}
+		
+		final byte[] buffer = stripe.buffer;
+		int position = stripe.position;
+		long value = 0;
+		for(int index = 0; index < 8; index++) {
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		
+		stripe.position = position;
+		return value;
+	}
+	
+	/**
+	 * Fill the buffer of the given stripe with fresh bytes, re-seeding the
+	 * generator when due.
+	 * 
+	 */
+	private void refill(Stripe stripe) {
+		if(stripe.generated >= RESEED_INTERVAL) {
+			stripe.generator.setSeed(seed());
+			stripe.generated = 0;
+		}
+		
+		stripe.generator.nextBytes(stripe.buffer);
+		stripe.generated += stripe.buffer.length;
+		stripe.position = 0;
+	}
+	
+	/**
+	 * Create a stripe for the calling thread.
+	 * 
+	 */
+	private Stripe newStripe() {
+		SecureRandom generator = createGenerator();
+		generator.setSeed(seed());
+		
+		Stripe stripe = new Stripe(generator, new byte[this.bufferSize]);
+		refill(stripe);
+		return stripe;
+	}
+	
+	/**
+	 * Read a new seed from the shared seeder.
+	 * 
+	 */
+	private byte[] seed() {
+		byte[] seed = new byte[SEED_SIZE];
+		this.seeder.nextBytes(seed);
+		return seed;
+	}
+	
+	/**
+	 * Create a new, unseeded generator.
+	 * 
+	 */
+	private SecureRandom createGenerator() {
+		try {
+			return SecureRandom.getInstance(this.algorithm);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Random generator algorithm not available: " + this.algorithm, e);
+		}
+	}
+	
+	/**
+	 * The state confined to a single thread.
+	 * 
+	 */
+	private static final class Stripe {
+		
+		/**
+		 * The generator of this thread
+		 */
+		final SecureRandom generator;
+		
+		/**
+		 * The bytes generated in bulk
+		 */
+		final byte[] buffer;
+		
+		/**
+		 * The index of the next unused byte in the buffer
+		 */
+		int position;
+		
+		/**
+		 * The bytes generated since the last seeding
+		 */
+		long generated;
+		
+		Stripe(SecureRandom generator, byte[] buffer) {
+			this.generator = generator;
+			this.buffer = buffer;
+		}
+		
+	}
+
+}
@@ -0,0 +1,262 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Encodes random values into URL safe strings for use as nonces and tokens,
+ * writing straight into a character array instead of boxing them through
+ * {@link java.util.UUID} or {@link java.math.BigInteger}.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class TokenEncoder {
+	
+	/**
+	 * The number of base62 characters used to encode one <code>long</code>
+	 */
+	public static final int BASE62_LONG_LENGTH = 11;
+	
+	/**
+	 * The base62 alphabet
+	 */
+	private static final char[] BASE62 = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+	
+	/**
+	 * The URL and filename safe Base64 alphabet of RFC 4648
+	 */
+	private static final char[] BASE64_URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	
+	/**
+	 * Lower case hexadecimal digits
+	 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * The largest unsigned 64-bit value divided by 62
+	 */
+	private static final long MAX_UNSIGNED_BY_62 = 297528130221121800l;
+	
+	/**
+	 * The remainder of the largest unsigned 64-bit value divided by 62
+	 */
+	private static final int MAX_UNSIGNED_MOD_62 = 15;
+	
+	/**
+	 * Utility class - no instances
+	 */
+	private TokenEncoder() {
+		
+	}
+	
+	/**
+	 * Encode the given values in base62, each value taking exactly
+	 * {@link #BASE62_LONG_LENGTH} characters. The values are treated as
+	 * unsigned.
+	 * 
+	 * @param values
+	 *            the values to encode
+	 * 
+	 * @return the encoded string
+	 */
+	public static String base62(long... values) {
+		final char[] chars = new char[values.length * BASE62_LONG_LENGTH];
+		for(int index = 0; index < values.length; index++) {
+			base62(values[index], chars, index * BASE62_LONG_LENGTH);
+		}
+		
+		return new String(chars);
+	}
+	
+	/**
+	 * Encode the given unsigned value in base62 into exactly
+	 * {@link #BASE62_LONG_LENGTH} characters of the given array.
+	 * 
+	 * @param value
+	 *            the value to encode
+	 * 
+	 * @param chars
+	 *            the array to write to
+	 * 
+	 * @param offset
+	 *            the index to start writing at
+	 */
+	public static void base62(long value, char[] chars, int offset) {
+		int position = offset + BASE62_LONG_LENGTH - 1;
+		
+		// the first division has to treat the value as unsigned
+		long quotient = (value >>> 1) / 31;
+		chars[position--] = BASE62[(int) (value - quotient * 62)];
+		value = quotient;
+		
+		while(position >= offset) {
+			chars[position--] = BASE62[(int) (value % 62)];
+			value /= 62;
+		}
+	}
+	
+	/**
+	 * Decode an unsigned value encoded by {@link #base62(long, char[], int)}
+	 * from exactly {@link #BASE62_LONG_LENGTH} characters of the given
+	 * string.
+	 * 
+	 * @param chars
+	 *            the string to read from
+	 * 
+	 * @param offset
+	 *            the index to start reading at
+	 * 
+	 * @return the decoded value
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the characters are not valid base62, or the value does
+	 *             not fit in 64 bits
+	 */
+	public static long decodeBase62(CharSequence chars, int offset) {
+		final int last = offset + BASE62_LONG_LENGTH - 1;
+		
+		// all but the last digit fit in a signed long
+		long value = 0;
+		for(int index = offset; index < last; index++) {
+			value = value * 62 + base62Digit(chars.charAt(index));
+		}
+		
+		final int digit = base62Digit(chars.charAt(last));
+		if(value > MAX_UNSIGNED_BY_62 || (value == MAX_UNSIGNED_BY_62 && digit > MAX_UNSIGNED_MOD_62)) {
+			throw new IllegalArgumentException("Base62 value does not fit in 64 bits");
+		}
+		
+		return value * 62 + digit;
+	}
+	
+	/**
+	 * Return the value of the given base62 digit.
+	 * 
+	 */
+	private static int base62Digit(char ch) {
+		if(ch >= '0' && ch <= '9') {
+			return ch - '0';
+		}
+		
+		if(ch >= 'A' && ch <= 'Z') {
+			return ch - 'A' + 10;
+		}
+		
+		if(ch >= 'a' && ch <= 'z') {
+			return ch - 'a' + 36;
+		}
+		
+		throw new IllegalArgumentException("Not a base62 digit: " + ch);
+	}
+	
+	/**
+	 * Encode the given bytes using the URL safe Base64 alphabet, without
+	 * padding.
+	 * 
+	 * @param bytes
+	 *            the bytes to encode
+	 * 
+	 * @param offset
+	 *            the index of the first byte
+	 * 
+	 * @param length
+	 *            the number of bytes to encode
+	 * 
+	 * @return the encoded string
+	 */
+	public static String base64Url(byte[] bytes, int offset, int length) {
+		final char[] chars = new char[(length * 4 + 2) / 3];
+		final int end = offset + length;
+		int position = 0;
+		int index = offset;
+		
+		for(; index + 2 < end; index += 3) {
+			int bits = ((bytes[index] & 0xFF) << 16) | ((bytes[index + 1] & 0xFF) << 8) | (bytes[index + 2] & 0xFF);
+			chars[position++] = BASE64_URL[(bits >> 18) & 0x3F];
+			chars[position++] = BASE64_URL[(bits >> 12) & 0x3F];
+			chars[position++] = BASE64_URL[(bits >> 6) & 0x3F];
+			chars[position++] = BASE64_URL[bits & 0x3F];
+		}
+		
+		final int remaining = end - index;
+		if(remaining > 0) {
+			int bits = (bytes[index] & 0xFF) << 16;
+			if(remaining == 2) {
+				bits |= (bytes[index + 1] & 0xFF) << 8;
+			}
+			
+			chars[position++] = BASE64_URL[(bits >> 18) & 0x3F];
+			chars[position++] = BASE64_URL[(bits >> 12) & 0x3F];
+			if(remaining == 2) {
+				chars[position++] = BASE64_URL[(bits >> 6) & 0x3F];
+			}
+		}
+		
+		return new String(chars, 0, position);
+	}
+	
+	/**
+	 * Format the given random bits as a version 4 (random) UUID string in the
+	 * same format as {@link java.util.UUID#toString()}. The version and variant
+	 * bits are overwritten.
+	 * 
+	 * @param mostSignificantBits
+	 *            the random high bits
+	 * 
+	 * @param leastSignificantBits
+	 *            the random low bits
+	 * 
+	 * @return the UUID string
+	 */
+	public static String uuid(long mostSignificantBits, long leastSignificantBits) {
+		final long high = (mostSignificantBits & 0xFFFFFFFFFFFF0FFFl) | 0x0000000000004000l;
+		final long low = (leastSignificantBits & 0x3FFFFFFFFFFFFFFFl) | 0x8000000000000000l;
+		
+		final char[] chars = new char[36];
+		hex(high >>> 32, 8, chars, 0);
+		chars[8] = '-';
+		hex(high >>> 16, 4, chars, 9);
+		chars[13] = '-';
+		hex(high, 4, chars, 14);
+		chars[18] = '-';
+		hex(low >>> 48, 4, chars, 19);
+		chars[23] = '-';
+		hex(low, 12, chars, 24);
+		
+		return new String(chars);
+	}
+	
+	/**
+	 * Write the given number of low hexadecimal digits of the value.
+	 * 
+	 */
+	private static void hex(long value, int digits, char[] chars, int offset) {
+		for(int position = offset + digits - 1; position >= offset; position--) {
+			chars[position] = HEX[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+	}
+
+}
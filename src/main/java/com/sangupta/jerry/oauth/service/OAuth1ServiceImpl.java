@@ -22,6 +22,9 @@
 package com.sangupta.jerry.oauth.service;
 
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import org.apache.http.NameValuePair;
 import org.slf4j.Logger;
@@ -29,11 +32,12 @@ import org.slf4j.LoggerFactory;
 
 import com.sangupta.jerry.http.HttpHeaderName;
 import com.sangupta.jerry.http.WebForm;
-import com.sangupta.jerry.http.WebInvoker;
 import com.sangupta.jerry.http.WebRequest;
 import com.sangupta.jerry.http.WebRequestMethod;
 import com.sangupta.jerry.http.WebResponse;
 import com.sangupta.jerry.oauth.OAuthUtils;
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
 import com.sangupta.jerry.oauth.domain.KeySecretPair;
 import com.sangupta.jerry.oauth.domain.OAuthConstants;
 import com.sangupta.jerry.oauth.domain.OAuthSignatureMethod;
@@ -42,6 +46,8 @@ import com.sangupta.jerry.oauth.domain.TokenAndUrl;
 import com.sangupta.jerry.oauth.extractor.TokenExtractor;
 import com.sangupta.jerry.oauth.extractor.UrlParamTokenExtractor;
 import com.sangupta.jerry.oauth.nonce.NonceUtils;
+import com.sangupta.jerry.oauth.transport.JerryHttpTransport;
+import com.sangupta.jerry.oauth.transport.OAuthTransport;
 import com.sangupta.jerry.util.UrlManipulator;
 
 /**
@@ -63,6 +69,34 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 	 */
 	protected final KeySecretPair keySecretPair;
 	
+	/**
+	 * The signer for this service, created on first use as it reads the
+	 * values that the implementations override
+	 */
+	private volatile OAuth1Signer signer;
+	
+	/**
+	 * The clock used for the <code>oauth_timestamp</code> parameter
+	 */
+	private volatile OAuthClock clock = CoarseClock.DEFAULT;
+	
+	/**
+	 * The HTTP client used to reach the provider
+	 */
+	private volatile OAuthTransport transport = JerryHttpTransport.DEFAULT;
+	
+	/**
+	 * The limiter of concurrent round trips to the provider, <code>null</code>
+	 * if calls are not limited
+	 */
+	private volatile ProviderCallLimiter callLimiter;
+	
+	/**
+	 * The breaker that stops calls to a failing provider, <code>null</code>
+	 * if there is none
+	 */
+	private volatile ProviderCircuitBreaker circuitBreaker;
+	
 	/**
 	 * Default constructor.
 	 * 
@@ -100,25 +134,17 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 	 */
 	@Override
 	public final TokenAndUrl getLoginURL(String successUrl, String scope) {
-		WebRequest request = WebInvoker.getWebRequest(getRequestTokenURL(), getRequestTokenMethod());
-		
-		WebForm webForm = WebForm.newForm().addParam(OAuthConstants.CONSUMER_KEY, this.keySecretPair.getKey())
-										   .addParam(OAuthConstants.NONCE, NonceUtils.getNonce())
-										   .addParam(OAuthConstants.TIMESTAMP, String.valueOf(System.currentTimeMillis() /1000l))
-										   .addParam(OAuthConstants.VERSION, getOAuthVersion())
-										   .addParam(OAuthConstants.SIGNATURE_METHOD, getOAuthSignatureMethod().getOAuthName());
+		WebRequest request = this.transport.newRequest(getRequestTokenURL(), getRequestTokenMethod());
 		
 		// add custom parameters if they need to be added
+		WebForm webForm = WebForm.newForm();
 		massageTokenRequestHeader(webForm, successUrl, scope);
 		
-		// generate the signature for the request
-		OAuthUtils.signRequest(request, this.keySecretPair, null, getOAuthSignatureMethod(), webForm);
-
 		// sign the request with the details
-		OAuthUtils.buildAuthorizationHeader(request, webForm, getAuthorizationHeaderName(), getAuthorizationHeaderPrefix());
+		getSigner().sign(request, null, webForm);
 		
 		// hit the request for request token
-		WebResponse response = WebInvoker.executeSilently(request);
+		WebResponse response = execute(request);
 		if(response == null) {
 			LOGGER.error("Null response for request token API call");
 			return null;
@@ -136,6 +162,229 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 		return new TokenAndUrl(this.getAuthenticationURL() + "?oauth_token=" + tokenPair.getKey(), successUrl, tokenPair);
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #getLoginURL(String, String)}, run on the
+	 * shared executor with no deadline.
+	 * 
+	 * @param successUrl
+	 *            the callback success url that the call will come back to
+	 * 
+	 * @param scope
+	 *            the scopes to be used for authentication
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the login url
+	 */
+	public Future<TokenAndUrl> getLoginURLAsync(String successUrl, String scope, OAuthCallback<TokenAndUrl> callback) {
+		return getLoginURLAsync(successUrl, scope, null, 0, callback);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getLoginURL(String, String)}. The
+	 * request token is obtained on the given executor, so that the calling
+	 * thread does not wait for the round trip to the provider.
+	 * 
+	 * @param successUrl
+	 *            the callback success url that the call will come back to
+	 * 
+	 * @param scope
+	 *            the scopes to be used for authentication
+	 * 
+	 * @param executor
+	 *            the {@link Executor} to run the call on, or <code>null</code>
+	 *            to use a small shared executor, which fails calls with a
+	 *            {@link java.util.concurrent.RejectedExecutionException} once
+	 *            its queue is full
+	 * 
+	 * @param timeoutMillis
+	 *            the time after which the call fails with a
+	 *            {@link java.util.concurrent.TimeoutException}, in
+	 *            milliseconds, zero or less for no deadline
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the login url
+	 */
+	public Future<TokenAndUrl> getLoginURLAsync(final String successUrl, final String scope, Executor executor, long timeoutMillis, OAuthCallback<TokenAndUrl> callback) {
+		return OAuthAsyncSupport.submit(new Callable<TokenAndUrl>() {
+			
+			@Override
+			public TokenAndUrl call() throws Exception {
+				return getLoginURL(successUrl, scope);
+			}
+			
+		}, executor, timeoutMillis, callback);
+	}
+	
+	/**
+	 * Asynchronous variant of
+	 * {@link #getAuthorizationResponse(TokenAndUrl, String)}, run on the
+	 * shared executor with no deadline.
+	 * 
+	 * @param tokenAndUrl
+	 *            the {@link TokenAndUrl} instance that was supplied during
+	 *            login URL creation
+	 * 
+	 * @param verifier
+	 *            the verifier code that was sent back from the server
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the authorization response
+	 */
+	public Future<String> getAuthorizationResponseAsync(TokenAndUrl tokenAndUrl, String verifier, OAuthCallback<String> callback) {
+		return getAuthorizationResponseAsync(tokenAndUrl, verifier, null, 0, callback);
+	}
+	
+	/**
+	 * Asynchronous variant of
+	 * {@link #getAuthorizationResponse(TokenAndUrl, String)}. The call to the
+	 * provider is made on the given executor, so that the calling thread does
+	 * not wait for the round trip.
+	 * 
+	 * @param tokenAndUrl
+	 *            the {@link TokenAndUrl} instance that was supplied during
+	 *            login URL creation
+	 * 
+	 * @param verifier
+	 *            the verifier code that was sent back from the server
+	 * 
+	 * @param executor
+	 *            the {@link Executor} to run the call on, or <code>null</code>
+	 *            to use a small shared executor, which fails calls with a
+	 *            {@link java.util.concurrent.RejectedExecutionException} once
+	 *            its queue is full
+	 * 
+	 * @param timeoutMillis
+	 *            the time after which the call fails with a
+	 *            {@link java.util.concurrent.TimeoutException}, in
+	 *            milliseconds, zero or less for no deadline
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the authorization response
+	 */
+	public Future<String> getAuthorizationResponseAsync(final TokenAndUrl tokenAndUrl, final String verifier, Executor executor, long timeoutMillis, OAuthCallback<String> callback) {
+		return OAuthAsyncSupport.submit(new Callable<String>() {
+			
+			@Override
+			public String call() throws Exception {
+				return getAuthorizationResponse(tokenAndUrl, verifier);
+			}
+			
+		}, executor, timeoutMillis, callback);
+	}
+	
+	/**
+	 * Return the {@link OAuthTransport} used to reach the provider.
+	 * 
+	 * @return the {@link OAuthTransport} in use
+	 */
+	public OAuthTransport getTransport() {
+		return this.transport;
+	}
+	
+	/**
+	 * Set the {@link OAuthTransport} used to reach the provider. The default
+	 * is {@link JerryHttpTransport#DEFAULT}. End-points
+	 * prepared earlier keep using the transport they were prepared with.
+	 * 
+	 * @param transport
+	 *            the {@link OAuthTransport} to use
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the transport is <code>null</code>
+	 */
+	public void setTransport(OAuthTransport transport) {
+		if(transport == null) {
+			throw new IllegalArgumentException("Transport cannot be null");
+		}
+		
+		this.transport = transport;
+	}
+	
+	/**
+	 * Open connections to the request token and access token end-points of
+	 * the provider ahead of the first login, if the {@link OAuthTransport} of
+	 * this service keeps connections of its own, such as a
+	 * {@link com.sangupta.jerry.oauth.transport.ProviderConnectionPool}.
+	 * Usually called once at startup.
+	 * 
+	 * @return the number of connections opened
+	 */
+	public int warmUp() {
+		final OAuthTransport transport = this.transport;
+		return transport.warmUp(getRequestTokenURL()) + transport.warmUp(getAuthorizationTokenURL());
+	}
+	
+	/**
+	 * Return the {@link ProviderCallLimiter} that bounds the concurrent round
+	 * trips to the provider.
+	 * 
+	 * @return the limiter, or <code>null</code> if calls are not limited
+	 */
+	public ProviderCallLimiter getCallLimiter() {
+		return this.callLimiter;
+	}
+	
+	/**
+	 * Set the {@link ProviderCallLimiter} that bounds the concurrent round
+	 * trips to the provider. Calls that do not obtain a slot fail with a
+	 * {@link ProviderUnavailableException}.
+	 * 
+	 * @param callLimiter
+	 *            the limiter, or <code>null</code> to not limit calls
+	 */
+	public void setCallLimiter(ProviderCallLimiter callLimiter) {
+		this.callLimiter = callLimiter;
+	}
+	
+	/**
+	 * Return the {@link ProviderCircuitBreaker} that stops calls to the
+	 * provider while it is failing.
+	 * 
+	 * @return the breaker, or <code>null</code> if there is none
+	 */
+	public ProviderCircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+	
+	/**
+	 * Set the {@link ProviderCircuitBreaker} that stops calls to the provider
+	 * while it is failing. Calls refused by the breaker fail with a
+	 * {@link ProviderUnavailableException}.
+	 * 
+	 * @param circuitBreaker
+	 *            the breaker, or <code>null</code> for none
+	 */
+	public void setCircuitBreaker(ProviderCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+	
+	/**
+	 * Make the round trip to the provider for the given request using the
+	 * {@link OAuthTransport} of this service, behind the
+	 * {@link ProviderCircuitBreaker} and {@link ProviderCallLimiter}, if any.
+	 * No lock is held while the request is in flight.
+	 * 
+	 * @param request
+	 *            the {@link WebRequest} to execute
+	 * 
+	 * @return the {@link WebResponse}, or <code>null</code> if the request
+	 *         failed
+	 * 
+	 * @throws ProviderUnavailableException
+	 *             if the breaker is open or the limiter has no free slot
+	 */
+	protected WebResponse execute(WebRequest request) {
+		return ProviderCalls.execute(this.transport, this.callLimiter, this.circuitBreaker, request);
+	}
+	
 	@Override
 	public String signRequestUrl(String url, KeySecretPair userAccessPair) {
 		return url;
@@ -147,27 +396,85 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 			throw new IllegalArgumentException("WebRequest to be signed cannot be null");
 		}
 		
-		WebForm webForm = WebForm.newForm().addParam(OAuthConstants.CONSUMER_KEY, this.keySecretPair.getKey())
-				   .addParam(OAuthConstants.NONCE, NonceUtils.getNonce())
-				   .addParam(OAuthConstants.TIMESTAMP, String.valueOf(System.currentTimeMillis() /1000l))
-				   .addParam(OAuthConstants.VERSION, getOAuthVersion())
-				   .addParam(OAuthConstants.SIGNATURE_METHOD, getOAuthSignatureMethod().getOAuthName());
-		
-		if(userAccessPair != null) {
-			webForm.addParam(OAuthConstants.TOKEN, userAccessPair.getKey());
+		getSigner().sign(request, userAccessPair);
+	}
+	
+	/**
+	 * Return the {@link OAuth1Signer} for this service. The signer is created
+	 * on first use, and again after the clock changes, and may be shared
+	 * between all threads.
+	 * 
+	 * @return the {@link OAuth1Signer} for this service
+	 */
+	public OAuth1Signer getSigner() {
+		OAuth1Signer current = this.signer;
+		if(current == null || current.getClock() != this.clock) {
+			// a signer published with the old clock by a thread racing with
+			// setClock() fails the check above, and is built again here
+			current = new OAuth1Signer(this);
+			this.signer = current;
 		}
 		
-		addCustomOAuthParamsDuringSigning(webForm);
-		
-		// generate the signature for the request
-		OAuthUtils.signRequest(request, this.keySecretPair, userAccessPair, getOAuthSignatureMethod(), webForm);
-		
-		// sign the request with the details
-		OAuthUtils.buildAuthorizationHeader(request, webForm, getAuthorizationHeaderName(), getAuthorizationHeaderPrefix());
+		return current;
+	}
+
+	/**
+	 * Prepare a signing template for an end-point that is called again and
+	 * again, so that the parts of the signature that do not change between
+	 * calls are computed only once. The returned instance may be shared
+	 * between threads.
+	 * 
+	 * @param method
+	 *            the HTTP verb of the end-point
+	 * 
+	 * @param url
+	 *            the URL of the end-point, including any static query
+	 *            parameters
+	 * 
+	 * @return the {@link PreparedOAuthEndpoint}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the method is <code>null</code>, or the URL is empty or
+	 *             invalid
+	 */
+	public PreparedOAuthEndpoint prepareEndpoint(WebRequestMethod method, String url) {
+		return new PreparedOAuthEndpoint(this, method, url);
 	}
 
 	/**
-	 * Add custom OAuth parameters during the signing phase.
+	 * Return the {@link OAuthClock} used for the <code>oauth_timestamp</code>
+	 * parameter.
+	 * 
+	 * @return the {@link OAuthClock} in use
+	 */
+	public OAuthClock getClock() {
+		return this.clock;
+	}
+	
+	/**
+	 * Set the {@link OAuthClock} to use for the <code>oauth_timestamp</code>
+	 * parameter. The default is {@link CoarseClock#DEFAULT}. End-points
+	 * prepared earlier keep using the clock they were prepared with.
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} to use
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the clock is <code>null</code>
+	 */
+	public void setClock(OAuthClock clock) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		this.clock = clock;
+		this.signer = null;
+	}
+	
+	/**
+	 * Add custom OAuth parameters during the signing phase. The parameters
+	 * must be the same for every request, as this is called only once when
+	 * the {@link OAuth1Signer} for this service is created.
 	 * 
 	 * @param webForm
 	 */
@@ -184,11 +491,11 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 	 */
 	@Override
 	public String getAuthorizationResponse(TokenAndUrl tokenAndUrl, String verifier) {
-		WebRequest request = WebInvoker.getWebRequest(getAuthorizationTokenURL(), getAuthorizationTokenMethod());
+		WebRequest request = this.transport.newRequest(getAuthorizationTokenURL(), getAuthorizationTokenMethod());
 		
 		WebForm webForm = WebForm.newForm().addParam(OAuthConstants.CONSUMER_KEY, this.keySecretPair.getKey())
 				   .addParam(OAuthConstants.NONCE, NonceUtils.getNonce())
-				   .addParam(OAuthConstants.TIMESTAMP, String.valueOf(System.currentTimeMillis() /1000l))
+				   .addParam(OAuthConstants.TIMESTAMP, this.clock.currentTimeSecondsString())
 				   .addParam(OAuthConstants.VERSION, getOAuthVersion())
 				   .addParam(OAuthConstants.TOKEN, tokenAndUrl.token.getKey())
 				   .addParam(OAuthConstants.SIGNATURE_METHOD, getOAuthSignatureMethod().getOAuthName());
@@ -211,7 +518,7 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 					manipulator.setQueryParam(pair.getName(), pair.getValue());
 				}
 				
-				request = WebInvoker.getWebRequest(manipulator.constructURL(), getAuthorizationTokenMethod());
+				request = this.transport.newRequest(manipulator.constructURL(), getAuthorizationTokenMethod());
 				break;
 				
 			default:
@@ -223,7 +530,7 @@ public abstract class OAuth1ServiceImpl implements OAuthService {
 		}
 		
 		// hit the request for request token
-		WebResponse response = WebInvoker.executeSilently(request);
+		WebResponse response = execute(request);
 		if(response == null) {
 			LOGGER.error("Null response for request token API call");
 			return null;
@@ -0,0 +1,382 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import org.apache.http.NameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.http.WebForm;
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.oauth.OAuthEncoder;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.domain.OAuthConstants;
+import com.sangupta.jerry.oauth.domain.OAuthSignatureMethod;
+import com.sangupta.jerry.oauth.nonce.NonceUtils;
+import com.sangupta.jerry.oauth.signature.SignatureEngine;
+import com.sangupta.jerry.oauth.signature.SigningBuffer;
+import com.sangupta.jerry.util.AssertUtils;
+
+/**
+ * Signs {@link WebRequest}s on behalf of an {@link OAuth1ServiceImpl}. The
+ * parameters that are the same for every request of a service - the consumer
+ * key, the signature method, the version and any custom parameters - are read
+ * from the service and percent-encoded exactly once, both as signature base
+ * string fragments and as the start of the authorization header. Signing a
+ * request then only encodes the nonce, the timestamp and the user token, and
+ * allocates a single {@link String} for the header value.
+ * 
+ * <b>Thread-safety:</b> instances are immutable once constructed. All state
+ * used while signing is either final and never modified, or confined to the
+ * calling thread using {@link SigningBuffer}. A single instance, obtained from
+ * {@link OAuth1ServiceImpl#getSigner()}, may therefore be shared by any number
+ * of threads without synchronization. The {@link WebRequest} being signed is
+ * not shared, and must not be modified by another thread while it is signed.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@Immutable
+@ThreadSafe
+public class OAuth1Signer {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(OAuth1Signer.class);
+	
+	/**
+	 * The application key-secret pair used for signing
+	 */
+	private final KeySecretPair keySecretPair;
+	
+	/**
+	 * The clock used for the timestamp
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The signature method used
+	 */
+	private final OAuthSignatureMethod signatureMethod;
+	
+	/**
+	 * The header name for the authorization header
+	 */
+	private final String headerName;
+	
+	/**
+	 * The start of the authorization header value, including the prefix and
+	 * all constant OAuth parameters, already encoded
+	 */
+	private final String headerStart;
+	
+	/**
+	 * The once-encoded names and values of all constant parameters that take
+	 * part in the signature, stored next to each other
+	 */
+	private final byte[] constants;
+	
+	/**
+	 * The offsets of the name, value and value end of each constant parameter
+	 * in {@link #constants}
+	 */
+	private final int[] constantOffsets;
+	
+	/**
+	 * Create a signer for the given service. Reads all constant values from
+	 * the service, including the custom parameters added by
+	 * {@link OAuth1ServiceImpl#addCustomOAuthParamsDuringSigning(WebForm)}.
+	 * 
+	 * @param service
+	 *            the service to sign requests for
+	 */
+	OAuth1Signer(OAuth1ServiceImpl service) {
+		this.keySecretPair = service.keySecretPair;
+		this.clock = service.getClock();
+		this.signatureMethod = service.getOAuthSignatureMethod();
+		this.headerName = service.getAuthorizationHeaderName();
+		
+		WebForm webForm = WebForm.newForm().addParam(OAuthConstants.CONSUMER_KEY, this.keySecretPair.getKey())
+										   .addParam(OAuthConstants.VERSION, service.getOAuthVersion())
+										   .addParam(OAuthConstants.SIGNATURE_METHOD, this.signatureMethod.getOAuthName());
+		service.addCustomOAuthParamsDuringSigning(webForm);
+		List<NameValuePair> pairs = webForm.build();
+		
+		StringBuilder header = new StringBuilder(256);
+		String prefix = service.getAuthorizationHeaderPrefix();
+		if(AssertUtils.isNotBlank(prefix)) {
+			header.append(prefix);
+			header.append(' ');
+		}
+		
+		int capacity = 0;
+		for(NameValuePair pair : pairs) {
+			capacity += OAuthEncoder.maxEncodedLength(pair.getName().length() + (pair.getValue() == null ? 0 : pair.getValue().length()));
+		}
+		
+		byte[] bytes = new byte[capacity];
+		int[] offsets = new int[pairs.size() * 3];
+		int position = 0;
+		int entry = 0;
+		
+		for(int index = 0; index < pairs.size(); index++) {
+			NameValuePair pair = pairs.get(index);
+			String name = pair.getName();
+			String value = pair.getValue();
+			
+			if(index > 0) {
+				header.append(", ");
+			}
+			appendHeaderParam(header, name, value);
+			
+			if(!name.startsWith("oauth_")) {
+				continue;
+			}
+			
+			offsets[entry++] = position;
+			position = OAuthEncoder.encode(name, 0, name.length(), bytes, position);
+			offsets[entry++] = position;
+			if(value != null) {
+				position = OAuthEncoder.encode(value, 0, value.length(), bytes, position);
+			}
+			offsets[entry++] = position;
+		}
+		
+		this.headerStart = header.toString();
+		this.constants = Arrays.copyOf(bytes, position);
+		this.constantOffsets = Arrays.copyOf(offsets, entry);
+	}
+	
+	/**
+	 * Sign the given request and add the authorization header to it.
+	 * 
+	 * @param request
+	 *            the request to sign
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code> for requests
+	 *            that are signed only by the application
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the request is <code>null</code>
+	 */
+	public void sign(WebRequest request, KeySecretPair userAccessPair) {
+		sign(request, userAccessPair, null);
+	}
+	
+	/**
+	 * Sign the given request along with the given extra parameters, and add
+	 * the authorization header to it. All extra parameters are added to the
+	 * header, and the ones starting with <code>oauth_</code> also take part in
+	 * the signature.
+	 * 
+	 * @param request
+	 *            the request to sign
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code> for requests
+	 *            that are signed only by the application
+	 * 
+	 * @param extraParams
+	 *            the extra parameters for this request, like the callback URL,
+	 *            may be <code>null</code>
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the request is <code>null</code>
+	 */
+	public void sign(WebRequest request, KeySecretPair userAccessPair, WebForm extraParams) {
+		if(request == null) {
+			throw new IllegalArgumentException("WebRequest to be signed cannot be null");
+		}
+		
+		String headerValue = buildAuthorizationHeader(request, userAccessPair, extraParams, NonceUtils.getNonce(), this.clock.currentTimeSecondsString());
+		LOGGER.debug("OAuth header built as: {}: {}", this.headerName, headerValue);
+		request.addHeader(this.headerName, headerValue);
+	}
+	
+	/**
+	 * Compute the signature for the given request and return the value of the
+	 * authorization header, without modifying the request.
+	 * 
+	 * @param request
+	 *            the request to sign
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code>
+	 * 
+	 * @param extraParams
+	 *            the extra parameters for this request, may be
+	 *            <code>null</code>
+	 * 
+	 * @param nonce
+	 *            the nonce to use
+	 * 
+	 * @param timestamp
+	 *            the timestamp to use, in seconds
+	 * 
+	 * @return the value of the authorization header
+	 */
+	public String buildAuthorizationHeader(WebRequest request, KeySecretPair userAccessPair, WebForm extraParams, String nonce, String timestamp) {
+		final List<NameValuePair> extras = extraParams == null ? null : extraParams.build();
+		final URI uri = request.getURI();
+		
+		final SigningBuffer buffer = SigningBuffer.get();
+		buffer.appendAscii(request.getVerb().name());
+		buffer.appendSeparator();
+		buffer.appendSigningBase(uri);
+		buffer.appendSeparator();
+		buffer.addRawParameters(uri.getRawQuery());
+		
+		if(extras != null) {
+			for(int index = 0; index < extras.size(); index++) {
+				NameValuePair pair = extras.get(index);
+				if(pair.getName().startsWith("oauth_")) {
+					buffer.addParameter(pair.getName(), pair.getValue());
+				}
+			}
+		}
+		
+		String signature = sign(buffer, userAccessPair, nonce, timestamp);
+		return buildHeader(userAccessPair, nonce, timestamp, extras, signature);
+	}
+	
+	/**
+	 * Return the clock used for the <code>oauth_timestamp</code> parameter.
+	 * 
+	 * @return the {@link OAuthClock} in use
+	 */
+	public OAuthClock getClock() {
+		return this.clock;
+	}
+	
+	/**
+	 * Return the name of the authorization header used.
+	 * 
+	 * @return the header name
+	 */
+	public String getHeaderName() {
+		return this.headerName;
+	}
+	
+	/**
+	 * Add the constant and per-call OAuth parameters to the buffer, which
+	 * must already hold the start of the base string and all request
+	 * parameters, and compute the signature.
+	 * 
+	 * @param buffer
+	 *            the buffer for the current thread
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code>
+	 * 
+	 * @param nonce
+	 *            the nonce to use
+	 * 
+	 * @param timestamp
+	 *            the timestamp to use
+	 * 
+	 * @return the Base64 encoded signature
+	 */
+	String sign(SigningBuffer buffer, KeySecretPair userAccessPair, String nonce, String timestamp) {
+		final int[] offsets = this.constantOffsets;
+		for(int entry = 0; entry < offsets.length; entry += 3) {
+			buffer.addEncodedParameter(this.constants, offsets[entry], offsets[entry + 1], offsets[entry + 2]);
+		}
+		
+		buffer.addParameter(OAuthConstants.NONCE, nonce);
+		buffer.addParameter(OAuthConstants.TIMESTAMP, timestamp);
+		if(userAccessPair != null) {
+			buffer.addParameter(OAuthConstants.TOKEN, userAccessPair.getKey());
+		}
+		
+		buffer.appendParameters();
+		
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Signable string generated as: {}", buffer.toString());
+		}
+		
+		final String tokenSecret = userAccessPair != null ? userAccessPair.getSecret() : null;
+		return buffer.sign(SignatureEngine.DEFAULT, this.signatureMethod, this.keySecretPair.getSecret(), tokenSecret);
+	}
+	
+	/**
+	 * Build the authorization header value from the constant start and the
+	 * given per-call values.
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code>
+	 * 
+	 * @param nonce
+	 *            the nonce used
+	 * 
+	 * @param timestamp
+	 *            the timestamp used
+	 * 
+	 * @param extras
+	 *            the extra parameters, may be <code>null</code>
+	 * 
+	 * @param signature
+	 *            the computed signature
+	 * 
+	 * @return the header value
+	 */
+	String buildHeader(KeySecretPair userAccessPair, String nonce, String timestamp, List<NameValuePair> extras, String signature) {
+		StringBuilder header = new StringBuilder(this.headerStart.length() + 192);
+		header.append(this.headerStart);
+		appendHeaderParam(header.append(", "), OAuthConstants.NONCE, nonce);
+		appendHeaderParam(header.append(", "), OAuthConstants.TIMESTAMP, timestamp);
+		if(userAccessPair != null) {
+			appendHeaderParam(header.append(", "), OAuthConstants.TOKEN, userAccessPair.getKey());
+		}
+		
+		if(extras != null) {
+			for(int index = 0; index < extras.size(); index++) {
+				NameValuePair pair = extras.get(index);
+				appendHeaderParam(header.append(", "), pair.getName(), pair.getValue());
+			}
+		}
+		
+		appendHeaderParam(header.append(", "), OAuthConstants.SIGNATURE, signature);
+		return header.toString();
+	}
+	
+	/**
+	 * Append a single name-value pair in the authorization header format.
+	 * 
+	 */
+	private static void appendHeaderParam(StringBuilder builder, String name, String value) {
+		builder.append(name);
+		builder.append("=\"");
+		OAuthEncoder.encode(value, builder);
+		builder.append('"');
+	}
+	
+}
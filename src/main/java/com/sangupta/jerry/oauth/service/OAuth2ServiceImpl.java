@@ -21,19 +21,24 @@
 
 package com.sangupta.jerry.oauth.service;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
 import org.apache.http.NameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sangupta.jerry.http.HttpHeaderName;
 import com.sangupta.jerry.http.WebForm;
-import com.sangupta.jerry.http.WebInvoker;
 import com.sangupta.jerry.http.WebRequest;
 import com.sangupta.jerry.http.WebRequestMethod;
 import com.sangupta.jerry.http.WebResponse;
 import com.sangupta.jerry.oauth.domain.KeySecretPair;
 import com.sangupta.jerry.oauth.domain.OAuthConstants;
 import com.sangupta.jerry.oauth.domain.TokenAndUrl;
+import com.sangupta.jerry.oauth.transport.JerryHttpTransport;
+import com.sangupta.jerry.oauth.transport.OAuthTransport;
 import com.sangupta.jerry.util.StringUtils;
 import com.sangupta.jerry.util.UrlManipulator;
 
@@ -55,6 +60,23 @@ public abstract class OAuth2ServiceImpl implements OAuthService {
 	 */
 	protected final KeySecretPair keySecretPair;
 	
+	/**
+	 * The HTTP client used to reach the provider
+	 */
+	private volatile OAuthTransport transport = JerryHttpTransport.DEFAULT;
+	
+	/**
+	 * The limiter of concurrent round trips to the provider, <code>null</code>
+	 * if calls are not limited
+	 */
+	private volatile ProviderCallLimiter callLimiter;
+	
+	/**
+	 * The breaker that stops calls to a failing provider, <code>null</code>
+	 * if there is none
+	 */
+	private volatile ProviderCircuitBreaker circuitBreaker;
+	
 	/**
 	 * Constructor
 	 * 
@@ -137,7 +159,7 @@ public abstract class OAuth2ServiceImpl implements OAuthService {
 		massageAuthorizationURL(webForm);
 
 		if(getAuthorizationMethod() == WebRequestMethod.POST) {
-			request = WebInvoker.getWebRequest(getAuthorizationEndPoint(), getAuthorizationMethod());
+			request = this.transport.newRequest(getAuthorizationEndPoint(), getAuthorizationMethod());
 			request.bodyForm(webForm.build());
 		} else {
 			// this may be a GET request, add parameters to URL
@@ -146,14 +168,14 @@ public abstract class OAuth2ServiceImpl implements OAuthService {
 				manipulator.setQueryParam(pair.getName(), pair.getValue());
 			}
 			
-			request = WebInvoker.getWebRequest(manipulator.constructURL(), getAuthorizationMethod());
+			request = this.transport.newRequest(manipulator.constructURL(), getAuthorizationMethod());
 		}
 		
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("Making authorization call to: {}", request.trace());
 		}
 		
-		WebResponse response = WebInvoker.executeSilently(request);
+		WebResponse response = execute(request);
 		if(response == null) {
 			LOGGER.error("Null response for authorization API call");
 			return null;
@@ -170,6 +192,229 @@ public abstract class OAuth2ServiceImpl implements OAuthService {
 		return content;
 	}
 
+	/**
+	 * Asynchronous variant of {@link #getLoginURL(String, String)}, run on the
+	 * shared executor with no deadline.
+	 * 
+	 * @param successUrl
+	 *            the callback success url that the call will come back to
+	 * 
+	 * @param scope
+	 *            the scopes to be used for authentication
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the login url
+	 */
+	public Future<TokenAndUrl> getLoginURLAsync(String successUrl, String scope, OAuthCallback<TokenAndUrl> callback) {
+		return getLoginURLAsync(successUrl, scope, null, 0, callback);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getLoginURL(String, String)}. The
+	 * login URL is built without any round trip to the provider, so the call
+	 * completes on the calling thread and the executor and deadline are not
+	 * used. The variant exists for symmetry with
+	 * {@link OAuth1ServiceImpl#getLoginURLAsync(String, String, Executor, long, OAuthCallback)}.
+	 * 
+	 * @param successUrl
+	 *            the callback success url that the call will come back to
+	 * 
+	 * @param scope
+	 *            the scopes to be used for authentication
+	 * 
+	 * @param executor
+	 *            the {@link Executor} to run the call on, or <code>null</code>
+	 *            to use a small shared executor, which fails calls with a
+	 *            {@link java.util.concurrent.RejectedExecutionException} once
+	 *            its queue is full
+	 * 
+	 * @param timeoutMillis
+	 *            the time after which the call fails with a
+	 *            {@link java.util.concurrent.TimeoutException}, in
+	 *            milliseconds, zero or less for no deadline
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the login url
+	 */
+	public Future<TokenAndUrl> getLoginURLAsync(final String successUrl, final String scope, Executor executor, long timeoutMillis, OAuthCallback<TokenAndUrl> callback) {
+		return OAuthAsyncSupport.complete(new Callable<TokenAndUrl>() {
+			
+			@Override
+			public TokenAndUrl call() throws Exception {
+				return getLoginURL(successUrl, scope);
+			}
+			
+		}, callback);
+	}
+	
+	/**
+	 * Asynchronous variant of
+	 * {@link #getAuthorizationResponse(TokenAndUrl, String)}, run on the
+	 * shared executor with no deadline.
+	 * 
+	 * @param tokenAndUrl
+	 *            the {@link TokenAndUrl} instance that was supplied during
+	 *            login URL creation
+	 * 
+	 * @param verifier
+	 *            the verifier code that was sent back from the server
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the authorization response
+	 */
+	public Future<String> getAuthorizationResponseAsync(TokenAndUrl tokenAndUrl, String verifier, OAuthCallback<String> callback) {
+		return getAuthorizationResponseAsync(tokenAndUrl, verifier, null, 0, callback);
+	}
+	
+	/**
+	 * Asynchronous variant of
+	 * {@link #getAuthorizationResponse(TokenAndUrl, String)}. The call to the
+	 * provider is made on the given executor, so that the calling thread does
+	 * not wait for the round trip.
+	 * 
+	 * @param tokenAndUrl
+	 *            the {@link TokenAndUrl} instance that was supplied during
+	 *            login URL creation
+	 * 
+	 * @param verifier
+	 *            the verifier code that was sent back from the server
+	 * 
+	 * @param executor
+	 *            the {@link Executor} to run the call on, or <code>null</code>
+	 *            to use a small shared executor, which fails calls with a
+	 *            {@link java.util.concurrent.RejectedExecutionException} once
+	 *            its queue is full
+	 * 
+	 * @param timeoutMillis
+	 *            the time after which the call fails with a
+	 *            {@link java.util.concurrent.TimeoutException}, in
+	 *            milliseconds, zero or less for no deadline
+	 * 
+	 * @param callback
+	 *            the {@link OAuthCallback} to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the authorization response
+	 */
+	public Future<String> getAuthorizationResponseAsync(final TokenAndUrl tokenAndUrl, final String verifier, Executor executor, long timeoutMillis, OAuthCallback<String> callback) {
+		return OAuthAsyncSupport.submit(new Callable<String>() {
+			
+			@Override
+			public String call() throws Exception {
+				return getAuthorizationResponse(tokenAndUrl, verifier);
+			}
+			
+		}, executor, timeoutMillis, callback);
+	}
+	
+	/**
+	 * Return the {@link OAuthTransport} used to reach the provider.
+	 * 
+	 * @return the {@link OAuthTransport} in use
+	 */
+	public OAuthTransport getTransport() {
+		return this.transport;
+	}
+	
+	/**
+	 * Set the {@link OAuthTransport} used to reach the provider. The default
+	 * is {@link JerryHttpTransport#DEFAULT}.
+	 * 
+	 * @param transport
+	 *            the {@link OAuthTransport} to use
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the transport is <code>null</code>
+	 */
+	public void setTransport(OAuthTransport transport) {
+		if(transport == null) {
+			throw new IllegalArgumentException("Transport cannot be null");
+		}
+		
+		this.transport = transport;
+	}
+	
+	/**
+	 * Open connections to the authorization end-point of the provider ahead
+	 * of the first login, if the {@link OAuthTransport} of this service keeps
+	 * connections of its own, such as a
+	 * {@link com.sangupta.jerry.oauth.transport.ProviderConnectionPool}.
+	 * Usually called once at startup.
+	 * 
+	 * @return the number of connections opened
+	 */
+	public int warmUp() {
+		return this.transport.warmUp(getAuthorizationEndPoint());
+	}
+	
+	/**
+	 * Return the {@link ProviderCallLimiter} that bounds the concurrent round
+	 * trips to the provider.
+	 * 
+	 * @return the limiter, or <code>null</code> if calls are not limited
+	 */
+	public ProviderCallLimiter getCallLimiter() {
+		return this.callLimiter;
+	}
+	
+	/**
+	 * Set the {@link ProviderCallLimiter} that bounds the concurrent round
+	 * trips to the provider. Calls that do not obtain a slot fail with a
+	 * {@link ProviderUnavailableException}.
+	 * 
+	 * @param callLimiter
+	 *            the limiter, or <code>null</code> to not limit calls
+	 */
+	public void setCallLimiter(ProviderCallLimiter callLimiter) {
+		this.callLimiter = callLimiter;
+	}
+	
+	/**
+	 * Return the {@link ProviderCircuitBreaker} that stops calls to the
+	 * provider while it is failing.
+	 * 
+	 * @return the breaker, or <code>null</code> if there is none
+	 */
+	public ProviderCircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+	
+	/**
+	 * Set the {@link ProviderCircuitBreaker} that stops calls to the provider
+	 * while it is failing. Calls refused by the breaker fail with a
+	 * {@link ProviderUnavailableException}.
+	 * 
+	 * @param circuitBreaker
+	 *            the breaker, or <code>null</code> for none
+	 */
+	public void setCircuitBreaker(ProviderCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+	
+	/**
+	 * Make the round trip to the provider for the given request using the
+	 * {@link OAuthTransport} of this service, behind the
+	 * {@link ProviderCircuitBreaker} and {@link ProviderCallLimiter}, if any.
+	 * No lock is held while the request is in flight.
+	 * 
+	 * @param request
+	 *            the {@link WebRequest} to execute
+	 * 
+	 * @return the {@link WebResponse}, or <code>null</code> if the request
+	 *         failed
+	 * 
+	 * @throws ProviderUnavailableException
+	 *             if the breaker is open or the limiter has no free slot
+	 */
+	protected WebResponse execute(WebRequest request) {
+		return ProviderCalls.execute(this.transport, this.callLimiter, this.circuitBreaker, request);
+	}
+	
 	@Override
 	public String signRequestUrl(String url, KeySecretPair userAccessPair) {
 		return url;
@@ -0,0 +1,252 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+
+/**
+ * Runs the blocking calls of the {@link OAuthService} implementations on an
+ * {@link Executor}, so that the calling thread does not wait for the round
+ * trip to the provider, and fails them once their deadline has passed.
+ * 
+ * A call whose deadline passes is completed with a {@link TimeoutException}
+ * right away. The underlying HTTP request cannot be interrupted, so the
+ * executor thread stays busy till the request returns, and its result is
+ * discarded.
+ * 
+ * Calls made without an executor share {@link #DEFAULT_EXECUTOR}, which has
+ * at most {@link #DEFAULT_THREADS} daemon threads and queues at most
+ * {@link #DEFAULT_QUEUE} calls, so that a slow provider cannot make the
+ * number of threads grow without bound. Calls beyond that fail with a
+ * {@link RejectedExecutionException}; callers making many concurrent calls
+ * should pass an executor sized for them.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+final class OAuthAsyncSupport {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(OAuthAsyncSupport.class);
+	
+	/**
+	 * The number of threads of {@link #DEFAULT_EXECUTOR}
+	 */
+	static final int DEFAULT_THREADS = 16;
+	
+	/**
+	 * The number of calls {@link #DEFAULT_EXECUTOR} queues when all its
+	 * threads are busy
+	 */
+	static final int DEFAULT_QUEUE = 1024;
+	
+	/**
+	 * The executor used when the caller does not provide one, made of daemon
+	 * threads that exit after a minute of idleness
+	 */
+	static final ExecutorService DEFAULT_EXECUTOR = newDefaultExecutor();
+	
+	/**
+	 * The scheduler that fails calls on their deadline
+	 */
+	private static final ScheduledExecutorService DEADLINES = ExpiryScheduler.newScheduler("oauth-async-deadline", 1);
+	
+	/**
+	 * Utility class - no instances
+	 */
+	private OAuthAsyncSupport() {
+		
+	}
+	
+	/**
+	 * Create the bounded executor used when the caller does not provide one.
+	 * 
+	 */
+	private static ExecutorService newDefaultExecutor() {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(DEFAULT_QUEUE), new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "oauth-async-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+			
+		});
+		
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Run the given call on the given executor.
+	 * 
+	 * @param call
+	 *            the call to run
+	 * 
+	 * @param executor
+	 *            the executor to run the call on, or <code>null</code> for
+	 *            {@link #DEFAULT_EXECUTOR}
+	 * 
+	 * @param timeoutMillis
+	 *            the time after which the call fails with a
+	 *            {@link TimeoutException}, in milliseconds, zero or less for
+	 *            no deadline
+	 * 
+	 * @param callback
+	 *            the callback to notify, may be <code>null</code>
+	 * 
+	 * @return the {@link Future} of the call
+	 */
+	static <T> Future<T> submit(Callable<T> call, Executor executor, long timeoutMillis, OAuthCallback<T> callback) {
+		if(executor == null) {
+			executor = DEFAULT_EXECUTOR;
+		}
+		
+		final OAuthCall<T> task = new OAuthCall<T>(call, callback);
+		if(timeoutMillis > 0) {
+			task.deadline = DEADLINES.schedule(new Runnable() {
+				
+				@Override
+				public void run() {
+					task.fail(new TimeoutException("OAuth call did not complete within its deadline"));
+				}
+				
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		
+		try {
+			executor.execute(task);
+		} catch(RejectedExecutionException e) {
+			task.fail(e);
+		}
+		
+		return task;
+	}
+	
+	/**
+	 * Run the given call on the calling thread. Used for the calls that do not
+	 * need a round trip to the provider.
+	 * 
+	 * @param call
+	 *            the call to run
+	 * 
+	 * @param callback
+	 *            the callback to notify, may be <code>null</code>
+	 * 
+	 * @return the completed {@link Future} of the call
+	 */
+	static <T> Future<T> complete(Callable<T> call, OAuthCallback<T> callback) {
+		final OAuthCall<T> task = new OAuthCall<T>(call, callback);
+		task.run();
+		return task;
+	}
+	
+	/**
+	 * A call that notifies its callback on completion, and releases its
+	 * deadline.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private static final class OAuthCall<T> extends FutureTask<T> {
+		
+		private final OAuthCallback<T> callback;
+		
+		volatile ScheduledFuture<?> deadline;
+		
+		OAuthCall(Callable<T> call, OAuthCallback<T> callback) {
+			super(call);
+			this.callback = callback;
+		}
+		
+		/**
+		 * Complete the call with the given error, unless already completed.
+		 * 
+		 */
+		void fail(Throwable error) {
+			setException(error);
+		}
+		
+		/**
+		 * @see java.util.concurrent.FutureTask#done()
+		 */
+		@Override
+		protected void done() {
+			final ScheduledFuture<?> deadline = this.deadline;
+			if(deadline != null) {
+				deadline.cancel(false);
+			}
+			
+			if(this.callback == null) {
+				return;
+			}
+			
+			try {
+				T result;
+				try {
+					result = get();
+				} catch(CancellationException e) {
+					this.callback.onFailure(e);
+					return;
+				} catch(ExecutionException e) {
+					this.callback.onFailure(e.getCause());
+					return;
+				} catch(InterruptedException e) {
+					// cannot happen as the task is done
+					Thread.currentThread().interrupt();
+					this.callback.onFailure(e);
+					return;
+				}
+				
+				this.callback.onSuccess(result);
+			} catch(RuntimeException e) {
+				LOGGER.error("OAuth callback failed", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+/**
+ * Receives the outcome of an asynchronous call made by an
+ * {@link OAuthService}, such as
+ * {@link OAuth1ServiceImpl#getLoginURLAsync(String, String, java.util.concurrent.Executor, long, OAuthCallback)}.
+ * 
+ * Exactly one of the methods is called, once, on the thread that completed
+ * the call: a thread of the executor the call ran on, the thread that
+ * enforces the deadline, or the thread that cancelled the call.
+ * Implementations should therefore return quickly.
+ * 
+ * @author sangupta
+ * @since 1.0
+ *
+ * @param <T>
+ *            the type of the result
+ */
+public interface OAuthCallback<T> {
+	
+	/**
+	 * Called when the call has completed. The result may be
+	 * <code>null</code> in the same cases as for the blocking variant of the
+	 * call, for example when the provider did not answer with a success.
+	 * 
+	 * @param result
+	 *            the result of the call
+	 */
+	public void onSuccess(T result);
+	
+	/**
+	 * Called when the call has failed, was cancelled, or did not complete
+	 * before its deadline.
+	 * 
+	 * @param error
+	 *            the reason of the failure: a
+	 *            {@link java.util.concurrent.TimeoutException} if the
+	 *            deadline passed, a
+	 *            {@link java.util.concurrent.CancellationException} if the
+	 *            call was cancelled, a
+	 *            {@link java.util.concurrent.RejectedExecutionException} if
+	 *            the executor did not accept the call, else the exception
+	 *            thrown by the call
+	 */
+	public void onFailure(Throwable error);
+
+}
@@ -46,6 +46,9 @@ public interface OAuthService {
 	 * 
 	 * @return the login url to which the user should be redirected
 	 * 
+	 * @throws ProviderUnavailableException
+	 *             if the call to the provider is refused as the provider is
+	 *             failing or too busy
 	 */
 	public TokenAndUrl getLoginURL(String successUrl, String scope);
 	
@@ -64,6 +67,10 @@ public interface OAuthService {
 	 * 
 	 * @return the {@link String} representation of the web response received as
 	 *         part of the authorization call
+	 * 
+	 * @throws ProviderUnavailableException
+	 *             if the call to the provider is refused as the provider is
+	 *             failing or too busy
 	 */
 	public String getAuthorizationResponse(TokenAndUrl tokenAndUrl, String verifier);
 	
@@ -0,0 +1,359 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.apache.http.NameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.oauth.OAuthEncoder;
+import com.sangupta.jerry.oauth.ParameterList;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.nonce.NonceUtils;
+import com.sangupta.jerry.oauth.signature.SigningBuffer;
+import com.sangupta.jerry.oauth.transport.OAuthTransport;
+import com.sangupta.jerry.util.AssertUtils;
+
+/**
+ * A signing template for an OAuth 1.0 end-point that is called again and
+ * again, like an API end-point of Twitter. Everything that does not change
+ * between two calls is computed once when the end-point is prepared:
+ * 
+ * <ul>
+ * <li>the HTTP verb and the lower-cased, percent-encoded base URL that make up
+ * the prefix of the signature base string</li>
+ * <li>the normalized query string parameters of the URL</li>
+ * </ul>
+ * 
+ * The constant OAuth parameters and the start of the authorization header are
+ * shared with the {@link OAuth1Signer} of the service.
+ * 
+ * Each call then only encodes the nonce, the timestamp, the user token and the
+ * request parameters before computing the signature.
+ * 
+ * Instances are obtained using
+ * {@link OAuth1ServiceImpl#prepareEndpoint(WebRequestMethod, String)}, are
+ * immutable, and may be shared between threads.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class PreparedOAuthEndpoint {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(PreparedOAuthEndpoint.class);
+	
+	/**
+	 * The HTTP verb of the end-point
+	 */
+	private final WebRequestMethod method;
+	
+	/**
+	 * The URL of the end-point, including any static query parameters
+	 */
+	private final String url;
+	
+	/**
+	 * Whether the URL already contains a query string
+	 */
+	private final boolean hasQuery;
+	
+	/**
+	 * The signer of the service, holding the constant OAuth parameters
+	 */
+	private final OAuth1Signer signer;
+	
+	/**
+	 * The transport of the service, used to create the requests
+	 */
+	private final OAuthTransport transport;
+	
+	/**
+	 * The encoded verb and base URL, along with the separators, that start
+	 * every signature base string of this end-point
+	 */
+	private final byte[] signingPrefix;
+	
+	/**
+	 * The normalized names and values of the static query parameters, stored
+	 * next to each other
+	 */
+	private final byte[] constants;
+	
+	/**
+	 * The offsets of the name, value and value end of each static query
+	 * parameter in {@link #constants}
+	 */
+	private final int[] constantOffsets;
+	
+	/**
+	 * Prepare the given end-point for the given service.
+	 * 
+	 * @param service
+	 *            the service whose keys and settings are used
+	 * 
+	 * @param method
+	 *            the HTTP verb of the end-point
+	 * 
+	 * @param url
+	 *            the URL of the end-point, any fragment is dropped as it is
+	 *            never sent to the server
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the method is <code>null</code>, or the URL is empty or
+	 *             not a valid URI
+	 */
+	PreparedOAuthEndpoint(OAuth1ServiceImpl service, WebRequestMethod method, String url) {
+		if(method == null) {
+			throw new IllegalArgumentException("HTTP method cannot be null");
+		}
+		
+		if(AssertUtils.isEmpty(url)) {
+			throw new IllegalArgumentException("End-point URL cannot be null/empty");
+		}
+		
+		URI uri;
+		try {
+			uri = new URI(url);
+		} catch(URISyntaxException e) {
+			throw new IllegalArgumentException("End-point URL is not a valid URI: " + url, e);
+		}
+		
+		// request parameters are appended to the URL, so they must not land
+		// after a fragment
+		if(uri.getRawFragment() != null) {
+			url = url.substring(0, url.indexOf('#'));
+		}
+		
+		this.method = method;
+		this.url = url;
+		this.hasQuery = uri.getRawQuery() != null;
+		this.signer = service.getSigner();
+		this.transport = service.getTransport();
+		
+		// the start of the signature base string
+		SigningBuffer buffer = SigningBuffer.get();
+		buffer.appendAscii(method.name());
+		buffer.appendSeparator();
+		buffer.appendSigningBase(uri);
+		buffer.appendSeparator();
+		this.signingPrefix = buffer.toByteArray();
+		
+		// normalize the static query parameters once
+		final String query = uri.getRawQuery();
+		if(query == null) {
+			this.constants = new byte[0];
+			this.constantOffsets = new int[0];
+			return;
+		}
+		
+		byte[] bytes = new byte[OAuthEncoder.maxEncodedLength(query.length())];
+		int[] offsets = new int[countPairs(query) * 3];
+		int position = 0;
+		int entry = 0;
+		
+		int start = 0;
+		while(start < query.length()) {
+			final int end = ParameterList.pairEnd(query, start);
+			if(end > start) {
+				final int separator = ParameterList.valueSeparator(query, start, end);
+				offsets[entry++] = position;
+				position = OAuthEncoder.normalize(query, start, separator < 0 ? end : separator, bytes, position);
+				offsets[entry++] = position;
+				if(separator >= 0) {
+					position = OAuthEncoder.normalize(query, separator + 1, end, bytes, position);
+				}
+				offsets[entry++] = position;
+			}
+			
+			start = end + 1;
+		}
+		
+		this.constants = Arrays.copyOf(bytes, position);
+		this.constantOffsets = Arrays.copyOf(offsets, entry);
+	}
+	
+	/**
+	 * Create a new signed {@link WebRequest} for this end-point.
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code> for calls that
+	 *            are signed only by the application
+	 * 
+	 * @return the signed {@link WebRequest}
+	 */
+	public WebRequest newRequest(KeySecretPair userAccessPair) {
+		return newRequest(userAccessPair, null);
+	}
+	
+	/**
+	 * Create a new signed {@link WebRequest} for this end-point with the given
+	 * request parameters. The parameters are sent in the query string for
+	 * <code>GET</code> and <code>DELETE</code> end-points, and as a form
+	 * encoded body otherwise. In both cases they take part in the signature.
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code> for calls that
+	 *            are signed only by the application
+	 * 
+	 * @param requestParams
+	 *            the request parameters, may be <code>null</code>
+	 * 
+	 * @return the signed {@link WebRequest}
+	 */
+	public WebRequest newRequest(KeySecretPair userAccessPair, List<NameValuePair> requestParams) {
+		final boolean hasParams = requestParams != null && !requestParams.isEmpty();
+		final boolean inQuery = this.method == WebRequestMethod.GET || this.method == WebRequestMethod.DELETE;
+		
+		WebRequest request;
+		if(hasParams && inQuery) {
+			request = this.transport.newRequest(buildURL(requestParams), this.method);
+		} else {
+			request = this.transport.newRequest(this.url, this.method);
+			if(hasParams) {
+				request.bodyForm(requestParams);
+			}
+		}
+		
+		final String nonce = NonceUtils.getNonce();
+		final String timestamp = this.signer.getClock().currentTimeSecondsString();
+		final String signature = getSignature(userAccessPair, nonce, timestamp, requestParams);
+		
+		String headerValue = this.signer.buildHeader(userAccessPair, nonce, timestamp, null, signature);
+		LOGGER.debug("OAuth header built as: {}: {}", this.signer.getHeaderName(), headerValue);
+		request.addHeader(this.signer.getHeaderName(), headerValue);
+		
+		return request;
+	}
+	
+	/**
+	 * Compute the signature for a call to this end-point.
+	 * 
+	 * @param userAccessPair
+	 *            the user access token, may be <code>null</code>
+	 * 
+	 * @param nonce
+	 *            the nonce for the call
+	 * 
+	 * @param timestamp
+	 *            the timestamp for the call, in seconds
+	 * 
+	 * @param requestParams
+	 *            the request parameters, may be <code>null</code>
+	 * 
+	 * @return the Base64 encoded signature
+	 */
+	public String getSignature(KeySecretPair userAccessPair, String nonce, String timestamp, List<NameValuePair> requestParams) {
+		final SigningBuffer buffer = SigningBuffer.get();
+		buffer.appendBytes(this.signingPrefix);
+		
+		final int[] offsets = this.constantOffsets;
+		for(int entry = 0; entry < offsets.length; entry += 3) {
+			buffer.addEncodedParameter(this.constants, offsets[entry], offsets[entry + 1], offsets[entry + 2]);
+		}
+		
+		if(requestParams != null) {
+			for(int index = 0; index < requestParams.size(); index++) {
+				NameValuePair pair = requestParams.get(index);
+				buffer.addParameter(pair.getName(), pair.getValue());
+			}
+		}
+		
+		return this.signer.sign(buffer, userAccessPair, nonce, timestamp);
+	}
+	
+	/**
+	 * Return the HTTP verb of this end-point.
+	 * 
+	 * @return the HTTP verb
+	 */
+	public WebRequestMethod getMethod() {
+		return this.method;
+	}
+	
+	/**
+	 * Return the URL of this end-point, without any fragment.
+	 * 
+	 * @return the URL
+	 */
+	public String getUrl() {
+		return this.url;
+	}
+	
+	/**
+	 * Build the URL with the given request parameters added to the query
+	 * string.
+	 * 
+	 */
+	private String buildURL(List<NameValuePair> requestParams) {
+		StringBuilder builder = new StringBuilder(this.url.length() + requestParams.size() * 32);
+		builder.append(this.url);
+		
+		char separator = this.hasQuery ? '&' : '?';
+		for(int index = 0; index < requestParams.size(); index++) {
+			NameValuePair pair = requestParams.get(index);
+			builder.append(separator);
+			OAuthEncoder.encode(pair.getName(), builder);
+			builder.append('=');
+			if(pair.getValue() != null) {
+				OAuthEncoder.encode(pair.getValue(), builder);
+			}
+			
+			separator = '&';
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Return an upper bound on the number of parameters in the given query
+	 * string.
+	 * 
+	 */
+	private static int countPairs(String query) {
+		if(query == null) {
+			return 0;
+		}
+		
+		int count = 1;
+		for(int index = 0; index < query.length(); index++) {
+			if(query.charAt(index) == '&') {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Limits the number of concurrent round trips to one OAuth provider, so that
+ * a burst of logins does not open as many outbound connections as there are
+ * requests, and a slow provider cannot hold every thread of the application.
+ * Calls over the limit wait for a free slot for at most the configured time,
+ * and are then rejected. Free slots go to the waiting calls in the order they
+ * arrived, and a new call does not take a slot ahead of them. The number of
+ * waiting calls may be bounded too, in which case calls over that bound are
+ * rejected right away.
+ * 
+ * A limiter is set on a service using
+ * {@link OAuth1ServiceImpl#setCallLimiter(ProviderCallLimiter)} or
+ * {@link OAuth2ServiceImpl#setCallLimiter(ProviderCallLimiter)}. All service
+ * instances that talk to the same provider should share one limiter.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class ProviderCallLimiter {
+	
+	/**
+	 * The slots for calls in flight
+	 */
+	private final Semaphore permits;
+	
+	/**
+	 * The maximum number of calls in flight
+	 */
+	private final int maxConcurrent;
+	
+	/**
+	 * The time a call waits for a free slot, in milliseconds
+	 */
+	private final long acquireTimeoutMillis;
+	
+	/**
+	 * The maximum number of calls waiting for a slot
+	 */
+	private final int maxWaiting;
+	
+	/**
+	 * The number of calls waiting for a slot
+	 */
+	private final AtomicInteger waiting = new AtomicInteger();
+	
+	/**
+	 * The number of calls in flight
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+	
+	/**
+	 * The highest number of calls seen in flight
+	 */
+	private final AtomicInteger peak = new AtomicInteger();
+	
+	/**
+	 * The number of calls rejected as too many were waiting or no slot became
+	 * free in time
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * Create a limiter that allows the given number of calls in flight.
+	 * 
+	 * @param maxConcurrent
+	 *            the maximum number of calls in flight
+	 * 
+	 * @param acquireTimeoutMillis
+	 *            the time a call waits for a free slot, in milliseconds
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the maximum is less than one or the timeout is negative
+	 */
+	public ProviderCallLimiter(int maxConcurrent, long acquireTimeoutMillis) {
+		this(maxConcurrent, Integer.MAX_VALUE, acquireTimeoutMillis);
+	}
+	
+	/**
+	 * Create a limiter that allows the given number of calls in flight, and
+	 * the given number of calls waiting for a slot.
+	 * 
+	 * @param maxConcurrent
+	 *            the maximum number of calls in flight
+	 * 
+	 * @param maxWaiting
+	 *            the maximum number of calls waiting for a slot, zero to
+	 *            reject calls over the limit right away
+	 * 
+	 * @param acquireTimeoutMillis
+	 *            the time a call waits for a free slot, in milliseconds
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the maximum is less than one, or the waiting calls or the
+	 *             timeout are negative
+	 */
+	public ProviderCallLimiter(int maxConcurrent, int maxWaiting, long acquireTimeoutMillis) {
+		if(maxConcurrent < 1) {
+			throw new IllegalArgumentException("Maximum concurrent calls must be at least one");
+		}
+		
+		if(maxWaiting < 0) {
+			throw new IllegalArgumentException("Maximum waiting calls cannot be negative");
+		}
+		
+		if(acquireTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Acquire timeout cannot be negative");
+		}
+		
+		this.maxConcurrent = maxConcurrent;
+		this.maxWaiting = maxWaiting;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.permits = new Semaphore(maxConcurrent, true);
+	}
+	
+	/**
+	 * Wait for a free slot. A successful call must be followed by a call to
+	 * {@link #release()} once the round trip is over.
+	 * 
+	 * @return <code>true</code> if a slot was obtained, <code>false</code>
+	 *         if too many calls are waiting, none became free in time or the
+	 *         thread was interrupted
+	 */
+	public boolean acquire() {
+		if(!tryNow() && !await()) {
+			this.rejected.incrementAndGet();
+			return false;
+		}
+		
+		final int current = this.active.incrementAndGet();
+		int seen;
+		while(current > (seen = this.peak.get()) && !this.peak.compareAndSet(seen, current)) {
+			// retry
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Take a free slot without waiting. Unlike the untimed
+	 * {@link Semaphore#tryAcquire()}, this respects the fairness of the
+	 * semaphore and does not take a slot ahead of the waiting calls.
+	 * 
+	 */
+	private boolean tryNow() {
+		try {
+			return this.permits.tryAcquire(0, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Wait for a slot, unless too many calls are waiting already.
+	 * 
+	 */
+	private boolean await() {
+		if(this.waiting.incrementAndGet() > this.maxWaiting) {
+			this.waiting.decrementAndGet();
+			return false;
+		}
+		
+		try {
+			return this.permits.tryAcquire(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			this.waiting.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Free the slot obtained using {@link #acquire()}.
+	 * 
+	 */
+	public void release() {
+		this.active.decrementAndGet();
+		this.permits.release();
+	}
+	
+	/**
+	 * Return the maximum number of calls in flight.
+	 * 
+	 * @return the maximum number of calls in flight
+	 */
+	public int getMaxConcurrent() {
+		return this.maxConcurrent;
+	}
+	
+	/**
+	 * Return the number of calls in flight.
+	 * 
+	 * @return the number of calls in flight
+	 */
+	public int getActiveCount() {
+		return this.active.get();
+	}
+	
+	/**
+	 * Return the highest number of calls seen in flight.
+	 * 
+	 * @return the highest number of calls seen in flight
+	 */
+	public int getPeakCount() {
+		return this.peak.get();
+	}
+	
+	/**
+	 * Return the maximum number of calls waiting for a slot.
+	 * 
+	 * @return the maximum number of calls waiting
+	 */
+	public int getMaxWaiting() {
+		return this.maxWaiting;
+	}
+	
+	/**
+	 * Return the number of calls waiting for a slot.
+	 * 
+	 * @return the number of calls waiting
+	 */
+	public int getWaitingCount() {
+		return this.waiting.get();
+	}
+	
+	/**
+	 * Return the number of calls rejected as too many were waiting or no slot
+	 * became free in time.
+	 * 
+	 * @return the number of calls rejected
+	 */
+	public long getRejectedCount() {
+		return this.rejected.get();
+	}
+
+}
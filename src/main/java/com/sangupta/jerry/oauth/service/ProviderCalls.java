@@ -0,0 +1,111 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebResponse;
+import com.sangupta.jerry.oauth.service.ProviderUnavailableException.Reason;
+import com.sangupta.jerry.oauth.transport.OAuthTransport;
+
+/**
+ * Makes the round trips of the {@link OAuthService} implementations to the
+ * provider, behind the {@link ProviderCircuitBreaker} and
+ * {@link ProviderCallLimiter} of the service, if any.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+final class ProviderCalls {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProviderCalls.class);
+	
+	/**
+	 * Utility class - no instances
+	 */
+	private ProviderCalls() {
+		
+	}
+	
+	/**
+	 * Execute the given request. The circuit breaker is checked first, so that
+	 * a call to a provider that is down does not wait for a slot. No lock is
+	 * held while the request is in flight.
+	 * 
+	 * @param transport
+	 *            the {@link OAuthTransport} to execute the request with
+	 * 
+	 * @param limiter
+	 *            the {@link ProviderCallLimiter}, may be <code>null</code>
+	 * 
+	 * @param breaker
+	 *            the {@link ProviderCircuitBreaker}, may be <code>null</code>
+	 * 
+	 * @param request
+	 *            the {@link WebRequest} to execute
+	 * 
+	 * @return the {@link WebResponse}, or <code>null</code> if the request
+	 *         failed
+	 * 
+	 * @throws ProviderUnavailableException
+	 *             if the breaker is open or the limiter has no free slot
+	 */
+	static WebResponse execute(OAuthTransport transport, ProviderCallLimiter limiter, ProviderCircuitBreaker breaker, WebRequest request) {
+		final long permit = breaker != null ? breaker.tryAcquire() : ProviderCircuitBreaker.REFUSED;
+		if(breaker != null && permit == ProviderCircuitBreaker.REFUSED) {
+			throw new ProviderUnavailableException(Reason.CIRCUIT_OPEN, "Provider is failing, call refused: " + request.trace());
+		}
+		
+		if(limiter != null && !limiter.acquire()) {
+			if(breaker != null) {
+				breaker.onSkipped(permit);
+			}
+			
+			LOGGER.warn("No free slot for call to provider, rejecting: {}", request.trace());
+			throw new ProviderUnavailableException(Reason.BULKHEAD_FULL, "Too many calls to provider, call refused: " + request.trace());
+		}
+		
+		WebResponse response = null;
+		try {
+			response = transport.execute(request);
+			return response;
+		} finally {
+			if(limiter != null) {
+				limiter.release();
+			}
+			
+			if(breaker != null) {
+				if(response == null || response.getResponseCode() >= 500) {
+					breaker.onFailure(permit);
+				} else {
+					breaker.onSuccess(permit);
+				}
+			}
+		}
+	}
+
+}
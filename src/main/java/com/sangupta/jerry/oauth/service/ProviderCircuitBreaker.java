@@ -0,0 +1,336 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+
+/**
+ * Stops calling an OAuth provider that keeps failing, so that callers fail
+ * fast with a {@link ProviderUnavailableException} instead of waiting on a
+ * provider that is down.
+ * 
+ * The breaker opens after the configured number of failures in a row. Once
+ * the open time has passed, a single call is let through as a probe: if it
+ * succeeds the breaker closes, else it opens again. A call fails when the
+ * provider cannot be reached or answers with a server error; client errors
+ * show the provider is up.
+ * 
+ * Each permitted call gets a permit naming the state it was let through in.
+ * The outcome of a call let through before the breaker last changed state
+ * is ignored, so that a late answer from a slow call neither closes an open
+ * breaker early nor decides in place of the probe.
+ * 
+ * A breaker is set on a service using
+ * {@link OAuth1ServiceImpl#setCircuitBreaker(ProviderCircuitBreaker)} or
+ * {@link OAuth2ServiceImpl#setCircuitBreaker(ProviderCircuitBreaker)}. All
+ * service instances that talk to the same provider should share one breaker.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class ProviderCircuitBreaker {
+	
+	/**
+	 * The states of the breaker.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	public static enum State {
+		
+		/**
+		 * Calls are made
+		 */
+		CLOSED,
+		
+		/**
+		 * Calls are refused
+		 */
+		OPEN,
+		
+		/**
+		 * A single probe call is made, others are refused
+		 */
+		HALF_OPEN;
+		
+	}
+	
+	/**
+	 * The permit returned by {@link #tryAcquire()} when a call is refused
+	 */
+	public static final long REFUSED = -1;
+	
+	/**
+	 * The number of failures in a row that open the breaker
+	 */
+	private final int failureThreshold;
+	
+	/**
+	 * The time the breaker stays open before a probe, in milliseconds
+	 */
+	private final long openTime;
+	
+	/**
+	 * The clock used to time the open state
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The current state
+	 */
+	@GuardedBy("this")
+	private State state = State.CLOSED;
+	
+	/**
+	 * The number of failures in a row
+	 */
+	@GuardedBy("this")
+	private int failures;
+	
+	/**
+	 * The time the breaker last opened
+	 */
+	@GuardedBy("this")
+	private long openedAt;
+	
+	/**
+	 * Changes with every change of state, and with every probe let through,
+	 * and is handed out as the permit of the calls let through
+	 */
+	@GuardedBy("this")
+	private long generation;
+	
+	/**
+	 * Whether the probe call is in flight
+	 */
+	@GuardedBy("this")
+	private boolean probing;
+	
+	/**
+	 * The number of times the breaker opened
+	 */
+	@GuardedBy("this")
+	private long openCount;
+	
+	/**
+	 * The number of calls refused
+	 */
+	@GuardedBy("this")
+	private long refusedCount;
+	
+	/**
+	 * Create a breaker that opens after the given number of failures in a
+	 * row, and stays open for the given time.
+	 * 
+	 * @param failureThreshold
+	 *            the number of failures in a row that open the breaker
+	 * 
+	 * @param openTime
+	 *            the time the breaker stays open before a probe, in
+	 *            milliseconds
+	 */
+	public ProviderCircuitBreaker(int failureThreshold, long openTime) {
+		this(failureThreshold, openTime, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Create a breaker that opens after the given number of failures in a
+	 * row, stays open for the given time, and reads the time from the given
+	 * clock.
+	 * 
+	 * @param failureThreshold
+	 *            the number of failures in a row that open the breaker
+	 * 
+	 * @param openTime
+	 *            the time the breaker stays open before a probe, in
+	 *            milliseconds
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time the open state
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the threshold is less than one, the open time is not
+	 *             positive, or the clock is <code>null</code>
+	 */
+	public ProviderCircuitBreaker(int failureThreshold, long openTime, OAuthClock clock) {
+		if(failureThreshold < 1) {
+			throw new IllegalArgumentException("Failure threshold must be at least one");
+		}
+		
+		if(openTime <= 0) {
+			throw new IllegalArgumentException("Open time must be positive");
+		}
+		
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+		this.clock = clock;
+	}
+	
+	/**
+	 * Check whether a call may be made. A permitted call must be followed by
+	 * exactly one of {@link #onSuccess(long)}, {@link #onFailure(long)} or
+	 * {@link #onSkipped(long)}, with the permit returned here.
+	 * 
+	 * @return the permit of the call, or {@link #REFUSED} if it must be
+	 *         refused
+	 */
+	public synchronized long tryAcquire() {
+		switch(this.state) {
+			case CLOSED:
+				return this.generation;
+				
+			case OPEN:
+				if(this.clock.currentTimeMillis() - this.openedAt >= this.openTime) {
+					this.state = State.HALF_OPEN;
+					return probe();
+				}
+				
+				break;
+				
+			case HALF_OPEN:
+				if(!this.probing) {
+					return probe();
+				}
+				
+				break;
+				
+			default:
+				throw new AssertionError("Missing case statement for enumeration!");
+		}
+		
+		this.refusedCount++;
+		return REFUSED;
+	}
+	
+	/**
+	 * Record that a permitted call succeeded. This resets the failures in a
+	 * row, and closes the breaker if the call was the probe.
+	 * 
+	 * @param permit
+	 *            the permit returned by {@link #tryAcquire()} for the call
+	 */
+	public synchronized void onSuccess(long permit) {
+		if(permit != this.generation) {
+			return;
+		}
+		
+		this.failures = 0;
+		if(this.state == State.HALF_OPEN) {
+			this.state = State.CLOSED;
+			this.probing = false;
+			this.generation++;
+		}
+	}
+	
+	/**
+	 * Record that a permitted call failed, opening the breaker if the probe
+	 * failed or the threshold is reached.
+	 * 
+	 * @param permit
+	 *            the permit returned by {@link #tryAcquire()} for the call
+	 */
+	public synchronized void onFailure(long permit) {
+		if(permit != this.generation) {
+			return;
+		}
+		
+		this.failures++;
+		if(this.state == State.HALF_OPEN || this.failures >= this.failureThreshold) {
+			this.state = State.OPEN;
+			this.openedAt = this.clock.currentTimeMillis();
+			this.probing = false;
+			this.generation++;
+			this.openCount++;
+		}
+	}
+	
+	/**
+	 * Record that a permitted call was not made after all, for example as
+	 * the bulkhead refused it, so that another call may probe.
+	 * 
+	 * @param permit
+	 *            the permit returned by {@link #tryAcquire()} for the call
+	 */
+	public synchronized void onSkipped(long permit) {
+		if(permit == this.generation && this.state == State.HALF_OPEN) {
+			this.probing = false;
+		}
+	}
+	
+	/**
+	 * Let a probe through, with a permit of its own.
+	 * 
+	 * @return the permit of the probe
+	 */
+	@GuardedBy("this")
+	private long probe() {
+		this.probing = true;
+		return ++this.generation;
+	}
+	
+	/**
+	 * Return the current state. An open breaker whose open time has passed is
+	 * reported open till the next call probes.
+	 * 
+	 * @return the current {@link State}
+	 */
+	public synchronized State getState() {
+		return this.state;
+	}
+	
+	/**
+	 * Return the number of failures in a row.
+	 * 
+	 * @return the number of failures in a row
+	 */
+	public synchronized int getFailureCount() {
+		return this.failures;
+	}
+	
+	/**
+	 * Return the number of times the breaker opened.
+	 * 
+	 * @return the number of times the breaker opened
+	 */
+	public synchronized long getOpenCount() {
+		return this.openCount;
+	}
+	
+	/**
+	 * Return the number of calls refused.
+	 * 
+	 * @return the number of calls refused
+	 */
+	public synchronized long getRefusedCount() {
+		return this.refusedCount;
+	}
+
+}
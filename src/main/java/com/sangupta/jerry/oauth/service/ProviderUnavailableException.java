@@ -0,0 +1,88 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+/**
+ * Thrown when a call to an OAuth provider is refused without being made,
+ * because the {@link ProviderCircuitBreaker} of the service is open or the
+ * {@link ProviderCallLimiter} of the service has no free slot.
+ *
+ * @author sangupta
+ * @since 1.0
+ */
+public class ProviderUnavailableException extends RuntimeException {
+
+	/**
+	 * Generated via Eclipse
+	 */
+	private static final long serialVersionUID = 6237149082385521840L;
+	
+	/**
+	 * The reasons a call may be refused.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	public static enum Reason {
+		
+		/**
+		 * The provider failed too often, and is not being called till it
+		 * recovers
+		 */
+		CIRCUIT_OPEN,
+		
+		/**
+		 * Too many calls to the provider are in flight or waiting
+		 */
+		BULKHEAD_FULL;
+		
+	}
+	
+	/**
+	 * The reason the call was refused
+	 */
+	private final Reason reason;
+
+	/**
+	 * Create a new exception with the given reason and message.
+	 *
+	 * @param reason
+	 *            the reason the call was refused
+	 *
+	 * @param message
+	 *            the message describing the failure
+	 */
+	public ProviderUnavailableException(Reason reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+	
+	/**
+	 * Return the reason the call was refused.
+	 * 
+	 * @return the {@link Reason}
+	 */
+	public Reason getReason() {
+		return this.reason;
+	}
+
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.signature;
+
+/**
+ * Thrown when an OAuth signature cannot be computed, for example when the
+ * signing algorithm is not available in the running JVM, or the signing key
+ * is rejected by the provider.
+ *
+ * @author sangupta
+ * @since 1.0
+ */
+public class OAuthSignatureException extends RuntimeException {
+
+	/**
+	 * Generated via Eclipse
+	 */
+	private static final long serialVersionUID = 3964722158164410713L;
+
+	/**
+	 * Create a new exception with the given message and the underlying cause.
+	 *
+	 * @param message
+	 *            the message describing the failure
+	 *
+	 * @param cause
+	 *            the underlying exception
+	 */
+	public OAuthSignatureException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
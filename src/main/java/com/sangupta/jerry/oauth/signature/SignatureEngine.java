@@ -0,0 +1,504 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.signature;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.encoder.Base64Encoder;
+import com.sangupta.jerry.oauth.OAuthEncoder;
+import com.sangupta.jerry.oauth.domain.OAuthSignatureMethod;
+import com.sangupta.jerry.util.AssertUtils;
+import com.sangupta.jerry.util.StringUtils;
+
+/**
+ * A signing engine that keeps initialized {@link Mac} instances around per
+ * signing key, so that repeated signatures with the same consumer/token secret
+ * pair skip the provider lookup, the key schedule and the HMAC pad setup.
+ *
+ * Initialized {@link Mac} prototypes are held in a bounded, least recently
+ * used cache shared by all threads. Each thread signs using its own clone of
+ * the prototype, kept in a small per-thread cache, so that no locking happens
+ * on the signing path once a thread has seen a key.
+ *
+ * Callers should usually NOT create a new instance of this class, but use the
+ * global static instance {@link SignatureEngine#DEFAULT}.
+ *
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class SignatureEngine {
+
+	/**
+	 * The default number of signing keys for which prototypes are kept
+	 */
+	public static final int DEFAULT_MAX_KEYS = 1024;
+
+	/**
+	 * The number of signing keys each thread keeps ready-to-use {@link Mac}
+	 * instances for
+	 */
+	private static final int THREAD_CACHE_SIZE = 8;
+
+	/**
+	 * Global instance that classes can use rather than creating a new object
+	 * every time. The instance is thread-safe.
+	 */
+	public static final SignatureEngine DEFAULT = new SignatureEngine(DEFAULT_MAX_KEYS);
+
+	/**
+	 * The initialized {@link Mac} prototypes, keyed by algorithm and signing
+	 * key. Guarded by itself.
+	 */
+	private final Map<PrototypeKey, Mac> prototypes;
+
+	/**
+	 * The per-thread cache of cloned {@link Mac} instances
+	 */
+	private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+
+		@Override
+		protected ThreadCache initialValue() {
+			return new ThreadCache();
+		}
+
+	};
+
+	/**
+	 * Create a new engine that keeps prototypes for at most the given number of
+	 * signing keys.
+	 *
+	 * @param maxKeys
+	 *            the maximum number of signing keys to keep prototypes for
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the maximum number of keys is less than one
+	 */
+	public SignatureEngine(final int maxKeys) {
+		if(maxKeys < 1) {
+			throw new IllegalArgumentException("Maximum number of signing keys must be at least one");
+		}
+
+		this.prototypes = new LinkedHashMap<PrototypeKey, Mac>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PrototypeKey, Mac> eldest) {
+				return this.size() > maxKeys;
+			}
+
+		};
+	}
+
+	/**
+	 * Build the OAuth signing key from the given consumer secret and token
+	 * secret. Both the secrets are percent-encoded and joined using an
+	 * ampersand.
+	 *
+	 * @param consumerSecret
+	 *            the consumer or application specific secret to use
+	 *
+	 * @param tokenSecret
+	 *            the user specific secret to use, may be <code>null</code>
+	 *
+	 * @return the signing key
+	 */
+	public static String buildSigningKey(String consumerSecret, String tokenSecret) {
+		if(AssertUtils.isNotEmpty(tokenSecret)) {
+			return OAuthEncoder.encode(consumerSecret) + "&" + OAuthEncoder.encode(tokenSecret);
+		}
+
+		return OAuthEncoder.encode(consumerSecret) + "&";
+	}
+
+	/**
+	 * Sign the given signable string using the consumer and token secrets.
+	 *
+	 * @param signingMethod
+	 *            the signing method to use
+	 *
+	 * @param consumerSecret
+	 *            the consumer or application specific secret to use
+	 *
+	 * @param tokenSecret
+	 *            the user specific secret to use, may be <code>null</code>
+	 *
+	 * @param signable
+	 *            the string to be signed
+	 *
+	 * @return the Base64 encoded signature
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the signature cannot be computed
+	 */
+	public String sign(OAuthSignatureMethod signingMethod, String consumerSecret, String tokenSecret, String signable) {
+		if(signingMethod == OAuthSignatureMethod.PLAIN_TEXT) {
+			return buildSigningKey(consumerSecret, tokenSecret);
+		}
+
+		Mac mac = getMac(signingMethod, consumerSecret, tokenSecret);
+		return Base64Encoder.encodeToString(mac.doFinal(signable.getBytes(StringUtils.CHARSET_UTF8)), false);
+	}
+
+	/**
+	 * Sign the given signable string using an already built signing key.
+	 *
+	 * @param signingMethod
+	 *            the signing method to use
+	 *
+	 * @param signingKey
+	 *            the percent-encoded signing key to use
+	 *
+	 * @param signable
+	 *            the string to be signed
+	 *
+	 * @return the Base64 encoded signature
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the signature cannot be computed
+	 */
+	public String sign(OAuthSignatureMethod signingMethod, String signingKey, String signable) {
+		if(signingMethod == OAuthSignatureMethod.PLAIN_TEXT) {
+			return signingKey;
+		}
+
+		Mac mac = getMac(signingMethod, signingKey);
+		return Base64Encoder.encodeToString(mac.doFinal(signable.getBytes(StringUtils.CHARSET_UTF8)), false);
+	}
+
+	/**
+	 * Return a {@link Mac} initialized for the given consumer and token secret,
+	 * ready to be updated. The instance is confined to the calling thread and
+	 * must be finished (via one of the <code>doFinal</code> methods) before the
+	 * same thread asks for a {@link Mac} for the same key again.
+	 *
+	 * @param signingMethod
+	 *            the signing method to use, cannot be
+	 *            {@link OAuthSignatureMethod#PLAIN_TEXT}
+	 *
+	 * @param consumerSecret
+	 *            the consumer or application specific secret to use
+	 *
+	 * @param tokenSecret
+	 *            the user specific secret to use, may be <code>null</code>
+	 *
+	 * @return the thread-confined {@link Mac} instance
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the {@link Mac} cannot be created or initialized
+	 */
+	public Mac getMac(OAuthSignatureMethod signingMethod, String consumerSecret, String tokenSecret) {
+		assertMacMethod(signingMethod);
+
+		if(AssertUtils.isEmpty(consumerSecret)) {
+			throw new IllegalArgumentException("Consumer secret cannot be null/empty");
+		}
+
+		if(AssertUtils.isEmpty(tokenSecret)) {
+			tokenSecret = null;
+		}
+
+		ThreadCache cache = this.threadCache.get();
+		Mac mac = cache.get(signingMethod, consumerSecret, tokenSecret);
+		if(mac != null) {
+			return mac;
+		}
+
+		String signingKey = buildSigningKey(consumerSecret, tokenSecret);
+		mac = newThreadMac(signingMethod, signingKey);
+		cache.put(signingMethod, consumerSecret, tokenSecret, signingKey, mac);
+		return mac;
+	}
+
+	/**
+	 * Return a {@link Mac} initialized for the given signing key, ready to be
+	 * updated. The instance is confined to the calling thread and must be
+	 * finished (via one of the <code>doFinal</code> methods) before the same
+	 * thread asks for a {@link Mac} for the same key again.
+	 *
+	 * @param signingMethod
+	 *            the signing method to use, cannot be
+	 *            {@link OAuthSignatureMethod#PLAIN_TEXT}
+	 *
+	 * @param signingKey
+	 *            the percent-encoded signing key to use
+	 *
+	 * @return the thread-confined {@link Mac} instance
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the {@link Mac} cannot be created or initialized
+	 */
+	public Mac getMac(OAuthSignatureMethod signingMethod, String signingKey) {
+		assertMacMethod(signingMethod);
+
+		if(signingKey == null) {
+			throw new IllegalArgumentException("Signing key cannot be null");
+		}
+
+		ThreadCache cache = this.threadCache.get();
+		Mac mac = cache.get(signingMethod, signingKey);
+		if(mac != null) {
+			return mac;
+		}
+
+		mac = newThreadMac(signingMethod, signingKey);
+		cache.put(signingMethod, null, null, signingKey, mac);
+		return mac;
+	}
+
+	/**
+	 * Remove all cached prototypes. Instances already handed out to threads are
+	 * not affected.
+	 *
+	 */
+	public void clear() {
+		synchronized (this.prototypes) {
+			this.prototypes.clear();
+		}
+	}
+
+	/**
+	 * Check that the given signing method is backed by a {@link Mac}.
+	 *
+	 * @param signingMethod
+	 *            the signing method to check
+	 */
+	private static void assertMacMethod(OAuthSignatureMethod signingMethod) {
+		if(signingMethod == null) {
+			throw new IllegalArgumentException("Signing method cannot be null");
+		}
+
+		if(signingMethod == OAuthSignatureMethod.PLAIN_TEXT) {
+			throw new IllegalArgumentException("Plain text signing method does not use a MAC");
+		}
+	}
+
+	/**
+	 * Create a new {@link Mac} for the calling thread by cloning the cached
+	 * prototype for the key. The prototype is created if needed.
+	 *
+	 * @param signingMethod
+	 *            the signing method to use
+	 *
+	 * @param signingKey
+	 *            the percent-encoded signing key
+	 *
+	 * @return a {@link Mac} exclusive to the calling thread
+	 */
+	private Mac newThreadMac(OAuthSignatureMethod signingMethod, String signingKey) {
+		final PrototypeKey key = new PrototypeKey(signingMethod, signingKey);
+
+		Mac prototype;
+		synchronized (this.prototypes) {
+			prototype = this.prototypes.get(key);
+		}
+
+		if(prototype == null) {
+			prototype = createMac(signingMethod, signingKey);
+
+			synchronized (this.prototypes) {
+				Mac existing = this.prototypes.get(key);
+				if(existing != null) {
+					prototype = existing;
+				} else {
+					this.prototypes.put(key, prototype);
+				}
+			}
+		}
+
+		// the prototype is never updated, so cloning only copies the
+		// already computed inner and outer pads
+		synchronized (prototype) {
+			try {
+				return (Mac) prototype.clone();
+			} catch (CloneNotSupportedException e) {
+				// provider does not support cloning - use a fresh instance
+			}
+		}
+
+		return createMac(signingMethod, signingKey);
+	}
+
+	/**
+	 * Create and initialize a new {@link Mac} instance for the given key.
+	 *
+	 * @param signingMethod
+	 *            the signing method to use
+	 *
+	 * @param signingKey
+	 *            the percent-encoded signing key
+	 *
+	 * @return the initialized {@link Mac}
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the {@link Mac} cannot be created or initialized
+	 */
+	private static Mac createMac(OAuthSignatureMethod signingMethod, String signingKey) {
+		final String algorithm = signingMethod.getAlgorithmName();
+		try {
+			Mac mac = Mac.getInstance(algorithm);
+			mac.init(new SecretKeySpec(signingKey.getBytes(StringUtils.CHARSET_UTF8), algorithm));
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new OAuthSignatureException("Unable to initialize " + algorithm + " for signing", e);
+		}
+	}
+
+	/**
+	 * Key used for the shared prototype cache.
+	 *
+	 * @author sangupta
+	 *
+	 */
+	private static final class PrototypeKey {
+
+		final OAuthSignatureMethod signingMethod;
+
+		final String signingKey;
+
+		PrototypeKey(OAuthSignatureMethod signingMethod, String signingKey) {
+			this.signingMethod = signingMethod;
+			this.signingKey = signingKey;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+
+			if(!(obj instanceof PrototypeKey)) {
+				return false;
+			}
+
+			PrototypeKey other = (PrototypeKey) obj;
+			return this.signingMethod == other.signingMethod && this.signingKey.equals(other.signingKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.signingMethod.hashCode() * 31 + this.signingKey.hashCode();
+		}
+	}
+
+	/**
+	 * A tiny most-recently-used list of {@link Mac} instances owned by a
+	 * single thread. Entries are matched either by the consumer/token secret
+	 * pair, or by the already built signing key, so that no key needs to be
+	 * encoded or allocated on a hit.
+	 *
+	 * @author sangupta
+	 *
+	 */
+	private static final class ThreadCache {
+
+		final OAuthSignatureMethod[] methods = new OAuthSignatureMethod[THREAD_CACHE_SIZE];
+
+		final String[] consumerSecrets = new String[THREAD_CACHE_SIZE];
+
+		final String[] tokenSecrets = new String[THREAD_CACHE_SIZE];
+
+		final String[] signingKeys = new String[THREAD_CACHE_SIZE];
+
+		final Mac[] macs = new Mac[THREAD_CACHE_SIZE];
+
+		Mac get(OAuthSignatureMethod method, String consumerSecret, String tokenSecret) {
+			for(int index = 0; index < THREAD_CACHE_SIZE; index++) {
+				if(this.macs[index] == null) {
+					return null;
+				}
+
+				if(this.methods[index] == method && consumerSecret.equals(this.consumerSecrets[index]) && equal(tokenSecret, this.tokenSecrets[index])) {
+					return promote(index);
+				}
+			}
+
+			return null;
+		}
+
+		Mac get(OAuthSignatureMethod method, String signingKey) {
+			for(int index = 0; index < THREAD_CACHE_SIZE; index++) {
+				if(this.macs[index] == null) {
+					return null;
+				}
+
+				if(this.methods[index] == method && signingKey.equals(this.signingKeys[index])) {
+					return promote(index);
+				}
+			}
+
+			return null;
+		}
+
+		void put(OAuthSignatureMethod method, String consumerSecret, String tokenSecret, String signingKey, Mac mac) {
+			shift(THREAD_CACHE_SIZE - 1);
+			set(0, method, consumerSecret, tokenSecret, signingKey, mac);
+		}
+
+		private Mac promote(int index) {
+			Mac mac = this.macs[index];
+			if(index > 0) {
+				OAuthSignatureMethod method = this.methods[index];
+				String consumerSecret = this.consumerSecrets[index];
+				String tokenSecret = this.tokenSecrets[index];
+				String signingKey = this.signingKeys[index];
+
+				shift(index);
+				set(0, method, consumerSecret, tokenSecret, signingKey, mac);
+			}
+
+			mac.reset();
+			return mac;
+		}
+
+		private void shift(int upto) {
+			for(int index = upto; index > 0; index--) {
+				set(index, this.methods[index - 1], this.consumerSecrets[index - 1], this.tokenSecrets[index - 1], this.signingKeys[index - 1], this.macs[index - 1]);
+			}
+		}
+
+		private void set(int index, OAuthSignatureMethod method, String consumerSecret, String tokenSecret, String signingKey, Mac mac) {
+			this.methods[index] = method;
+			this.consumerSecrets[index] = consumerSecret;
+			this.tokenSecrets[index] = tokenSecret;
+			this.signingKeys[index] = signingKey;
+			this.macs[index] = mac;
+		}
+
+		private static boolean equal(String first, String second) {
+			if(first == null) {
+				return second == null;
+			}
+
+			return first.equals(second);
+		}
+	}
+
+}
@@ -0,0 +1,772 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.signature;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sangupta.jerry.oauth.OAuthEncoder;
+import com.sangupta.jerry.oauth.ParameterList;
+import com.sangupta.jerry.oauth.domain.OAuthSignatureMethod;
+import com.sangupta.jerry.util.StringUtils;
+
+/**
+ * A reusable, per-thread buffer that builds the OAuth 1.0 signature base
+ * string as percent-encoded bytes and signs it without creating intermediate
+ * strings, maps or lists.
+ *
+ * Parameters are encoded once into a scratch area as they are added, using
+ * {@link OAuthEncoder}, sorted in place using an index array, and then written
+ * out into the base string with the second level of encoding applied on the
+ * fly. The bytes are fed directly to {@link Mac#update(byte[], int, int)} and
+ * the Base64 signature is written into a reusable character buffer, so the
+ * only allocation per signed request is the final signature {@link String}.
+ *
+ * Instances are confined to a thread and must be obtained using
+ * {@link #get()}. The buffer obtained is only valid until the next call to
+ * {@link #get()} on the same thread.
+ *
+ * @author sangupta
+ * @since 1.0
+ */
+@NotThreadSafe
+public class SigningBuffer {
+
+	/**
+	 * The initial size of the byte buffers
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Buffers that grow beyond this size are released when the buffer is
+	 * reset, so that one large request does not pin memory to a thread forever
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	/**
+	 * The initial number of parameters that can be held without growing
+	 */
+	private static final int INITIAL_PARAMS = 16;
+
+	/**
+	 * The Base64 alphabet
+	 */
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/**
+	 * The per-thread instances
+	 */
+	private static final ThreadLocal<SigningBuffer> BUFFERS = new ThreadLocal<SigningBuffer>() {
+
+		@Override
+		protected SigningBuffer initialValue() {
+			return new SigningBuffer();
+		}
+
+	};
+
+	/**
+	 * The signature base string being built
+	 */
+	private byte[] base = new byte[INITIAL_CAPACITY];
+
+	/**
+	 * Number of bytes used in {@link #base}
+	 */
+	private int baseLength;
+
+	/**
+	 * Scratch area holding the once-encoded parameter names and values
+	 */
+	private byte[] params = new byte[INITIAL_CAPACITY];
+
+	/**
+	 * Number of bytes used in {@link #params}
+	 */
+	private int paramsLength;
+
+	/**
+	 * For every parameter, the offset of the name, the offset of the value
+	 * (which is also where the name ends) and the offset where the value ends
+	 * in {@link #params}
+	 */
+	private int[] offsets = new int[INITIAL_PARAMS * 3];
+
+	/**
+	 * The sort order of parameters
+	 */
+	private int[] order = new int[INITIAL_PARAMS];
+
+	/**
+	 * Number of parameters added
+	 */
+	private int paramCount;
+
+	/**
+	 * Holds the raw MAC output
+	 */
+	private byte[] macOutput = new byte[64];
+
+	/**
+	 * Holds the Base64 encoded signature
+	 */
+	private char[] signature = new char[88];
+
+	/**
+	 * Use {@link #get()} to obtain an instance.
+	 */
+	private SigningBuffer() {
+
+	}
+
+	/**
+	 * Return the reset buffer for the calling thread.
+	 *
+	 * @return the {@link SigningBuffer} for the current thread
+	 */
+	public static SigningBuffer get() {
+		SigningBuffer buffer = BUFFERS.get();
+		buffer.reset();
+		return buffer;
+	}
+
+	/**
+	 * Reset the buffer so that it can be used for a new signature.
+	 *
+	 */
+	public void reset() {
+		if(this.base.length > MAX_RETAINED_CAPACITY) {
+			this.base = new byte[INITIAL_CAPACITY];
+		}
+
+		if(this.params.length > MAX_RETAINED_CAPACITY) {
+			this.params = new byte[INITIAL_CAPACITY];
+		}
+
+		this.baseLength = 0;
+		this.paramsLength = 0;
+		this.paramCount = 0;
+	}
+
+	/**
+	 * Append the given ASCII string, like the HTTP verb, without any encoding.
+	 *
+	 * @param value
+	 *            the string to append
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer appendAscii(String value) {
+		final int length = value.length();
+		ensureBase(length);
+
+		for(int index = 0; index < length; index++) {
+			this.base[this.baseLength++] = (byte) value.charAt(index);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Append bytes that have already been prepared for the base string, like a
+	 * prefix obtained earlier using {@link #toByteArray()}.
+	 *
+	 * @param bytes
+	 *            the bytes to append
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer appendBytes(byte[] bytes) {
+		ensureBase(bytes.length);
+		System.arraycopy(bytes, 0, this.base, this.baseLength, bytes.length);
+		this.baseLength += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Append the ampersand that separates the parts of the base string.
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer appendSeparator() {
+		ensureBase(1);
+		this.base[this.baseLength++] = '&';
+		return this;
+	}
+
+	/**
+	 * Append the given value percent-encoded.
+	 *
+	 * @param value
+	 *            the value to append
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer appendEncoded(String value) {
+		ensureBase(maxEncodedLength(value));
+		this.baseLength = OAuthEncoder.encode(value, 0, value.length(), this.base, this.baseLength);
+		return this;
+	}
+
+	/**
+	 * Append the percent-encoded signing base URL of the given {@link URI}:
+	 * the lower-cased scheme and host, the port if not the default, and the
+	 * path. This produces the same bytes as encoding the value returned by
+	 * <code>OAuthUtils.getSigningBaseURL(URI)</code>.
+	 *
+	 * @param uri
+	 *            the {@link URI} being signed
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer appendSigningBase(URI uri) {
+		if(uri == null) {
+			throw new IllegalArgumentException("URI cannot be null");
+		}
+
+		String scheme = toLowerCase(uri.getScheme());
+		String host = toLowerCase(uri.getHost());
+		String path = uri.getPath();
+
+		ensureBase(maxEncodedLength(scheme) + maxEncodedLength(host) + maxEncodedLength(path) + 24);
+		this.baseLength = OAuthEncoder.encode(scheme, 0, scheme.length(), this.base, this.baseLength);
+		this.baseLength = writeEncodedAscii("://", this.base, this.baseLength);
+		this.baseLength = OAuthEncoder.encode(host, 0, host.length(), this.base, this.baseLength);
+
+		int port = uri.getPort();
+		if(!(port == 80 || port == -1)) {
+			this.baseLength = writeEncodedAscii(":", this.base, this.baseLength);
+			this.baseLength = writeEncodedAscii(String.valueOf(port), this.base, this.baseLength);
+		}
+
+		if(path != null) {
+			this.baseLength = OAuthEncoder.encode(path, 0, path.length(), this.base, this.baseLength);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Add a parameter that takes part in the signature. The name and value are
+	 * percent-encoded once as they are added.
+	 *
+	 * @param name
+	 *            the name of the parameter
+	 *
+	 * @param value
+	 *            the value of the parameter, <code>null</code> is treated as
+	 *            an empty value
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer addParameter(String name, String value) {
+		return addParameter(name, 0, name.length(), value, 0, value == null ? 0 : value.length());
+	}
+
+	/**
+	 * Add a parameter whose name and value are regions of the given strings.
+	 * The name and value are percent-encoded once as they are added.
+	 *
+	 * @param nameSource
+	 *            the string containing the name
+	 *
+	 * @param nameStart
+	 *            the index where the name starts
+	 *
+	 * @param nameEnd
+	 *            the index where the name ends, exclusive
+	 *
+	 * @param valueSource
+	 *            the string containing the value, may be <code>null</code> if
+	 *            the value is empty
+	 *
+	 * @param valueStart
+	 *            the index where the value starts
+	 *
+	 * @param valueEnd
+	 *            the index where the value ends, exclusive
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer addParameter(String nameSource, int nameStart, int nameEnd, String valueSource, int valueStart, int valueEnd) {
+		ensureParams(OAuthEncoder.maxEncodedLength(nameEnd - nameStart) + OAuthEncoder.maxEncodedLength(valueEnd - valueStart));
+
+		final int entry = startEntry();
+		this.paramsLength = OAuthEncoder.encode(nameSource, nameStart, nameEnd, this.params, this.paramsLength);
+		this.offsets[entry + 1] = this.paramsLength;
+		if(valueSource != null) {
+			this.paramsLength = OAuthEncoder.encode(valueSource, valueStart, valueEnd, this.params, this.paramsLength);
+		}
+		this.offsets[entry + 2] = this.paramsLength;
+
+		return this;
+	}
+
+	/**
+	 * Add a parameter whose name and value are regions of a raw, still
+	 * form-encoded, string. The regions are normalized to their canonical
+	 * percent-encoding without being decoded into strings first.
+	 *
+	 * @param raw
+	 *            the raw string, like a URL query string
+	 *
+	 * @param nameStart
+	 *            the index where the name starts
+	 *
+	 * @param nameEnd
+	 *            the index where the name ends, exclusive
+	 *
+	 * @param valueStart
+	 *            the index where the value starts, or <code>-1</code> if the
+	 *            parameter has no value
+	 *
+	 * @param valueEnd
+	 *            the index where the value ends, exclusive
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer addRawParameter(String raw, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		final int valueLength = valueStart < 0 ? 0 : valueEnd - valueStart;
+		ensureParams(OAuthEncoder.maxEncodedLength(nameEnd - nameStart) + OAuthEncoder.maxEncodedLength(valueLength));
+
+		final int entry = startEntry();
+		this.paramsLength = OAuthEncoder.normalize(raw, nameStart, nameEnd, this.params, this.paramsLength);
+		this.offsets[entry + 1] = this.paramsLength;
+		if(valueStart >= 0) {
+			this.paramsLength = OAuthEncoder.normalize(raw, valueStart, valueEnd, this.params, this.paramsLength);
+		}
+		this.offsets[entry + 2] = this.paramsLength;
+
+		return this;
+	}
+
+	/**
+	 * Add a parameter whose name and value have already been percent-encoded
+	 * once, and are stored next to each other in the given array. This allows
+	 * callers to encode constant parameters once and reuse them across
+	 * signatures.
+	 *
+	 * @param encoded
+	 *            the array holding the encoded name and value
+	 *
+	 * @param nameStart
+	 *            the index where the name starts
+	 *
+	 * @param valueStart
+	 *            the index where the value starts, which is also where the
+	 *            name ends
+	 *
+	 * @param valueEnd
+	 *            the index where the value ends, exclusive
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer addEncodedParameter(byte[] encoded, int nameStart, int valueStart, int valueEnd) {
+		final int length = valueEnd - nameStart;
+		ensureParams(length);
+
+		final int entry = startEntry();
+		System.arraycopy(encoded, nameStart, this.params, this.paramsLength, length);
+		this.offsets[entry + 1] = this.paramsLength + (valueStart - nameStart);
+		this.paramsLength += length;
+		this.offsets[entry + 2] = this.paramsLength;
+
+		return this;
+	}
+
+	/**
+	 * Add all parameters from the given raw query string or form encoded body.
+	 * The string is parsed in a single pass straight into the buffer, see
+	 * {@link ParameterList} for the rules.
+	 *
+	 * @param raw
+	 *            the raw query string, may be <code>null</code>
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer addRawParameters(String raw) {
+		if(raw == null) {
+			return this;
+		}
+
+		final int length = raw.length();
+		int start = 0;
+		while(start < length) {
+			final int end = ParameterList.pairEnd(raw, start);
+			if(end > start) {
+				final int separator = ParameterList.valueSeparator(raw, start, end);
+				if(separator < 0) {
+					addRawParameter(raw, start, end, -1, end);
+				} else {
+					addRawParameter(raw, start, separator, separator + 1, end);
+				}
+			}
+
+			start = end + 1;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Sort all added parameters by name, and then by value, and append them to
+	 * the base string as the percent-encoded normalized parameter string.
+	 *
+	 * @return this instance
+	 */
+	public SigningBuffer appendParameters() {
+		final int count = this.paramCount;
+		if(count == 0) {
+			return this;
+		}
+
+		sortParameters();
+
+		// every byte may triple when encoded the second time
+		ensureBase(this.paramsLength * 3 + count * 6);
+
+		final byte[] out = this.base;
+		int position = this.baseLength;
+		for(int index = 0; index < count; index++) {
+			if(index > 0) {
+				// encoded '&'
+				out[position++] = '%';
+				out[position++] = '2';
+				out[position++] = '6';
+			}
+
+			final int entry = this.order[index] * 3;
+			position = writeEncodedAgain(this.offsets[entry], this.offsets[entry + 1], out, position);
+
+			// encoded '='
+			out[position++] = '%';
+			out[position++] = '3';
+			out[position++] = 'D';
+
+			position = writeEncodedAgain(this.offsets[entry + 1], this.offsets[entry + 2], out, position);
+		}
+
+		this.baseLength = position;
+		return this;
+	}
+
+	/**
+	 * Sign the base string built so far.
+	 *
+	 * @param engine
+	 *            the {@link SignatureEngine} to obtain the {@link Mac} from
+	 *
+	 * @param signingMethod
+	 *            the signing method to use
+	 *
+	 * @param consumerSecret
+	 *            the consumer or application specific secret to use
+	 *
+	 * @param tokenSecret
+	 *            the user specific secret to use, may be <code>null</code>
+	 *
+	 * @return the Base64 encoded signature
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the signature cannot be computed
+	 */
+	public String sign(SignatureEngine engine, OAuthSignatureMethod signingMethod, String consumerSecret, String tokenSecret) {
+		if(signingMethod == OAuthSignatureMethod.PLAIN_TEXT) {
+			return SignatureEngine.buildSigningKey(consumerSecret, tokenSecret);
+		}
+
+		return sign(engine.getMac(signingMethod, consumerSecret, tokenSecret));
+	}
+
+	/**
+	 * Sign the base string built so far using the given {@link Mac}. The
+	 * {@link Mac} is reset once done.
+	 *
+	 * @param mac
+	 *            the initialized {@link Mac} to use
+	 *
+	 * @return the Base64 encoded signature
+	 *
+	 * @throws OAuthSignatureException
+	 *             if the signature cannot be computed
+	 */
+	public String sign(Mac mac) {
+		final int macLength = mac.getMacLength();
+		if(this.macOutput.length < macLength) {
+			this.macOutput = new byte[macLength];
+			this.signature = new char[((macLength + 2) / 3) * 4];
+		}
+
+		mac.update(this.base, 0, this.baseLength);
+		try {
+			mac.doFinal(this.macOutput, 0);
+		} catch (ShortBufferException e) {
+			throw new OAuthSignatureException("MAC output buffer too small", e);
+		}
+
+		final int length = base64(this.macOutput, macLength, this.signature);
+		return new String(this.signature, 0, length);
+	}
+
+	/**
+	 * Return the length of the base string built so far, in bytes.
+	 *
+	 * @return the length of the base string
+	 */
+	public int length() {
+		return this.baseLength;
+	}
+
+	/**
+	 * Return a copy of the bytes of the base string built so far, so that a
+	 * constant prefix can be reused with {@link #appendBytes(byte[])}.
+	 *
+	 * @return the bytes of the base string
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(this.base, this.baseLength);
+	}
+
+	/**
+	 * Return the base string built so far. Meant for debugging only, as this
+	 * allocates a new {@link String}.
+	 *
+	 */
+	@Override
+	public String toString() {
+		return new String(this.base, 0, this.baseLength, StringUtils.CHARSET_UTF8);
+	}
+
+	// Internal methods follow
+
+	/**
+	 * Register a new parameter entry and return its offset in the offsets
+	 * array.
+	 *
+	 * @return the offset of the entry
+	 */
+	private int startEntry() {
+		if(this.paramCount == this.order.length) {
+			this.order = Arrays.copyOf(this.order, this.paramCount * 2);
+			this.offsets = Arrays.copyOf(this.offsets, this.paramCount * 6);
+		}
+
+		final int entry = this.paramCount * 3;
+		this.offsets[entry] = this.paramsLength;
+		this.order[this.paramCount] = this.paramCount;
+		this.paramCount++;
+
+		return entry;
+	}
+
+	/**
+	 * Sort the parameter order by the encoded name, and then by the encoded
+	 * value. Uses an insertion sort, as the number of parameters in a request
+	 * is small.
+	 *
+	 */
+	private void sortParameters() {
+		final int[] order = this.order;
+		for(int index = 1; index < this.paramCount; index++) {
+			final int current = order[index];
+			int position = index - 1;
+			while(position >= 0 && compareEntries(order[position], current) > 0) {
+				order[position + 1] = order[position];
+				position--;
+			}
+
+			order[position + 1] = current;
+		}
+	}
+
+	/**
+	 * Compare two parameter entries by name and then by value.
+	 *
+	 * @param first
+	 *            the index of the first parameter
+	 *
+	 * @param second
+	 *            the index of the second parameter
+	 *
+	 * @return the comparison result
+	 */
+	private int compareEntries(int first, int second) {
+		final int[] offsets = this.offsets;
+		final int one = first * 3;
+		final int two = second * 3;
+
+		int result = compareBytes(offsets[one], offsets[one + 1], offsets[two], offsets[two + 1]);
+		if(result != 0) {
+			return result;
+		}
+
+		return compareBytes(offsets[one + 1], offsets[one + 2], offsets[two + 1], offsets[two + 2]);
+	}
+
+	/**
+	 * Compare two regions of the parameter scratch area.
+	 *
+	 */
+	private int compareBytes(int firstStart, int firstEnd, int secondStart, int secondEnd) {
+		final byte[] bytes = this.params;
+		final int firstLength = firstEnd - firstStart;
+		final int secondLength = secondEnd - secondStart;
+		final int length = Math.min(firstLength, secondLength);
+
+		for(int index = 0; index < length; index++) {
+			int result = bytes[firstStart + index] - bytes[secondStart + index];
+			if(result != 0) {
+				return result;
+			}
+		}
+
+		return firstLength - secondLength;
+	}
+
+	/**
+	 * Copy once-encoded bytes from the scratch area into the output applying
+	 * the second level of encoding. Once-encoded bytes are all unreserved
+	 * characters except the percent sign, which is the only byte that needs
+	 * encoding again.
+	 *
+	 */
+	private int writeEncodedAgain(int start, int end, byte[] out, int position) {
+		final byte[] bytes = this.params;
+		for(int index = start; index < end; index++) {
+			byte b = bytes[index];
+			if(b == '%') {
+				out[position++] = '%';
+				out[position++] = '2';
+				out[position++] = '5';
+				continue;
+			}
+
+			out[position++] = b;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Ensure that the base string buffer can hold the given number of
+	 * additional bytes.
+	 *
+	 */
+	private void ensureBase(int additional) {
+		final int required = this.baseLength + additional;
+		if(required > this.base.length) {
+			this.base = Arrays.copyOf(this.base, Math.max(required, this.base.length * 2));
+		}
+	}
+
+	/**
+	 * Ensure that the parameter scratch area can hold the given number of
+	 * additional bytes.
+	 *
+	 */
+	private void ensureParams(int additional) {
+		final int required = this.paramsLength + additional;
+		if(required > this.params.length) {
+			this.params = Arrays.copyOf(this.params, Math.max(required, this.params.length * 2));
+		}
+	}
+
+	/**
+	 * Return the maximum number of bytes the given value may take once
+	 * percent-encoded.
+	 *
+	 */
+	private static int maxEncodedLength(String value) {
+		if(value == null) {
+			return 0;
+		}
+
+		return OAuthEncoder.maxEncodedLength(value.length());
+	}
+
+	/**
+	 * Write the given ASCII string percent-encoded.
+	 *
+	 */
+	private static int writeEncodedAscii(String value, byte[] out, int position) {
+		return OAuthEncoder.encode(value, 0, value.length(), out, position);
+	}
+
+	/**
+	 * Lower-case the ASCII letters in the given scheme or host name. Returns the
+	 * same instance in the common case where it is already in lower-case.
+	 *
+	 */
+	private static String toLowerCase(String value) {
+		for(int index = 0; index < value.length(); index++) {
+			char c = value.charAt(index);
+			if(c >= 'A' && c <= 'Z') {
+				return value.toLowerCase(Locale.ENGLISH);
+			}
+		}
+
+		return value;
+	}
+
+	/**
+	 * Base64 encode the given bytes, with padding, into the given character
+	 * array.
+	 *
+	 * @return the number of characters written
+	 */
+	private static int base64(byte[] bytes, int length, char[] out) {
+		int position = 0;
+		int index = 0;
+
+		for(; index + 2 < length; index += 3) {
+			int bits = ((bytes[index] & 0xFF) << 16) | ((bytes[index + 1] & 0xFF) << 8) | (bytes[index + 2] & 0xFF);
+			out[position++] = BASE64[(bits >> 18) & 0x3F];
+			out[position++] = BASE64[(bits >> 12) & 0x3F];
+			out[position++] = BASE64[(bits >> 6) & 0x3F];
+			out[position++] = BASE64[bits & 0x3F];
+		}
+
+		final int remaining = length - index;
+		if(remaining == 1) {
+			int bits = (bytes[index] & 0xFF) << 16;
+			out[position++] = BASE64[(bits >> 18) & 0x3F];
+			out[position++] = BASE64[(bits >> 12) & 0x3F];
+			out[position++] = '=';
+			out[position++] = '=';
+		} else if(remaining == 2) {
+			int bits = ((bytes[index] & 0xFF) << 16) | ((bytes[index + 1] & 0xFF) << 8);
+			out[position++] = BASE64[(bits >> 18) & 0x3F];
+			out[position++] = BASE64[(bits >> 12) & 0x3F];
+			out[position++] = BASE64[(bits >> 6) & 0x3F];
+			out[position++] = '=';
+		}
+
+		return position;
+	}
+
+}
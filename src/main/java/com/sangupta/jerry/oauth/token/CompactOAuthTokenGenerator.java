@@ -0,0 +1,734 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.oauth.nonce.NonceUtils;
+import com.sangupta.jerry.oauth.nonce.RandomSource;
+import com.sangupta.jerry.oauth.nonce.TokenEncoder;
+import com.sangupta.jerry.util.AssertUtils;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * A low-memory {@link OAuthTokenGenerator} that mints 128-bit random tokens
+ * and secrets, and stores them as primitive <code>long</code> values instead
+ * of strings. Tokens and secrets are sent to clients base62 encoded, and the
+ * secret is encoded again on demand in {@link #getSecret(String, String)}.
+ * 
+ * Consumer keys are interned to small <code>int</code> ids, and the second
+ * each token was issued is kept as an <code>int</code>, so that each token
+ * takes 40 bytes in open-addressing arrays, or about 60 to 80 bytes with the
+ * free slots of the table, against several hundred bytes for the strings,
+ * wrapper and map node of {@link InMemoryOAuthTokenGenerator}. There are no
+ * per-token objects for the garbage collector to trace.
+ * 
+ * The table is split into segments by the high 64 bits of the token, each
+ * guarded by its own lock. Interned consumer keys are never released, so
+ * this generator suits a bounded set of registered consumers.
+ * 
+ * Issued, missed and revoked tokens are published to the
+ * {@link StoreEventDispatcher} set using
+ * {@link #setEventDispatcher(StoreEventDispatcher)}, if any. Expiry is not
+ * published, as expired slots are reused in place by new tokens without
+ * their token ever being encoded again; listeners can derive it from the
+ * time a token was issued.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class CompactOAuthTokenGenerator implements RevocableOAuthTokenGenerator, ExpirySweep, Closeable {
+	
+	/**
+	 * The number of segments, must be a power of two
+	 */
+	private static final int SEGMENTS = 64;
+	
+	/**
+	 * The number of bits used to select the segment
+	 */
+	private static final int SEGMENT_SHIFT = 64 - 6;
+	
+	/**
+	 * The initial and minimum number of slots in each segment
+	 */
+	private static final int MIN_CAPACITY = 64;
+	
+	/**
+	 * The consumer id that marks an empty slot
+	 */
+	private static final int EMPTY = 0;
+	
+	/**
+	 * The length of an encoded token or secret
+	 */
+	private static final int ENCODED_LENGTH = TokenEncoder.BASE62_LONG_LENGTH * 2;
+	
+	/**
+	 * The number of bytes taken by one slot
+	 */
+	private static final int SLOT_BYTES = 8 * 4 + 4 * 2;
+	
+	/**
+	 * The segments
+	 */
+	private final Segment[] segments;
+	
+	/**
+	 * The interned consumer keys
+	 */
+	private final ConcurrentMap<String, Integer> consumerIds = new ConcurrentHashMap<String, Integer>();
+	
+	/**
+	 * The last consumer id handed out
+	 */
+	private final AtomicInteger lastConsumerId = new AtomicInteger(EMPTY);
+	
+	/**
+	 * The time from which timestamps are counted, in milliseconds
+	 */
+	private final long baseMillis;
+	
+	/**
+	 * Time duration after which the token is considered expired, in seconds
+	 */
+	private final int expirationSeconds;
+	
+	/**
+	 * The clock used to time-stamp and expire tokens
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The periodic compaction task
+	 */
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * The next segment to compact in the current pass
+	 */
+	private volatile int sweepCursor;
+	
+	/**
+	 * The dispatcher to publish events to, <code>null</code> if none
+	 */
+	private volatile StoreEventDispatcher eventDispatcher;
+	
+	/**
+	 * Default constructor that creates a generator that provides a token with
+	 * one day validity and compacts the tables every hour.
+	 * 
+	 */
+	public CompactOAuthTokenGenerator() {
+		this(DateUtils.ONE_DAY, DateUtils.ONE_HOUR);
+	}
+	
+	/**
+	 * Create a new generator that provides a token with the given expiration
+	 * time and compacts the tables at the given frequency.
+	 * 
+	 * @param expirationTime
+	 * @param cleanUpFrequency
+	 */
+	public CompactOAuthTokenGenerator(long expirationTime, long cleanUpFrequency) {
+		this(expirationTime, cleanUpFrequency, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Create a new generator that provides a token with the given expiration
+	 * time, compacts the tables at the given frequency, and reads the time
+	 * from the given clock.
+	 * 
+	 * @param expirationTime
+	 *            the validity of a token, in milliseconds, rounded up to
+	 *            whole seconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two compactions, in milliseconds
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 */
+	public CompactOAuthTokenGenerator(long expirationTime, long cleanUpFrequency, OAuthClock clock) {
+		this(expirationTime, cleanUpFrequency, clock, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Create a new generator that provides a token with the given expiration
+	 * time, compacts the tables at the given frequency on the given
+	 * scheduler, and reads the time from the given clock.
+	 * 
+	 * @param expirationTime
+	 *            the validity of a token, in milliseconds, rounded up to
+	 *            whole seconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two compactions, in milliseconds
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the compaction on, usually shared by
+	 *            many stores
+	 */
+	public CompactOAuthTokenGenerator(long expirationTime, long cleanUpFrequency, OAuthClock clock, ScheduledExecutorService scheduler) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0 || cleanUpFrequency <= 0) {
+			throw new IllegalArgumentException("Expiration time and clean up frequency must be positive");
+		}
+		
+		final long seconds = (expirationTime + 999) / 1000;
+		if(seconds > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Expiration time too large");
+		}
+		
+		this.expirationSeconds = (int) seconds;
+		this.clock = clock;
+		this.baseMillis = clock.currentTimeMillis();
+		
+		this.segments = new Segment[SEGMENTS];
+		for(int index = 0; index < SEGMENTS; index++) {
+			this.segments[index] = new Segment(MIN_CAPACITY);
+		}
+		
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, cleanUpFrequency);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.OAuthTokenGenerator#generateKeyPair(java.lang.String)
+	 */
+	@Override
+	public KeySecretPair generateKeyPair(String consumerKey) {
+		if(AssertUtils.isEmpty(consumerKey)) {
+			throw new IllegalArgumentException("Consumer key cannot be null/empty");
+		}
+		
+		final int consumerId = internConsumer(consumerKey);
+		final RandomSource random = NonceUtils.getRandomSource();
+		
+		do {
+			final long keyHigh = random.nextLong();
+			final long keyLow = random.nextLong();
+			final long secretHigh = random.nextLong();
+			final long secretLow = random.nextLong();
+			
+			final Segment segment = segmentFor(keyHigh);
+			final int now = now();
+			final boolean inserted;
+			synchronized(segment) {
+				inserted = segment.insert(keyHigh, keyLow, secretHigh, secretLow, consumerId, now, this.expirationSeconds);
+			}
+			
+			if(inserted) {
+				final KeySecretPair token = new KeySecretPair(TokenEncoder.base62(keyHigh, keyLow), TokenEncoder.base62(secretHigh, secretLow));
+				publish(StoreEventType.ISSUED, consumerKey, token.getKey());
+				return token;
+			}
+		} while(true);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.OAuthTokenGenerator#getSecret(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getSecret(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken)) {
+			return null;
+		}
+		
+		final String secret = lookup(consumerKey, requestToken);
+		if(secret == null) {
+			publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken);
+		}
+		
+		return secret;
+	}
+	
+	/**
+	 * Return the secret of the given live token issued to the given consumer,
+	 * or <code>null</code> if there is none.
+	 * 
+	 */
+	private String lookup(String consumerKey, String requestToken) {
+		if(requestToken.length() != ENCODED_LENGTH) {
+			return null;
+		}
+		
+		final Integer consumerId = this.consumerIds.get(consumerKey);
+		if(consumerId == null) {
+			return null;
+		}
+		
+		final long keyHigh;
+		final long keyLow;
+		try {
+			keyHigh = TokenEncoder.decodeBase62(requestToken, 0);
+			keyLow = TokenEncoder.decodeBase62(requestToken, TokenEncoder.BASE62_LONG_LENGTH);
+		} catch(IllegalArgumentException e) {
+			return null;
+		}
+		
+		final long[] secret = new long[2];
+		final Segment segment = segmentFor(keyHigh);
+		final int now = now();
+		synchronized(segment) {
+			if(!segment.find(keyHigh, keyLow, consumerId.intValue(), now, this.expirationSeconds, secret)) {
+				return null;
+			}
+		}
+		
+		return TokenEncoder.base62(secret[0], secret[1]);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.RevocableOAuthTokenGenerator#revokeToken(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean revokeToken(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken) || requestToken.length() != ENCODED_LENGTH) {
+			return false;
+		}
+		
+		final Integer consumerId = this.consumerIds.get(consumerKey);
+		if(consumerId == null) {
+			return false;
+		}
+		
+		final long keyHigh;
+		final long keyLow;
+		try {
+			keyHigh = TokenEncoder.decodeBase62(requestToken, 0);
+			keyLow = TokenEncoder.decodeBase62(requestToken, TokenEncoder.BASE62_LONG_LENGTH);
+		} catch(IllegalArgumentException e) {
+			return false;
+		}
+		
+		final Segment segment = segmentFor(keyHigh);
+		final int now = now();
+		final boolean revoked;
+		synchronized(segment) {
+			revoked = segment.revoke(keyHigh, keyLow, consumerId.intValue(), now, this.expirationSeconds);
+		}
+		
+		if(revoked) {
+			publish(StoreEventType.REVOKED, consumerKey, requestToken);
+		}
+		
+		return revoked;
+	}
+	
+	/**
+	 * Drop all expired tokens and shrink the segments that have become
+	 * sparse, in one go. The periodic compaction runs in steps through
+	 * {@link #sweep(long)}.
+	 * 
+	 */
+	public void cleanUp() {
+		for(Segment segment : this.segments) {
+			final int now = now();
+			synchronized(segment) {
+				segment.rehash(now, this.expirationSeconds);
+			}
+		}
+	}
+	
+	/**
+	 * Return the number of slots in use, including expired tokens that have
+	 * not yet been dropped.
+	 * 
+	 * @return the number of slots in use
+	 */
+	public long size() {
+		long size = 0;
+		for(Segment segment : this.segments) {
+			synchronized(segment) {
+				size += segment.used;
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Return the number of bytes taken by the tables.
+	 * 
+	 * @return the memory used, in bytes
+	 */
+	public long getMemoryUsage() {
+		long slots = 0;
+		for(Segment segment : this.segments) {
+			synchronized(segment) {
+				slots += segment.consumers.length;
+			}
+		}
+		
+		return slots * SLOT_BYTES;
+	}
+	
+	/**
+	 * Compact the segments, in order, till all have been compacted or the
+	 * deadline has passed. The next pass continues with the next segment.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		int cursor = this.sweepCursor;
+		while(cursor < SEGMENTS) {
+			final Segment segment = this.segments[cursor++];
+			final int now = now();
+			synchronized(segment) {
+				segment.rehash(now, this.expirationSeconds);
+			}
+			
+			if(cursor < SEGMENTS && System.nanoTime() - deadline > 0) {
+				this.sweepCursor = cursor;
+				return false;
+			}
+		}
+		
+		this.sweepCursor = 0;
+		return true;
+	}
+	
+	/**
+	 * Set the dispatcher to publish events to.
+	 * 
+	 * @param eventDispatcher
+	 *            the dispatcher, or <code>null</code> to stop publishing
+	 */
+	public void setEventDispatcher(StoreEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+	
+	/**
+	 * Stop the periodic compaction. The generator keeps working, and expired
+	 * entries are still reused as new ones are inserted.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.sweepTask.cancel(false);
+	}
+	
+	/**
+	 * Stop the periodic compaction.
+	 * 
+	 * @deprecated use {@link #close()}
+	 */
+	@Deprecated
+	public void shutdown() {
+		close();
+	}
+	
+	/**
+	 * Publish an event for the given token, if a dispatcher is set.
+	 * 
+	 */
+	private void publish(StoreEventType type, String consumerKey, String token) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher != null) {
+			dispatcher.publish(type, this, consumerKey, token, this.clock.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Return the id of the given consumer key, assigning one if needed.
+	 * 
+	 */
+	private int internConsumer(String consumerKey) {
+		Integer id = this.consumerIds.get(consumerKey);
+		if(id != null) {
+			return id.intValue();
+		}
+		
+		Integer newId = Integer.valueOf(this.lastConsumerId.incrementAndGet());
+		id = this.consumerIds.putIfAbsent(consumerKey, newId);
+		if(id != null) {
+			return id.intValue();
+		}
+		
+		return newId.intValue();
+	}
+	
+	/**
+	 * Return the segment for the given high bits of a token.
+	 * 
+	 */
+	private Segment segmentFor(long keyHigh) {
+		return this.segments[(int) (keyHigh >>> SEGMENT_SHIFT)];
+	}
+	
+	/**
+	 * Return the current time in seconds since {@link #baseMillis}.
+	 * 
+	 */
+	private int now() {
+		return (int) ((this.clock.currentTimeMillis() - this.baseMillis) / 1000);
+	}
+	
+	/**
+	 * One open-addressing table with linear probing, indexed by the high bits
+	 * of the token. All access must hold the lock of the segment.
+	 * 
+	 */
+	private static final class Segment {
+		
+		/**
+		 * The high 64 bits of the tokens
+		 */
+		@GuardedBy("this")
+		long[] keyHighs;
+		
+		/**
+		 * The low 64 bits of the tokens
+		 */
+		@GuardedBy("this")
+		long[] keyLows;
+		
+		/**
+		 * The high 64 bits of the secrets
+		 */
+		@GuardedBy("this")
+		long[] secretHighs;
+		
+		/**
+		 * The low 64 bits of the secrets
+		 */
+		@GuardedBy("this")
+		long[] secretLows;
+		
+		/**
+		 * The consumer ids, {@link CompactOAuthTokenGenerator#EMPTY} for a
+		 * free slot
+		 */
+		@GuardedBy("this")
+		int[] consumers;
+		
+		/**
+		 * The second each token was issued
+		 */
+		@GuardedBy("this")
+		int[] stamps;
+		
+		/**
+		 * The number of slots that are not free
+		 */
+		@GuardedBy("this")
+		int used;
+		
+		Segment(int capacity) {
+			allocate(capacity);
+		}
+		
+		private void allocate(int capacity) {
+			this.keyHighs = new long[capacity];
+			this.keyLows = new long[capacity];
+			this.secretHighs = new long[capacity];
+			this.secretLows = new long[capacity];
+			this.consumers = new int[capacity];
+			this.stamps = new int[capacity];
+		}
+		
+		/**
+		 * Insert the token unless a live token with the same value exists.
+		 * 
+		 * @return <code>true</code> if inserted, <code>false</code> if the
+		 *         token is already in use
+		 */
+		boolean insert(long keyHigh, long keyLow, long secretHigh, long secretLow, int consumerId, int now, int expiration) {
+			final int mask = this.consumers.length - 1;
+			
+			int index = (int) keyHigh & mask;
+			int reusable = -1;
+			
+			// probe till a free slot, as the token may sit past an expired slot
+			while(this.consumers[index] != EMPTY) {
+				final boolean expired = now - this.stamps[index] > expiration;
+				if(this.keyHighs[index] == keyHigh && this.keyLows[index] == keyLow) {
+					if(!expired) {
+						return false;
+					}
+					
+					reusable = index;
+					break;
+				}
+				
+				if(expired && reusable < 0) {
+					reusable = index;
+				}
+				
+				index = (index + 1) & mask;
+			}
+			
+			if(reusable < 0) {
+				reusable = index;
+				this.used++;
+			}
+			
+			this.keyHighs[reusable] = keyHigh;
+			this.keyLows[reusable] = keyLow;
+			this.secretHighs[reusable] = secretHigh;
+			this.secretLows[reusable] = secretLow;
+			this.consumers[reusable] = consumerId;
+			this.stamps[reusable] = now;
+			
+			// keep the load under three quarters
+			if(this.used > (this.consumers.length >> 2) * 3) {
+				rehash(now, expiration);
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Find the live token issued to the given consumer, and copy its
+		 * secret to the given array.
+		 * 
+		 * @return <code>true</code> if found, <code>false</code> otherwise
+		 */
+		boolean find(long keyHigh, long keyLow, int consumerId, int now, int expiration, long[] secret) {
+			final int mask = this.consumers.length - 1;
+			
+			int index = (int) keyHigh & mask;
+			while(this.consumers[index] != EMPTY) {
+				if(this.keyHighs[index] == keyHigh && this.keyLows[index] == keyLow) {
+					if(this.consumers[index] != consumerId || now - this.stamps[index] > expiration) {
+						return false;
+					}
+					
+					secret[0] = this.secretHighs[index];
+					secret[1] = this.secretLows[index];
+					return true;
+				}
+				
+				index = (index + 1) & mask;
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Expire the live token issued to the given consumer. The slot is
+		 * kept, so that probing past it still works, and is reused or dropped
+		 * like any other expired slot.
+		 * 
+		 * @return <code>true</code> if revoked, <code>false</code> if not
+		 *         found
+		 */
+		boolean revoke(long keyHigh, long keyLow, int consumerId, int now, int expiration) {
+			final int mask = this.consumers.length - 1;
+			
+			int index = (int) keyHigh & mask;
+			while(this.consumers[index] != EMPTY) {
+				if(this.keyHighs[index] == keyHigh && this.keyLows[index] == keyLow) {
+					if(this.consumers[index] != consumerId || now - this.stamps[index] > expiration) {
+						return false;
+					}
+					
+					this.stamps[index] = now - expiration - 1;
+					return true;
+				}
+				
+				index = (index + 1) & mask;
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Rebuild the table with only the live tokens, sized so that it is at
+		 * most half full.
+		 * 
+		 */
+		void rehash(int now, int expiration) {
+			final long[] oldKeyHighs = this.keyHighs;
+			final long[] oldKeyLows = this.keyLows;
+			final long[] oldSecretHighs = this.secretHighs;
+			final long[] oldSecretLows = this.secretLows;
+			final int[] oldConsumers = this.consumers;
+			final int[] oldStamps = this.stamps;
+			
+			int live = 0;
+			for(int index = 0; index < oldConsumers.length; index++) {
+				if(oldConsumers[index] != EMPTY && now - oldStamps[index] <= expiration) {
+					live++;
+				}
+			}
+			
+			int capacity = MIN_CAPACITY;
+			while(capacity < live * 2) {
+				capacity <<= 1;
+			}
+			
+			if(capacity == oldConsumers.length && live == this.used) {
+				// nothing to drop, and already the right size
+				return;
+			}
+			
+			allocate(capacity);
+			final int mask = capacity - 1;
+			
+			for(int index = 0; index < oldConsumers.length; index++) {
+				if(oldConsumers[index] == EMPTY || now - oldStamps[index] > expiration) {
+					continue;
+				}
+				
+				int slot = (int) oldKeyHighs[index] & mask;
+				while(this.consumers[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				
+				this.keyHighs[slot] = oldKeyHighs[index];
+				this.keyLows[slot] = oldKeyLows[index];
+				this.secretHighs[slot] = oldSecretHighs[index];
+				this.secretLows[slot] = oldSecretLows[index];
+				this.consumers[slot] = oldConsumers[index];
+				this.stamps[slot] = oldStamps[index];
+			}
+			
+			this.used = live;
+		}
+		
+	}
+
+}
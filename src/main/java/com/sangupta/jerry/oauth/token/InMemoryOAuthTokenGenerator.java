@@ -21,13 +21,24 @@
 
 package com.sangupta.jerry.oauth.token;
 
-import java.util.Collection;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
 import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventType;
 import com.sangupta.jerry.util.AssertUtils;
 import com.sangupta.jerry.util.DateUtils;
 
@@ -35,10 +46,26 @@ import com.sangupta.jerry.util.DateUtils;
  * An in-memory {@link OAuthTokenGenerator} that can be used to generate
  * OAuth request/access tokens for sending to the client.
  * 
+ * Expired tokens are removed in small steps on a shared scheduler, by
+ * default {@link ExpiryScheduler#DEFAULT}. Call {@link #close()} when the
+ * generator is no longer needed.
+ * 
+ * Issued, missed, expired and revoked tokens are published to the
+ * {@link StoreEventDispatcher} set using
+ * {@link #setEventDispatcher(StoreEventDispatcher)}, if any.
+ * 
+ * Tokens are also indexed by consumer key, so that all tokens of a consumer
+ * can be revoked using {@link #revokeAll(String)} and counted using
+ * {@link #getTokenCount(String)} without a scan of all tokens. The number of
+ * tokens a consumer may hold can be capped using
+ * {@link #setMaxTokensPerConsumer(int)}. The index takes no locks: each
+ * consumer holds a concurrent set of its tokens and a count that is reserved
+ * by compare-and-set before a token is issued.
+ * 
  * @author sangupta
  * @since 1.0
  */
-public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
+public class InMemoryOAuthTokenGenerator implements RevocableOAuthTokenGenerator, ExpirySweep, Closeable {
 	
 	/**
      * Holds all tokens
@@ -46,20 +73,47 @@ public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
     private final ConcurrentMap<String, OAuthTokenWrapper> TOKEN_TO_KEY_MAP = new ConcurrentHashMap<String, OAuthTokenWrapper>();
 	
 	/**
-	 * The background cleaning task
+	 * The index of tokens by consumer key
+	 */
+	private final ConcurrentMap<String, ConsumerTokens> consumerIndex = new ConcurrentHashMap<String, ConsumerTokens>();
+	
+	/**
+	 * The maximum number of tokens a consumer may hold, zero or less for no
+	 * limit
+	 */
+	private volatile int maxTokensPerConsumer = 0;
+	
+	/**
+	 * The index of tokens by expiry time, so that a clean-up only visits the
+	 * tokens that are due
+	 */
+	private final TokenExpiryIndex expiryIndex;
+	
+	/**
+	 * The number of tokens removed from the expiry index at a time
 	 */
-	private final TimerTask timerTask;
+	private static final int SWEEP_BATCH = 256;
 	
 	/**
-	 * The background cleaning time
+	 * The periodic clean up task
 	 */
-	private final Timer timer;
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * The dispatcher to publish events to, <code>null</code> if none
+	 */
+	private volatile StoreEventDispatcher eventDispatcher;
 	
 	/**
 	 * Time duration after which the token is considered expired
 	 */
 	private final long EXPIRATION_TIME;
 	
+	/**
+	 * The clock used to time-stamp and expire tokens
+	 */
+	private final OAuthClock clock;
+	
 	/**
 	 * Default constructor that creates a generator that provides a token with
 	 * one day validity and older tokens are removed every hour.
@@ -77,20 +131,47 @@ public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
 	 * @param cleanUpFrequency
 	 */
 	public InMemoryOAuthTokenGenerator(long expirationTime, long cleanUpFrequency) {
+		this(expirationTime, cleanUpFrequency, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Create a new generator that provides a token with the given expiration
+	 * time, removes older tokens at the given frequency, and reads the time
+	 * from the given clock.
+	 * 
+	 * @param expirationTime
+	 * @param cleanUpFrequency
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 */
+	public InMemoryOAuthTokenGenerator(long expirationTime, long cleanUpFrequency, OAuthClock clock) {
+		this(expirationTime, cleanUpFrequency, clock, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Create a new generator that provides a token with the given expiration
+	 * time, removes older tokens at the given frequency on the given
+	 * scheduler, and reads the time from the given clock.
+	 * 
+	 * @param expirationTime
+	 * @param cleanUpFrequency
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the clean up on, usually shared by many
+	 *            stores
+	 */
+	public InMemoryOAuthTokenGenerator(long expirationTime, long cleanUpFrequency, OAuthClock clock, ScheduledExecutorService scheduler) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
 		this.EXPIRATION_TIME = expirationTime;
+		this.clock = clock;
+		this.expiryIndex = new TokenExpiryIndex(cleanUpFrequency);
 		
-		this.timerTask = new TimerTask() {
-
-            @Override
-            public void run() {
-                cleanUpOldTokens();
-            }
-
-        };
-        
-        // start timer
-        this.timer = new Timer("nonce-cleaning-task");
-        this.timer.scheduleAtFixedRate(timerTask, DateUtils.FIVE_MINUTES, cleanUpFrequency);
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, cleanUpFrequency);
 	}
 
 	/**
@@ -104,11 +185,19 @@ public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
 		
 		do {
 			KeySecretPair token = KeySecretPair.uuidRandomToken();
-			OAuthTokenWrapper olderToken = TOKEN_TO_KEY_MAP.putIfAbsent(token.getKey(), new OAuthTokenWrapper(token, consumerKey));
+			
+			// reserve the slot of the consumer before the token is visible
+			reserve(consumerKey, token.getKey());
+			
+			final long millis = this.clock.currentTimeMillis();
+			OAuthTokenWrapper olderToken = TOKEN_TO_KEY_MAP.putIfAbsent(token.getKey(), new OAuthTokenWrapper(token, consumerKey, millis));
 			if(olderToken == null) {
+				this.expiryIndex.add(token.getKey(), millis + this.EXPIRATION_TIME);
+				publish(StoreEventType.ISSUED, consumerKey, token.getKey(), millis);
 				return token;
 			}
 			
+			unindex(consumerKey, token.getKey());
 		} while(true);
 	}
 
@@ -125,22 +214,23 @@ public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
 			return null;
 		}
 		
-		if(!TOKEN_TO_KEY_MAP.containsKey(requestToken)) {
-            return null;
-        }
-        
         OAuthTokenWrapper wrapper = TOKEN_TO_KEY_MAP.get(requestToken);
-        if(!wrapper.consumerKey.equals(consumerKey)) {
+        if(wrapper == null || !wrapper.consumerKey.equals(consumerKey)) {
+        	publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken, this.clock.currentTimeMillis());
             return null;
         }
         
         // check for expiration
-        long currentTime = System.currentTimeMillis();
+        long currentTime = this.clock.currentTimeMillis();
         long delta = currentTime - wrapper.millis;
         if(delta > this.EXPIRATION_TIME) {
         	// remove the expired token
-        	TOKEN_TO_KEY_MAP.remove(requestToken);
+        	if(TOKEN_TO_KEY_MAP.remove(requestToken, wrapper)) {
+        		unindex(consumerKey, requestToken);
+        		publish(StoreEventType.EXPIRED, consumerKey, requestToken, currentTime);
+        	}
         	
+        	publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken, currentTime);
             return null;
         }
         
@@ -148,22 +238,289 @@ public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
 	}
 	
 	/**
-     * Clean up tokens older than the expiration time.
+	 * @see com.sangupta.jerry.oauth.token.RevocableOAuthTokenGenerator#revokeToken(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean revokeToken(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken)) {
+			return false;
+		}
+		
+		OAuthTokenWrapper wrapper = TOKEN_TO_KEY_MAP.get(requestToken);
+		if(wrapper == null || !wrapper.consumerKey.equals(consumerKey)) {
+			return false;
+		}
+		
+		if(!TOKEN_TO_KEY_MAP.remove(requestToken, wrapper)) {
+			return false;
+		}
+		
+		unindex(consumerKey, requestToken);
+		
+		final long currentTime = this.clock.currentTimeMillis();
+		if(currentTime - wrapper.millis > this.EXPIRATION_TIME) {
+			publish(StoreEventType.EXPIRED, consumerKey, requestToken, currentTime);
+			return false;
+		}
+		
+		publish(StoreEventType.REVOKED, consumerKey, requestToken, currentTime);
+		return true;
+	}
+	
+	/**
+	 * Revoke all tokens issued to the given consumer key, for example when the
+	 * consumer key has been compromised. The work done is proportional to the
+	 * number of tokens of the consumer.
+	 * 
+	 * @param consumerKey
+	 *            the consumer key whose tokens are to be revoked
+	 * 
+	 * @return the number of live tokens revoked
+	 */
+	public int revokeAll(String consumerKey) {
+		if(AssertUtils.isEmpty(consumerKey)) {
+			return 0;
+		}
+		
+		final ConsumerTokens tokens = this.consumerIndex.get(consumerKey);
+		if(tokens == null) {
+			return 0;
+		}
+		
+		final long currentTime = this.clock.currentTimeMillis();
+		int revoked = 0;
+		for(String key : tokens.snapshot()) {
+			OAuthTokenWrapper wrapper = TOKEN_TO_KEY_MAP.get(key);
+			if(wrapper == null || !wrapper.consumerKey.equals(consumerKey) || !TOKEN_TO_KEY_MAP.remove(key, wrapper)) {
+				continue;
+			}
+			
+			unindex(consumerKey, key);
+			
+			if(currentTime - wrapper.millis > this.EXPIRATION_TIME) {
+				publish(StoreEventType.EXPIRED, consumerKey, key, currentTime);
+				continue;
+			}
+			
+			publish(StoreEventType.REVOKED, consumerKey, key, currentTime);
+			revoked++;
+		}
+		
+		return revoked;
+	}
+	
+	/**
+	 * Return the number of tokens held for the given consumer key, including
+	 * expired tokens not yet cleaned up.
+	 * 
+	 * @param consumerKey
+	 *            the consumer key
+	 * 
+	 * @return the number of tokens held for the consumer
+	 */
+	public int getTokenCount(String consumerKey) {
+		if(AssertUtils.isEmpty(consumerKey)) {
+			return 0;
+		}
+		
+		final ConsumerTokens tokens = this.consumerIndex.get(consumerKey);
+		if(tokens == null) {
+			return 0;
+		}
+		
+		return tokens.size();
+	}
+	
+	/**
+	 * Return the number of consumer keys that hold at least one token.
+	 * 
+	 * @return the number of consumer keys
+	 */
+	public int getConsumerCount() {
+		return this.consumerIndex.size();
+	}
+	
+	/**
+	 * Set the maximum number of tokens a consumer may hold. Once reached,
+	 * {@link #generateKeyPair(String)} throws an
+	 * {@link OAuthTokenStoreException} till some of the tokens of the consumer
+	 * expire or are revoked.
+	 * 
+	 * @param maxTokensPerConsumer
+	 *            the maximum number of tokens, zero or less for no limit
+	 */
+	public void setMaxTokensPerConsumer(int maxTokensPerConsumer) {
+		this.maxTokensPerConsumer = maxTokensPerConsumer;
+	}
+	
+	/**
+	 * Set the dispatcher to publish events to.
+	 * 
+	 * @param eventDispatcher
+	 *            the dispatcher, or <code>null</code> to stop publishing
+	 */
+	public void setEventDispatcher(StoreEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+	
+	/**
+	 * Return the number of tokens held, including expired tokens not yet
+	 * cleaned up.
+	 * 
+	 * @return the number of tokens held
+	 */
+	public int size() {
+		return TOKEN_TO_KEY_MAP.size();
+	}
+	
+	/**
+	 * Stop the periodic clean up. The generator keeps working, but expired
+	 * tokens are only removed when looked up.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.sweepTask.cancel(false);
+	}
+	
+	/**
+	 * Remove the tokens that are due as per the expiry index, a batch at a
+	 * time, till none are left or the deadline has passed.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		final long currentRunningTime = this.clock.currentTimeMillis();
+		final List<String> due = new ArrayList<String>(SWEEP_BATCH);
+		
+		while(true) {
+			due.clear();
+			final int count = this.expiryIndex.drainDue(currentRunningTime, SWEEP_BATCH, due);
+			
+			for(String key : due) {
+				OAuthTokenWrapper tokenWrapper = TOKEN_TO_KEY_MAP.get(key);
+				if(tokenWrapper == null) {
+					continue;
+				}
+				
+				long delta = currentRunningTime - tokenWrapper.millis;
+				if(this.EXPIRATION_TIME < delta && TOKEN_TO_KEY_MAP.remove(key, tokenWrapper)) {
+					unindex(tokenWrapper.consumerKey, key);
+					publish(StoreEventType.EXPIRED, tokenWrapper.consumerKey, key, currentRunningTime);
+				}
+			}
+			
+			if(count < SWEEP_BATCH) {
+				return true;
+			}
+			
+			if(System.nanoTime() - deadline > 0) {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Add the given token to the index of the given consumer, honouring the
+	 * maximum number of tokens per consumer. When the consumer is at the
+	 * limit, its expired tokens are removed once before giving up.
+	 * 
+	 * @throws OAuthTokenStoreException
+	 *             if the consumer holds the maximum number of tokens
+	 */
+	private void reserve(String consumerKey, String key) {
+		boolean purged = false;
+		
+		while(true) {
+			ConsumerTokens tokens = this.consumerIndex.get(consumerKey);
+			if(tokens == null) {
+				ConsumerTokens fresh = new ConsumerTokens();
+				tokens = this.consumerIndex.putIfAbsent(consumerKey, fresh);
+				if(tokens == null) {
+					tokens = fresh;
+				}
+			}
+			
+			final int max = this.maxTokensPerConsumer;
+			final int result = tokens.reserve(max);
+			if(result == ConsumerTokens.RESERVED) {
+				tokens.keys.add(key);
+				return;
+			}
+			
+			if(result == ConsumerTokens.RETIRED) {
+				// emptied concurrently, drop it from the index ourselves
+				// rather than wait for its owner to, and take a fresh one
+				this.consumerIndex.remove(consumerKey, tokens);
+				continue;
+			}
+			
+			if(purged) {
+				throw new OAuthTokenStoreException("Consumer " + consumerKey + " already holds the maximum of " + max + " tokens");
+			}
+			
+			removeExpired(consumerKey, tokens);
+			purged = true;
+		}
+	}
+	
+	/**
+	 * Remove the expired tokens of the given consumer.
+	 * 
+	 */
+	private void removeExpired(String consumerKey, ConsumerTokens tokens) {
+		final long currentTime = this.clock.currentTimeMillis();
+		for(String key : tokens.snapshot()) {
+			OAuthTokenWrapper wrapper = TOKEN_TO_KEY_MAP.get(key);
+			if(wrapper == null || currentTime - wrapper.millis <= this.EXPIRATION_TIME) {
+				continue;
+			}
+			
+			if(TOKEN_TO_KEY_MAP.remove(key, wrapper)) {
+				unindex(consumerKey, key);
+				publish(StoreEventType.EXPIRED, consumerKey, key, currentTime);
+			}
+		}
+	}
+	
+	/**
+	 * Remove the given token from the index of the given consumer, dropping
+	 * the consumer from the index once it holds no tokens.
+	 * 
+	 */
+	private void unindex(String consumerKey, String key) {
+		final ConsumerTokens tokens = this.consumerIndex.get(consumerKey);
+		if(tokens == null) {
+			return;
+		}
+		
+		if(!tokens.keys.remove(key)) {
+			return;
+		}
+		
+		if(tokens.release()) {
+			this.consumerIndex.remove(consumerKey, tokens);
+		}
+	}
+	
+	/**
+	 * Publish an event, if a dispatcher is set.
+	 * 
+	 */
+	private void publish(StoreEventType type, String consumerKey, String token, long time) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher != null) {
+			dispatcher.publish(type, this, consumerKey, token, time);
+		}
+	}
+	
+	/**
+     * Clean up all tokens older than the expiration time in one go.
      */
-    private void cleanUpOldTokens() {
-    	if(TOKEN_TO_KEY_MAP.isEmpty()) {
-            // nothing to do - return
-        }
-        
-        final long currentRunningTime = System.currentTimeMillis();
-        
-        Collection<OAuthTokenWrapper> values = TOKEN_TO_KEY_MAP.values();
-        
-        for(OAuthTokenWrapper tokenWrapper : values) {
-        	long delta = currentRunningTime - tokenWrapper.millis;
-            if(this.EXPIRATION_TIME < delta) {
-                TOKEN_TO_KEY_MAP.remove(tokenWrapper.token);
-            }
+    void cleanUpOldTokens() {
+        while(!sweep(System.nanoTime())) {
+        	// continue
         }
     }
 
@@ -181,10 +538,87 @@ public class InMemoryOAuthTokenGenerator implements OAuthTokenGenerator {
 		
 		long millis;
 		
-		public OAuthTokenWrapper(KeySecretPair token, String consumerKey) {
+		public OAuthTokenWrapper(KeySecretPair token, String consumerKey, long millis) {
 			this.token = token;
 			this.consumerKey = consumerKey;
-			this.millis = System.currentTimeMillis();
+			this.millis = millis;
+		}
+	}
+	
+	/**
+	 * Utility class that binds a given consumer key to the tokens it holds.
+	 * Once emptied, the instance is retired and removed from the index, and a
+	 * new instance is created for the next token of the consumer.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private static class ConsumerTokens {
+		
+		/**
+		 * The result of a reservation within the limit
+		 */
+		static final int RESERVED = 0;
+		
+		/**
+		 * The result of a reservation at the limit
+		 */
+		static final int FULL = 1;
+		
+		/**
+		 * The result of a reservation on a retired instance
+		 */
+		static final int RETIRED = 2;
+		
+		/**
+		 * The tokens of the consumer
+		 */
+		final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		
+		/**
+		 * The number of tokens reserved, or <code>-1</code> once retired
+		 */
+		final AtomicInteger count = new AtomicInteger();
+		
+		/**
+		 * Reserve a slot for one more token, within the given limit.
+		 * 
+		 * @return {@link #RESERVED}, {@link #FULL} or {@link #RETIRED}
+		 */
+		int reserve(int max) {
+			while(true) {
+				final int current = this.count.get();
+				if(current < 0) {
+					return RETIRED;
+				}
+				
+				if(max > 0 && current >= max) {
+					return FULL;
+				}
+				
+				if(this.count.compareAndSet(current, current + 1)) {
+					return RESERVED;
+				}
+			}
+		}
+		
+		/**
+		 * Release the slot of a removed token, retiring this instance if it
+		 * was the last one.
+		 * 
+		 * @return <code>true</code> if retired, and thus to be removed from
+		 *         the index
+		 */
+		boolean release() {
+			return this.count.decrementAndGet() == 0 && this.count.compareAndSet(0, -1);
+		}
+		
+		int size() {
+			return Math.max(this.count.get(), 0);
+		}
+		
+		List<String> snapshot() {
+			return new ArrayList<String>(this.keys);
 		}
 	}
 }
@@ -0,0 +1,1318 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.util.AssertUtils;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * An {@link OAuthTokenGenerator} that persists issued and revoked tokens to
+ * disk, so that in-flight logins survive a restart or a deploy. Tokens are
+ * served from an in-memory index, and every change is appended to a log
+ * before the call returns.
+ * 
+ * <h3>Log</h3>
+ * 
+ * The log is a sequence of fixed-size segment files, each mapped into memory
+ * with {@link FileChannel#map(FileChannel.MapMode, long, long)}. Each record
+ * holds its length, its type and fields, and a CRC32 of the two, and a zero
+ * length marks the end of a segment. Appends are serialized by a lock and
+ * only copy the record into the mapped segment. A single committer thread
+ * then forces the segment to disk and wakes all callers whose records were
+ * covered, so that callers arriving while a force is in progress share the
+ * next one: group commit.
+ * 
+ * A revoked token is only dropped from memory once its revocation is on
+ * disk. If the log cannot be written, the token stays live and
+ * {@link #revokeToken(String, String)} throws an
+ * {@link OAuthTokenStoreException}.
+ * 
+ * <h3>Snapshots</h3>
+ * 
+ * A compaction switches to a new segment, writes all live tokens to a
+ * snapshot file named after that segment, syncs it, and then deletes the
+ * older snapshots and segments. Compaction runs at the clean up frequency,
+ * and as soon as {@link #COMPACT_AFTER_SEGMENTS} segments were written since
+ * the last snapshot, so that the log on disk holds at most the records of a
+ * few segments beyond the live tokens.
+ * 
+ * <h3>Recovery</h3>
+ * 
+ * On startup the newest snapshot whose checksum is valid is loaded, and the
+ * segments after it are streamed in order. Replay of a segment stops at the
+ * first torn or corrupt record, and new records always go to a fresh segment.
+ * Recovery time thus depends on the number of live tokens and the size of
+ * the log since the last snapshot, not on the total history; it is available
+ * from {@link #getRecoveryTime()}.
+ * 
+ * Expired tokens are dropped from memory at the clean up frequency and left
+ * out of the next snapshot; expiry is not logged. Expired tokens are dropped
+ * in steps on a shared scheduler, by default {@link ExpiryScheduler#DEFAULT}.
+ * The snapshot is written by a compactor thread of this generator, which the
+ * end of a pass only wakes, so that its disk I/O never holds up the clean up
+ * of other stores on the shared scheduler.
+ * 
+ * Issued, missed, expired and revoked tokens are published to the
+ * {@link StoreEventDispatcher} set using
+ * {@link #setEventDispatcher(StoreEventDispatcher)}, if any.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class PersistentOAuthTokenGenerator implements RevocableOAuthTokenGenerator, ExpirySweep, Closeable {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(PersistentOAuthTokenGenerator.class);
+	
+	/**
+	 * The magic number at the start of each segment
+	 */
+	private static final int SEGMENT_MAGIC = 0x4a4f544c;
+	
+	/**
+	 * The magic number at the start of each snapshot
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x4a4f5453;
+	
+	/**
+	 * The version of the file formats
+	 */
+	private static final int VERSION = 1;
+	
+	/**
+	 * The size of the segment header: magic, version and sequence
+	 */
+	private static final int SEGMENT_HEADER_SIZE = 4 + 4 + 8;
+	
+	/**
+	 * The bytes taken by each record besides its body: length and checksum
+	 */
+	private static final int RECORD_OVERHEAD = 4 + 4;
+	
+	/**
+	 * The record type of an issued token
+	 */
+	private static final byte RECORD_ISSUE = 1;
+	
+	/**
+	 * The record type of a revoked token
+	 */
+	private static final byte RECORD_REVOKE = 2;
+	
+	/**
+	 * The number of segments written since the last snapshot that triggers a
+	 * compaction
+	 */
+	public static final int COMPACT_AFTER_SEGMENTS = 4;
+	
+	/**
+	 * The default size of each log segment
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * The minimum size of each log segment
+	 */
+	public static final int MIN_SEGMENT_SIZE = 256 * 1024;
+	
+	/**
+	 * The charset used to encode strings in the log
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * The directory holding the log and snapshots
+	 */
+	private final File directory;
+	
+	/**
+	 * Holds all tokens
+	 */
+	private final ConcurrentMap<String, TokenEntry> tokens = new ConcurrentHashMap<String, TokenEntry>();
+	
+	/**
+	 * The index of tokens by expiry time
+	 */
+	private final TokenExpiryIndex expiryIndex;
+	
+	/**
+	 * Time duration after which the token is considered expired
+	 */
+	private final long expirationTime;
+	
+	/**
+	 * The size of each log segment
+	 */
+	private final int segmentSize;
+	
+	/**
+	 * The clock used to time-stamp and expire tokens
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * Lock that serializes appends to the log
+	 */
+	private final ReentrantLock appendLock = new ReentrantLock();
+	
+	/**
+	 * The segment being appended to
+	 */
+	@GuardedBy("appendLock")
+	private LogSegment current;
+	
+	/**
+	 * The number of segments written since the last snapshot
+	 */
+	@GuardedBy("appendLock")
+	private int segmentsSinceSnapshot;
+	
+	/**
+	 * The number of records appended, only written holding the append lock
+	 */
+	private volatile long appended;
+	
+	/**
+	 * The monitor on which callers wait for their records to be committed
+	 */
+	private final Object commitMonitor = new Object();
+	
+	/**
+	 * The number of records known to be on disk
+	 */
+	@GuardedBy("commitMonitor")
+	private long committed;
+	
+	/**
+	 * The error that stopped the committer, if any
+	 */
+	@GuardedBy("commitMonitor")
+	private RuntimeException commitFailure;
+	
+	/**
+	 * The number of times the log was forced to disk
+	 */
+	private final AtomicLong commits = new AtomicLong();
+	
+	/**
+	 * Lock that allows one compaction at a time
+	 */
+	private final Object compactionLock = new Object();
+	
+	/**
+	 * The committer thread
+	 */
+	private final Thread committer;
+	
+	/**
+	 * The number of tokens removed from the expiry index at a time
+	 */
+	private static final int SWEEP_BATCH = 256;
+	
+	/**
+	 * The periodic clean up task
+	 */
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * The monitor on which the compactor waits for a compaction request
+	 */
+	private final Object compactionMonitor = new Object();
+	
+	/**
+	 * Whether a compaction was requested and not yet started
+	 */
+	@GuardedBy("compactionMonitor")
+	private boolean compactionRequested;
+	
+	/**
+	 * The compactor thread
+	 */
+	private final Thread compactor;
+	
+	/**
+	 * The dispatcher to publish events to, <code>null</code> if none
+	 */
+	private volatile StoreEventDispatcher eventDispatcher;
+	
+	/**
+	 * The time taken by the recovery on startup, in milliseconds
+	 */
+	private final long recoveryTime;
+	
+	/**
+	 * The number of snapshot entries and log records read during recovery
+	 */
+	private final long recoveredRecords;
+	
+	/**
+	 * Whether this generator has been closed
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * Create a generator in the given directory that provides a token with
+	 * one day validity and cleans up and compacts every hour.
+	 * 
+	 * @param directory
+	 *            the directory to hold the log and snapshots, created if it
+	 *            does not exist
+	 * 
+	 * @throws IOException
+	 *             if the directory cannot be read or written
+	 */
+	public PersistentOAuthTokenGenerator(File directory) throws IOException {
+		this(directory, DateUtils.ONE_DAY, DateUtils.ONE_HOUR, DEFAULT_SEGMENT_SIZE, CoarseClock.DEFAULT);
+	}
+	
+	/**
+	 * Create a generator in the given directory with the given settings.
+	 * 
+	 * @param directory
+	 *            the directory to hold the log and snapshots, created if it
+	 *            does not exist
+	 * 
+	 * @param expirationTime
+	 *            the validity of a token, in milliseconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two clean ups and compactions, in
+	 *            milliseconds
+	 * 
+	 * @param segmentSize
+	 *            the size of each log segment, in bytes
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @throws IOException
+	 *             if the directory cannot be read or written
+	 */
+	public PersistentOAuthTokenGenerator(File directory, long expirationTime, long cleanUpFrequency, int segmentSize, OAuthClock clock) throws IOException {
+		this(directory, expirationTime, cleanUpFrequency, segmentSize, clock, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Create a generator in the given directory with the given settings,
+	 * running its clean up on the given scheduler.
+	 * 
+	 * @param directory
+	 *            the directory to hold the log and snapshots, created if it
+	 *            does not exist
+	 * 
+	 * @param expirationTime
+	 *            the validity of a token, in milliseconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two clean ups and compactions, in
+	 *            milliseconds
+	 * 
+	 * @param segmentSize
+	 *            the size of each log segment, in bytes
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the clean up on, usually shared by many
+	 *            stores
+	 * 
+	 * @throws IOException
+	 *             if the directory cannot be read or written
+	 */
+	public PersistentOAuthTokenGenerator(File directory, long expirationTime, long cleanUpFrequency, int segmentSize, OAuthClock clock, ScheduledExecutorService scheduler) throws IOException {
+		if(directory == null) {
+			throw new IllegalArgumentException("Directory cannot be null");
+		}
+		
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(expirationTime <= 0 || cleanUpFrequency <= 0) {
+			throw new IllegalArgumentException("Expiration time and clean up frequency must be positive");
+		}
+		
+		if(scheduler == null) {
+			throw new IllegalArgumentException("Scheduler cannot be null");
+		}
+		
+		if(segmentSize < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+		}
+		
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create directory: " + directory);
+		}
+		
+		this.directory = directory;
+		this.expirationTime = expirationTime;
+		this.segmentSize = segmentSize;
+		this.clock = clock;
+		this.expiryIndex = new TokenExpiryIndex(cleanUpFrequency);
+		
+		// recover
+		final long start = System.nanoTime();
+		final TreeMap<Long, File> snapshots = listFiles("snapshot-");
+		final TreeMap<Long, File> segments = listFiles("log-");
+		
+		long records = 0;
+		long cutoff = 0;
+		while(!snapshots.isEmpty()) {
+			Entry<Long, File> newest = snapshots.pollLastEntry();
+			long loaded = loadSnapshot(newest.getValue());
+			if(loaded >= 0) {
+				records += loaded;
+				cutoff = newest.getKey().longValue();
+				break;
+			}
+			
+			LOGGER.warn("Ignoring invalid token snapshot: {}", newest.getValue());
+		}
+		
+		long nextSequence = cutoff;
+		for(Entry<Long, File> entry : segments.entrySet()) {
+			final long sequence = entry.getKey().longValue();
+			if(sequence < cutoff) {
+				continue;
+			}
+			
+			records += replaySegment(entry.getValue(), sequence);
+			nextSequence = sequence + 1;
+		}
+		
+		this.recoveredRecords = records;
+		this.recoveryTime = (System.nanoTime() - start) / 1000000;
+		LOGGER.info("Recovered {} tokens from {} records in {} millis", new Object[] { this.tokens.size(), records, this.recoveryTime });
+		
+		// new records always go to a fresh segment, after any torn tail
+		this.current = LogSegment.create(segmentFile(nextSequence), nextSequence, segmentSize);
+		this.segmentsSinceSnapshot = segments.tailMap(Long.valueOf(cutoff)).size();
+		
+		this.committer = new Thread("token-log-committer") {
+			
+			@Override
+			public void run() {
+				commitLoop();
+			}
+			
+		};
+		this.committer.setDaemon(true);
+		this.committer.start();
+		
+		this.compactor = new Thread("token-log-compactor") {
+			
+			@Override
+			public void run() {
+				compactLoop();
+			}
+			
+		};
+		this.compactor.setDaemon(true);
+		this.compactor.start();
+		
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, cleanUpFrequency);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.OAuthTokenGenerator#generateKeyPair(java.lang.String)
+	 */
+	@Override
+	public KeySecretPair generateKeyPair(String consumerKey) {
+		if(AssertUtils.isEmpty(consumerKey)) {
+			throw new IllegalArgumentException("Consumer key cannot be null/empty");
+		}
+		
+		KeySecretPair token;
+		TokenEntry entry;
+		do {
+			token = KeySecretPair.randomToken();
+			entry = new TokenEntry(token.getSecret(), consumerKey, this.clock.currentTimeMillis());
+		} while(this.tokens.putIfAbsent(token.getKey(), entry) != null);
+		
+		// the index is updated before the log, so that a compaction that
+		// misses the record in the log finds the token in the index
+		try {
+			append(encodeIssue(token.getKey(), entry));
+		} catch(RuntimeException e) {
+			this.tokens.remove(token.getKey(), entry);
+			throw e;
+		}
+		
+		this.expiryIndex.add(token.getKey(), entry.millis + this.expirationTime);
+		publish(StoreEventType.ISSUED, consumerKey, token.getKey(), entry.millis);
+		return token;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.OAuthTokenGenerator#getSecret(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getSecret(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken)) {
+			return null;
+		}
+		
+		TokenEntry entry = this.tokens.get(requestToken);
+		if(entry == null || !entry.consumerKey.equals(consumerKey)) {
+			publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken, this.clock.currentTimeMillis());
+			return null;
+		}
+		
+		final long now = this.clock.currentTimeMillis();
+		if(isExpired(entry, now)) {
+			if(this.tokens.remove(requestToken, entry)) {
+				publish(StoreEventType.EXPIRED, consumerKey, requestToken, now);
+			}
+			
+			publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken, now);
+			return null;
+		}
+		
+		return entry.secret;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.RevocableOAuthTokenGenerator#revokeToken(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean revokeToken(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken)) {
+			return false;
+		}
+		
+		TokenEntry entry = this.tokens.get(requestToken);
+		if(entry == null || !entry.consumerKey.equals(consumerKey)) {
+			return false;
+		}
+		
+		if(entry.revoking || isExpired(entry, this.clock.currentTimeMillis())) {
+			return false;
+		}
+		
+		// mark the token first, so that a compaction running meanwhile leaves
+		// it out of the snapshot that drops the segment with the revocation
+		final TokenEntry revoking = new TokenEntry(entry.secret, entry.consumerKey, entry.millis, true);
+		if(!this.tokens.replace(requestToken, entry, revoking)) {
+			return false;
+		}
+		
+		// the token is only dropped once the revocation is on disk
+		try {
+			append(encodeRevoke(requestToken));
+		} catch(RuntimeException e) {
+			this.tokens.replace(requestToken, revoking, entry);
+			throw e;
+		}
+		
+		this.tokens.remove(requestToken, revoking);
+		publish(StoreEventType.REVOKED, consumerKey, requestToken, this.clock.currentTimeMillis());
+		return true;
+	}
+	
+	/**
+	 * Write a snapshot of all live tokens, and delete the older snapshots and
+	 * log segments. Run on the compactor thread at the end of each clean up
+	 * pass, and when enough segments were written.
+	 * 
+	 * @throws IOException
+	 *             if the snapshot cannot be written
+	 */
+	public void compact() throws IOException {
+		synchronized(this.compactionLock) {
+			final long cutoff;
+			this.appendLock.lock();
+			try {
+				checkOpen();
+				
+				// counted from the snapshot on, as on recovery, so that the
+				// rotation here does not request another compaction
+				this.segmentsSinceSnapshot = 0;
+				rotate();
+				cutoff = this.current.sequence;
+			} finally {
+				this.appendLock.unlock();
+			}
+			
+			// every record before the cutoff is reflected in the index by now
+			final long now = this.clock.currentTimeMillis();
+			final File file = snapshotFile(cutoff);
+			final FileOutputStream fileStream = new FileOutputStream(file);
+			try {
+				final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileStream, 64 * 1024), new CRC32());
+				final DataOutputStream stream = new DataOutputStream(checked);
+				
+				stream.writeInt(SNAPSHOT_MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeLong(cutoff);
+				for(Entry<String, TokenEntry> item : this.tokens.entrySet()) {
+					TokenEntry entry = item.getValue();
+					if(entry.revoking || isExpired(entry, now)) {
+						continue;
+					}
+					
+					stream.writeBoolean(true);
+					stream.writeUTF(item.getKey());
+					stream.writeUTF(entry.secret);
+					stream.writeUTF(entry.consumerKey);
+					stream.writeLong(entry.millis);
+				}
+				
+				stream.writeBoolean(false);
+				stream.writeLong(checked.getChecksum().getValue());
+				stream.flush();
+				fileStream.getFD().sync();
+			} finally {
+				fileStream.close();
+			}
+			
+			// the new snapshot is durable, older files can go
+			for(File old : listFiles("snapshot-").headMap(Long.valueOf(cutoff)).values()) {
+				deleteFile(old);
+			}
+			
+			for(File old : listFiles("log-").headMap(Long.valueOf(cutoff)).values()) {
+				deleteFile(old);
+			}
+		}
+	}
+	
+	/**
+	 * Set the dispatcher to publish events to.
+	 * 
+	 * @param eventDispatcher
+	 *            the dispatcher, or <code>null</code> to stop publishing
+	 */
+	public void setEventDispatcher(StoreEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+	
+	/**
+	 * Return the time taken by the recovery on startup.
+	 * 
+	 * @return the recovery time, in milliseconds
+	 */
+	public long getRecoveryTime() {
+		return this.recoveryTime;
+	}
+	
+	/**
+	 * Return the number of snapshot entries and log records read during
+	 * recovery.
+	 * 
+	 * @return the number of records read
+	 */
+	public long getRecoveredRecords() {
+		return this.recoveredRecords;
+	}
+	
+	/**
+	 * Return the number of times the log was forced to disk. With group
+	 * commit this is usually lower than the number of records appended.
+	 * 
+	 * @return the number of commits
+	 */
+	public long getCommitCount() {
+		return this.commits.get();
+	}
+	
+	/**
+	 * Return the number of tokens held, including expired tokens not yet
+	 * cleaned up.
+	 * 
+	 * @return the number of tokens held
+	 */
+	public int size() {
+		return this.tokens.size();
+	}
+	
+	/**
+	 * Stop the background tasks, commit all appended records and close the
+	 * log. Further calls to generate or revoke tokens fail.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		this.sweepTask.cancel(false);
+		
+		synchronized(this.compactionLock) {
+			this.appendLock.lock();
+			try {
+				if(this.closed) {
+					return;
+				}
+				
+				this.closed = true;
+			} finally {
+				this.appendLock.unlock();
+			}
+			
+			synchronized(this.commitMonitor) {
+				this.commitMonitor.notifyAll();
+			}
+			
+			synchronized(this.compactionMonitor) {
+				this.compactionMonitor.notifyAll();
+			}
+			
+			try {
+				this.committer.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			
+			this.appendLock.lock();
+			try {
+				this.current.close();
+			} finally {
+				this.appendLock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Append the given record to the log, and wait till it is on disk.
+	 * 
+	 */
+	private void append(byte[] record) {
+		final long sequence;
+		this.appendLock.lock();
+		try {
+			checkOpen();
+			if(this.current.buffer.remaining() < record.length) {
+				rotate();
+			}
+			
+			this.current.buffer.put(record);
+			sequence = ++this.appended;
+		} catch(IOException e) {
+			throw new OAuthTokenStoreException("Unable to append to token log", e);
+		} finally {
+			this.appendLock.unlock();
+		}
+		
+		synchronized(this.commitMonitor) {
+			this.commitMonitor.notifyAll();
+			
+			boolean interrupted = false;
+			while(this.committed < sequence && this.commitFailure == null) {
+				try {
+					this.commitMonitor.wait();
+				} catch(InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			
+			if(this.committed < sequence) {
+				throw new OAuthTokenStoreException("Unable to commit token log", this.commitFailure);
+			}
+		}
+	}
+	
+	/**
+	 * The loop of the committer thread: whenever records are pending, force
+	 * the current segment to disk and wake their callers.
+	 * 
+	 */
+	private void commitLoop() {
+		while(true) {
+			synchronized(this.commitMonitor) {
+				while(this.committed >= this.appended && !this.closed) {
+					try {
+						this.commitMonitor.wait();
+					} catch(InterruptedException e) {
+						// keep committing till closed
+					}
+				}
+				
+				if(this.committed >= this.appended) {
+					return;
+				}
+			}
+			
+			final long target;
+			final MappedByteBuffer buffer;
+			this.appendLock.lock();
+			try {
+				target = this.appended;
+				buffer = this.current.buffer;
+			} finally {
+				this.appendLock.unlock();
+			}
+			
+			// older segments were forced when they were rotated out
+			RuntimeException failure = null;
+			try {
+				buffer.force();
+				this.commits.incrementAndGet();
+			} catch(RuntimeException e) {
+				LOGGER.error("Unable to commit token log", e);
+				failure = e;
+			}
+			
+			synchronized(this.commitMonitor) {
+				if(failure == null) {
+					this.committed = target;
+				} else {
+					this.commitFailure = failure;
+				}
+				
+				this.commitMonitor.notifyAll();
+			}
+			
+			if(failure != null) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Force and close the current segment and start a new one.
+	 * 
+	 */
+	@GuardedBy("appendLock")
+	private void rotate() throws IOException {
+		final LogSegment old = this.current;
+		old.buffer.force();
+		
+		final long sequence = old.sequence + 1;
+		this.current = LogSegment.create(segmentFile(sequence), sequence, this.segmentSize);
+		old.close();
+		
+		// keep asking till a compaction succeeds
+		this.segmentsSinceSnapshot++;
+		if(this.segmentsSinceSnapshot >= COMPACT_AFTER_SEGMENTS) {
+			requestCompaction();
+		}
+	}
+	
+	/**
+	 * Drop the expired tokens from memory, a batch at a time, and request a
+	 * compaction of the log once none are left.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		final long now = this.clock.currentTimeMillis();
+		final List<String> due = new ArrayList<String>(SWEEP_BATCH);
+		
+		while(true) {
+			due.clear();
+			final int count = this.expiryIndex.drainDue(now, SWEEP_BATCH, due);
+			for(String key : due) {
+				TokenEntry entry = this.tokens.get(key);
+				if(entry != null && isExpired(entry, now) && this.tokens.remove(key, entry)) {
+					publish(StoreEventType.EXPIRED, entry.consumerKey, key, now);
+				}
+			}
+			
+			if(count < SWEEP_BATCH) {
+				break;
+			}
+			
+			if(System.nanoTime() - deadline > 0) {
+				return false;
+			}
+		}
+		
+		requestCompaction();
+		return true;
+	}
+	
+	/**
+	 * Wake the compactor thread. Requests made while a compaction is waiting
+	 * to start are merged into it.
+	 * 
+	 */
+	private void requestCompaction() {
+		synchronized(this.compactionMonitor) {
+			this.compactionRequested = true;
+			this.compactionMonitor.notifyAll();
+		}
+	}
+	
+	/**
+	 * The loop of the compactor thread: whenever a compaction was requested,
+	 * compact the log, logging any failure.
+	 * 
+	 */
+	private void compactLoop() {
+		while(true) {
+			synchronized(this.compactionMonitor) {
+				while(!this.compactionRequested && !this.closed) {
+					try {
+						this.compactionMonitor.wait();
+					} catch(InterruptedException e) {
+						// keep waiting till closed
+					}
+				}
+				
+				if(this.closed) {
+					return;
+				}
+				
+				this.compactionRequested = false;
+			}
+			
+			try {
+				compact();
+			} catch(IOException e) {
+				LOGGER.error("Unable to compact token log", e);
+			} catch(OAuthTokenStoreException e) {
+				// closed meanwhile
+			}
+		}
+	}
+	
+	/**
+	 * Publish an event for the given token, if a dispatcher is set.
+	 * 
+	 */
+	private void publish(StoreEventType type, String consumerKey, String token, long time) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher != null) {
+			dispatcher.publish(type, this, consumerKey, token, time);
+		}
+	}
+	
+	/**
+	 * Throw if this generator has been closed.
+	 * 
+	 */
+	private void checkOpen() {
+		if(this.closed) {
+			throw new OAuthTokenStoreException("Token generator has been closed");
+		}
+	}
+	
+	/**
+	 * Check if the given token has expired.
+	 * 
+	 */
+	private boolean isExpired(TokenEntry entry, long now) {
+		return now - entry.millis > this.expirationTime;
+	}
+	
+	/**
+	 * Load the given snapshot into the index.
+	 * 
+	 * @return the number of entries read, or <code>-1</code> if the snapshot
+	 *         is invalid
+	 */
+	private long loadSnapshot(File file) throws IOException {
+		final long now = this.clock.currentTimeMillis();
+		final List<String> keys = new ArrayList<String>();
+		final List<TokenEntry> entries = new ArrayList<TokenEntry>();
+		
+		final FileInputStream fileStream = new FileInputStream(file);
+		try {
+			final CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileStream, 64 * 1024), new CRC32());
+			final DataInputStream stream = new DataInputStream(checked);
+			
+			if(stream.readInt() != SNAPSHOT_MAGIC || stream.readInt() != VERSION) {
+				return -1;
+			}
+			
+			stream.readLong();
+			long count = 0;
+			while(stream.readBoolean()) {
+				String key = stream.readUTF();
+				TokenEntry entry = new TokenEntry(stream.readUTF(), stream.readUTF(), stream.readLong());
+				count++;
+				if(!isExpired(entry, now)) {
+					keys.add(key);
+					entries.add(entry);
+				}
+			}
+			
+			final long checksum = checked.getChecksum().getValue();
+			if(stream.readLong() != checksum) {
+				return -1;
+			}
+			
+			for(int index = 0; index < keys.size(); index++) {
+				restore(keys.get(index), entries.get(index));
+			}
+			
+			return count;
+		} catch(IOException e) {
+			// truncated
+			return -1;
+		} finally {
+			fileStream.close();
+		}
+	}
+	
+	/**
+	 * Apply the records of the given segment to the index, stopping at the
+	 * first invalid record.
+	 * 
+	 * @return the number of records applied
+	 */
+	private long replaySegment(File file, long sequence) throws IOException {
+		final long now = this.clock.currentTimeMillis();
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != SEGMENT_MAGIC || buffer.getInt() != VERSION || buffer.getLong() != sequence) {
+				LOGGER.warn("Ignoring invalid token log segment: {}", file);
+				return 0;
+			}
+			
+			final CRC32 crc = new CRC32();
+			long count = 0;
+			while(buffer.remaining() >= RECORD_OVERHEAD) {
+				final int length = buffer.getInt();
+				if(length <= 0 || length > buffer.remaining() - 4) {
+					break;
+				}
+				
+				final byte[] body = new byte[length];
+				buffer.get(body);
+				crc.reset();
+				crc.update(body, 0, length);
+				if((int) crc.getValue() != buffer.getInt()) {
+					LOGGER.warn("Torn record in token log segment {}, ignoring the rest", file);
+					break;
+				}
+				
+				if(!applyRecord(ByteBuffer.wrap(body), now)) {
+					break;
+				}
+				
+				count++;
+			}
+			
+			return count;
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Apply the given record body to the index.
+	 * 
+	 * @return <code>false</code> if the record type is unknown
+	 */
+	private boolean applyRecord(ByteBuffer body, long now) {
+		final byte type = body.get();
+		switch(type) {
+			case RECORD_ISSUE:
+				final long millis = body.getLong();
+				final String key = readString(body);
+				final TokenEntry entry = new TokenEntry(readString(body), readString(body), millis);
+				if(!isExpired(entry, now)) {
+					restore(key, entry);
+				}
+				return true;
+				
+			case RECORD_REVOKE:
+				this.tokens.remove(readString(body));
+				return true;
+				
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Add a recovered token to the index.
+	 * 
+	 */
+	private void restore(String key, TokenEntry entry) {
+		this.tokens.put(key, entry);
+		this.expiryIndex.add(key, entry.millis + this.expirationTime);
+	}
+	
+	/**
+	 * Encode the record of an issued token.
+	 * 
+	 */
+	private static byte[] encodeIssue(String key, TokenEntry entry) {
+		final byte[] keyBytes = key.getBytes(UTF8);
+		final byte[] secretBytes = entry.secret.getBytes(UTF8);
+		final byte[] consumerBytes = entry.consumerKey.getBytes(UTF8);
+		
+		final ByteBuffer record = newRecord(1 + 8 + 2 + keyBytes.length + 2 + secretBytes.length + 2 + consumerBytes.length);
+		record.put(RECORD_ISSUE);
+		record.putLong(entry.millis);
+		putString(record, keyBytes);
+		putString(record, secretBytes);
+		putString(record, consumerBytes);
+		return sealRecord(record);
+	}
+	
+	/**
+	 * Encode the record of a revoked token.
+	 * 
+	 */
+	private static byte[] encodeRevoke(String key) {
+		final byte[] keyBytes = key.getBytes(UTF8);
+		
+		final ByteBuffer record = newRecord(1 + 2 + keyBytes.length);
+		record.put(RECORD_REVOKE);
+		putString(record, keyBytes);
+		return sealRecord(record);
+	}
+	
+	/**
+	 * Allocate a record with the given body length, and write the length.
+	 * 
+	 */
+	private static ByteBuffer newRecord(int bodyLength) {
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + bodyLength);
+		record.putInt(bodyLength);
+		return record;
+	}
+	
+	/**
+	 * Write the checksum of the body at the end of the given record.
+	 * 
+	 */
+	private static byte[] sealRecord(ByteBuffer record) {
+		final byte[] bytes = record.array();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 4, record.position() - 4);
+		record.putInt((int) crc.getValue());
+		return bytes;
+	}
+	
+	/**
+	 * Write the given string bytes preceded by their length.
+	 * 
+	 */
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		if(bytes.length > 0xffff) {
+			throw new IllegalArgumentException("Value too long to be stored");
+		}
+		
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+	
+	/**
+	 * Read a string written by {@link #putString(ByteBuffer, byte[])}.
+	 * 
+	 */
+	private static String readString(ByteBuffer buffer) {
+		final int length = buffer.getShort() & 0xffff;
+		final String value = new String(buffer.array(), buffer.position(), length, UTF8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+	
+	/**
+	 * Return the files in the directory with the given prefix, by sequence.
+	 * 
+	 */
+	private TreeMap<Long, File> listFiles(String prefix) throws IOException {
+		final File[] files = this.directory.listFiles();
+		if(files == null) {
+			throw new IOException("Unable to list directory: " + this.directory);
+		}
+		
+		final TreeMap<Long, File> map = new TreeMap<Long, File>();
+		for(File file : files) {
+			final String name = file.getName();
+			if(!name.startsWith(prefix) || !name.endsWith(".dat")) {
+				continue;
+			}
+			
+			try {
+				map.put(Long.valueOf(name.substring(prefix.length(), name.length() - 4)), file);
+			} catch(NumberFormatException e) {
+				// not ours
+			}
+		}
+		
+		return map;
+	}
+	
+	/**
+	 * Return the file of the log segment with the given sequence.
+	 * 
+	 */
+	private File segmentFile(long sequence) {
+		return new File(this.directory, String.format("log-%020d.dat", sequence));
+	}
+	
+	/**
+	 * Return the file of the snapshot taken before the log segment with the
+	 * given sequence.
+	 * 
+	 */
+	private File snapshotFile(long sequence) {
+		return new File(this.directory, String.format("snapshot-%020d.dat", sequence));
+	}
+	
+	/**
+	 * Delete the given file, logging a failure.
+	 * 
+	 */
+	private static void deleteFile(File file) {
+		if(!file.delete()) {
+			LOGGER.warn("Unable to delete obsolete token file: {}", file);
+		}
+	}
+	
+	/**
+	 * One segment of the log, mapped into memory.
+	 * 
+	 */
+	private static final class LogSegment {
+		
+		/**
+		 * The sequence of the segment
+		 */
+		final long sequence;
+		
+		/**
+		 * The open file
+		 */
+		final RandomAccessFile file;
+		
+		/**
+		 * The mapped file, positioned at the end of the records
+		 */
+		final MappedByteBuffer buffer;
+		
+		private LogSegment(long sequence, RandomAccessFile file, MappedByteBuffer buffer) {
+			this.sequence = sequence;
+			this.file = file;
+			this.buffer = buffer;
+		}
+		
+		/**
+		 * Create, size and map a new segment file, and write its header.
+		 * 
+		 */
+		static LogSegment create(File file, long sequence, int size) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(0);
+				raf.setLength(size);
+				
+				final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buffer.putInt(SEGMENT_MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putLong(sequence);
+				buffer.force();
+				return new LogSegment(sequence, raf, buffer);
+			} catch(IOException e) {
+				raf.close();
+				throw e;
+			}
+		}
+		
+		/**
+		 * Force and close the segment.
+		 * 
+		 */
+		void close() throws IOException {
+			this.buffer.force();
+			this.file.close();
+		}
+		
+	}
+	
+	/**
+	 * Utility class that binds a given secret to a given consumer key.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private static final class TokenEntry {
+		
+		final String secret;
+		
+		final String consumerKey;
+		
+		final long millis;
+		
+		final boolean revoking;
+		
+		TokenEntry(String secret, String consumerKey, long millis) {
+			this(secret, consumerKey, millis, false);
+		}
+		
+		TokenEntry(String secret, String consumerKey, long millis, boolean revoking) {
+			this.secret = secret;
+			this.consumerKey = consumerKey;
+			this.millis = millis;
+			this.revoking = revoking;
+		}
+		
+	}
+
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+/**
+ * An {@link OAuthTokenGenerator} that can also revoke the tokens it issued
+ * before they expire. This is kept out of {@link OAuthTokenGenerator} itself
+ * so that existing implementations of that contract keep compiling.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface RevocableOAuthTokenGenerator extends OAuthTokenGenerator {
+	
+	/**
+	 * Revoke the given request token, so that its secret is no longer
+	 * returned. The method does nothing if the token does not exist, has
+	 * expired, or was not issued to the given consumer key.
+	 * 
+	 * @param consumerKey
+	 *            the consumer key the token was issued to
+	 * 
+	 * @param requestToken
+	 *            the request token to revoke
+	 * 
+	 * @return <code>true</code> if a live token was revoked,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean revokeToken(String consumerKey, String requestToken);
+
+}
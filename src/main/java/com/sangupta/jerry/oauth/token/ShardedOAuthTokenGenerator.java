@@ -0,0 +1,830 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.oauth.clock.CoarseClock;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.util.AssertUtils;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * An {@link OAuthTokenGenerator} that partitions tokens across independent
+ * shards, so that operations on different tokens do not contend on a single
+ * map or lock. Each shard has its own lock, expiry index, capacity limit and
+ * counters, available from {@link #getShardStats()}.
+ * 
+ * Tokens are assigned to shards by consistent hashing: each shard owns
+ * {@link #VIRTUAL_NODES} points on a hash ring, and a token belongs to the
+ * shard owning the first point at or after the hash of the token. Changing
+ * the number of shards thus only moves the tokens whose owner changed, about
+ * one in N when a shard is added.
+ * 
+ * <h3>Resizing</h3>
+ * 
+ * {@link #resize(int)} installs the new ring right away and then moves the
+ * affected tokens, one token at a time, holding only the locks of the two
+ * shards involved. While tokens are being moved, new tokens go to their new
+ * shard, and lookups check the previous owner before the new one, so no live
+ * token is ever missed. A moved token may take its new shard past its
+ * capacity, which only delays new tokens in that shard.
+ * 
+ * Issued, missed, expired and revoked tokens are published to the
+ * {@link StoreEventDispatcher} set using
+ * {@link #setEventDispatcher(StoreEventDispatcher)}, if any, once the lock
+ * of the shard has been released.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class ShardedOAuthTokenGenerator implements RevocableOAuthTokenGenerator, ExpirySweep, Closeable {
+	
+	/**
+	 * The default number of shards
+	 */
+	public static final int DEFAULT_SHARDS = 16;
+	
+	/**
+	 * The number of points each shard owns on the ring
+	 */
+	public static final int VIRTUAL_NODES = 64;
+	
+	/**
+	 * The number of tokens removed from an expiry index at a time
+	 */
+	private static final int SWEEP_BATCH = 256;
+	
+	/**
+	 * Time duration after which the token is considered expired
+	 */
+	private final long expirationTime;
+	
+	/**
+	 * The tick of the expiry index of each shard
+	 */
+	private final long cleanUpFrequency;
+	
+	/**
+	 * The maximum number of tokens in each shard
+	 */
+	private final int capacityPerShard;
+	
+	/**
+	 * The clock used to time-stamp and expire tokens
+	 */
+	private final OAuthClock clock;
+	
+	/**
+	 * The periodic clean up task
+	 */
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * The current routing of tokens to shards
+	 */
+	private volatile Routing routing;
+	
+	/**
+	 * Lock that allows one resize at a time
+	 */
+	private final Object resizeLock = new Object();
+	
+	/**
+	 * The next shard to clean up in the current pass
+	 */
+	private volatile int sweepCursor;
+	
+	/**
+	 * The dispatcher to publish events to, <code>null</code> if none
+	 */
+	private volatile StoreEventDispatcher eventDispatcher;
+	
+	/**
+	 * Create a generator with {@link #DEFAULT_SHARDS} shards of unlimited
+	 * capacity, that provides a token with one day validity.
+	 * 
+	 */
+	public ShardedOAuthTokenGenerator() {
+		this(DEFAULT_SHARDS, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Create a generator with the given number of shards and capacity, that
+	 * provides a token with one day validity and removes older tokens every
+	 * hour.
+	 * 
+	 * @param shards
+	 *            the number of shards
+	 * 
+	 * @param capacityPerShard
+	 *            the maximum number of tokens in each shard
+	 */
+	public ShardedOAuthTokenGenerator(int shards, int capacityPerShard) {
+		this(shards, capacityPerShard, DateUtils.ONE_DAY, DateUtils.ONE_HOUR, CoarseClock.DEFAULT, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Create a generator with the given settings.
+	 * 
+	 * @param shards
+	 *            the number of shards
+	 * 
+	 * @param capacityPerShard
+	 *            the maximum number of tokens in each shard
+	 * 
+	 * @param expirationTime
+	 *            the validity of a token, in milliseconds
+	 * 
+	 * @param cleanUpFrequency
+	 *            the interval between two clean ups, in milliseconds
+	 * 
+	 * @param clock
+	 *            the {@link OAuthClock} used to time-stamp and expire tokens
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the clean up on, usually shared by many
+	 *            stores
+	 */
+	public ShardedOAuthTokenGenerator(int shards, int capacityPerShard, long expirationTime, long cleanUpFrequency, OAuthClock clock, ScheduledExecutorService scheduler) {
+		if(clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		
+		if(shards < 1 || capacityPerShard < 1) {
+			throw new IllegalArgumentException("Shards and capacity must be positive");
+		}
+		
+		if(expirationTime <= 0 || cleanUpFrequency <= 0) {
+			throw new IllegalArgumentException("Expiration time and clean up frequency must be positive");
+		}
+		
+		this.expirationTime = expirationTime;
+		this.cleanUpFrequency = cleanUpFrequency;
+		this.capacityPerShard = capacityPerShard;
+		this.clock = clock;
+		
+		Shard[] initial = new Shard[shards];
+		for(int index = 0; index < shards; index++) {
+			initial[index] = new Shard(index, cleanUpFrequency);
+		}
+		
+		this.routing = new Routing(new Ring(initial), null);
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, cleanUpFrequency);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.OAuthTokenGenerator#generateKeyPair(java.lang.String)
+	 */
+	@Override
+	public KeySecretPair generateKeyPair(String consumerKey) {
+		if(AssertUtils.isEmpty(consumerKey)) {
+			throw new IllegalArgumentException("Consumer key cannot be null/empty");
+		}
+		
+		while(true) {
+			final KeySecretPair token = KeySecretPair.randomToken();
+			final long now = this.clock.currentTimeMillis();
+			final Routing routing = this.routing;
+			final Shard shard = routing.current.shardFor(token.getKey());
+			
+			Map<String, TokenEntry> dropped = null;
+			shard.lock.lock();
+			try {
+				if(this.routing != routing) {
+					// resized meanwhile, route again
+					continue;
+				}
+				
+				if(shard.tokens.size() >= this.capacityPerShard) {
+					dropped = newDropped();
+					while(shard.dropExpired(now, SWEEP_BATCH, this.expirationTime, dropped) == SWEEP_BATCH) {
+						// till all due tokens are gone
+					}
+					
+					if(shard.tokens.size() >= this.capacityPerShard) {
+						shard.rejected.incrementAndGet();
+						throw new OAuthTokenStoreException("Token shard " + shard.id + " is full");
+					}
+				}
+				
+				if(shard.tokens.containsKey(token.getKey())) {
+					continue;
+				}
+				
+				shard.tokens.put(token.getKey(), new TokenEntry(token.getSecret(), consumerKey, now));
+				shard.expiryIndex.add(token.getKey(), now + this.expirationTime);
+				shard.issued.incrementAndGet();
+			} finally {
+				shard.lock.unlock();
+				publishExpired(dropped, now);
+			}
+			
+			publish(StoreEventType.ISSUED, consumerKey, token.getKey(), now);
+			return token;
+		}
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.OAuthTokenGenerator#getSecret(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getSecret(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken)) {
+			return null;
+		}
+		
+		Routing routing;
+		Shard owner;
+		Shard shard;
+		TokenEntry entry;
+		do {
+			routing = this.routing;
+			owner = routing.current.shardFor(requestToken);
+			
+			// tokens only move from the previous owner to the new one, so
+			// checking in this order never misses a token being moved
+			shard = owner;
+			entry = null;
+			if(routing.previous != null) {
+				shard = routing.previous.shardFor(requestToken);
+				entry = shard.get(requestToken);
+			}
+			
+			if(entry == null) {
+				shard = owner;
+				entry = owner.get(requestToken);
+			}
+			
+			// a miss is only final if no resize started meanwhile
+		} while(entry == null && this.routing != routing);
+		
+		if(entry == null || !entry.consumerKey.equals(consumerKey)) {
+			owner.misses.incrementAndGet();
+			publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken, this.clock.currentTimeMillis());
+			return null;
+		}
+		
+		final long now = this.clock.currentTimeMillis();
+		if(isExpired(entry, now)) {
+			if(shard.removeExpired(requestToken, entry)) {
+				publish(StoreEventType.EXPIRED, consumerKey, requestToken, now);
+			}
+			
+			owner.misses.incrementAndGet();
+			publish(StoreEventType.LOOKUP_MISS, consumerKey, requestToken, now);
+			return null;
+		}
+		
+		owner.hits.incrementAndGet();
+		return entry.secret;
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.token.RevocableOAuthTokenGenerator#revokeToken(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean revokeToken(String consumerKey, String requestToken) {
+		if(AssertUtils.isEmpty(consumerKey) || AssertUtils.isEmpty(requestToken)) {
+			return false;
+		}
+		
+		while(true) {
+			final Routing routing = this.routing;
+			final Shard owner = routing.current.shardFor(requestToken);
+			final Shard previous = routing.previous == null ? owner : routing.previous.shardFor(requestToken);
+			
+			final long now = this.clock.currentTimeMillis();
+			final StoreEventType type;
+			lockBoth(owner, previous);
+			try {
+				if(this.routing != routing) {
+					continue;
+				}
+				
+				Shard shard = owner;
+				TokenEntry entry = owner.tokens.get(requestToken);
+				if(entry == null) {
+					shard = previous;
+					entry = previous.tokens.get(requestToken);
+				}
+				
+				if(entry == null || !entry.consumerKey.equals(consumerKey)) {
+					return false;
+				}
+				
+				shard.tokens.remove(requestToken);
+				if(isExpired(entry, now)) {
+					shard.expired.incrementAndGet();
+					type = StoreEventType.EXPIRED;
+				} else {
+					owner.revoked.incrementAndGet();
+					type = StoreEventType.REVOKED;
+				}
+			} finally {
+				unlockBoth(owner, previous);
+			}
+			
+			publish(type, consumerKey, requestToken, now);
+			return type == StoreEventType.REVOKED;
+		}
+	}
+	
+	/**
+	 * Change the number of shards, moving the tokens whose owner changed. The
+	 * generator stays fully usable while tokens are moved. Returns once all
+	 * tokens have been moved; one resize runs at a time.
+	 * 
+	 * @param shards
+	 *            the new number of shards
+	 */
+	public void resize(int shards) {
+		if(shards < 1) {
+			throw new IllegalArgumentException("Shards must be positive");
+		}
+		
+		synchronized(this.resizeLock) {
+			final Ring previous = this.routing.current;
+			if(previous.shards.length == shards) {
+				return;
+			}
+			
+			// shards that remain keep their id, and thus their points
+			final Shard[] next = new Shard[shards];
+			for(int index = 0; index < shards; index++) {
+				next[index] = index < previous.shards.length ? previous.shards[index] : new Shard(index, this.cleanUpFrequency);
+			}
+			
+			final Ring ring = new Ring(next);
+			this.routing = new Routing(ring, previous);
+			
+			for(Shard from : previous.shards) {
+				final List<String> moving = new ArrayList<String>();
+				from.lock.lock();
+				try {
+					for(String key : from.tokens.keySet()) {
+						if(ring.shardFor(key) != from) {
+							moving.add(key);
+						}
+					}
+				} finally {
+					from.lock.unlock();
+				}
+				
+				for(String key : moving) {
+					final Shard to = ring.shardFor(key);
+					lockBoth(from, to);
+					try {
+						TokenEntry entry = from.tokens.remove(key);
+						if(entry != null) {
+							to.tokens.put(key, entry);
+							to.expiryIndex.add(key, entry.millis + this.expirationTime);
+						}
+					} finally {
+						unlockBoth(from, to);
+					}
+				}
+			}
+			
+			this.routing = new Routing(ring, null);
+		}
+	}
+	
+	/**
+	 * Remove expired tokens, shard by shard, till all shards are done or the
+	 * deadline has passed. The next pass continues with the next shard.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		final Shard[] shards = this.routing.current.shards;
+		final long now = this.clock.currentTimeMillis();
+		
+		int cursor = this.sweepCursor;
+		while(cursor < shards.length) {
+			final Shard shard = shards[cursor];
+			
+			final Map<String, TokenEntry> dropped = newDropped();
+			int count;
+			shard.lock.lock();
+			try {
+				count = shard.dropExpired(now, SWEEP_BATCH, this.expirationTime, dropped);
+			} finally {
+				shard.lock.unlock();
+			}
+			
+			publishExpired(dropped, now);
+			
+			if(count < SWEEP_BATCH) {
+				cursor++;
+			}
+			
+			if(cursor < shards.length && System.nanoTime() - deadline > 0) {
+				this.sweepCursor = cursor;
+				return false;
+			}
+		}
+		
+		this.sweepCursor = 0;
+		return true;
+	}
+	
+	/**
+	 * Return the number of shards.
+	 * 
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return this.routing.current.shards.length;
+	}
+	
+	/**
+	 * Return the number of tokens held across all shards, including expired
+	 * tokens not yet removed.
+	 * 
+	 * @return the number of tokens held
+	 */
+	public int size() {
+		int size = 0;
+		for(Shard shard : this.routing.current.shards) {
+			size += shard.size();
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Return the counters of each shard.
+	 * 
+	 * @return the stats of each shard, by shard id
+	 */
+	public List<TokenShardStats> getShardStats() {
+		final Shard[] shards = this.routing.current.shards;
+		final List<TokenShardStats> stats = new ArrayList<TokenShardStats>(shards.length);
+		for(Shard shard : shards) {
+			stats.add(new TokenShardStats(shard.id, shard.size(), this.capacityPerShard, shard.issued.get(), shard.hits.get(), shard.misses.get(), shard.expired.get(),
+					shard.revoked.get(), shard.rejected.get()));
+		}
+		
+		return stats;
+	}
+	
+	/**
+	 * Set the dispatcher to publish events to.
+	 * 
+	 * @param eventDispatcher
+	 *            the dispatcher, or <code>null</code> to stop publishing
+	 */
+	public void setEventDispatcher(StoreEventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+	}
+	
+	/**
+	 * Stop the periodic clean up. The generator keeps working, but expired
+	 * tokens are only removed when looked up, or when a shard is full.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.sweepTask.cancel(false);
+	}
+	
+	/**
+	 * Publish an event for the given token, if a dispatcher is set.
+	 * 
+	 */
+	private void publish(StoreEventType type, String consumerKey, String token, long time) {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher != null) {
+			dispatcher.publish(type, this, consumerKey, token, time);
+		}
+	}
+	
+	/**
+	 * Return a map to collect the tokens dropped under a shard lock, or
+	 * <code>null</code> if there is no one to publish their expiry to.
+	 * 
+	 */
+	private Map<String, TokenEntry> newDropped() {
+		final StoreEventDispatcher dispatcher = this.eventDispatcher;
+		if(dispatcher == null || !dispatcher.hasListeners()) {
+			return null;
+		}
+		
+		return new HashMap<String, TokenEntry>();
+	}
+	
+	/**
+	 * Publish the expiry of the given dropped tokens, if any.
+	 * 
+	 */
+	private void publishExpired(Map<String, TokenEntry> dropped, long now) {
+		if(dropped == null) {
+			return;
+		}
+		
+		for(Map.Entry<String, TokenEntry> item : dropped.entrySet()) {
+			publish(StoreEventType.EXPIRED, item.getValue().consumerKey, item.getKey(), now);
+		}
+	}
+	
+	/**
+	 * Check if the given token has expired.
+	 * 
+	 */
+	private boolean isExpired(TokenEntry entry, long now) {
+		return now - entry.millis > this.expirationTime;
+	}
+	
+	/**
+	 * Lock the two given shards, in the order of their ids.
+	 * 
+	 */
+	private static void lockBoth(Shard first, Shard second) {
+		if(first == second) {
+			first.lock.lock();
+			return;
+		}
+		
+		if(first.id < second.id) {
+			first.lock.lock();
+			second.lock.lock();
+		} else {
+			second.lock.lock();
+			first.lock.lock();
+		}
+	}
+	
+	/**
+	 * Unlock the two given shards.
+	 * 
+	 */
+	private static void unlockBoth(Shard first, Shard second) {
+		first.lock.unlock();
+		if(first != second) {
+			second.lock.unlock();
+		}
+	}
+	
+	/**
+	 * Spread the bits of the given hash, as per the finalizer of MurmurHash3.
+	 * 
+	 */
+	static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+	
+	/**
+	 * The rings in use: the current one, and while tokens are being moved,
+	 * the previous one.
+	 * 
+	 */
+	@Immutable
+	private static final class Routing {
+		
+		final Ring current;
+		
+		final Ring previous;
+		
+		Routing(Ring current, Ring previous) {
+			this.current = current;
+			this.previous = previous;
+		}
+		
+	}
+	
+	/**
+	 * A consistent hash ring over a set of shards.
+	 * 
+	 */
+	@Immutable
+	private static final class Ring {
+		
+		/**
+		 * The shards, by id
+		 */
+		final Shard[] shards;
+		
+		/**
+		 * The points on the ring, sorted
+		 */
+		final int[] points;
+		
+		/**
+		 * The owner of each point
+		 */
+		final Shard[] owners;
+		
+		Ring(Shard[] shards) {
+			this.shards = shards;
+			
+			// sort the points along with the index of their shard
+			final long[] sorted = new long[shards.length * VIRTUAL_NODES];
+			for(int index = 0; index < shards.length; index++) {
+				for(int node = 0; node < VIRTUAL_NODES; node++) {
+					final int point = mix(shards[index].id * 1000003 + node);
+					sorted[index * VIRTUAL_NODES + node] = ((long) point << 32) | index;
+				}
+			}
+			
+			Arrays.sort(sorted);
+			
+			this.points = new int[sorted.length];
+			this.owners = new Shard[sorted.length];
+			for(int index = 0; index < sorted.length; index++) {
+				this.points[index] = (int) (sorted[index] >> 32);
+				this.owners[index] = shards[(int) sorted[index]];
+			}
+		}
+		
+		/**
+		 * Return the shard owning the given token.
+		 * 
+		 */
+		Shard shardFor(String token) {
+			int index = Arrays.binarySearch(this.points, mix(token.hashCode()));
+			if(index < 0) {
+				index = -index - 1;
+				if(index == this.points.length) {
+					index = 0;
+				}
+			}
+			
+			return this.owners[index];
+		}
+		
+	}
+	
+	/**
+	 * One shard of tokens, with its own lock, expiry index and counters.
+	 * 
+	 */
+	private static final class Shard {
+		
+		/**
+		 * The id of the shard, which fixes its points on the ring
+		 */
+		final int id;
+		
+		/**
+		 * The lock guarding the tokens
+		 */
+		final ReentrantLock lock = new ReentrantLock();
+		
+		/**
+		 * The tokens of this shard
+		 */
+		@GuardedBy("lock")
+		final Map<String, TokenEntry> tokens = new HashMap<String, TokenEntry>();
+		
+		/**
+		 * The index of tokens by expiry time
+		 */
+		final TokenExpiryIndex expiryIndex;
+		
+		/**
+		 * The counters, as described in {@link TokenShardStats}
+		 */
+		final AtomicLong issued = new AtomicLong();
+		
+		final AtomicLong hits = new AtomicLong();
+		
+		final AtomicLong misses = new AtomicLong();
+		
+		final AtomicLong expired = new AtomicLong();
+		
+		final AtomicLong revoked = new AtomicLong();
+		
+		final AtomicLong rejected = new AtomicLong();
+		
+		Shard(int id, long tickDuration) {
+			this.id = id;
+			this.expiryIndex = new TokenExpiryIndex(tickDuration);
+		}
+		
+		TokenEntry get(String key) {
+			this.lock.lock();
+			try {
+				return this.tokens.get(key);
+			} finally {
+				this.lock.unlock();
+			}
+		}
+		
+		int size() {
+			this.lock.lock();
+			try {
+				return this.tokens.size();
+			} finally {
+				this.lock.unlock();
+			}
+		}
+		
+		boolean removeExpired(String key, TokenEntry entry) {
+			this.lock.lock();
+			try {
+				if(this.tokens.get(key) != entry) {
+					return false;
+				}
+				
+				this.tokens.remove(key);
+				this.expired.incrementAndGet();
+				return true;
+			} finally {
+				this.lock.unlock();
+			}
+		}
+		
+		/**
+		 * Remove up to the given number of due tokens, adding them to the
+		 * given map unless it is <code>null</code>. Must hold the lock.
+		 * 
+		 * @return the number of keys taken from the expiry index
+		 */
+		@GuardedBy("lock")
+		int dropExpired(long now, int max, long expirationTime, Map<String, TokenEntry> dropped) {
+			final List<String> due = new ArrayList<String>();
+			final int count = this.expiryIndex.drainDue(now, max, due);
+			for(String key : due) {
+				TokenEntry entry = this.tokens.get(key);
+				if(entry != null && now - entry.millis > expirationTime) {
+					this.tokens.remove(key);
+					this.expired.incrementAndGet();
+					if(dropped != null) {
+						dropped.put(key, entry);
+					}
+				}
+			}
+			
+			return count;
+		}
+		
+	}
+	
+	/**
+	 * Utility class that binds a given secret to a given consumer key.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private static final class TokenEntry {
+		
+		final String secret;
+		
+		final String consumerKey;
+		
+		final long millis;
+		
+		TokenEntry(String secret, String consumerKey, long millis) {
+			this.secret = secret;
+			this.consumerKey = consumerKey;
+			this.millis = millis;
+		}
+		
+	}
+
+}
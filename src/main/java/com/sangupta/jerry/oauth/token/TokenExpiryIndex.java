@@ -0,0 +1,162 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A bucketed index of keys by their expiry time. Keys that expire within the
+ * same tick share one bucket, and buckets are kept sorted by tick, so that a
+ * clean-up only touches the buckets, and the keys, that are due.
+ * 
+ * The index is lock-free: buckets are held in a {@link ConcurrentSkipListMap}
+ * and each bucket is a {@link ConcurrentLinkedQueue}. A key may be drained
+ * more than once, and a key may still be in the index after it has been
+ * removed from the store; the caller must thus check the entry again before
+ * removing it. Memory is bounded by the number of keys added within one
+ * expiry period.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+final class TokenExpiryIndex {
+	
+	/**
+	 * The buckets, by tick
+	 */
+	private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<String>> buckets = new ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<String>>();
+	
+	/**
+	 * The duration of one tick, in milliseconds
+	 */
+	private final long tickDuration;
+	
+	/**
+	 * Create an index with the given tick duration.
+	 * 
+	 * @param tickDuration
+	 *            the duration of one tick, in milliseconds
+	 */
+	TokenExpiryIndex(long tickDuration) {
+		if(tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be positive");
+		}
+		
+		this.tickDuration = tickDuration;
+	}
+	
+	/**
+	 * Add the given key that expires at the given time.
+	 * 
+	 * @param key
+	 *            the key to add
+	 * 
+	 * @param expiresAt
+	 *            the time after which the key has expired, in milliseconds
+	 */
+	void add(String key, long expiresAt) {
+		// a key is due in the first tick that starts after its expiry
+		final Long tick = Long.valueOf(expiresAt / this.tickDuration + 1);
+		
+		while(true) {
+			ConcurrentLinkedQueue<String> bucket = this.buckets.get(tick);
+			if(bucket == null) {
+				bucket = new ConcurrentLinkedQueue<String>();
+				ConcurrentLinkedQueue<String> existing = this.buckets.putIfAbsent(tick, bucket);
+				if(existing != null) {
+					bucket = existing;
+				}
+			}
+			
+			bucket.offer(key);
+			
+			// the bucket may have been drained concurrently, in which case
+			// the key is added again to a fresh bucket
+			if(this.buckets.get(tick) == bucket) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Remove up to the given number of keys that are due at the given time,
+	 * oldest bucket first, and add them to the given collection. Buckets are
+	 * removed once they have been drained.
+	 * 
+	 * @param now
+	 *            the current time, in milliseconds
+	 * 
+	 * @param max
+	 *            the maximum number of keys to remove
+	 * 
+	 * @param keys
+	 *            the collection to add the due keys to
+	 * 
+	 * @return the number of keys added
+	 */
+	int drainDue(long now, int max, Collection<String> keys) {
+		final ConcurrentNavigableMap<Long, ConcurrentLinkedQueue<String>> due = this.buckets.headMap(Long.valueOf(now / this.tickDuration), true);
+		
+		int count = 0;
+		Iterator<Entry<Long, ConcurrentLinkedQueue<String>>> iterator = due.entrySet().iterator();
+		while(count < max && iterator.hasNext()) {
+			Entry<Long, ConcurrentLinkedQueue<String>> entry = iterator.next();
+			final ConcurrentLinkedQueue<String> bucket = entry.getValue();
+			
+			String key;
+			while(count < max && (key = bucket.poll()) != null) {
+				keys.add(key);
+				count++;
+			}
+			
+			if(count == max || !this.buckets.remove(entry.getKey(), bucket)) {
+				continue;
+			}
+			
+			// keys added while the bucket was being removed
+			while((key = bucket.poll()) != null) {
+				keys.add(key);
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Return the number of buckets in the index.
+	 * 
+	 * @return the number of buckets
+	 */
+	int buckets() {
+		return this.buckets.size();
+	}
+	
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Value object holding the counters of one shard of a
+ * {@link ShardedOAuthTokenGenerator} at a point in time.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@Immutable
+public class TokenShardStats {
+	
+	/**
+	 * The id of the shard
+	 */
+	public final int shard;
+	
+	/**
+	 * The number of tokens held, including expired tokens not yet removed
+	 */
+	public final int size;
+	
+	/**
+	 * The maximum number of tokens the shard may hold
+	 */
+	public final int capacity;
+	
+	/**
+	 * The number of tokens issued by the shard
+	 */
+	public final long issued;
+	
+	/**
+	 * The number of lookups that found a live token
+	 */
+	public final long hits;
+	
+	/**
+	 * The number of lookups that found no live token
+	 */
+	public final long misses;
+	
+	/**
+	 * The number of tokens removed on expiry
+	 */
+	public final long expired;
+	
+	/**
+	 * The number of tokens revoked
+	 */
+	public final long revoked;
+	
+	/**
+	 * The number of tokens not issued as the shard was full
+	 */
+	public final long rejected;
+	
+	/**
+	 * Create the stats with the given values.
+	 * 
+	 */
+	public TokenShardStats(int shard, int size, int capacity, long issued, long hits, long misses, long expired, long revoked, long rejected) {
+		this.shard = shard;
+		this.size = size;
+		this.capacity = capacity;
+		this.issued = issued;
+		this.hits = hits;
+		this.misses = misses;
+		this.expired = expired;
+		this.revoked = revoked;
+		this.rejected = rejected;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[shard=" + this.shard + ", size=" + this.size + "/" + this.capacity + ", issued=" + this.issued + ", hits=" + this.hits + ", misses=" + this.misses
+				+ ", expired=" + this.expired + ", revoked=" + this.revoked + ", rejected=" + this.rejected + "]";
+	}
+
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Value object holding the counters of a {@link ProviderConnectionPool} at a
+ * point in time.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@Immutable
+public class ConnectionPoolStats {
+	
+	/**
+	 * The name of the pool
+	 */
+	public final String name;
+	
+	/**
+	 * The number of connections in use by a request
+	 */
+	public final int leased;
+	
+	/**
+	 * The number of idle connections kept alive
+	 */
+	public final int available;
+	
+	/**
+	 * The number of requests waiting for a connection
+	 */
+	public final int pending;
+	
+	/**
+	 * The maximum number of connections
+	 */
+	public final int max;
+	
+	/**
+	 * The number of requests executed
+	 */
+	public final long requests;
+	
+	/**
+	 * The number of requests that failed with an I/O error
+	 */
+	public final long failures;
+	
+	/**
+	 * The number of connections opened, including those opened by a warm-up
+	 */
+	public final long connectionsOpened;
+	
+	/**
+	 * The number of TLS connections that needed a full handshake
+	 */
+	public final long fullHandshakes;
+	
+	/**
+	 * The number of TLS connections that resumed an earlier session
+	 */
+	public final long resumedSessions;
+	
+	/**
+	 * Create the stats with the given values.
+	 * 
+	 */
+	public ConnectionPoolStats(String name, int leased, int available, int pending, int max, long requests, long failures, long connectionsOpened, long fullHandshakes, long resumedSessions) {
+		this.name = name;
+		this.leased = leased;
+		this.available = available;
+		this.pending = pending;
+		this.max = max;
+		this.requests = requests;
+		this.failures = failures;
+		this.connectionsOpened = connectionsOpened;
+		this.fullHandshakes = fullHandshakes;
+		this.resumedSessions = resumedSessions;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[pool=" + this.name + ", leased=" + this.leased + ", available=" + this.available + ", pending=" + this.pending + ", max=" + this.max
+				+ ", requests=" + this.requests + ", failures=" + this.failures + ", opened=" + this.connectionsOpened
+				+ ", fullHandshakes=" + this.fullHandshakes + ", resumedSessions=" + this.resumedSessions + "]";
+	}
+
+}
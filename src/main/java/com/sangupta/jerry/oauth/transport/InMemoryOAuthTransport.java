@@ -0,0 +1,204 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.http.WebInvoker;
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+
+/**
+ * An {@link OAuthTransport} that never touches the network, and answers
+ * requests using the {@link OAuthResponder} registered for the end-point.
+ * Useful for tests and benchmarks.
+ * 
+ * End-points are matched on the HTTP verb and the URL without its query
+ * string. Requests to an end-point without a responder fail as if the
+ * provider could not be reached. All executed requests are recorded, and a
+ * fixed latency may be added to every request.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class InMemoryOAuthTransport implements OAuthTransport {
+	
+	/**
+	 * The responders by end-point
+	 */
+	private final ConcurrentMap<String, OAuthResponder> responders = new ConcurrentHashMap<String, OAuthResponder>();
+	
+	/**
+	 * The requests executed
+	 */
+	private final Queue<WebRequest> requests = new ConcurrentLinkedQueue<WebRequest>();
+	
+	/**
+	 * The number of requests without a responder
+	 */
+	private final AtomicLong unmatched = new AtomicLong();
+	
+	/**
+	 * The latency added to every request, in milliseconds
+	 */
+	private volatile long latency = 0;
+	
+	/**
+	 * Register the responder for the given end-point, replacing any earlier
+	 * one.
+	 * 
+	 * @param method
+	 *            the HTTP verb of the end-point
+	 * 
+	 * @param url
+	 *            the URL of the end-point, any query string is ignored
+	 * 
+	 * @param responder
+	 *            the {@link OAuthResponder} for the end-point
+	 * 
+	 * @return this instance, for chaining
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 */
+	public InMemoryOAuthTransport respond(WebRequestMethod method, String url, OAuthResponder responder) {
+		if(method == null || url == null || responder == null) {
+			throw new IllegalArgumentException("Method, URL and responder cannot be null");
+		}
+		
+		this.responders.put(endPoint(method, URI.create(url)), responder);
+		return this;
+	}
+	
+	/**
+	 * Set the latency added to every request, simulating the round trip to
+	 * the provider.
+	 * 
+	 * @param latency
+	 *            the latency in milliseconds, zero for none
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+	
+	/**
+	 * Return the requests executed so far, in order.
+	 * 
+	 * @return a copy of the requests executed
+	 */
+	public List<WebRequest> getRequests() {
+		return new ArrayList<WebRequest>(this.requests);
+	}
+	
+	/**
+	 * Return the number of requests made to an end-point without a
+	 * responder.
+	 * 
+	 * @return the number of unmatched requests
+	 */
+	public long getUnmatchedCount() {
+		return this.unmatched.get();
+	}
+	
+	/**
+	 * Forget the requests executed so far.
+	 * 
+	 */
+	public void clearRequests() {
+		this.requests.clear();
+	}
+
+	/**
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#newRequest(java.lang.String, com.sangupta.jerry.http.WebRequestMethod)
+	 */
+	@Override
+	public WebRequest newRequest(String url, WebRequestMethod method) {
+		return WebInvoker.getWebRequest(url, method);
+	}
+
+	/**
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#execute(com.sangupta.jerry.http.WebRequest)
+	 */
+	@Override
+	public WebResponse execute(WebRequest request) {
+		if(request == null) {
+			return null;
+		}
+		
+		this.requests.add(request);
+		
+		final long latency = this.latency;
+		if(latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		
+		OAuthResponder responder = this.responders.get(endPoint(request.getVerb(), request.getURI()));
+		if(responder == null) {
+			this.unmatched.incrementAndGet();
+			return null;
+		}
+		
+		return responder.respond(request);
+	}
+	
+	/**
+	 * Does nothing, as there are no connections.
+	 * 
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#warmUp(java.lang.String)
+	 */
+	@Override
+	public int warmUp(String url) {
+		return 0;
+	}
+	
+	/**
+	 * Return the key of the end-point for the given verb and URI.
+	 * 
+	 */
+	private static String endPoint(WebRequestMethod method, URI uri) {
+		StringBuilder builder = new StringBuilder(64);
+		builder.append(method.name()).append(' ');
+		builder.append(uri.getScheme()).append("://").append(uri.getRawAuthority());
+		if(uri.getRawPath() != null) {
+			builder.append(uri.getRawPath());
+		}
+		
+		return builder.toString();
+	}
+
+}
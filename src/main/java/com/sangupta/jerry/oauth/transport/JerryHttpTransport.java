@@ -0,0 +1,77 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sangupta.jerry.http.WebInvoker;
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+
+/**
+ * The default {@link OAuthTransport}, backed by the {@link WebInvoker} of
+ * jerry-http and its shared connection pool.
+ * 
+ * Callee's should usually NOT create a new instance of this class, and
+ * should use the global static instance {@link #DEFAULT}.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class JerryHttpTransport implements OAuthTransport {
+	
+	/**
+	 * The global instance
+	 */
+	public static final JerryHttpTransport DEFAULT = new JerryHttpTransport();
+
+	/**
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#newRequest(java.lang.String, com.sangupta.jerry.http.WebRequestMethod)
+	 */
+	@Override
+	public WebRequest newRequest(String url, WebRequestMethod method) {
+		return WebInvoker.getWebRequest(url, method);
+	}
+
+	/**
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#execute(com.sangupta.jerry.http.WebRequest)
+	 */
+	@Override
+	public WebResponse execute(WebRequest request) {
+		return WebInvoker.executeSilently(request);
+	}
+	
+	/**
+	 * Does nothing, as the connections of {@link WebInvoker} are shared by
+	 * all its callers and opened on demand. Use a
+	 * {@link ProviderConnectionPool} to keep connections open.
+	 * 
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#warmUp(java.lang.String)
+	 */
+	@Override
+	public int warmUp(String url) {
+		return 0;
+	}
+
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebResponse;
+
+/**
+ * Answers the requests made to one end-point of an
+ * {@link InMemoryOAuthTransport}, standing in for the provider.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface OAuthResponder {
+	
+	/**
+	 * Answer the given request.
+	 * 
+	 * @param request
+	 *            the {@link WebRequest} received
+	 * 
+	 * @return the {@link WebResponse} to return, or <code>null</code> to fail
+	 *         the request as if the provider could not be reached
+	 */
+	public WebResponse respond(WebRequest request);
+
+}
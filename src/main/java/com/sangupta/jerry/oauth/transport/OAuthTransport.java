@@ -0,0 +1,76 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+
+/**
+ * Contract for the HTTP client that the OAuth services use to reach the
+ * providers. Decouples the services from the actual client, so that it can
+ * be replaced, for example by an {@link InMemoryOAuthTransport} in tests.
+ * 
+ * Implementations must be safe for use by many threads at once.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+public interface OAuthTransport {
+	
+	/**
+	 * Create a new request for the given URL and HTTP verb. No I/O is done.
+	 * 
+	 * @param url
+	 *            the URL to hit
+	 * 
+	 * @param method
+	 *            the HTTP verb to use
+	 * 
+	 * @return the {@link WebRequest}
+	 */
+	public WebRequest newRequest(String url, WebRequestMethod method);
+	
+	/**
+	 * Execute the given request, blocking till the response is received.
+	 * 
+	 * @param request
+	 *            the {@link WebRequest} created using
+	 *            {@link #newRequest(String, WebRequestMethod)}
+	 * 
+	 * @return the {@link WebResponse}, or <code>null</code> if the request
+	 *         could not be completed
+	 */
+	public WebResponse execute(WebRequest request);
+	
+	/**
+	 * Open connections to the host of the given URL ahead of the first
+	 * request, if the transport keeps connections of its own.
+	 * 
+	 * @param url
+	 *            the URL of the end-point to be called
+	 * 
+	 * @return the number of connections opened
+	 */
+	public int warmUp(String url);
+
+}
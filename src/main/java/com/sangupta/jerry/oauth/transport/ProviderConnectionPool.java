@@ -0,0 +1,698 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.http.HttpExecutor;
+import com.sangupta.jerry.http.WebInvoker;
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ExpirySweep;
+import com.sangupta.jerry.util.AssertUtils;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * An {@link OAuthTransport} with its own pool of persistent connections, to
+ * be used by the services of one provider so that a busy provider does not
+ * take the connections of another, and an idle one keeps a few connections
+ * open.
+ * 
+ * Connections are kept alive for the configured time, or less if the
+ * provider asks so. TLS sessions are cached per pool, so that a new
+ * connection to the provider resumes an earlier session instead of doing a
+ * full handshake. With TLS 1.3, a session can only be resumed once a
+ * response was read on the connection that established it.
+ * 
+ * A call to {@link #warmUp(String)}, usually through <code>warmUp()</code>
+ * on the service at startup, opens the configured number of idle
+ * connections to the end-point. After a warm-up the pool tops the idle
+ * connections back up as they are closed, from a periodic task on a shared
+ * scheduler, by default {@link ExpiryScheduler#DEFAULT}.
+ * 
+ * Call {@link #close()} when the pool is no longer needed.
+ * 
+ * @author sangupta
+ * @since 1.0
+ */
+@ThreadSafe
+public class ProviderConnectionPool implements OAuthTransport, ExpirySweep, Closeable {
+	
+	/**
+	 * My logger instance
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProviderConnectionPool.class);
+	
+	/**
+	 * The default maximum number of connections
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	
+	/**
+	 * The default number of idle connections to keep open
+	 */
+	public static final int DEFAULT_MIN_IDLE = 2;
+	
+	/**
+	 * The default time an idle connection is kept open, in milliseconds
+	 */
+	public static final long DEFAULT_KEEP_ALIVE = 30 * DateUtils.ONE_SECOND;
+	
+	/**
+	 * The number of TLS sessions cached per pool
+	 */
+	private static final int TLS_SESSION_CACHE_SIZE = 256;
+	
+	/**
+	 * The time a cached TLS session may be resumed, in seconds
+	 */
+	private static final int TLS_SESSION_TIMEOUT = 3600;
+	
+	/**
+	 * The time to wait for a connection to open during a warm-up, in
+	 * milliseconds
+	 */
+	private static final int CONNECT_TIMEOUT = (int) (10 * DateUtils.ONE_SECOND);
+	
+	/**
+	 * The time to wait for a free slot in the pool during a warm-up, in
+	 * milliseconds - a warm-up never queues behind the requests
+	 */
+	private static final long LEASE_TIMEOUT = 50;
+	
+	/**
+	 * The interval between two passes that close stale connections and top
+	 * up the idle ones
+	 */
+	private static final long SWEEP_PERIOD = 15 * DateUtils.ONE_SECOND;
+	
+	/**
+	 * The thread that tops up the idle connections of all pools, so that the
+	 * shared scheduler never waits on the network
+	 */
+	private static final ExecutorService TOP_UP = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "oauth-pool-warm-up");
+			thread.setDaemon(true);
+			return thread;
+		}
+		
+	});
+	
+	/**
+	 * The name of the pool, usually that of the provider
+	 */
+	private final String name;
+	
+	/**
+	 * The number of idle connections to keep open per end-point
+	 */
+	private final int minIdle;
+	
+	/**
+	 * The time an idle connection is kept open, in milliseconds
+	 */
+	private final long keepAlive;
+	
+	/**
+	 * The connections of this pool
+	 */
+	private final PoolingHttpClientConnectionManager connectionManager;
+	
+	/**
+	 * The client over the connections
+	 */
+	private final CloseableHttpClient client;
+	
+	/**
+	 * Executes the requests using the client
+	 */
+	private final HttpExecutor executor;
+	
+	/**
+	 * The URLs warmed up, whose idle connections are topped up
+	 */
+	private final Set<String> warmUpUrls = new CopyOnWriteArraySet<String>();
+	
+	/**
+	 * Whether a top up is queued or running
+	 */
+	private final AtomicBoolean topUpRunning = new AtomicBoolean();
+	
+	/**
+	 * The periodic clean up task
+	 */
+	private final ScheduledFuture<?> sweepTask;
+	
+	/**
+	 * Whether the pool has been closed
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * The number of requests executed
+	 */
+	private final AtomicLong requests = new AtomicLong();
+	
+	/**
+	 * The number of requests that failed with an I/O error
+	 */
+	private final AtomicLong failures = new AtomicLong();
+	
+	/**
+	 * The number of connections opened
+	 */
+	private final AtomicLong connectionsOpened = new AtomicLong();
+	
+	/**
+	 * The number of TLS connections that needed a full handshake
+	 */
+	private final AtomicLong fullHandshakes = new AtomicLong();
+	
+	/**
+	 * The number of TLS connections that resumed an earlier session
+	 */
+	private final AtomicLong resumedSessions = new AtomicLong();
+	
+	/**
+	 * The TLS sessions established by a full handshake
+	 */
+	private final SessionLog fullSessions = new SessionLog(TLS_SESSION_CACHE_SIZE);
+	
+	/**
+	 * Create a pool with the given name and default settings.
+	 * 
+	 * @param name
+	 *            the name of the pool, usually that of the provider
+	 */
+	public ProviderConnectionPool(String name) {
+		this(name, DEFAULT_MAX_CONNECTIONS, DEFAULT_MIN_IDLE, DEFAULT_KEEP_ALIVE);
+	}
+	
+	/**
+	 * Create a pool with the given settings.
+	 * 
+	 * @param name
+	 *            the name of the pool, usually that of the provider
+	 * 
+	 * @param maxConnections
+	 *            the maximum number of connections
+	 * 
+	 * @param minIdle
+	 *            the number of idle connections to keep open per end-point
+	 *            once warmed up
+	 * 
+	 * @param keepAlive
+	 *            the time an idle connection is kept open, in milliseconds
+	 */
+	public ProviderConnectionPool(String name, int maxConnections, int minIdle, long keepAlive) {
+		this(name, maxConnections, minIdle, keepAlive, ExpiryScheduler.DEFAULT);
+	}
+	
+	/**
+	 * Create a pool with the given settings, whose stale connections are
+	 * closed on the given scheduler.
+	 * 
+	 * @param name
+	 *            the name of the pool, usually that of the provider
+	 * 
+	 * @param maxConnections
+	 *            the maximum number of connections
+	 * 
+	 * @param minIdle
+	 *            the number of idle connections to keep open per end-point
+	 *            once warmed up
+	 * 
+	 * @param keepAlive
+	 *            the time an idle connection is kept open, in milliseconds
+	 * 
+	 * @param scheduler
+	 *            the scheduler to run the clean up on, usually shared by many
+	 *            pools
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the name is empty, there is not at least one
+	 *             connection, the idle connections are negative or more than
+	 *             the maximum, or the keep-alive is not positive
+	 */
+	public ProviderConnectionPool(String name, int maxConnections, int minIdle, long keepAlive, ScheduledExecutorService scheduler) {
+		this(name, maxConnections, minIdle, keepAlive, scheduler, newSSLContext());
+	}
+	
+	/**
+	 * Create a pool with the given settings, whose TLS connections use the
+	 * given context. Used by tests to trust a local end-point.
+	 * 
+	 */
+	ProviderConnectionPool(String name, int maxConnections, int minIdle, long keepAlive, ScheduledExecutorService scheduler, SSLContext sslContext) {
+		if(AssertUtils.isEmpty(name)) {
+			throw new IllegalArgumentException("Pool name cannot be null/empty");
+		}
+		
+		if(maxConnections < 1) {
+			throw new IllegalArgumentException("Maximum connections must be at least one");
+		}
+		
+		if(minIdle < 0 || minIdle > maxConnections) {
+			throw new IllegalArgumentException("Idle connections must be between zero and the maximum connections");
+		}
+		
+		if(keepAlive <= 0) {
+			throw new IllegalArgumentException("Keep-alive must be positive");
+		}
+		
+		if(sslContext == null) {
+			throw new IllegalArgumentException("SSL context cannot be null");
+		}
+		
+		this.name = name;
+		this.minIdle = minIdle;
+		this.keepAlive = keepAlive;
+		
+		// each pool caches the TLS sessions of its own provider
+		SSLSessionContext sessions = sslContext.getClientSessionContext();
+		sessions.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+		sessions.setSessionTimeout(TLS_SESSION_TIMEOUT);
+		
+		Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", new CountingSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+				.register("https", new CountingSocketFactory(new SSLConnectionSocketFactory(sslContext)))
+				.build();
+		
+		this.connectionManager = new PoolingHttpClientConnectionManager(registry);
+		this.connectionManager.setMaxTotal(maxConnections);
+		this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+		
+		this.client = HttpClients.custom().setConnectionManager(this.connectionManager).setKeepAliveStrategy(new KeepAliveStrategy()).build();
+		this.executor = HttpExecutor.newInstance(this.client);
+		
+		this.sweepTask = ExpiryScheduler.schedule(scheduler, this, SWEEP_PERIOD);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#newRequest(java.lang.String, com.sangupta.jerry.http.WebRequestMethod)
+	 */
+	@Override
+	public WebRequest newRequest(String url, WebRequestMethod method) {
+		return WebInvoker.getWebRequest(url, method);
+	}
+	
+	/**
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#execute(com.sangupta.jerry.http.WebRequest)
+	 */
+	@Override
+	public WebResponse execute(WebRequest request) {
+		this.requests.incrementAndGet();
+		
+		try {
+			return this.executor.execute(request);
+		} catch(IOException e) {
+			this.failures.incrementAndGet();
+			LOGGER.warn("Unable to execute request in pool " + this.name + ": " + request.trace(), e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Open idle connections to the host of the given URL till there are as
+	 * many as configured, and keep them topped up from then on. Nothing is
+	 * opened while requests wait for a connection, or when the pool has no
+	 * room left for the end-point.
+	 * 
+	 * Session resumption only applies to TLS 1.2 and earlier here: a warm-up
+	 * reads no response, so with TLS 1.3 the tickets the provider sends
+	 * after the handshake are never read, and each warm-up connection does a
+	 * full handshake. Connections opened by requests resume sessions either
+	 * way.
+	 * 
+	 * @see com.sangupta.jerry.oauth.transport.OAuthTransport#warmUp(java.lang.String)
+	 */
+	@Override
+	public int warmUp(String url) {
+		if(AssertUtils.isEmpty(url) || this.minIdle == 0 || this.closed) {
+			return 0;
+		}
+		
+		final HttpRoute route = route(url);
+		this.warmUpUrls.add(url);
+		
+		final PoolStats stats = this.connectionManager.getStats(route);
+		final int available = stats.getAvailable();
+		final int missing = Math.min(this.minIdle - available, stats.getMax() - stats.getLeased() - available);
+		if(missing <= 0 || stats.getPending() > 0) {
+			return 0;
+		}
+		
+		// the pool hands out its idle connections first: lease past them
+		// without waiting, and give them back before the new ones connect
+		final List<HttpClientConnection> idle = new ArrayList<HttpClientConnection>(available);
+		final List<HttpClientConnection> fresh = new ArrayList<HttpClientConnection>(missing);
+		try {
+			for(int index = 0; index < available + missing && fresh.size() < missing; index++) {
+				ConnectionRequest request = this.connectionManager.requestConnection(route, null);
+				HttpClientConnection connection = request.get(LEASE_TIMEOUT, TimeUnit.MILLISECONDS);
+				if(connection.isOpen()) {
+					idle.add(connection);
+				} else {
+					fresh.add(connection);
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ConnectionPoolTimeoutException e) {
+			LOGGER.debug("No free connection in pool {} for warm-up of: {}", this.name, url);
+		} catch(ExecutionException e) {
+			LOGGER.warn("Unable to lease connection in pool " + this.name + " for warm-up of: " + url, e);
+		} finally {
+			for(HttpClientConnection connection : idle) {
+				this.connectionManager.releaseConnection(connection, null, this.keepAlive, TimeUnit.MILLISECONDS);
+			}
+		}
+		
+		// each new connection is back in the pool as soon as it is open
+		int opened = 0;
+		for(HttpClientConnection connection : fresh) {
+			try {
+				if(!this.closed && !Thread.currentThread().isInterrupted()) {
+					HttpClientContext context = HttpClientContext.create();
+					this.connectionManager.connect(connection, route, CONNECT_TIMEOUT, context);
+					this.connectionManager.routeComplete(connection, route, context);
+					opened++;
+				}
+			} catch(IOException e) {
+				LOGGER.warn("Unable to open connection in pool " + this.name + " for warm-up of: " + url, e);
+			} finally {
+				this.connectionManager.releaseConnection(connection, null, this.keepAlive, TimeUnit.MILLISECONDS);
+			}
+		}
+		
+		LOGGER.debug("Warm-up opened {} connections", opened);
+		return opened;
+	}
+	
+	/**
+	 * Return the counters of this pool.
+	 * 
+	 * @return the {@link ConnectionPoolStats}
+	 */
+	public ConnectionPoolStats getStats() {
+		final PoolStats total = this.connectionManager.getTotalStats();
+		return new ConnectionPoolStats(this.name, total.getLeased(), total.getAvailable(), total.getPending(), total.getMax(),
+				this.requests.get(), this.failures.get(), this.connectionsOpened.get(), this.fullHandshakes.get(), this.resumedSessions.get());
+	}
+	
+	/**
+	 * Return the name of this pool.
+	 * 
+	 * @return the name of this pool
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Close the connections that were idle for longer than the keep-alive,
+	 * and queue a top up of the idle connections of the end-points warmed up.
+	 * 
+	 * @see com.sangupta.jerry.oauth.clock.ExpirySweep#sweep(long)
+	 */
+	@Override
+	public boolean sweep(long deadline) {
+		this.connectionManager.closeExpiredConnections();
+		this.connectionManager.closeIdleConnections(this.keepAlive, TimeUnit.MILLISECONDS);
+		
+		if(this.closed || this.warmUpUrls.isEmpty() || !this.topUpRunning.compareAndSet(false, true)) {
+			return true;
+		}
+		
+		try {
+			TOP_UP.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						for(String url : warmUpUrls) {
+							warmUp(url);
+						}
+					} finally {
+						topUpRunning.set(false);
+					}
+				}
+				
+			});
+		} catch(RejectedExecutionException e) {
+			this.topUpRunning.set(false);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Close all connections of this pool.
+	 * 
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.sweepTask.cancel(false);
+		
+		try {
+			this.client.close();
+		} catch(IOException e) {
+			LOGGER.debug("Unable to close client of pool " + this.name, e);
+		}
+		
+		this.connectionManager.shutdown();
+	}
+	
+	/**
+	 * Return the route to the host of the given URL.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the URL is not a valid absolute HTTP(S) URL
+	 */
+	private static HttpRoute route(String url) {
+		final URI uri = URI.create(url);
+		final String scheme = uri.getScheme();
+		if(uri.getHost() == null || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+			throw new IllegalArgumentException("Not an absolute HTTP(S) URL: " + url);
+		}
+		
+		final boolean secure = "https".equalsIgnoreCase(scheme);
+		int port = uri.getPort();
+		if(port == -1) {
+			port = secure ? 443 : 80;
+		}
+		
+		return new HttpRoute(new HttpHost(uri.getHost(), port, scheme.toLowerCase()), null, secure);
+	}
+	
+	/**
+	 * Create the TLS context of a pool, trusting the default certificates.
+	 * 
+	 */
+	private static SSLContext newSSLContext() {
+		try {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, null, null);
+			return context;
+		} catch(GeneralSecurityException e) {
+			throw new IllegalStateException("TLS is not available in the running JVM", e);
+		}
+	}
+	
+	/**
+	 * Keeps a connection alive for as long as the provider asks, but never
+	 * longer than the keep-alive of the pool.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+		
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			if(duration <= 0 || duration > keepAlive) {
+				return keepAlive;
+			}
+			
+			return duration;
+		}
+		
+	}
+	
+	/**
+	 * Counts the connections opened through a socket factory, and whether
+	 * their TLS session was resumed.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private class CountingSocketFactory implements LayeredConnectionSocketFactory {
+		
+		private final ConnectionSocketFactory delegate;
+		
+		CountingSocketFactory(ConnectionSocketFactory delegate) {
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public Socket createSocket(HttpContext context) throws IOException {
+			return this.delegate.createSocket(context);
+		}
+		
+		@Override
+		public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+			final long start = System.currentTimeMillis();
+			Socket connected = this.delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+			connectionsOpened.incrementAndGet();
+			countHandshake(connected, start);
+			return connected;
+		}
+		
+		@Override
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+			if(!(this.delegate instanceof LayeredConnectionSocketFactory)) {
+				throw new IOException("Cannot layer a socket over the plain socket factory");
+			}
+			
+			final long start = System.currentTimeMillis();
+			Socket layered = ((LayeredConnectionSocketFactory) this.delegate).createLayeredSocket(socket, target, port, context);
+			countHandshake(layered, start);
+			return layered;
+		}
+		
+		/**
+		 * A session created before the connection started was resumed, and so
+		 * was one created within the same millisecond by an earlier full
+		 * handshake.
+		 * 
+		 */
+		private void countHandshake(Socket socket, long start) {
+			if(!(socket instanceof SSLSocket)) {
+				return;
+			}
+			
+			final SSLSession session = ((SSLSocket) socket).getSession();
+			final String key = session.getPeerHost() + ":" + session.getPeerPort() + "@" + session.getCreationTime() + "#" + Arrays.hashCode(session.getId());
+			if(session.getCreationTime() >= start && fullSessions.add(key)) {
+				fullHandshakes.incrementAndGet();
+			} else {
+				resumedSessions.incrementAndGet();
+			}
+		}
+		
+	}
+	
+	/**
+	 * The last few TLS sessions established by a full handshake, keyed by
+	 * peer, creation time and session id - two full handshakes may fall in
+	 * the same millisecond.
+	 * 
+	 * @author sangupta
+	 *
+	 */
+	private static class SessionLog {
+		
+		private final String[] keys;
+		
+		private int next;
+		
+		SessionLog(int size) {
+			this.keys = new String[size];
+		}
+		
+		/**
+		 * Add the given session, unless already present.
+		 * 
+		 * @return <code>true</code> if added, <code>false</code> if present
+		 */
+		synchronized boolean add(String key) {
+			for(String existing : this.keys) {
+				if(key.equals(existing)) {
+					return false;
+				}
+			}
+			
+			this.keys[this.next] = key;
+			this.next = (this.next + 1) % this.keys.length;
+			return true;
+		}
+		
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.clock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ExpiryScheduler}.
+ * 
+ * @author sangupta
+ *
+ */
+public class ExpirySchedulerTest {
+	
+	@Test
+	public void testPassInSteps() throws Exception {
+		ScheduledExecutorService scheduler = ExpiryScheduler.newScheduler("test-cleaning-task", 1);
+		
+		try {
+			final AtomicInteger steps = new AtomicInteger();
+			final AtomicInteger passes = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(2);
+			
+			// each pass takes five steps
+			ExpirySweep store = new ExpirySweep() {
+				
+				@Override
+				public boolean sweep(long deadline) {
+					if(steps.incrementAndGet() % 5 != 0) {
+						return false;
+					}
+					
+					passes.incrementAndGet();
+					done.countDown();
+					return true;
+				}
+				
+			};
+			
+			ScheduledFuture<?> future = ExpiryScheduler.schedule(scheduler, store, 50);
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			future.cancel(false);
+			
+			Assert.assertTrue(steps.get() >= passes.get() * 5);
+			
+			// nothing runs once cancelled, not even the rest of a pass
+			Thread.sleep(100);
+			int count = steps.get();
+			Thread.sleep(200);
+			Assert.assertEquals(count, steps.get());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+}
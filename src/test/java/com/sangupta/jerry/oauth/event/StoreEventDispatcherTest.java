@@ -0,0 +1,146 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link StoreEventDispatcher}.
+ * 
+ * @author sangupta
+ *
+ */
+public class StoreEventDispatcherTest {
+	
+	@Test
+	public void testDelivery() {
+		StoreEventDispatcher dispatcher = new StoreEventDispatcher(1024, 16);
+		
+		// nothing is queued without listeners
+		Assert.assertFalse(dispatcher.hasListeners());
+		Assert.assertFalse(dispatcher.publish(StoreEventType.ISSUED, this, "consumer", "key", 0));
+		
+		final List<StoreEvent> events = new ArrayList<StoreEvent>();
+		final List<Integer> batches = new ArrayList<Integer>();
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				batches.add(batch.size());
+				events.addAll(batch);
+			}
+			
+		});
+		
+		for(int index = 0; index < 100; index++) {
+			Assert.assertTrue(dispatcher.publish(StoreEventType.ISSUED, this, "consumer", "key-" + index, index));
+		}
+		
+		dispatcher.close();
+		Assert.assertFalse(dispatcher.publish(StoreEventType.ISSUED, this, "consumer", "key", 0));
+		
+		Assert.assertEquals(100, events.size());
+		Assert.assertEquals(100, dispatcher.getDeliveredCount());
+		Assert.assertEquals(0, dispatcher.getDroppedCount());
+		for(int index = 0; index < 100; index++) {
+			Assert.assertEquals("key-" + index, events.get(index).key);
+		}
+		
+		for(Integer size : batches) {
+			Assert.assertTrue(size <= 16);
+		}
+	}
+	
+	@Test
+	public void testCloseFromListener() throws Exception {
+		final StoreEventDispatcher dispatcher = new StoreEventDispatcher(1024, 1);
+		
+		final CountDownLatch closed = new CountDownLatch(1);
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				dispatcher.close();
+				closed.countDown();
+			}
+			
+		});
+		
+		Assert.assertTrue(dispatcher.publish(StoreEventType.REVOKED, this, "consumer", "key", 0));
+		Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+		Assert.assertFalse(dispatcher.publish(StoreEventType.REVOKED, this, "consumer", "key", 0));
+		
+		// the delivery thread still stops
+		dispatcher.close();
+		Assert.assertEquals(1, dispatcher.getDeliveredCount());
+	}
+	
+	@Test
+	public void testDropWhenFull() throws Exception {
+		StoreEventDispatcher dispatcher = new StoreEventDispatcher(4, 1);
+		
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+		});
+		
+		try {
+			// block the delivery thread on the first event
+			Assert.assertTrue(dispatcher.publish(StoreEventType.EXPIRED, this, "consumer", "key", 0));
+			Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+			
+			int accepted = 0;
+			for(int index = 0; index < 10; index++) {
+				if(dispatcher.publish(StoreEventType.EXPIRED, this, "consumer", "key-" + index, index)) {
+					accepted++;
+				}
+			}
+			
+			Assert.assertEquals(4, accepted);
+			Assert.assertEquals(6, dispatcher.getDroppedCount());
+		} finally {
+			release.countDown();
+			dispatcher.close();
+		}
+		
+		Assert.assertEquals(5, dispatcher.getDeliveredCount());
+	}
+
+}
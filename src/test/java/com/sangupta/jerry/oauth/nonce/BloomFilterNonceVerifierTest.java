@@ -0,0 +1,84 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link BloomFilterNonceVerifier}.
+ * 
+ * @author sangupta
+ *
+ */
+public class BloomFilterNonceVerifierTest {
+	
+	@Test
+	public void testReplayAndExpiry() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		BloomFilterNonceVerifier verifier = new BloomFilterNonceVerifier(DateUtils.ONE_HOUR, 64 * 1024, 4, 6, clock);
+		
+		Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+		Assert.assertTrue(verifier.verifyNonce("another", "nonce"));
+		Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+		
+		// still rejected from an older slice
+		clock.advance(DateUtils.ONE_HOUR);
+		Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+		
+		// forgotten once its slice is discarded
+		clock.advance(DateUtils.ONE_HOUR);
+		Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+	}
+	
+	@Test
+	public void testFixedMemoryAndFalsePositiveRate() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		BloomFilterNonceVerifier verifier = new BloomFilterNonceVerifier(DateUtils.ONE_HOUR, 256 * 1024, 4, 6, clock);
+		
+		final long memory = verifier.getMemoryUsage();
+		Assert.assertEquals(256 * 1024, memory);
+		Assert.assertEquals(0d, verifier.getEstimatedFalsePositiveRate());
+		
+		int rejected = 0;
+		final int count = 20000;
+		for(int index = 0; index < count; index++) {
+			if(!verifier.verifyNonce("consumer", "nonce-" + index)) {
+				rejected++;
+			}
+		}
+		
+		double estimate = verifier.getEstimatedFalsePositiveRate();
+		Assert.assertTrue(estimate > 0 && estimate < 0.01);
+		Assert.assertTrue(rejected < count / 100);
+		Assert.assertEquals(memory, verifier.getMemoryUsage());
+		
+		for(int index = 0; index < count; index++) {
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce-" + index));
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link FingerprintNonceVerifier}.
+ * 
+ * @author sangupta
+ *
+ */
+public class FingerprintNonceVerifierTest {
+	
+	@Test
+	public void testReplayAndExpiry() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		FingerprintNonceVerifier verifier = new FingerprintNonceVerifier(DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, clock);
+		
+		try {
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertTrue(verifier.verifyNonce("another", "nonce"));
+			Assert.assertTrue(verifier.verifyNonce(null, "nonce"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertFalse(verifier.verifyNonce(null, "nonce"));
+			
+			clock.advance(DateUtils.ONE_HOUR);
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			
+			clock.advance(DateUtils.ONE_SECOND);
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+		} finally {
+			verifier.close();
+		}
+	}
+	
+	@Test
+	public void testGrowAndCompact() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		FingerprintNonceVerifier verifier = new FingerprintNonceVerifier(DateUtils.ONE_MINUTE, DateUtils.ONE_HOUR, clock);
+		
+		try {
+			final int count = 200000;
+			for(int index = 0; index < count; index++) {
+				Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-" + index));
+			}
+			
+			Assert.assertEquals(count, verifier.size());
+			Assert.assertTrue(verifier.getMemoryUsage() <= count * 12 * 4);
+			
+			for(int index = 0; index < count; index += 7) {
+				Assert.assertFalse(verifier.verifyNonce("consumer", "nonce-" + index));
+			}
+			
+			clock.advance(DateUtils.ONE_MINUTE * 2);
+			verifier.cleanUp();
+			Assert.assertEquals(0, verifier.size());
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-0"));
+		} finally {
+			verifier.close();
+		}
+	}
+
+}
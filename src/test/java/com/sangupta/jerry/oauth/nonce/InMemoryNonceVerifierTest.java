@@ -0,0 +1,156 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.event.StoreEvent;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventListener;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link InMemoryNonceVerifier}.
+ * 
+ * @author sangupta
+ *
+ */
+public class InMemoryNonceVerifierTest {
+	
+	@Test
+	public void testReplayAndExpiry() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		InMemoryNonceVerifier verifier = new InMemoryNonceVerifier(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		
+		try {
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-1"));
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-2"));
+			Assert.assertTrue(verifier.verifyNonce("another", "nonce-1"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce-1"));
+			
+			// a replay is detected even when presented much later
+			clock.advance(DateUtils.ONE_HOUR - 1);
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce-1"));
+			
+			// and forgotten once the whole bucket has expired
+			clock.advance(DateUtils.ONE_MINUTE * 2);
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-1"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce-1"));
+		} finally {
+			verifier.close();
+		}
+	}
+	
+	@Test
+	public void testExpiredEventsPublishedInSteps() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		InMemoryNonceVerifier verifier = new InMemoryNonceVerifier(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		StoreEventDispatcher dispatcher = new StoreEventDispatcher();
+		
+		final List<StoreEvent> events = new ArrayList<StoreEvent>();
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				events.addAll(batch);
+			}
+			
+		});
+		verifier.setEventDispatcher(dispatcher);
+		
+		try {
+			for(int index = 0; index < 1000; index++) {
+				Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-" + index));
+			}
+			
+			// dropping the bucket only queues it
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_MINUTE * 2);
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-0"));
+			
+			// a step past its deadline leaves the rest for the next one
+			Assert.assertFalse(verifier.sweep(System.nanoTime() - 1));
+			Assert.assertTrue(verifier.sweep(System.nanoTime() + 1000000000L));
+		} finally {
+			dispatcher.close();
+			verifier.close();
+		}
+		
+		int expired = 0;
+		for(StoreEvent event : events) {
+			if(event.type == StoreEventType.EXPIRED) {
+				expired++;
+			}
+		}
+		
+		Assert.assertEquals(1000, expired);
+		Assert.assertEquals(2001, events.size());
+	}
+	
+	@Test
+	public void testConcurrentVerification() throws Exception {
+		final InMemoryNonceVerifier verifier = new InMemoryNonceVerifier(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, new ManualClock());
+		final AtomicInteger accepted = new AtomicInteger();
+		final int threads = 8;
+		final int nonces = 5000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		
+		for(int thread = 0; thread < threads; thread++) {
+			new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int index = 0; index < nonces; index++) {
+							if(verifier.verifyNonce("consumer", "nonce-" + index)) {
+								accepted.incrementAndGet();
+							}
+						}
+					} catch(InterruptedException e) {
+						// ignore
+					} finally {
+						done.countDown();
+					}
+				}
+				
+			}.start();
+		}
+		
+		start.countDown();
+		done.await();
+		verifier.close();
+		
+		// every nonce is accepted exactly once
+		Assert.assertEquals(nonces, accepted.get());
+	}
+
+}
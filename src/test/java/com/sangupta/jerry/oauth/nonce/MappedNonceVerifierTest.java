@@ -0,0 +1,132 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link MappedNonceVerifier}.
+ * 
+ * @author sangupta
+ *
+ */
+public class MappedNonceVerifierTest {
+	
+	@Test
+	public void testSurvivesRestart() throws Exception {
+		File file = File.createTempFile("nonce-store", ".dat");
+		file.delete();
+		
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		try {
+			MappedNonceVerifier verifier = new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.FIFTEEN_MINUTES, 64, clock);
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertTrue(verifier.verifyNonce("another", "nonce"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			verifier.close();
+			
+			// reopen and continue
+			clock.advance(DateUtils.FIFTEEN_MINUTES);
+			verifier = new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.FIFTEEN_MINUTES, 64, clock);
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce-2"));
+			
+			// expires once its bucket is out of the window
+			clock.advance(DateUtils.ONE_HOUR);
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce-2"));
+			verifier.close();
+			
+			// a different layout is refused
+			try {
+				new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.FIFTEEN_MINUTES, 128, clock);
+				Assert.fail("Layout mismatch not detected");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testLockedWhileOpen() throws Exception {
+		File file = File.createTempFile("nonce-store", ".dat");
+		file.delete();
+		
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		try {
+			MappedNonceVerifier verifier = new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.FIFTEEN_MINUTES, 64, clock);
+			Assert.assertTrue(verifier.verifyNonce("consumer", "nonce"));
+			
+			// a second verifier on the same file fails to open
+			try {
+				new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.FIFTEEN_MINUTES, 64, clock);
+				Assert.fail("File opened twice");
+			} catch(IOException e) {
+				// expected
+			}
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			verifier.close();
+			
+			// and opens once the first is closed
+			verifier = new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.FIFTEEN_MINUTES, 64, clock);
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			verifier.close();
+		} finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testFullStripeRejects() throws Exception {
+		File file = File.createTempFile("nonce-store", ".dat");
+		file.delete();
+		
+		try {
+			MappedNonceVerifier verifier = new MappedNonceVerifier(file, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, 16, new ManualClock(DateUtils.ONE_DAY));
+			
+			// 64 stripes of 12 usable slots each
+			int accepted = 0;
+			for(int index = 0; index < 2000; index++) {
+				if(verifier.verifyNonce("consumer", "nonce-" + index)) {
+					accepted++;
+				}
+			}
+			
+			Assert.assertTrue(accepted <= 64 * 12);
+			Assert.assertTrue(accepted > 64 * 8);
+			verifier.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+}
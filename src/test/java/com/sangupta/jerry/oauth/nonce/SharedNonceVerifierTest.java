@@ -0,0 +1,215 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link SharedNonceVerifier}.
+ * 
+ * @author sangupta
+ *
+ */
+public class SharedNonceVerifierTest {
+	
+	@Test
+	public void testReplayAcrossNodes() {
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		InProcessNonceBackend backend = new InProcessNonceBackend(clock, 0);
+		SharedNonceVerifier first = new SharedNonceVerifier(backend, DateUtils.ONE_HOUR, 16, 1, DateUtils.ONE_MINUTE, 1024, clock);
+		SharedNonceVerifier second = new SharedNonceVerifier(backend, DateUtils.ONE_HOUR, 16, 1, DateUtils.ONE_MINUTE, 1024, clock);
+		
+		try {
+			Assert.assertTrue(first.verifyNonce("consumer", "nonce"));
+			Assert.assertTrue(second.verifyNonce("another", "nonce"));
+			Assert.assertFalse(second.verifyNonce("consumer", "nonce"));
+			
+			// checked before another nonce may take its slot in the lossy cache
+			Assert.assertFalse(verifyLocally(first, "consumer", "nonce"));
+			Assert.assertFalse(first.verifyNonce("another", "nonce"));
+			
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_SECOND);
+			Assert.assertTrue(second.verifyNonce("consumer", "nonce"));
+			Assert.assertFalse(first.verifyNonce("consumer", "nonce"));
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+	
+	@Test
+	public void testPurgeKeepsReinsertedKeys() throws Exception {
+		final ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		final int count = 4096;
+		final boolean[] results = new boolean[count];
+		
+		for(int round = 0; round < 200; round++) {
+			final InProcessNonceBackend backend = new InProcessNonceBackend(clock, 0);
+			
+			// store all keys and let them expire
+			final String[] keys = new String[count];
+			final ConcurrentHashMap<String, Boolean> order = new ConcurrentHashMap<String, Boolean>();
+			for(int index = 0; index < count; index++) {
+				keys[index] = "nonce-" + round + "-" + index;
+				order.put(keys[index], Boolean.TRUE);
+			}
+			backend.setIfAbsent(keys, count, 10, results);
+			clock.advance(20);
+			
+			// store them again, against the order of the purge, so that
+			// both meet somewhere in the middle of the map
+			final List<String> reversed = new ArrayList<String>(order.keySet());
+			Collections.reverse(reversed);
+			
+			final CountDownLatch start = new CountDownLatch(1);
+			final Thread purger = new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+						backend.purgeExpired();
+					} catch(InterruptedException e) {
+						// exit
+					}
+				}
+				
+			};
+			purger.start();
+			
+			final boolean[] stored = new boolean[1];
+			start.countDown();
+			for(String key : reversed) {
+				backend.setIfAbsent(new String[] { key }, 1, DateUtils.ONE_HOUR, stored);
+				Assert.assertTrue(stored[0]);
+			}
+			purger.join();
+			
+			// every key stored again survives the purge, so replays are caught
+			Assert.assertEquals(count, backend.size());
+			backend.setIfAbsent(keys, count, DateUtils.ONE_HOUR, results);
+			for(int index = 0; index < count; index++) {
+				Assert.assertFalse(results[index]);
+			}
+		}
+	}
+	
+	@Test
+	public void testConcurrentBatching() throws Exception {
+		final ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		final InProcessNonceBackend backend = new InProcessNonceBackend(clock, 2);
+		
+		// a generous timeout, the test is about batching and not about a slow backend
+		final long timeout = 30 * DateUtils.ONE_SECOND;
+		final SharedNonceVerifier[] nodes = new SharedNonceVerifier[] {
+			new SharedNonceVerifier(backend, DateUtils.ONE_DAY, SharedNonceVerifier.DEFAULT_MAX_BATCH, SharedNonceVerifier.DEFAULT_DISPATCHERS, timeout, SharedNonceVerifier.DEFAULT_LOCAL_CACHE_SIZE, clock),
+			new SharedNonceVerifier(backend, DateUtils.ONE_DAY, SharedNonceVerifier.DEFAULT_MAX_BATCH, SharedNonceVerifier.DEFAULT_DISPATCHERS, timeout, SharedNonceVerifier.DEFAULT_LOCAL_CACHE_SIZE, clock)
+		};
+		
+		final int threads = 16;
+		final int perThread = 200;
+		final AtomicInteger accepted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		
+		try {
+			for(int thread = 0; thread < threads; thread++) {
+				final SharedNonceVerifier node = nodes[thread % 2];
+				new Thread() {
+					
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for(int index = 0; index < perThread; index++) {
+								if(node.verifyNonce("consumer", "nonce-" + index)) {
+									accepted.incrementAndGet();
+								}
+							}
+						} catch(InterruptedException e) {
+							// exit
+						} finally {
+							done.countDown();
+						}
+					}
+					
+				}.start();
+			}
+			
+			start.countDown();
+			done.await();
+			
+			// each nonce is accepted exactly once across the cluster
+			Assert.assertEquals(perThread, accepted.get());
+			Assert.assertEquals(perThread, backend.size());
+			
+			long roundTrips = nodes[0].getRoundTrips() + nodes[1].getRoundTrips();
+			Assert.assertEquals(roundTrips, backend.getCalls());
+			Assert.assertTrue(roundTrips < threads * perThread);
+		} finally {
+			nodes[0].close();
+			nodes[1].close();
+		}
+	}
+	
+	@Test
+	public void testFailClosed() {
+		SharedNonceVerifier verifier = new SharedNonceVerifier(new NonceBackend() {
+			
+			@Override
+			public void setIfAbsent(String[] keys, int count, long ttlMillis, boolean[] results) throws IOException {
+				throw new IOException("backend down");
+			}
+			
+		});
+		
+		try {
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+			Assert.assertFalse(verifier.verifyNonce("consumer", "nonce"));
+		} finally {
+			verifier.close();
+		}
+		
+		Assert.assertFalse(verifier.verifyNonce("consumer", "other"));
+	}
+	
+	private static boolean verifyLocally(SharedNonceVerifier verifier, String consumerKey, String nonce) {
+		long hits = verifier.getLocalHits();
+		boolean result = verifier.verifyNonce(consumerKey, nonce);
+		Assert.assertEquals(hits + 1, verifier.getLocalHits());
+		return result;
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.nonce;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TokenEncoder} and the nonces generated using it.
+ * 
+ * @author sangupta
+ *
+ */
+public class TokenEncoderTest {
+	
+	@Test
+	public void testBase62() {
+		Assert.assertEquals("00000000000", TokenEncoder.base62(0l));
+		Assert.assertEquals("00000000001", TokenEncoder.base62(1l));
+		Assert.assertEquals("063UfDVRKBz", TokenEncoder.base62(0x0123456789ABCDEFl));
+		Assert.assertEquals("LygHa16AHYF", TokenEncoder.base62(-1l));
+		Assert.assertEquals("00000000001LygHa16AHYF", TokenEncoder.base62(1l, -1l));
+		
+		Assert.assertEquals(0x0123456789ABCDEFl, TokenEncoder.decodeBase62("063UfDVRKBz", 0));
+		Assert.assertEquals(-1l, TokenEncoder.decodeBase62("00000000001LygHa16AHYF", 11));
+		Assert.assertEquals(1l, TokenEncoder.decodeBase62("00000000001LygHa16AHYF", 0));
+		
+		try {
+			TokenEncoder.decodeBase62("LygHa16AHYG", 0);
+			Assert.fail("Overflow not detected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testBase64Url() {
+		byte[] bytes = new byte[] { (byte) 0xFB, (byte) 0xFF, (byte) 0xBF, 0, 1 };
+		Assert.assertEquals("-_-_AAE", TokenEncoder.base64Url(bytes, 0, bytes.length));
+		Assert.assertEquals("-_-_", TokenEncoder.base64Url(bytes, 0, 3));
+		Assert.assertEquals("", TokenEncoder.base64Url(bytes, 0, 0));
+	}
+	
+	@Test
+	public void testUUID() {
+		String value = TokenEncoder.uuid(0x0123456789ABCDEFl, -1l);
+		Assert.assertEquals("01234567-89ab-4def-bfff-ffffffffffff", value);
+		
+		UUID uuid = UUID.fromString(NonceUtils.getUUIDNonce());
+		Assert.assertEquals(4, uuid.version());
+		Assert.assertEquals(2, uuid.variant());
+	}
+	
+	@Test
+	public void testNonceUniqueness() {
+		Set<String> nonces = new HashSet<String>();
+		for(int index = 0; index < 10000; index++) {
+			String nonce = NonceUtils.getNonce();
+			Assert.assertEquals(33, nonce.length());
+			Assert.assertTrue(nonces.add(nonce));
+		}
+		
+		Assert.assertEquals(43, NonceUtils.getRandomToken(32).length());
+	}
+
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.http.WebInvoker;
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.clock.OAuthClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.service.impl.TwitterOAuthServiceImpl;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link OAuth1Signer}.
+ * 
+ * @author sangupta
+ *
+ */
+public class OAuth1SignerTest {
+	
+	@Test
+	public void testBuildAuthorizationHeader() {
+		KeySecretPair consumer = new KeySecretPair("xvz1evFS4wEEPTGEFPHBog", "kAcSOqF21Fu85e7zjz7ZN2U4ZRhfV3WpwPAoE3Z7kBw");
+		KeySecretPair user = new KeySecretPair("370773112-GmHxMAgYyLbNEtIKZeRNFsMKPR9EyMZeS9weJAEb", "LswwdoUaIvS8ltyTt5jkRh4J50vUPVVHtR2YPi5kE");
+		
+		TwitterOAuthServiceImpl service = new TwitterOAuthServiceImpl(consumer);
+		OAuth1Signer signer = service.getSigner();
+		Assert.assertSame(signer, service.getSigner());
+		
+		WebRequest request = WebInvoker.getWebRequest("https://api.twitter.com/1/statuses/update.json?include_entities=true&status=Hello%20Ladies%20%2B%20Gentlemen%2C%20a%20signed%20OAuth%20request%21", WebRequestMethod.POST);
+		String header = signer.buildAuthorizationHeader(request, user, null, "kYjzVBB8Y0ZFabxSWbWovY3uYSQ2pTgmZeNu2VS4cg", "1318622958");
+		
+		Assert.assertEquals("OAuth oauth_consumer_key=\"xvz1evFS4wEEPTGEFPHBog\", oauth_version=\"1.0\", oauth_signature_method=\"HMAC-SHA1\", "
+				+ "oauth_nonce=\"kYjzVBB8Y0ZFabxSWbWovY3uYSQ2pTgmZeNu2VS4cg\", oauth_timestamp=\"1318622958\", "
+				+ "oauth_token=\"370773112-GmHxMAgYyLbNEtIKZeRNFsMKPR9EyMZeS9weJAEb\", oauth_signature=\"tnnArxj06cWHq44gCs1OSKk%2FjLY%3D\"", header);
+	}
+	
+	@Test
+	public void testClockChange() {
+		TwitterOAuthServiceImpl service = new TwitterOAuthServiceImpl(new KeySecretPair("consumer", "secret"));
+		OAuth1Signer signer = service.getSigner();
+		
+		// a new clock means a new signer, and the old one keeps its clock
+		OAuthClock clock = new ManualClock(DateUtils.ONE_DAY);
+		service.setClock(clock);
+		Assert.assertSame(clock, service.getSigner().getClock());
+		Assert.assertSame(service.getSigner(), service.getSigner());
+		Assert.assertTrue(signer.getClock() != clock);
+	}
+
+}
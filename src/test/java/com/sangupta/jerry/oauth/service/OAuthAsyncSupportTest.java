@@ -0,0 +1,175 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link OAuthAsyncSupport}.
+ * 
+ * @author sangupta
+ *
+ */
+public class OAuthAsyncSupportTest {
+	
+	@Test
+	public void testSuccess() throws Exception {
+		final Thread caller = Thread.currentThread();
+		RecordingCallback<String> callback = new RecordingCallback<String>();
+		
+		Future<String> future = OAuthAsyncSupport.submit(new Callable<String>() {
+			
+			@Override
+			public String call() throws Exception {
+				Assert.assertTrue(caller != Thread.currentThread());
+				return "response";
+			}
+			
+		}, null, 5000, callback);
+		
+		Assert.assertEquals("response", future.get(5, TimeUnit.SECONDS));
+		Assert.assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("response", callback.result.get());
+		Assert.assertNull(callback.error.get());
+	}
+	
+	@Test
+	public void testFailure() throws Exception {
+		RecordingCallback<String> callback = new RecordingCallback<String>();
+		final IllegalStateException failure = new IllegalStateException("provider down");
+		
+		Future<String> future = OAuthAsyncSupport.submit(new Callable<String>() {
+			
+			@Override
+			public String call() throws Exception {
+				throw failure;
+			}
+			
+		}, null, 0, callback);
+		
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("Failure not reported");
+		} catch(ExecutionException e) {
+			Assert.assertSame(failure, e.getCause());
+		}
+		
+		Assert.assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		Assert.assertSame(failure, callback.error.get());
+	}
+	
+	@Test
+	public void testDeadline() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		RecordingCallback<String> callback = new RecordingCallback<String>();
+		
+		try {
+			Future<String> future = OAuthAsyncSupport.submit(new Callable<String>() {
+				
+				@Override
+				public String call() throws Exception {
+					release.await();
+					return "late";
+				}
+				
+			}, executor, 50, callback);
+			
+			Assert.assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(callback.error.get() instanceof TimeoutException);
+			Assert.assertNull(callback.result.get());
+			
+			try {
+				future.get();
+				Assert.fail("Deadline not honoured");
+			} catch(ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof TimeoutException);
+			}
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testComplete() throws Exception {
+		RecordingCallback<String> callback = new RecordingCallback<String>();
+		
+		Future<String> future = OAuthAsyncSupport.complete(new Callable<String>() {
+			
+			@Override
+			public String call() throws Exception {
+				return "url";
+			}
+			
+		}, callback);
+		
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals("url", future.get());
+		Assert.assertEquals(0, callback.done.getCount());
+		Assert.assertEquals("url", callback.result.get());
+	}
+	
+	@Test
+	public void testDefaultExecutorIsBounded() {
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) OAuthAsyncSupport.DEFAULT_EXECUTOR;
+		Assert.assertEquals(OAuthAsyncSupport.DEFAULT_THREADS, executor.getMaximumPoolSize());
+		Assert.assertEquals(OAuthAsyncSupport.DEFAULT_QUEUE, executor.getQueue().remainingCapacity() + executor.getQueue().size());
+		Assert.assertTrue(executor.allowsCoreThreadTimeOut());
+	}
+	
+	private static class RecordingCallback<T> implements OAuthCallback<T> {
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		final AtomicReference<T> result = new AtomicReference<T>();
+		
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		
+		@Override
+		public void onSuccess(T result) {
+			this.result.set(result);
+			this.done.countDown();
+		}
+		
+		@Override
+		public void onFailure(Throwable error) {
+			this.error.set(error);
+			this.done.countDown();
+		}
+		
+	}
+
+}
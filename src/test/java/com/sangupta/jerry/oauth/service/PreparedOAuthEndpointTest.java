@@ -0,0 +1,81 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.Test;
+
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.service.impl.TwitterOAuthServiceImpl;
+
+/**
+ * Unit tests for {@link PreparedOAuthEndpoint}.
+ * 
+ * @author sangupta
+ *
+ */
+public class PreparedOAuthEndpointTest {
+	
+	@Test
+	public void testGetSignature() {
+		KeySecretPair consumer = new KeySecretPair("xvz1evFS4wEEPTGEFPHBog", "kAcSOqF21Fu85e7zjz7ZN2U4ZRhfV3WpwPAoE3Z7kBw");
+		KeySecretPair user = new KeySecretPair("370773112-GmHxMAgYyLbNEtIKZeRNFsMKPR9EyMZeS9weJAEb", "LswwdoUaIvS8ltyTt5jkRh4J50vUPVVHtR2YPi5kE");
+		
+		PreparedOAuthEndpoint endpoint = new TwitterOAuthServiceImpl(consumer).prepareEndpoint(WebRequestMethod.POST, "HTTPS://API.Twitter.com/1/statuses/update.json?include_entities=true");
+		
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("status", "Hello Ladies + Gentlemen, a signed OAuth request!"));
+		
+		// signing twice must give the same result from the cached template
+		for(int index = 0; index < 2; index++) {
+			String signature = endpoint.getSignature(user, "kYjzVBB8Y0ZFabxSWbWovY3uYSQ2pTgmZeNu2VS4cg", "1318622958", params);
+			Assert.assertEquals("tnnArxj06cWHq44gCs1OSKk/jLY=", signature);
+		}
+	}
+	
+	@Test
+	public void testFragmentDropped() {
+		TwitterOAuthServiceImpl service = new TwitterOAuthServiceImpl(new KeySecretPair("key", "secret"));
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("q", "oauth"));
+		
+		PreparedOAuthEndpoint endpoint = service.prepareEndpoint(WebRequestMethod.GET, "https://api.example.com/search#results");
+		Assert.assertEquals("https://api.example.com/search", endpoint.getUrl());
+		Assert.assertEquals("https://api.example.com/search?q=oauth", endpoint.newRequest(null, params).getURI().toString());
+		
+		endpoint = service.prepareEndpoint(WebRequestMethod.GET, "https://api.example.com/search?page=2#results");
+		Assert.assertEquals("https://api.example.com/search?page=2&q=oauth", endpoint.newRequest(null, params).getURI().toString());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidURL() {
+		new TwitterOAuthServiceImpl(new KeySecretPair("key", "secret")).prepareEndpoint(WebRequestMethod.GET, "");
+	}
+
+}
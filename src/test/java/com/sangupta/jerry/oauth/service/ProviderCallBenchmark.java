@@ -0,0 +1,190 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.domain.TokenAndUrl;
+import com.sangupta.jerry.oauth.transport.InMemoryOAuthTransport;
+import com.sangupta.jerry.oauth.transport.OAuthResponder;
+
+/**
+ * Compares the throughput of logins against a local stub provider when each
+ * login holds its own platform thread for the round trip, and when the round
+ * trips run on a small pool behind a {@link ProviderCallLimiter}. Not run as
+ * part of the unit tests; run the <code>main</code> method by hand.
+ * 
+ * Arguments, all optional: the number of logins, the latency of the stub
+ * provider in milliseconds, the size of the pool, and the limit of
+ * concurrent round trips.
+ * 
+ * @author sangupta
+ *
+ */
+public class ProviderCallBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		final int logins = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		final int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		final int limit = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		
+		// warm up
+		runThreadPerLogin(new StubProviderService(latency), logins / 10);
+		runPooled(new StubProviderService(latency), logins / 10, poolSize, limit);
+		
+		StubProviderService service = new StubProviderService(latency);
+		long millis = runThreadPerLogin(service, logins);
+		report("thread per login", logins, millis, service.peak.get(), logins);
+		
+		service = new StubProviderService(latency);
+		millis = runPooled(service, logins, poolSize, limit);
+		report("pool of " + poolSize + ", limit " + limit, logins, millis, service.peak.get(), poolSize);
+	}
+	
+	private static long runThreadPerLogin(final StubProviderService service, int logins) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(logins);
+		final List<Thread> threads = new ArrayList<Thread>(logins);
+		final long start = System.nanoTime();
+		
+		for(int index = 0; index < logins; index++) {
+			Thread thread = new Thread(new Runnable() {
+				
+				@Override
+				public void run() {
+					service.getAuthorizationResponse(StubProviderService.TOKEN_AND_URL, "verifier");
+					done.countDown();
+				}
+				
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		
+		done.await();
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		return millis;
+	}
+	
+	private static long runPooled(StubProviderService service, int logins, int poolSize, int limit) throws InterruptedException {
+		service.setCallLimiter(new ProviderCallLimiter(limit, TimeUnit.MINUTES.toMillis(1)));
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		final CountDownLatch done = new CountDownLatch(logins);
+		final OAuthCallback<String> callback = new OAuthCallback<String>() {
+			
+			@Override
+			public void onSuccess(String result) {
+				done.countDown();
+			}
+			
+			@Override
+			public void onFailure(Throwable error) {
+				done.countDown();
+			}
+			
+		};
+		
+		final long start = System.nanoTime();
+		for(int index = 0; index < logins; index++) {
+			service.getAuthorizationResponseAsync(StubProviderService.TOKEN_AND_URL, "verifier", executor, 0, callback);
+		}
+		
+		done.await();
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		executor.shutdown();
+		return millis;
+	}
+	
+	private static void report(String mode, int logins, long millis, int peak, int threads) {
+		System.out.println(String.format("%-24s %6d logins in %6d ms, %8.1f logins/sec, %5d threads, peak %5d provider calls in flight",
+				mode, logins, millis, logins * 1000d / Math.max(1, millis), threads, peak));
+	}
+	
+	/**
+	 * An OAuth 2 service whose provider answers every call after a fixed
+	 * latency, using an {@link InMemoryOAuthTransport}.
+	 * 
+	 */
+	private static class StubProviderService extends OAuth2ServiceImpl {
+		
+		static final TokenAndUrl TOKEN_AND_URL = new TokenAndUrl("http://localhost/login", "http://localhost/callback");
+		
+		final AtomicInteger inFlight = new AtomicInteger();
+		
+		final AtomicInteger peak = new AtomicInteger();
+		
+		StubProviderService(final long latency) {
+			super(new KeySecretPair("client", "secret"));
+			
+			InMemoryOAuthTransport transport = new InMemoryOAuthTransport();
+			transport.respond(WebRequestMethod.GET, getAuthorizationEndPoint(), new OAuthResponder() {
+				
+				@Override
+				public WebResponse respond(WebRequest request) {
+					final int current = inFlight.incrementAndGet();
+					int seen;
+					while(current > (seen = peak.get()) && !peak.compareAndSet(seen, current)) {
+						// retry
+					}
+					
+					try {
+						Thread.sleep(latency);
+					} catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					
+					inFlight.decrementAndGet();
+					return new WebResponse(200, "access_token=token");
+				}
+				
+			});
+			setTransport(transport);
+		}
+		
+		@Override
+		protected String getLoginEndPoint() {
+			return "http://localhost/login";
+		}
+		
+		@Override
+		protected String getAuthorizationEndPoint() {
+			return "http://localhost/token";
+		}
+		
+	}
+
+}
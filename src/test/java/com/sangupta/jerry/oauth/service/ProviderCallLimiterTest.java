@@ -0,0 +1,187 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ProviderCallLimiter}.
+ * 
+ * @author sangupta
+ *
+ */
+public class ProviderCallLimiterTest {
+	
+	@Test
+	public void testLimit() throws Exception {
+		final ProviderCallLimiter limiter = new ProviderCallLimiter(2, 10);
+		
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertEquals(2, limiter.getActiveCount());
+		
+		// no slot frees up in time
+		Assert.assertFalse(limiter.acquire());
+		Assert.assertEquals(1, limiter.getRejectedCount());
+		
+		limiter.release();
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertEquals(2, limiter.getPeakCount());
+		
+		limiter.release();
+		limiter.release();
+		Assert.assertEquals(0, limiter.getActiveCount());
+	}
+	
+	@Test
+	public void testWaitForSlot() throws Exception {
+		final ProviderCallLimiter limiter = new ProviderCallLimiter(1, 5000);
+		Assert.assertTrue(limiter.acquire());
+		
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiter = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				if(limiter.acquire()) {
+					acquired.countDown();
+					limiter.release();
+				}
+			}
+			
+		});
+		waiter.start();
+		
+		Assert.assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+		limiter.release();
+		Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		waiter.join();
+		
+		Assert.assertEquals(0, limiter.getRejectedCount());
+		Assert.assertEquals(1, limiter.getPeakCount());
+	}
+	
+	@Test
+	public void testNoBarging() throws Exception {
+		final ProviderCallLimiter limiter = new ProviderCallLimiter(1, 5000);
+		Assert.assertTrue(limiter.acquire());
+		
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Thread waiter = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				if(limiter.acquire()) {
+					order.add("waiter");
+					limiter.release();
+				}
+			}
+			
+		});
+		waiter.start();
+		
+		long start = System.currentTimeMillis();
+		while(limiter.getWaitingCount() == 0 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(50);
+		
+		// a new call queues behind the waiting one, instead of taking the slot
+		limiter.release();
+		Assert.assertTrue(limiter.acquire());
+		order.add("newcomer");
+		limiter.release();
+		waiter.join();
+		
+		Assert.assertEquals(Arrays.asList("waiter", "newcomer"), order);
+		Assert.assertEquals(0, limiter.getRejectedCount());
+	}
+	
+	@Test
+	public void testBoundedQueue() throws Exception {
+		final ProviderCallLimiter limiter = new ProviderCallLimiter(1, 1, 5000);
+		Assert.assertTrue(limiter.acquire());
+		
+		Thread waiter = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				if(limiter.acquire()) {
+					limiter.release();
+				}
+			}
+			
+		});
+		waiter.start();
+		
+		long start = System.currentTimeMillis();
+		while(limiter.getWaitingCount() == 0 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(1, limiter.getWaitingCount());
+		
+		// the queue is full, rejected without waiting
+		start = System.currentTimeMillis();
+		Assert.assertFalse(limiter.acquire());
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		Assert.assertEquals(1, limiter.getRejectedCount());
+		
+		limiter.release();
+		waiter.join();
+		Assert.assertEquals(0, limiter.getWaitingCount());
+		Assert.assertEquals(0, limiter.getActiveCount());
+	}
+	
+	@Test
+	public void testInvalidArguments() {
+		try {
+			new ProviderCallLimiter(0, 10);
+			Assert.fail("Zero slots accepted");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		
+		try {
+			new ProviderCallLimiter(1, -1, 10);
+			Assert.fail("Negative waiting calls accepted");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		
+		try {
+			new ProviderCallLimiter(1, -1);
+			Assert.fail("Negative timeout accepted");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.domain.TokenAndUrl;
+import com.sangupta.jerry.oauth.service.ProviderCircuitBreaker.State;
+import com.sangupta.jerry.oauth.service.ProviderUnavailableException.Reason;
+import com.sangupta.jerry.oauth.transport.InMemoryOAuthTransport;
+import com.sangupta.jerry.oauth.transport.OAuthResponder;
+
+/**
+ * Unit tests for {@link ProviderCircuitBreaker}.
+ * 
+ * @author sangupta
+ *
+ */
+public class ProviderCircuitBreakerTest {
+	
+	@Test
+	public void testStates() {
+		ManualClock clock = new ManualClock(1000000l);
+		ProviderCircuitBreaker breaker = new ProviderCircuitBreaker(3, 1000, clock);
+		
+		// a success resets the failures in a row
+		failures(breaker, 2);
+		breaker.onSuccess(acquire(breaker));
+		failures(breaker, 2);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		
+		failures(breaker, 1);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		Assert.assertEquals(ProviderCircuitBreaker.REFUSED, breaker.tryAcquire());
+		Assert.assertEquals(1, breaker.getRefusedCount());
+		
+		// a single probe once the open time has passed
+		clock.advance(1000);
+		long probe = acquire(breaker);
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		Assert.assertEquals(ProviderCircuitBreaker.REFUSED, breaker.tryAcquire());
+		
+		// a failed probe opens again
+		breaker.onFailure(probe);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		Assert.assertEquals(2, breaker.getOpenCount());
+		Assert.assertEquals(ProviderCircuitBreaker.REFUSED, breaker.tryAcquire());
+		
+		// a skipped probe lets another call probe
+		clock.advance(1000);
+		breaker.onSkipped(acquire(breaker));
+		probe = acquire(breaker);
+		
+		// a successful probe closes
+		breaker.onSuccess(probe);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		Assert.assertEquals(0, breaker.getFailureCount());
+		acquire(breaker);
+	}
+	
+	@Test
+	public void testLateOutcomes() {
+		ManualClock clock = new ManualClock(1000000l);
+		ProviderCircuitBreaker breaker = new ProviderCircuitBreaker(2, 1000, clock);
+		
+		// a slow call is let through, then the provider fails and the breaker opens
+		final long slow = acquire(breaker);
+		failures(breaker, 2);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		
+		// the late success of the slow call keeps the breaker open
+		breaker.onSuccess(slow);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		Assert.assertEquals(2, breaker.getFailureCount());
+		Assert.assertEquals(ProviderCircuitBreaker.REFUSED, breaker.tryAcquire());
+		
+		// nor does a late outcome decide in place of the probe
+		clock.advance(1000);
+		final long probe = acquire(breaker);
+		breaker.onFailure(slow);
+		breaker.onSuccess(slow);
+		breaker.onSkipped(slow);
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		Assert.assertEquals(ProviderCircuitBreaker.REFUSED, breaker.tryAcquire());
+		
+		// only the probe closes the breaker
+		breaker.onSuccess(probe);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		
+		// and a late failure of the probe does not count once closed
+		breaker.onFailure(probe);
+		breaker.onFailure(probe);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		Assert.assertEquals(0, breaker.getFailureCount());
+	}
+	
+	@Test
+	public void testServiceFailsFast() {
+		ManualClock clock = new ManualClock(1000000l);
+		final AtomicInteger status = new AtomicInteger(503);
+		final AtomicInteger calls = new AtomicInteger();
+		
+		InMemoryOAuthTransport transport = new InMemoryOAuthTransport();
+		transport.respond(WebRequestMethod.GET, "https://provider.example.com/token", new OAuthResponder() {
+			
+			@Override
+			public WebResponse respond(WebRequest request) {
+				calls.incrementAndGet();
+				return new WebResponse(status.get(), "access_token=token");
+			}
+			
+		});
+		
+		TestOAuth2Service service = new TestOAuth2Service();
+		service.setTransport(transport);
+		service.setCircuitBreaker(new ProviderCircuitBreaker(2, 1000, clock));
+		
+		TokenAndUrl tokenAndUrl = new TokenAndUrl("https://provider.example.com/login", "http://localhost/callback");
+		Assert.assertNull(service.getAuthorizationResponse(tokenAndUrl, "code"));
+		Assert.assertNull(service.getAuthorizationResponse(tokenAndUrl, "code"));
+		
+		try {
+			service.getAuthorizationResponse(tokenAndUrl, "code");
+			Assert.fail("Call made to a failing provider");
+		} catch(ProviderUnavailableException e) {
+			Assert.assertEquals(Reason.CIRCUIT_OPEN, e.getReason());
+		}
+		Assert.assertEquals(2, calls.get());
+		
+		// the provider recovers, and the probe closes the breaker
+		status.set(200);
+		clock.advance(1000);
+		Assert.assertEquals("access_token=token", service.getAuthorizationResponse(tokenAndUrl, "code"));
+		Assert.assertEquals(State.CLOSED, service.getCircuitBreaker().getState());
+		Assert.assertEquals(3, calls.get());
+	}
+	
+	@Test
+	public void testServiceBulkhead() {
+		TestOAuth2Service service = new TestOAuth2Service();
+		service.setTransport(new InMemoryOAuthTransport());
+		service.setCircuitBreaker(new ProviderCircuitBreaker(1, 1000));
+		
+		ProviderCallLimiter limiter = new ProviderCallLimiter(1, 0, 0);
+		service.setCallLimiter(limiter);
+		Assert.assertTrue(limiter.acquire());
+		
+		try {
+			service.getAuthorizationResponse(new TokenAndUrl("https://provider.example.com/login", "http://localhost/callback"), "code");
+			Assert.fail("Call made over the bulkhead");
+		} catch(ProviderUnavailableException e) {
+			Assert.assertEquals(Reason.BULKHEAD_FULL, e.getReason());
+		} finally {
+			limiter.release();
+		}
+		
+		// a call refused by the bulkhead is not a failure of the provider
+		Assert.assertEquals(State.CLOSED, service.getCircuitBreaker().getState());
+	}
+	
+	private static void failures(ProviderCircuitBreaker breaker, int count) {
+		for(int index = 0; index < count; index++) {
+			breaker.onFailure(acquire(breaker));
+		}
+	}
+	
+	private static long acquire(ProviderCircuitBreaker breaker) {
+		final long permit = breaker.tryAcquire();
+		Assert.assertTrue(permit != ProviderCircuitBreaker.REFUSED);
+		return permit;
+	}
+	
+	private static class TestOAuth2Service extends OAuth2ServiceImpl {
+		
+		TestOAuth2Service() {
+			super(new KeySecretPair("client", "secret"));
+		}
+		
+		@Override
+		protected String getLoginEndPoint() {
+			return "https://provider.example.com/login";
+		}
+		
+		@Override
+		protected String getAuthorizationEndPoint() {
+			return "https://provider.example.com/token";
+		}
+		
+	}
+
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEvent;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventListener;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link CompactOAuthTokenGenerator}.
+ * 
+ * @author sangupta
+ *
+ */
+public class CompactOAuthTokenGeneratorTest {
+	
+	@Test
+	public void testExpiry() {
+		ManualClock clock = new ManualClock(1000000l);
+		CompactOAuthTokenGenerator generator = new CompactOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, clock);
+		
+		try {
+			KeySecretPair token = generator.generateKeyPair("consumer");
+			Assert.assertEquals(22, token.getKey().length());
+			Assert.assertEquals(22, token.getSecret().length());
+			Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+			Assert.assertNull(generator.getSecret("another", token.getKey()));
+			Assert.assertNull(generator.getSecret("consumer", token.getSecret()));
+			Assert.assertNull(generator.getSecret("consumer", "not a token"));
+			Assert.assertNull(generator.getSecret("consumer", "!!!!!!!!!!!!!!!!!!!!!!"));
+			
+			clock.advance(DateUtils.ONE_HOUR);
+			Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+			
+			clock.advance(DateUtils.ONE_SECOND);
+			Assert.assertNull(generator.getSecret("consumer", token.getKey()));
+			
+			KeySecretPair revoked = generator.generateKeyPair("consumer");
+			Assert.assertFalse(generator.revokeToken("another", revoked.getKey()));
+			Assert.assertTrue(generator.revokeToken("consumer", revoked.getKey()));
+			Assert.assertFalse(generator.revokeToken("consumer", revoked.getKey()));
+			Assert.assertNull(generator.getSecret("consumer", revoked.getKey()));
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testGrowAndCompact() {
+		ManualClock clock = new ManualClock(1000000l);
+		CompactOAuthTokenGenerator generator = new CompactOAuthTokenGenerator(DateUtils.ONE_MINUTE, DateUtils.ONE_HOUR, clock);
+		
+		try {
+			final int count = 100000;
+			List<KeySecretPair> tokens = new ArrayList<KeySecretPair>(count);
+			for(int index = 0; index < count; index++) {
+				tokens.add(generator.generateKeyPair("consumer-" + (index % 10)));
+			}
+			
+			Assert.assertEquals(count, generator.size());
+			Assert.assertTrue(generator.getMemoryUsage() <= count * 40 * 4);
+			
+			for(int index = 0; index < count; index += 7) {
+				KeySecretPair token = tokens.get(index);
+				Assert.assertEquals(token.getSecret(), generator.getSecret("consumer-" + (index % 10), token.getKey()));
+				Assert.assertNull(generator.getSecret("consumer-" + ((index + 1) % 10), token.getKey()));
+			}
+			
+			clock.advance(DateUtils.ONE_MINUTE * 2);
+			generator.cleanUp();
+			Assert.assertEquals(0, generator.size());
+			Assert.assertNull(generator.getSecret("consumer-0", tokens.get(0).getKey()));
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testEvents() {
+		ManualClock clock = new ManualClock(1000000l);
+		CompactOAuthTokenGenerator generator = new CompactOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, clock);
+		StoreEventDispatcher dispatcher = new StoreEventDispatcher();
+		
+		final List<StoreEvent> events = new ArrayList<StoreEvent>();
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				events.addAll(batch);
+			}
+			
+		});
+		generator.setEventDispatcher(dispatcher);
+		
+		KeySecretPair token;
+		try {
+			token = generator.generateKeyPair("consumer");
+			Assert.assertNull(generator.getSecret("another", token.getKey()));
+			Assert.assertTrue(generator.revokeToken("consumer", token.getKey()));
+		} finally {
+			dispatcher.close();
+			generator.close();
+		}
+		
+		Assert.assertEquals(3, events.size());
+		assertEvent(events.get(0), StoreEventType.ISSUED, "consumer", token.getKey());
+		assertEvent(events.get(1), StoreEventType.LOOKUP_MISS, "another", token.getKey());
+		assertEvent(events.get(2), StoreEventType.REVOKED, "consumer", token.getKey());
+		Assert.assertSame(generator, events.get(0).source);
+	}
+	
+	private static void assertEvent(StoreEvent event, StoreEventType type, String consumerKey, String key) {
+		Assert.assertEquals(type, event.type);
+		Assert.assertEquals(consumerKey, event.consumerKey);
+		Assert.assertEquals(key, event.key);
+	}
+
+}
@@ -0,0 +1,313 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEvent;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventListener;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link InMemoryOAuthTokenGenerator}.
+ * 
+ * @author sangupta
+ *
+ */
+public class InMemoryOAuthTokenGeneratorTest {
+	
+	@Test
+	public void testExpiry() {
+		ManualClock clock = new ManualClock(1000000l);
+		InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, clock);
+		
+		KeySecretPair token = generator.generateKeyPair("consumer");
+		Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+		Assert.assertNull(generator.getSecret("another", token.getKey()));
+		
+		clock.advance(DateUtils.ONE_HOUR);
+		Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+		
+		clock.advance(1);
+		Assert.assertNull(generator.getSecret("consumer", token.getKey()));
+		
+		// expired tokens stay expired even if the clock moves back
+		clock.advance(-DateUtils.ONE_HOUR);
+		Assert.assertNull(generator.getSecret("consumer", token.getKey()));
+	}
+
+	@Test
+	public void testCleanUp() {
+		ManualClock clock = new ManualClock(1000000l);
+		InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		
+		for(int index = 0; index < 100; index++) {
+			generator.generateKeyPair("consumer");
+		}
+		
+		clock.advance(DateUtils.ONE_MINUTE * 30);
+		KeySecretPair token = generator.generateKeyPair("consumer");
+		Assert.assertEquals(101, generator.size());
+		
+		clock.advance(DateUtils.ONE_MINUTE * 30);
+		generator.cleanUpOldTokens();
+		Assert.assertEquals(101, generator.size());
+		
+		clock.advance(DateUtils.ONE_MINUTE * 2);
+		generator.cleanUpOldTokens();
+		Assert.assertEquals(1, generator.size());
+		Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+		
+		clock.advance(DateUtils.ONE_MINUTE * 30);
+		generator.cleanUpOldTokens();
+		Assert.assertEquals(0, generator.size());
+	}
+
+	@Test
+	public void testEvents() {
+		ManualClock clock = new ManualClock(1000000l);
+		InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		StoreEventDispatcher dispatcher = new StoreEventDispatcher();
+		
+		final List<StoreEvent> events = new ArrayList<StoreEvent>();
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				events.addAll(batch);
+			}
+			
+		});
+		generator.setEventDispatcher(dispatcher);
+		
+		KeySecretPair first;
+		KeySecretPair second;
+		try {
+			first = generator.generateKeyPair("consumer");
+			second = generator.generateKeyPair("consumer");
+			Assert.assertNull(generator.getSecret("another", first.getKey()));
+			Assert.assertTrue(generator.revokeToken("consumer", first.getKey()));
+			
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_MINUTE);
+			generator.cleanUpOldTokens();
+		} finally {
+			dispatcher.close();
+			generator.close();
+		}
+		
+		Assert.assertEquals(5, events.size());
+		assertEvent(events.get(0), StoreEventType.ISSUED, "consumer", first.getKey());
+		assertEvent(events.get(1), StoreEventType.ISSUED, "consumer", second.getKey());
+		assertEvent(events.get(2), StoreEventType.LOOKUP_MISS, "another", first.getKey());
+		assertEvent(events.get(3), StoreEventType.REVOKED, "consumer", first.getKey());
+		assertEvent(events.get(4), StoreEventType.EXPIRED, "consumer", second.getKey());
+		Assert.assertSame(generator, events.get(0).source);
+	}
+	
+	@Test
+	public void testRevokeAll() {
+		ManualClock clock = new ManualClock(1000000l);
+		InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		
+		try {
+			List<KeySecretPair> tokens = new ArrayList<KeySecretPair>();
+			for(int index = 0; index < 10; index++) {
+				tokens.add(generator.generateKeyPair("compromised"));
+			}
+			KeySecretPair other = generator.generateKeyPair("other");
+			
+			Assert.assertEquals(10, generator.getTokenCount("compromised"));
+			Assert.assertEquals(1, generator.getTokenCount("other"));
+			Assert.assertEquals(2, generator.getConsumerCount());
+			
+			// a single revoke keeps the index in sync
+			Assert.assertTrue(generator.revokeToken("compromised", tokens.get(0).getKey()));
+			Assert.assertEquals(9, generator.getTokenCount("compromised"));
+			
+			Assert.assertEquals(9, generator.revokeAll("compromised"));
+			Assert.assertEquals(0, generator.revokeAll("compromised"));
+			Assert.assertEquals(0, generator.getTokenCount("compromised"));
+			Assert.assertEquals(1, generator.getConsumerCount());
+			Assert.assertEquals(1, generator.size());
+			
+			for(KeySecretPair token : tokens) {
+				Assert.assertNull(generator.getSecret("compromised", token.getKey()));
+			}
+			Assert.assertEquals(other.getSecret(), generator.getSecret("other", other.getKey()));
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testConsumerIndexExpiry() {
+		ManualClock clock = new ManualClock(1000000l);
+		InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		
+		try {
+			generator.generateKeyPair("consumer");
+			KeySecretPair looked = generator.generateKeyPair("consumer");
+			generator.generateKeyPair("another");
+			
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_MINUTE);
+			
+			// removal on lookup
+			Assert.assertNull(generator.getSecret("consumer", looked.getKey()));
+			Assert.assertEquals(1, generator.getTokenCount("consumer"));
+			
+			// removal on clean up
+			generator.cleanUpOldTokens();
+			Assert.assertEquals(0, generator.getTokenCount("consumer"));
+			Assert.assertEquals(0, generator.getTokenCount("another"));
+			Assert.assertEquals(0, generator.getConsumerCount());
+			
+			// the consumer can be indexed again
+			generator.generateKeyPair("consumer");
+			Assert.assertEquals(1, generator.getTokenCount("consumer"));
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testMaxTokensPerConsumer() {
+		ManualClock clock = new ManualClock(1000000l);
+		InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock);
+		generator.setMaxTokensPerConsumer(3);
+		
+		try {
+			KeySecretPair first = generator.generateKeyPair("consumer");
+			generator.generateKeyPair("consumer");
+			generator.generateKeyPair("consumer");
+			
+			try {
+				generator.generateKeyPair("consumer");
+				Assert.fail("Cap on tokens per consumer not honoured");
+			} catch(OAuthTokenStoreException e) {
+				// expected
+			}
+			
+			// other consumers are not affected
+			generator.generateKeyPair("another");
+			Assert.assertEquals(3, generator.getTokenCount("consumer"));
+			
+			// revoking frees a slot
+			Assert.assertTrue(generator.revokeToken("consumer", first.getKey()));
+			generator.generateKeyPair("consumer");
+			
+			// expired tokens free their slots without waiting for a clean up
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_MINUTE);
+			generator.generateKeyPair("consumer");
+			Assert.assertEquals(1, generator.getTokenCount("consumer"));
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testConcurrentConsumerIndex() throws Exception {
+		final InMemoryOAuthTokenGenerator generator = new InMemoryOAuthTokenGenerator(DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, new ManualClock(1000000l));
+		generator.setMaxTokensPerConsumer(4);
+		
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger held = new AtomicInteger();
+		final AtomicInteger overflow = new AtomicInteger();
+		
+		// a token counts as held till its revoke completed, and no check runs
+		// between a revoke and its decrement, so that a slot freed by a revoke
+		// is never counted twice
+		final ReadWriteLock counting = new ReentrantReadWriteLock();
+		
+		for(int thread = 0; thread < threads; thread++) {
+			new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int index = 0; index < 2000; index++) {
+							KeySecretPair token;
+							try {
+								token = generator.generateKeyPair("consumer");
+							} catch(OAuthTokenStoreException e) {
+								continue;
+							}
+							
+							counting.writeLock().lock();
+							try {
+								if(held.incrementAndGet() > 4) {
+									overflow.incrementAndGet();
+								}
+							} finally {
+								counting.writeLock().unlock();
+							}
+							
+							counting.readLock().lock();
+							try {
+								generator.revokeToken("consumer", token.getKey());
+								held.decrementAndGet();
+							} finally {
+								counting.readLock().unlock();
+							}
+						}
+					} catch(InterruptedException e) {
+						// ignore
+					} finally {
+						done.countDown();
+					}
+				}
+				
+			}.start();
+		}
+		
+		start.countDown();
+		done.await();
+		generator.close();
+		
+		// the cap held throughout, and the emptied consumer left the index
+		Assert.assertEquals(0, overflow.get());
+		Assert.assertEquals(0, generator.getTokenCount("consumer"));
+		Assert.assertEquals(0, generator.getConsumerCount());
+	}
+	
+	private static void assertEvent(StoreEvent event, StoreEventType type, String consumerKey, String key) {
+		Assert.assertEquals(type, event.type);
+		Assert.assertEquals(consumerKey, event.consumerKey);
+		Assert.assertEquals(key, event.key);
+	}
+
+}
@@ -0,0 +1,285 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link PersistentOAuthTokenGenerator}.
+ * 
+ * @author sangupta
+ *
+ */
+public class PersistentOAuthTokenGeneratorTest {
+	
+	private static final int SEGMENT_SIZE = PersistentOAuthTokenGenerator.MIN_SEGMENT_SIZE;
+	
+	@Test
+	public void testSurvivesRestart() throws Exception {
+		File directory = newDirectory();
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		
+		try {
+			PersistentOAuthTokenGenerator generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			List<KeySecretPair> tokens = new ArrayList<KeySecretPair>();
+			for(int index = 0; index < 100; index++) {
+				tokens.add(generator.generateKeyPair("consumer-" + (index % 3)));
+			}
+			
+			for(int index = 0; index < 100; index += 10) {
+				Assert.assertTrue(generator.revokeToken("consumer-" + (index % 3), tokens.get(index).getKey()));
+				Assert.assertFalse(generator.revokeToken("consumer-" + (index % 3), tokens.get(index).getKey()));
+			}
+			
+			Assert.assertFalse(generator.revokeToken("consumer-9", tokens.get(1).getKey()));
+			generator.close();
+			
+			try {
+				generator.generateKeyPair("consumer");
+				Assert.fail("Closed generator issued a token");
+			} catch(OAuthTokenStoreException e) {
+				// expected
+			}
+			
+			// a revocation that cannot be logged leaves the token live
+			try {
+				generator.revokeToken("consumer-1", tokens.get(1).getKey());
+				Assert.fail("Closed generator revoked a token");
+			} catch(OAuthTokenStoreException e) {
+				// expected
+			}
+			
+			Assert.assertEquals(tokens.get(1).getSecret(), generator.getSecret("consumer-1", tokens.get(1).getKey()));
+			
+			generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			Assert.assertEquals(110, generator.getRecoveredRecords());
+			Assert.assertEquals(90, generator.size());
+			for(int index = 0; index < 100; index++) {
+				String secret = generator.getSecret("consumer-" + (index % 3), tokens.get(index).getKey());
+				if(index % 10 == 0) {
+					Assert.assertNull(secret);
+				} else {
+					Assert.assertEquals(tokens.get(index).getSecret(), secret);
+				}
+			}
+			
+			// expired tokens are not recovered
+			generator.close();
+			clock.advance(DateUtils.ONE_HOUR + 1);
+			generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			Assert.assertEquals(0, generator.size());
+			generator.close();
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testCompaction() throws Exception {
+		File directory = newDirectory();
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		
+		try {
+			PersistentOAuthTokenGenerator generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			for(int index = 0; index < 1000; index++) {
+				generator.generateKeyPair("consumer");
+			}
+			
+			// these expire before the snapshot
+			clock.advance(DateUtils.ONE_HOUR + 1);
+			List<KeySecretPair> tokens = new ArrayList<KeySecretPair>();
+			for(int index = 0; index < 20; index++) {
+				tokens.add(generator.generateKeyPair("consumer"));
+			}
+			
+			generator.compact();
+			generator.revokeToken("consumer", tokens.get(0).getKey());
+			tokens.add(generator.generateKeyPair("consumer"));
+			generator.close();
+			
+			// 20 snapshot entries and two log records, not the whole history
+			generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			Assert.assertEquals(22, generator.getRecoveredRecords());
+			Assert.assertEquals(20, generator.size());
+			Assert.assertNull(generator.getSecret("consumer", tokens.get(0).getKey()));
+			for(int index = 1; index < tokens.size(); index++) {
+				Assert.assertEquals(tokens.get(index).getSecret(), generator.getSecret("consumer", tokens.get(index).getKey()));
+			}
+			
+			Assert.assertEquals(1, directory.list(new PrefixFilter("snapshot-")).length);
+			generator.close();
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testSweepRequestsCompaction() throws Exception {
+		File directory = newDirectory();
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		
+		try {
+			PersistentOAuthTokenGenerator generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			for(int index = 0; index < 10; index++) {
+				generator.generateKeyPair("consumer");
+			}
+			
+			// the sweep only wakes the compactor, which writes the snapshot
+			Assert.assertTrue(generator.sweep(System.nanoTime() + 5000000L));
+			for(int wait = 0; wait < 500 && directory.list(new PrefixFilter("snapshot-")).length == 0; wait++) {
+				Thread.sleep(10);
+			}
+			
+			Assert.assertEquals(1, directory.list(new PrefixFilter("snapshot-")).length);
+			generator.close();
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testTornRecord() throws Exception {
+		File directory = newDirectory();
+		ManualClock clock = new ManualClock(DateUtils.ONE_DAY);
+		
+		try {
+			PersistentOAuthTokenGenerator generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			KeySecretPair first = generator.generateKeyPair("consumer");
+			KeySecretPair second = generator.generateKeyPair("consumer");
+			generator.close();
+			
+			// corrupt the last byte of the second record
+			File segment = directory.listFiles(new PrefixFilter("log-"))[0];
+			RandomAccessFile file = new RandomAccessFile(segment, "rw");
+			try {
+				int position = 16;
+				file.seek(position);
+				position += 4 + file.readInt() + 4;
+				file.seek(position);
+				position += 4 + file.readInt() + 4;
+				file.seek(position - 1);
+				int value = file.read();
+				file.seek(position - 1);
+				file.write(value ^ 0xff);
+			} finally {
+				file.close();
+			}
+			
+			generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			Assert.assertEquals(first.getSecret(), generator.getSecret("consumer", first.getKey()));
+			Assert.assertNull(generator.getSecret("consumer", second.getKey()));
+			
+			// new records go to a new segment
+			KeySecretPair third = generator.generateKeyPair("consumer");
+			generator.close();
+			
+			generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, clock);
+			Assert.assertEquals(2, generator.size());
+			Assert.assertEquals(third.getSecret(), generator.getSecret("consumer", third.getKey()));
+			generator.close();
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testGroupCommit() throws Exception {
+		File directory = newDirectory();
+		
+		try {
+			final PersistentOAuthTokenGenerator generator = new PersistentOAuthTokenGenerator(directory, DateUtils.ONE_HOUR, DateUtils.ONE_HOUR, SEGMENT_SIZE, new ManualClock(DateUtils.ONE_DAY));
+			final int threads = 8;
+			final int perThread = 200;
+			final CountDownLatch done = new CountDownLatch(threads);
+			
+			for(int thread = 0; thread < threads; thread++) {
+				new Thread() {
+					
+					@Override
+					public void run() {
+						try {
+							for(int index = 0; index < perThread; index++) {
+								generator.generateKeyPair("consumer");
+							}
+						} finally {
+							done.countDown();
+						}
+					}
+					
+				}.start();
+			}
+			
+			done.await();
+			Assert.assertEquals(threads * perThread, generator.size());
+			Assert.assertTrue(generator.getCommitCount() < threads * perThread);
+			generator.close();
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+	
+	private static File newDirectory() throws Exception {
+		File directory = File.createTempFile("token-store", "");
+		directory.delete();
+		directory.mkdirs();
+		return directory;
+	}
+	
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		
+		directory.delete();
+	}
+	
+	private static class PrefixFilter implements java.io.FilenameFilter {
+		
+		private final String prefix;
+		
+		PrefixFilter(String prefix) {
+			this.prefix = prefix;
+		}
+		
+		@Override
+		public boolean accept(File dir, String name) {
+			return name.startsWith(this.prefix);
+		}
+		
+	}
+
+}
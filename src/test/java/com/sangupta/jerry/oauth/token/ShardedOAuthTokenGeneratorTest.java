@@ -0,0 +1,217 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+import com.sangupta.jerry.oauth.clock.ManualClock;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.event.StoreEvent;
+import com.sangupta.jerry.oauth.event.StoreEventDispatcher;
+import com.sangupta.jerry.oauth.event.StoreEventListener;
+import com.sangupta.jerry.oauth.event.StoreEventType;
+import com.sangupta.jerry.util.DateUtils;
+
+/**
+ * Unit tests for {@link ShardedOAuthTokenGenerator}.
+ * 
+ * @author sangupta
+ *
+ */
+public class ShardedOAuthTokenGeneratorTest {
+	
+	@Test
+	public void testExpiryAndStats() {
+		ManualClock clock = new ManualClock(1000000l);
+		ShardedOAuthTokenGenerator generator = new ShardedOAuthTokenGenerator(4, 1000, DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock, ExpiryScheduler.DEFAULT);
+		
+		try {
+			KeySecretPair token = generator.generateKeyPair("consumer");
+			Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+			Assert.assertNull(generator.getSecret("another", token.getKey()));
+			
+			KeySecretPair revoked = generator.generateKeyPair("consumer");
+			Assert.assertTrue(generator.revokeToken("consumer", revoked.getKey()));
+			Assert.assertFalse(generator.revokeToken("consumer", revoked.getKey()));
+			
+			clock.advance(DateUtils.ONE_HOUR + 1);
+			Assert.assertNull(generator.getSecret("consumer", token.getKey()));
+			
+			long issued = 0, hits = 0, misses = 0, expired = 0, revokedCount = 0;
+			for(TokenShardStats stats : generator.getShardStats()) {
+				issued += stats.issued;
+				hits += stats.hits;
+				misses += stats.misses;
+				expired += stats.expired;
+				revokedCount += stats.revoked;
+			}
+			
+			Assert.assertEquals(2, issued);
+			Assert.assertEquals(1, hits);
+			Assert.assertEquals(2, misses);
+			Assert.assertEquals(1, expired);
+			Assert.assertEquals(1, revokedCount);
+			Assert.assertEquals(0, generator.size());
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testCapacity() {
+		ManualClock clock = new ManualClock(1000000l);
+		ShardedOAuthTokenGenerator generator = new ShardedOAuthTokenGenerator(2, 10, DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock, ExpiryScheduler.DEFAULT);
+		
+		try {
+			int rejected = 0;
+			for(int index = 0; index < 40; index++) {
+				try {
+					generator.generateKeyPair("consumer");
+				} catch(OAuthTokenStoreException e) {
+					rejected++;
+				}
+			}
+			
+			// how many land in each shard depends on the hashes of the tokens
+			Assert.assertTrue(rejected >= 20);
+			Assert.assertEquals(40 - rejected, generator.size());
+			for(TokenShardStats stats : generator.getShardStats()) {
+				Assert.assertTrue(stats.size <= 10);
+			}
+			
+			// expired tokens make room
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_MINUTE);
+			for(int index = 0; index < 10; index++) {
+				generator.generateKeyPair("consumer");
+			}
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testResizeOnline() throws Exception {
+		final ShardedOAuthTokenGenerator generator = new ShardedOAuthTokenGenerator(4, Integer.MAX_VALUE);
+		
+		try {
+			final List<KeySecretPair> tokens = new ArrayList<KeySecretPair>();
+			for(int index = 0; index < 20000; index++) {
+				tokens.add(generator.generateKeyPair("consumer"));
+			}
+			
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final AtomicInteger missed = new AtomicInteger();
+			Thread reader = new Thread() {
+				
+				@Override
+				public void run() {
+					int index = 0;
+					while(running.get()) {
+						KeySecretPair token = tokens.get(index++ % tokens.size());
+						if(!token.getSecret().equals(generator.getSecret("consumer", token.getKey()))) {
+							missed.incrementAndGet();
+						}
+					}
+				}
+				
+			};
+			reader.start();
+			
+			generator.resize(7);
+			Assert.assertEquals(7, generator.getShardCount());
+			generator.resize(3);
+			Assert.assertEquals(3, generator.getShardCount());
+			
+			running.set(false);
+			reader.join();
+			
+			Assert.assertEquals(0, missed.get());
+			Assert.assertEquals(tokens.size(), generator.size());
+			for(KeySecretPair token : tokens) {
+				Assert.assertEquals(token.getSecret(), generator.getSecret("consumer", token.getKey()));
+			}
+			
+			// consistent hashing keeps the shards balanced
+			for(TokenShardStats stats : generator.getShardStats()) {
+				Assert.assertTrue(stats.toString(), stats.size > tokens.size() / 6);
+			}
+		} finally {
+			generator.close();
+		}
+	}
+	
+	@Test
+	public void testEvents() {
+		ManualClock clock = new ManualClock(1000000l);
+		ShardedOAuthTokenGenerator generator = new ShardedOAuthTokenGenerator(4, 1000, DateUtils.ONE_HOUR, DateUtils.ONE_MINUTE, clock, ExpiryScheduler.DEFAULT);
+		StoreEventDispatcher dispatcher = new StoreEventDispatcher();
+		
+		final List<StoreEvent> events = new ArrayList<StoreEvent>();
+		dispatcher.addListener(new StoreEventListener() {
+			
+			@Override
+			public void onEvents(List<StoreEvent> batch) {
+				events.addAll(batch);
+			}
+			
+		});
+		generator.setEventDispatcher(dispatcher);
+		
+		KeySecretPair first;
+		KeySecretPair second;
+		try {
+			first = generator.generateKeyPair("consumer");
+			second = generator.generateKeyPair("consumer");
+			Assert.assertNull(generator.getSecret("another", first.getKey()));
+			Assert.assertTrue(generator.revokeToken("consumer", first.getKey()));
+			
+			clock.advance(DateUtils.ONE_HOUR + DateUtils.ONE_MINUTE);
+			Assert.assertTrue(generator.sweep(System.nanoTime() + 1000000000L));
+		} finally {
+			dispatcher.close();
+			generator.close();
+		}
+		
+		Assert.assertEquals(5, events.size());
+		assertEvent(events.get(0), StoreEventType.ISSUED, "consumer", first.getKey());
+		assertEvent(events.get(1), StoreEventType.ISSUED, "consumer", second.getKey());
+		assertEvent(events.get(2), StoreEventType.LOOKUP_MISS, "another", first.getKey());
+		assertEvent(events.get(3), StoreEventType.REVOKED, "consumer", first.getKey());
+		assertEvent(events.get(4), StoreEventType.EXPIRED, "consumer", second.getKey());
+		Assert.assertSame(generator, events.get(0).source);
+	}
+	
+	private static void assertEvent(StoreEvent event, StoreEventType type, String consumerKey, String key) {
+		Assert.assertEquals(type, event.type);
+		Assert.assertEquals(consumerKey, event.consumerKey);
+		Assert.assertEquals(key, event.key);
+	}
+
+}
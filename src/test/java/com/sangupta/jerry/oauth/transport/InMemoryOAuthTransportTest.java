@@ -0,0 +1,109 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
+import com.sangupta.jerry.http.WebResponse;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.domain.TokenAndUrl;
+import com.sangupta.jerry.oauth.service.impl.TwitterOAuthServiceImpl;
+
+/**
+ * Unit tests for {@link InMemoryOAuthTransport}.
+ * 
+ * @author sangupta
+ *
+ */
+public class InMemoryOAuthTransportTest {
+	
+	@Test
+	public void testRespond() {
+		InMemoryOAuthTransport transport = new InMemoryOAuthTransport();
+		transport.respond(WebRequestMethod.GET, "https://provider.example.com/api?ignored=true", new OAuthResponder() {
+			
+			@Override
+			public WebResponse respond(WebRequest request) {
+				return new WebResponse(200, "ok");
+			}
+			
+		});
+		
+		// the query string is not part of the end-point
+		WebRequest request = transport.newRequest("https://provider.example.com/api?page=2", WebRequestMethod.GET);
+		WebResponse response = transport.execute(request);
+		Assert.assertNotNull(response);
+		Assert.assertEquals("ok", response.getContent());
+		
+		// neither another verb nor another path match
+		Assert.assertNull(transport.execute(transport.newRequest("https://provider.example.com/api", WebRequestMethod.POST)));
+		Assert.assertNull(transport.execute(transport.newRequest("https://provider.example.com/other", WebRequestMethod.GET)));
+		Assert.assertEquals(2, transport.getUnmatchedCount());
+		
+		List<WebRequest> requests = transport.getRequests();
+		Assert.assertEquals(3, requests.size());
+		Assert.assertSame(request, requests.get(0));
+		
+		transport.clearRequests();
+		Assert.assertTrue(transport.getRequests().isEmpty());
+	}
+	
+	@Test
+	public void testServiceLogin() {
+		InMemoryOAuthTransport transport = new InMemoryOAuthTransport();
+		transport.respond(WebRequestMethod.POST, "https://api.twitter.com/oauth/request_token", new OAuthResponder() {
+			
+			@Override
+			public WebResponse respond(WebRequest request) {
+				return new WebResponse(200, "oauth_token=request-token&oauth_token_secret=request-secret&oauth_callback_confirmed=true");
+			}
+			
+		});
+		
+		TwitterOAuthServiceImpl service = new TwitterOAuthServiceImpl(new KeySecretPair("consumer", "secret"));
+		service.setTransport(transport);
+		
+		TokenAndUrl tokenAndUrl = service.getLoginURL("http://localhost/callback", null);
+		Assert.assertNotNull(tokenAndUrl);
+		Assert.assertEquals("request-token", tokenAndUrl.token.getKey());
+		Assert.assertEquals("request-secret", tokenAndUrl.token.getSecret());
+		
+		// a single round trip to the provider
+		List<WebRequest> requests = transport.getRequests();
+		Assert.assertEquals(1, requests.size());
+		Assert.assertEquals(WebRequestMethod.POST, requests.get(0).getVerb());
+		
+		try {
+			service.setTransport(null);
+			Assert.fail("Null transport accepted");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
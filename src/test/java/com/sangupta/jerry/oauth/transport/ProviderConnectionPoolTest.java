@@ -0,0 +1,313 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.clock.ExpiryScheduler;
+
+/**
+ * Unit tests for {@link ProviderConnectionPool}.
+ * 
+ * @author sangupta
+ *
+ */
+public class ProviderConnectionPoolTest {
+	
+	@Test
+	public void testSettings() {
+		assertInvalid(null, 10, 2, 1000);
+		assertInvalid("", 10, 2, 1000);
+		assertInvalid("provider", 0, 0, 1000);
+		assertInvalid("provider", 10, -1, 1000);
+		assertInvalid("provider", 10, 11, 1000);
+		assertInvalid("provider", 10, 2, 0);
+	}
+	
+	@Test
+	public void testWarmUpArguments() {
+		ProviderConnectionPool pool = new ProviderConnectionPool("provider", 10, 2, 1000);
+		
+		try {
+			Assert.assertEquals(0, pool.warmUp(null));
+			
+			try {
+				pool.warmUp("ftp://provider.example.com/token");
+				Assert.fail("Non HTTP URL accepted");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+			
+			try {
+				pool.warmUp("/token");
+				Assert.fail("Relative URL accepted");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			pool.close();
+		}
+		
+		// nothing is opened once closed
+		Assert.assertEquals(0, pool.warmUp("https://provider.example.com/token"));
+	}
+	
+	@Test
+	public void testNoIdleConnections() {
+		ProviderConnectionPool pool = new ProviderConnectionPool("provider", 10, 0, 1000);
+		
+		try {
+			Assert.assertEquals(0, pool.warmUp("https://provider.example.com/token"));
+			
+			ConnectionPoolStats stats = pool.getStats();
+			Assert.assertEquals("provider", stats.name);
+			Assert.assertEquals(0, stats.requests);
+			Assert.assertEquals(0, stats.connectionsOpened);
+		} finally {
+			pool.close();
+		}
+	}
+	
+	@Test
+	public void testWarmUpAgainstTlsStub() throws Exception {
+		final KeyStore keyStore = loadKeyStore();
+		final TlsStub stub = new TlsStub(keyStore, false);
+		final ProviderConnectionPool pool = new ProviderConnectionPool("provider", 10, 3, 200, ExpiryScheduler.DEFAULT, clientContext(keyStore));
+		final String url = "https://localhost:" + stub.getPort() + "/token";
+		
+		try {
+			// one full handshake, and the other connections resume its session
+			Assert.assertEquals(3, pool.warmUp(url));
+			ConnectionPoolStats stats = pool.getStats();
+			Assert.assertEquals(3, stats.connectionsOpened);
+			Assert.assertEquals(3, stats.available);
+			Assert.assertEquals(1, stats.fullHandshakes);
+			Assert.assertEquals(2, stats.resumedSessions);
+			Assert.assertEquals(3, stub.getAccepted());
+			
+			// a warm pool opens nothing
+			Assert.assertEquals(0, pool.warmUp(url));
+			Assert.assertEquals(3, pool.getStats().connectionsOpened);
+			
+			// once the idle connections are evicted, a sweep refills the pool
+			Thread.sleep(300);
+			Assert.assertTrue(pool.sweep(System.nanoTime()));
+			for(int wait = 0; wait < 500; wait++) {
+				stats = pool.getStats();
+				if(stats.connectionsOpened == 6 && stats.available == 3) {
+					break;
+				}
+				
+				Thread.sleep(10);
+			}
+			
+			Assert.assertEquals(6, stats.connectionsOpened);
+			Assert.assertEquals(3, stats.available);
+			Assert.assertEquals(1, stats.fullHandshakes);
+			Assert.assertEquals(5, stats.resumedSessions);
+		} finally {
+			pool.close();
+			stub.close();
+		}
+	}
+	
+	@Test
+	public void testWarmUpWithTls13() throws Exception {
+		final KeyStore keyStore = loadKeyStore();
+		if(!TlsStub.supportsTls13()) {
+			return;
+		}
+		
+		final TlsStub stub = new TlsStub(keyStore, true);
+		final ProviderConnectionPool pool = new ProviderConnectionPool("provider", 10, 3, 1000, ExpiryScheduler.DEFAULT, clientContext(keyStore));
+		final String url = "https://localhost:" + stub.getPort() + "/token";
+		
+		try {
+			// no response is read, so no ticket arrives and nothing resumes
+			Assert.assertEquals(3, pool.warmUp(url));
+			ConnectionPoolStats stats = pool.getStats();
+			Assert.assertEquals(3, stats.connectionsOpened);
+			Assert.assertEquals(3, stats.available);
+			Assert.assertEquals(3, stats.fullHandshakes);
+			Assert.assertEquals(0, stats.resumedSessions);
+			Assert.assertEquals(3, stub.getAccepted());
+		} finally {
+			pool.close();
+			stub.close();
+		}
+	}
+	
+	private static KeyStore loadKeyStore() throws Exception {
+		final InputStream stream = ProviderConnectionPoolTest.class.getResourceAsStream("/provider-stub.jks");
+		try {
+			final KeyStore keyStore = KeyStore.getInstance("JKS");
+			keyStore.load(stream, KEYSTORE_PASSWORD);
+			return keyStore;
+		} finally {
+			stream.close();
+		}
+	}
+	
+	private static SSLContext clientContext(KeyStore keyStore) throws Exception {
+		final TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(keyStore);
+		
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, trust.getTrustManagers(), null);
+		return context;
+	}
+	
+	private static void assertInvalid(String name, int maxConnections, int minIdle, long keepAlive) {
+		try {
+			new ProviderConnectionPool(name, maxConnections, minIdle, keepAlive).close();
+			Assert.fail("Invalid settings accepted");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * The password of the self-signed test keystore for <code>localhost</code>
+	 */
+	private static final char[] KEYSTORE_PASSWORD = "jerry-oauth".toCharArray();
+	
+	/**
+	 * A local TLS end-point that completes the handshake of each connection
+	 * and then holds it open till the client closes it. It speaks either
+	 * TLS 1.3 only, or anything but TLS 1.3.
+	 * 
+	 */
+	private static class TlsStub implements Closeable {
+		
+		private static final String TLS_13 = "TLSv1.3";
+		
+		private final SSLServerSocket server;
+		
+		private final List<Socket> sockets = new ArrayList<Socket>();
+		
+		static boolean supportsTls13() throws Exception {
+			return Arrays.asList(SSLContext.getDefault().getSupportedSSLParameters().getProtocols()).contains(TLS_13);
+		}
+		
+		TlsStub(KeyStore keyStore, boolean tls13) throws Exception {
+			final KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			keys.init(keyStore, KEYSTORE_PASSWORD);
+			
+			final SSLContext context = SSLContext.getInstance("TLS");
+			context.init(keys.getKeyManagers(), null, null);
+			context.getServerSessionContext().setSessionCacheSize(16);
+			
+			this.server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+			
+			// without TLS 1.3 sessions resume through the session cache, with
+			// it only through tickets read after the handshake
+			final List<String> protocols = new ArrayList<String>();
+			for(String protocol : this.server.getEnabledProtocols()) {
+				if(TLS_13.equals(protocol) == tls13) {
+					protocols.add(protocol);
+				}
+			}
+			this.server.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
+			
+			final Thread acceptor = new Thread("tls-stub") {
+				
+				@Override
+				public void run() {
+					accept();
+				}
+				
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+		
+		int getPort() {
+			return this.server.getLocalPort();
+		}
+		
+		synchronized int getAccepted() {
+			return this.sockets.size();
+		}
+		
+		private void accept() {
+			while(true) {
+				final Socket socket;
+				try {
+					socket = this.server.accept();
+				} catch(IOException e) {
+					// closed
+					return;
+				}
+				
+				synchronized(this) {
+					this.sockets.add(socket);
+				}
+				
+				final Thread reader = new Thread("tls-stub-connection") {
+					
+					@Override
+					public void run() {
+						try {
+							((SSLSocket) socket).startHandshake();
+							final InputStream stream = socket.getInputStream();
+							while(stream.read() != -1) {
+								// discard till closed
+							}
+						} catch(IOException e) {
+							// closed
+						}
+					}
+					
+				};
+				reader.setDaemon(true);
+				reader.start();
+			}
+		}
+		
+		@Override
+		public synchronized void close() throws IOException {
+			this.server.close();
+			for(Socket socket : this.sockets) {
+				socket.close();
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.util;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.OAuthEncoder;
+import com.sangupta.jerry.util.StringUtils;
+
+/**
+ * Unit test for {@link OAuthEncoder} class.
+ * 
+ * @author sangupta
+ *
+ */
+public class OAuthEncoderTest {
+	
+	@Test
+	public void testEncode() {
+		Assert.assertNull(OAuthEncoder.encode(null));
+		Assert.assertEquals("", OAuthEncoder.encode(""));
+		
+		// unreserved values are returned as-is
+		String nonce = "kYjzVBB8Y0ZFabxSWbWovY3uYSQ2pTgmZeNu2VS4cg";
+		Assert.assertSame(nonce, OAuthEncoder.encode(nonce));
+		Assert.assertSame("a-b.c_d~e", OAuthEncoder.encode("a-b.c_d~e"));
+		
+		Assert.assertEquals("Hello%20Ladies%20%2B%20Gentlemen%2C%20a%20signed%20OAuth%20request%21", OAuthEncoder.encode("Hello Ladies + Gentlemen, a signed OAuth request!"));
+		Assert.assertEquals("An%20encoded%20string%21", OAuthEncoder.encode("An encoded string!"));
+		Assert.assertEquals("Dogs%2C%20Cats%20%26%20Mice", OAuthEncoder.encode("Dogs, Cats & Mice"));
+		Assert.assertEquals("%E2%98%83", OAuthEncoder.encode("\u2603"));
+		Assert.assertEquals("%C3%A9", OAuthEncoder.encode("\u00e9"));
+		Assert.assertEquals("%F0%9F%98%80", OAuthEncoder.encode("\ud83d\ude00"));
+		Assert.assertEquals("abcd%2A", OAuthEncoder.encode("abcd*"));
+	}
+	
+	@Test
+	public void testEncodeToBuilderAndBytes() {
+		String value = "status=Hello Ladies + Gentlemen, \u2603";
+		String expected = OAuthEncoder.encode(value);
+		
+		StringBuilder builder = new StringBuilder("x=");
+		OAuthEncoder.encode(value, builder);
+		Assert.assertEquals("x=" + expected, builder.toString());
+		
+		byte[] bytes = new byte[OAuthEncoder.maxEncodedLength(value.length())];
+		int length = OAuthEncoder.encode(value, 0, value.length(), bytes, 0);
+		Assert.assertEquals(expected, new String(bytes, 0, length, StringUtils.CHARSET_UTF8));
+	}
+
+}
@@ -23,9 +23,16 @@ package com.sangupta.jerry.oauth.util;
 
 import junit.framework.Assert;
 
+import org.apache.http.NameValuePair;
 import org.junit.Test;
 
+import com.sangupta.jerry.http.WebForm;
+import com.sangupta.jerry.http.WebInvoker;
+import com.sangupta.jerry.http.WebRequest;
+import com.sangupta.jerry.http.WebRequestMethod;
 import com.sangupta.jerry.oauth.OAuthUtils;
+import com.sangupta.jerry.oauth.domain.KeySecretPair;
+import com.sangupta.jerry.oauth.domain.OAuthConstants;
 import com.sangupta.jerry.oauth.domain.OAuthSignatureMethod;
 
 /**
@@ -43,5 +50,45 @@ public class OAuthUtilsTest {
 		String signature = OAuthUtils.createSignature(signable, keyString, OAuthSignatureMethod.HMAC_SHA1);
 		Assert.assertEquals("tnnArxj06cWHq44gCs1OSKk/jLY=", signature);
 	}
+	
+	@Test
+	public void testGenerateSignature() {
+		String signable = "POST&https%3A%2F%2Fapi.twitter.com%2F1%2Fstatuses%2Fupdate.json&include_entities%3Dtrue%26oauth_consumer_key%3Dxvz1evFS4wEEPTGEFPHBog%26oauth_nonce%3DkYjzVBB8Y0ZFabxSWbWovY3uYSQ2pTgmZeNu2VS4cg%26oauth_signature_method%3DHMAC-SHA1%26oauth_timestamp%3D1318622958%26oauth_token%3D370773112-GmHxMAgYyLbNEtIKZeRNFsMKPR9EyMZeS9weJAEb%26oauth_version%3D1.0%26status%3DHello%2520Ladies%2520%252B%2520Gentlemen%252C%2520a%2520signed%2520OAuth%2520request%2521";
+		
+		// repeated signatures hit the cached signing key
+		for(int index = 0; index < 3; index++) {
+			String signature = OAuthUtils.generateSignature("kAcSOqF21Fu85e7zjz7ZN2U4ZRhfV3WpwPAoE3Z7kBw", "LswwdoUaIvS8ltyTt5jkRh4J50vUPVVHtR2YPi5kE", signable, OAuthSignatureMethod.HMAC_SHA1);
+			Assert.assertEquals("tnnArxj06cWHq44gCs1OSKk/jLY=", signature);
+		}
+		
+		// a different token secret must not reuse the cached key
+		String signature = OAuthUtils.generateSignature("kAcSOqF21Fu85e7zjz7ZN2U4ZRhfV3WpwPAoE3Z7kBw", "other", signable, OAuthSignatureMethod.HMAC_SHA1);
+		Assert.assertFalse("tnnArxj06cWHq44gCs1OSKk/jLY=".equals(signature));
+	}
+	
+	@Test
+	public void testSignRequest() {
+		WebRequest request = WebInvoker.getWebRequest("https://api.twitter.com/1/statuses/update.json?include_entities=true&status=Hello%20Ladies%20%2B%20Gentlemen%2C%20a%20signed%20OAuth%20request%21", WebRequestMethod.POST);
+		
+		WebForm webForm = WebForm.newForm().addParam(OAuthConstants.CONSUMER_KEY, "xvz1evFS4wEEPTGEFPHBog")
+										   .addParam(OAuthConstants.NONCE, "kYjzVBB8Y0ZFabxSWbWovY3uYSQ2pTgmZeNu2VS4cg")
+										   .addParam(OAuthConstants.SIGNATURE_METHOD, "HMAC-SHA1")
+										   .addParam(OAuthConstants.TIMESTAMP, "1318622958")
+										   .addParam(OAuthConstants.TOKEN, "370773112-GmHxMAgYyLbNEtIKZeRNFsMKPR9EyMZeS9weJAEb")
+										   .addParam(OAuthConstants.VERSION, "1.0");
+		
+		KeySecretPair consumer = new KeySecretPair("xvz1evFS4wEEPTGEFPHBog", "kAcSOqF21Fu85e7zjz7ZN2U4ZRhfV3WpwPAoE3Z7kBw");
+		KeySecretPair user = new KeySecretPair("370773112-GmHxMAgYyLbNEtIKZeRNFsMKPR9EyMZeS9weJAEb", "LswwdoUaIvS8ltyTt5jkRh4J50vUPVVHtR2YPi5kE");
+		OAuthUtils.signRequest(request, consumer, user, OAuthSignatureMethod.HMAC_SHA1, webForm);
+		
+		String signature = null;
+		for(NameValuePair pair : webForm.build()) {
+			if(OAuthConstants.SIGNATURE.equals(pair.getName())) {
+				signature = pair.getValue();
+			}
+		}
+		
+		Assert.assertEquals("tnnArxj06cWHq44gCs1OSKk/jLY=", signature);
+	}
 
 }
@@ -0,0 +1,77 @@
+/**
+ *
+ * jerry-oauth : Common Java OAuth functionality
+ * Copyright (c) 2012-2014, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/jerry-oauth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.jerry.oauth.util;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sangupta.jerry.oauth.ParameterList;
+import com.sangupta.jerry.oauth.signature.SigningBuffer;
+
+/**
+ * Unit test for {@link ParameterList} class.
+ * 
+ * @author sangupta
+ *
+ */
+public class ParameterListTest {
+	
+	@Test
+	public void testParse() {
+		Assert.assertTrue(ParameterList.parse(null).isEmpty());
+		Assert.assertTrue(ParameterList.parse("").isEmpty());
+		Assert.assertTrue(ParameterList.parse("&&").isEmpty());
+		
+		ParameterList list = ParameterList.parse("?b=2&a=1&a=0&flag&c=%20x+y%E2%98%83&&d=&e=1=2&f=%zz");
+		Assert.assertEquals(8, list.size());
+		
+		String[] names = { "a", "a", "b", "c", "d", "e", "f", "flag" };
+		String[] values = { "0", "1", "2", " x y☃", "", "1=2", "%zz", "" };
+		for(int index = 0; index < names.length; index++) {
+			Assert.assertEquals(names[index], list.getName(index));
+			Assert.assertEquals(values[index], list.getValue(index));
+		}
+		
+		Assert.assertEquals("0", list.get("a"));
+		Assert.assertEquals(2, list.getAll("a").size());
+		Assert.assertEquals("", list.get("flag"));
+		Assert.assertNull(list.get("missing"));
+		Assert.assertTrue(list.getAll("missing").isEmpty());
+	}
+	
+	@Test
+	public void testNormalizedForSigning() {
+		SigningBuffer buffer = SigningBuffer.get();
+		ParameterList.parse("b=%7e+x&a=%2a&flag").addTo(buffer);
+		buffer.appendParameters();
+		Assert.assertEquals("a%3D%252A%26b%3D~%2520x%26flag%3D", buffer.toString());
+		
+		// parsing straight into the buffer gives the same bytes
+		String expected = buffer.toString();
+		buffer = SigningBuffer.get();
+		buffer.addRawParameters("b=%7e+x&a=%2a&flag");
+		buffer.appendParameters();
+		Assert.assertEquals(expected, buffer.toString());
+	}
+
+}